@@ -0,0 +1,65 @@
+package com.github.astefanich.broker.book;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import edu.uw.ext.framework.broker.OrderQueue;
+import edu.uw.ext.framework.order.Order;
+
+/**
+ * An order processor which can accept a whole batch of dispatched orders at once. Order queues
+ * drain every dispatchable order under a single lock acquisition, and hand the batch to a
+ * processor of this type in one call; plain {@link Consumer}s are called once per order.
+ * 
+ * @param <E>
+ *            Elements: the type of order(s) being processed
+ * 
+ * @author AndrewStefanich
+ * @see OrderQueue#setOrderProcessor(Consumer)
+ */
+@FunctionalInterface
+public interface BatchOrderProcessor<E extends Order> extends Consumer<E> {
+
+	/**
+	 * Processes a batch of orders, in dispatch order.
+	 * 
+	 * @param orders
+	 *            the dispatched orders, never empty
+	 */
+	void acceptAll(List<E> orders);
+
+	/**
+	 * Processes a single order, as a batch of one.
+	 * 
+	 * @param order
+	 *            the dispatched order
+	 */
+	@Override
+	default void accept(final E order) {
+		acceptAll(Collections.singletonList(order));
+	}
+
+	/**
+	 * Hands a batch of dispatched orders to a processor; in one call if it is a
+	 * {@code BatchOrderProcessor}, otherwise one order at a time. If there is no processor
+	 * registered, the orders are simply dropped.
+	 * 
+	 * @param processor
+	 *            the processor, may be {@code null}
+	 * @param orders
+	 *            the dispatched orders
+	 */
+	static <E extends Order> void process(final Consumer<E> processor, final List<E> orders) {
+		if (processor == null || orders.isEmpty()) {
+			return;
+		}
+		if (processor instanceof BatchOrderProcessor) {
+			((BatchOrderProcessor<E>) processor).acceptAll(orders);
+		} else {
+			for (E order : orders) {
+				processor.accept(order);
+			}
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.github.astefanich.broker.book;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Schedules a drain task on an {@link Executor} such that at most one instance of the task is
+ * queued or running at any time. A dispatch request which arrives while a drain is pending only
+ * marks it dirty; the running drain then makes one more pass before it finishes, so no request is
+ * lost.
+ * 
+ * @author AndrewStefanich
+ * @see PriceLevelOrderQueue
+ * @see PrimitiveOrderQueue
+ */
+public final class CoalescingDispatcher implements Runnable {
+
+	/** executor the drain task is submitted to */
+	private final Executor threadPool;
+
+	/** the drain task */
+	private final Runnable drainTask;
+
+	/** dispatch requests since the drain task last checked, 0 when no drain is pending */
+	private final AtomicInteger pendingRequests = new AtomicInteger();
+
+	/** number of dispatch requests absorbed by an already pending drain */
+	private final AtomicLong coalescedCount = new AtomicLong();
+
+	/**
+	 * Constructs a CoalescingDispatcher.
+	 * 
+	 * @param threadPool
+	 *            the executor to run the drain task on
+	 * @param drainTask
+	 *            the task which drains the queue
+	 */
+	public CoalescingDispatcher(final Executor threadPool, final Runnable drainTask) {
+		this.threadPool = threadPool;
+		this.drainTask = drainTask;
+	}
+
+	/**
+	 * Requests a drain. Submits the drain task if none is pending, otherwise marks the pending
+	 * drain dirty.
+	 */
+	public void requestDispatch() {
+		if (pendingRequests.getAndIncrement() == 0) {
+			try {
+				threadPool.execute(this);
+			} catch (final RejectedExecutionException e) {
+				pendingRequests.set(0); //executor is shut down, nothing is pending
+				throw e;
+			}
+		} else {
+			coalescedCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Runs the drain task until no dispatch request arrived during the last pass.
+	 */
+	@Override
+	public void run() {
+		try {
+			int seen = pendingRequests.get();
+			drainTask.run();
+			while (!pendingRequests.compareAndSet(seen, 0)) { //requests arrived during the pass
+				seen = pendingRequests.get();
+				drainTask.run();
+			}
+		} catch (final RuntimeException e) {
+			pendingRequests.set(0); //allow the next request to schedule a fresh drain
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the number of dispatch requests which were absorbed by an already pending drain, rather
+	 * than submitting a task of their own.
+	 * 
+	 * @return the coalesced dispatch count
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+}
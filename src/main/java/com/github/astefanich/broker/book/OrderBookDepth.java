@@ -0,0 +1,132 @@
+package com.github.astefanich.broker.book;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+import edu.uw.ext.framework.order.PricedOrder;
+
+/**
+ * Tracks the depth (orders and shares per price) of one side of a stock's stop order book,
+ * incrementally, as orders are queued and dispatched. Levels are held as immutable
+ * {@link PriceLevelDepth}s in a concurrent skip list, replaced atomically on each change, so
+ * taking a snapshot is a lock-free walk over the populated levels which never blocks, or is
+ * blocked by, the order queue.
+ * <br>
+ * Orders are counted when passed to {@link #added(PricedOrder)}, and uncounted when dispatched
+ * through a processor wrapped by {@link #tracking(Consumer)}.
+ *
+ * @param <E>
+ *            Elements: the type of order tracked
+ * @author AndrewStefanich
+ * @see OrderBookSnapshot
+ */
+public final class OrderBookDepth<E extends PricedOrder> {
+
+	/** ticker symbol of the stock */
+	private final String ticker;
+
+	/** populated levels by price, in dispatch order */
+	private final ConcurrentNavigableMap<Integer, PriceLevelDepth> levels;
+
+	/**
+	 * Constructs an OrderBookDepth.
+	 *
+	 * @param ticker
+	 *            ticker symbol of the stock
+	 * @param ascending
+	 *            true if the lowest priced orders are dispatched first (stop buys), false for the
+	 *            highest (stop sells)
+	 */
+	public OrderBookDepth(final String ticker, final boolean ascending) {
+		this.ticker = ticker;
+		this.levels = new ConcurrentSkipListMap<Integer, PriceLevelDepth>(
+				ascending ? Comparator.<Integer>naturalOrder() : Comparator.<Integer>reverseOrder());
+	}
+
+	/**
+	 * Counts an order being queued. Should be called before the order is enqueued, as enqueueing
+	 * may dispatch it immediately.
+	 *
+	 * @param order
+	 *            the order
+	 */
+	public void added(final E order) {
+		adjust(order.getPrice(), 1, order.getNumberOfShares());
+	}
+
+	/**
+	 * Uncounts a dispatched order.
+	 *
+	 * @param order
+	 *            the order
+	 */
+	public void removed(final E order) {
+		adjust(order.getPrice(), -1, -order.getNumberOfShares());
+	}
+
+	/**
+	 * Replaces the level for a price with one reflecting the change, removing it once empty.
+	 *
+	 * @param price
+	 *            price of the level
+	 * @param orders
+	 *            change in the number of orders
+	 * @param shares
+	 *            change in the number of shares
+	 */
+	private void adjust(final int price, final int orders, final long shares) {
+		levels.compute(price, (key, level) -> {
+			final int orderCount = (level == null ? 0 : level.getOrderCount()) + orders;
+			final long levelShares = (level == null ? 0 : level.getShares()) + shares;
+			return orderCount == 0 ? null : new PriceLevelDepth(price, orderCount, levelShares);
+		});
+	}
+
+	/**
+	 * Wraps an order processor, so that the orders dispatched to it are uncounted first. Batches
+	 * are passed on as batches.
+	 *
+	 * @param processor
+	 *            the processor to wrap, may be {@code null}
+	 * @return the wrapping processor
+	 */
+	public BatchOrderProcessor<E> tracking(final Consumer<E> processor) {
+		return (orders) -> {
+			for (E order : orders) {
+				removed(order);
+			}
+			BatchOrderProcessor.process(processor, orders);
+		};
+	}
+
+	/**
+	 * Takes a snapshot of the current depth, in O(levels).
+	 *
+	 * @return the snapshot
+	 */
+	public OrderBookSnapshot snapshot() {
+		return new OrderBookSnapshot(ticker, new ArrayList<PriceLevelDepth>(levels.values()));
+	}
+
+	/**
+	 * Takes a snapshot of the first levels to be dispatched, without walking the rest.
+	 *
+	 * @param count
+	 *            the maximum number of levels
+	 * @return the snapshot, totals cover only the included levels
+	 */
+	public OrderBookSnapshot snapshot(final int count) {
+		final List<PriceLevelDepth> top = new ArrayList<PriceLevelDepth>(Math.max(count, 0));
+		for (PriceLevelDepth level : levels.values()) {
+			if (top.size() >= count) {
+				break;
+			}
+			top.add(level);
+		}
+		return new OrderBookSnapshot(ticker, top);
+	}
+}
@@ -0,0 +1,121 @@
+package com.github.astefanich.broker.book;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable, point-in-time view of the depth of one side of a stock's stop order book; one
+ * {@link PriceLevelDepth} per populated price, in dispatch order (the level which will be
+ * dispatched first, first).
+ *
+ * @author AndrewStefanich
+ * @see OrderBookDepth
+ */
+public final class OrderBookSnapshot {
+
+	/** ticker symbol of the stock */
+	private final String ticker;
+
+	/** the populated levels, in dispatch order */
+	private final List<PriceLevelDepth> levels;
+
+	/** number of orders over all levels */
+	private final int orderCount;
+
+	/** shares over all levels */
+	private final long totalShares;
+
+	/** value of the orders over all levels */
+	private final long totalNotional;
+
+	/**
+	 * Constructs an OrderBookSnapshot, totalling the levels.
+	 *
+	 * @param ticker
+	 *            ticker symbol of the stock
+	 * @param levels
+	 *            the populated levels, in dispatch order; not copied
+	 */
+	OrderBookSnapshot(final String ticker, final List<PriceLevelDepth> levels) {
+		this.ticker = ticker;
+		this.levels = Collections.unmodifiableList(levels);
+		int count = 0;
+		long shares = 0;
+		long notional = 0;
+		for (PriceLevelDepth level : levels) {
+			count += level.getOrderCount();
+			shares += level.getShares();
+			notional += level.getNotional();
+		}
+		this.orderCount = count;
+		this.totalShares = shares;
+		this.totalNotional = notional;
+	}
+
+	/**
+	 * Gets the ticker symbol of the stock.
+	 *
+	 * @return the ticker symbol
+	 */
+	public String getTicker() {
+		return ticker;
+	}
+
+	/**
+	 * Gets every populated level, in dispatch order.
+	 *
+	 * @return unmodifiable list of the levels
+	 */
+	public List<PriceLevelDepth> getLevels() {
+		return levels;
+	}
+
+	/**
+	 * Gets the first levels to be dispatched.
+	 *
+	 * @param count
+	 *            the maximum number of levels
+	 * @return unmodifiable list of at most count levels, in dispatch order
+	 */
+	public List<PriceLevelDepth> topLevels(final int count) {
+		return levels.subList(0, Math.min(Math.max(count, 0), levels.size()));
+	}
+
+	/**
+	 * Gets the number of orders in the book.
+	 *
+	 * @return the order count
+	 */
+	public int getOrderCount() {
+		return orderCount;
+	}
+
+	/**
+	 * Gets the shares of all orders in the book.
+	 *
+	 * @return the shares
+	 */
+	public long getTotalShares() {
+		return totalShares;
+	}
+
+	/**
+	 * Gets the value of all orders in the book; the sum of price times shares over the levels.
+	 *
+	 * @return the notional value
+	 */
+	public long getTotalNotional() {
+		return totalNotional;
+	}
+
+	/**
+	 * String representation of this snapshot.
+	 *
+	 * @return ticker, totals and levels
+	 */
+	@Override
+	public String toString() {
+		return String.format("%s: %d orders, %d shares, notional %d %s", ticker, orderCount, totalShares,
+				totalNotional, levels);
+	}
+}
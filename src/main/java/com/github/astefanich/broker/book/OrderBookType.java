@@ -0,0 +1,29 @@
+package com.github.astefanich.broker.book;
+
+import edu.uw.ext.framework.broker.OrderQueue;
+
+/**
+ * The storage used by an order manager's stop order queues. Selected through the broker
+ * factories (e.g. as a bean property in {@code context.xml}).
+ * 
+ * @author AndrewStefanich
+ * @see OrderQueue
+ */
+public enum OrderBookType {
+
+	/** orders are kept in a {@code TreeSet}, sorted by the order manager's comparators (default) */
+	TREE_SET,
+
+	/**
+	 * orders are kept in a {@code TreeSet}, as for {@link #TREE_SET}, but each dispatch drains every
+	 * dispatchable order under one lock acquisition and hands them on as one batch, see
+	 * {@link RangeDrain}
+	 */
+	TREE_SET_BULK,
+
+	/** orders are kept in per-price FIFO levels, see {@link PriceLevelOrderQueue} */
+	PRICE_LEVEL,
+
+	/** orders are chained through primitive slot arrays in per-price levels, see {@link PrimitiveOrderQueue} */
+	PRIMITIVE;
+}
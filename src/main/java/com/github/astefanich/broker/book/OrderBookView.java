@@ -0,0 +1,27 @@
+package com.github.astefanich.broker.book;
+
+import edu.uw.ext.framework.broker.OrderManager;
+
+/**
+ * An {@link OrderManager} which reports the depth of its stop order book. Snapshots are kept up
+ * to date incrementally, so reading one does not lock, or wait on, the order queues.
+ *
+ * @author AndrewStefanich
+ * @see OrderBookDepth
+ */
+public interface OrderBookView {
+
+	/**
+	 * Gets a snapshot of the resting stop buy orders.
+	 *
+	 * @return the stop buy depth, lowest price first
+	 */
+	OrderBookSnapshot getStopBuyDepth();
+
+	/**
+	 * Gets a snapshot of the resting stop sell orders.
+	 *
+	 * @return the stop sell depth, highest price first
+	 */
+	OrderBookSnapshot getStopSellDepth();
+}
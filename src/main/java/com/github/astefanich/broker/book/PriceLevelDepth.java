@@ -0,0 +1,81 @@
+package com.github.astefanich.broker.book;
+
+/**
+ * Immutable summary of the orders resting at one price in an order book.
+ *
+ * @author AndrewStefanich
+ * @see OrderBookSnapshot
+ */
+public final class PriceLevelDepth {
+
+	/** price of the level */
+	private final int price;
+
+	/** number of orders at the price */
+	private final int orderCount;
+
+	/** total shares of the orders at the price */
+	private final long shares;
+
+	/**
+	 * Constructs a PriceLevelDepth.
+	 *
+	 * @param price
+	 *            price of the level
+	 * @param orderCount
+	 *            number of orders at the price
+	 * @param shares
+	 *            total shares of the orders at the price
+	 */
+	PriceLevelDepth(final int price, final int orderCount, final long shares) {
+		this.price = price;
+		this.orderCount = orderCount;
+		this.shares = shares;
+	}
+
+	/**
+	 * Gets the price of the level.
+	 *
+	 * @return the price
+	 */
+	public int getPrice() {
+		return price;
+	}
+
+	/**
+	 * Gets the number of orders at the price.
+	 *
+	 * @return the order count
+	 */
+	public int getOrderCount() {
+		return orderCount;
+	}
+
+	/**
+	 * Gets the total shares of the orders at the price.
+	 *
+	 * @return the shares
+	 */
+	public long getShares() {
+		return shares;
+	}
+
+	/**
+	 * Gets the value of the orders at the price; price times shares.
+	 *
+	 * @return the notional value
+	 */
+	public long getNotional() {
+		return price * shares;
+	}
+
+	/**
+	 * String representation of this level.
+	 *
+	 * @return price, order count and shares
+	 */
+	@Override
+	public String toString() {
+		return String.format("%d x %d (%d orders)", price, shares, orderCount);
+	}
+}
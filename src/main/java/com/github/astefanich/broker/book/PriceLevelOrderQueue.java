@@ -0,0 +1,398 @@
+package com.github.astefanich.broker.book;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+
+import edu.uw.ext.framework.broker.OrderQueue;
+import edu.uw.ext.framework.order.PricedOrder;
+
+/**
+ * An {@link OrderQueue} implementation which groups {@link PricedOrder}s into per-price FIFO
+ * levels, held in an array indexed by price. The populated levels are tracked in a bitmap, so the
+ * best level is found with a word-at-a-time scan rather than by walking a sorted tree, and
+ * enqueueing and dispatching an order is near constant time. Orders resting at the same price are
+ * dispatched in the order they arrived.
+ * <br>
+ * The array covers a window of at most {@value #MAX_LEVELS} prices. Orders priced outside the
+ * window (outliers) are kept in a sparse {@link TreeMap} of levels instead, so a stray price does
+ * not allocate, or scan, every level between it and the rest of the book. The window is recentered
+ * on the next order's price whenever it empties.
+ * <br>
+ * Dispatching runs on the calling thread, or, if the queue is given an {@link Executor}, on that
+ * executor through a {@link CoalescingDispatcher}.
+ *
+ * @param <E>
+ *            Elements: the type of order(s) to be contained within the queue
+ *
+ * @author AndrewStefanich
+ *
+ * @see OrderQueue
+ * @see OrderBookType
+ */
+public final class PriceLevelOrderQueue<E extends PricedOrder> implements OrderQueue<Integer, E> {
+
+	/** number of price levels allocated when the window is (re)centered */
+	private static final int INITIAL_LEVELS = 64;
+
+	/** the most price levels the window may grow to, prices beyond it are outliers */
+	private static final int MAX_LEVELS = 1 << 16;
+
+	/** per-price FIFO levels of the window, index 0 holds the orders priced at basePrice */
+	private ArrayDeque<E>[] levels;
+
+	/** indices of the non-empty window levels */
+	private final BitSet populated = new BitSet();
+
+	/** levels of the orders priced outside the window, by price */
+	private final TreeMap<Integer, ArrayDeque<E>> outliers = new TreeMap<Integer, ArrayDeque<E>>();
+
+	/** price of the orders held at index 0; a long, so prices near the int bounds do not overflow */
+	private long basePrice;
+
+	/** number of orders in the queue */
+	private int size;
+
+	/** true if the lowest priced level is dispatched first, false for the highest */
+	private final boolean ascending;
+
+	/** threshold object, for use in determining dispatchability */
+	private Integer threshold;
+
+	/** The order processor */
+	private volatile Consumer<E> orderProcessor;
+
+	/** Filter to control dispatching of orders */
+	private final BiPredicate<Integer, E> dispatchFilter;
+
+	/** lock for concurrent operations on the levels */
+	private final Lock levelLock = new ReentrantLock();
+
+	/** runs dispatches on the executor, null if dispatching runs on the calling thread */
+	private final CoalescingDispatcher dispatcher;
+
+	/**
+	 * Constructs a PriceLevelOrderQueue. The filter must pass either every order up to the
+	 * threshold price (ascending) or every order down to it (descending), as the order manager's
+	 * stop filters do.
+	 *
+	 * @param threshold
+	 *            the initial threshold for dispatchability
+	 * @param filter
+	 *            the dispatch filter used to control dispatching from the queue
+	 * @param ascending
+	 *            true to dispatch the lowest priced orders first, false for the highest
+	 */
+	public PriceLevelOrderQueue(final int threshold, final BiPredicate<Integer, E> filter, final boolean ascending) {
+		this(threshold, filter, ascending, null);
+	}
+
+	/**
+	 * Constructs a PriceLevelOrderQueue which dispatches on an executor. At most one dispatch is
+	 * pending or running at a time.
+	 *
+	 * @param threshold
+	 *            the initial threshold for dispatchability
+	 * @param filter
+	 *            the dispatch filter used to control dispatching from the queue
+	 * @param ascending
+	 *            true to dispatch the lowest priced orders first, false for the highest
+	 * @param dispatchExecutor
+	 *            the executor to dispatch orders on, null to dispatch on the calling thread
+	 */
+	public PriceLevelOrderQueue(final int threshold, final BiPredicate<Integer, E> filter, final boolean ascending,
+			final Executor dispatchExecutor) {
+		this.threshold = threshold;
+		this.dispatchFilter = filter;
+		this.ascending = ascending;
+		this.dispatcher = dispatchExecutor == null ? null
+				: new CoalescingDispatcher(dispatchExecutor, this::drainAndProcess);
+	}
+
+	/**
+	 * Adds the specified order to its price level. Subsequent to adding the order, this method
+	 * will dispatch any dispatchable orders.
+	 *
+	 * @param order
+	 *            the order to be added to the queue.
+	 */
+	@Override
+	public void enqueue(final E order) {
+		levelLock.lock();
+		try {
+			levelFor(order.getPrice()).addLast(order);
+			size++;
+		} finally {
+			levelLock.unlock();
+		}
+		dispatchOrders();
+	}
+
+	/**
+	 * Removes the oldest order of the best price level, if it is dispatchable. If there are orders,
+	 * but they do not meet dispatch criteria, the order is not removed and {@code null} is
+	 * returned.
+	 *
+	 * @return the first dispatchable order in the queue; {@code null} if there are no dispatchable
+	 *         orders in the queue.
+	 */
+	@Override
+	public E dequeue() {
+		levelLock.lock();
+		try {
+			final ArrayDeque<E> level = bestLevel();
+			if (level == null || !dispatchFilter.test(threshold, level.peekFirst())) {
+				return null;
+			}
+			final E order = level.pollFirst();
+			size--;
+			if (level.isEmpty()) {
+				releaseLevel(order.getPrice(), level);
+			}
+			return order;
+		} finally {
+			levelLock.unlock();
+		}
+	}
+
+	/**
+	 * Executes the callback for each dispatchable order, on the calling thread or on the dispatch
+	 * executor. Every crossed price level is removed from the queue under one lock acquisition and
+	 * passed to the callback, as a single batch if the callback is a {@link BatchOrderProcessor}.
+	 * If there is no callback/orderprocessor registered, the orders are simply removed from the
+	 * queue.
+	 */
+	@Override
+	public void dispatchOrders() {
+		if (dispatcher == null) {
+			drainAndProcess();
+		} else {
+			dispatcher.requestDispatch();
+		}
+	}
+
+	/**
+	 * Drains the dispatchable levels and passes them to the callback until none remain.
+	 */
+	private void drainAndProcess() {
+		List<E> batch = null;
+		while (!(batch = drainLevels()).isEmpty()) {
+			BatchOrderProcessor.process(orderProcessor, batch);
+		}
+	}
+
+	/**
+	 * Removes every dispatchable level, whole, from the best end of the queue. Since all orders
+	 * of a level share a price, the filter is only tested once per level.
+	 * 
+	 * @return the dispatchable orders, in dispatch order; empty if there are none
+	 */
+	private List<E> drainLevels() {
+		levelLock.lock();
+		try {
+			ArrayDeque<E> level = bestLevel();
+			if (level == null || !dispatchFilter.test(threshold, level.peekFirst())) {
+				return Collections.emptyList();
+			}
+			final List<E> batch = new ArrayList<E>();
+			do {
+				final int price = level.peekFirst().getPrice();
+				batch.addAll(level);
+				size -= level.size();
+				level.clear();
+				releaseLevel(price, level);
+				level = bestLevel();
+			} while (level != null && dispatchFilter.test(threshold, level.peekFirst()));
+			return batch;
+		} finally {
+			levelLock.unlock();
+		}
+	}
+
+	/**
+	 * Registers the callback to be used for order processing.
+	 *
+	 * @param proc
+	 *            the callback to be registerd.
+	 */
+	@Override
+	public void setOrderProcessor(final Consumer<E> proc) {
+		this.orderProcessor = proc;
+	}
+
+	/**
+	 * Adjusts the threshold and dispatches orders.
+	 *
+	 * @param threshold
+	 *            the new threshold.
+	 */
+	@Override
+	public void setThreshold(final Integer threshold) {
+		levelLock.lock();
+		try {
+			this.threshold = threshold;
+		} finally {
+			levelLock.unlock();
+		}
+		dispatchOrders();
+	}
+
+	/**
+	 * Obtains the current threshold value.
+	 *
+	 * @return the current threshold.
+	 */
+	@Override
+	public Integer getThreshold() {
+		levelLock.lock();
+		try {
+			return threshold;
+		} finally {
+			levelLock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the level for a price, creating it if needed. Prices which are already held as
+	 * outliers stay outliers until their level empties, so a level never has two queues. Must be
+	 * called while holding the level lock.
+	 *
+	 * @param price
+	 *            the order price
+	 * @return the level for the price
+	 */
+	private ArrayDeque<E> levelFor(final int price) {
+		ArrayDeque<E> level = outliers.get(price);
+		if (level != null) {
+			return level;
+		}
+		final int index = levelIndex(price);
+		if (index < 0) {
+			level = new ArrayDeque<E>();
+			outliers.put(price, level);
+			return level;
+		}
+		level = levels[index];
+		if (level == null) { //window levels are created on first use, and kept once emptied
+			level = new ArrayDeque<E>();
+			levels[index] = level;
+		}
+		populated.set(index);
+		return level;
+	}
+
+	/**
+	 * Gets the window index of the level for a price, growing the window to cover the price if it
+	 * can stay within {@link #MAX_LEVELS}. An empty window is recentered on the price instead.
+	 * Must be called while holding the level lock.
+	 *
+	 * @param price
+	 *            the order price
+	 * @return index of the level for the price, -1 if the price is an outlier
+	 */
+	private int levelIndex(final int price) {
+		if (levels == null || (populated.isEmpty() && !inWindow(price))) {
+			levels = newLevels(INITIAL_LEVELS);
+			basePrice = (long) price - INITIAL_LEVELS / 2; //leave room for movement in either direction
+		}
+		long index = price - basePrice;
+		if (index < 0) {
+			if (levels.length - index > MAX_LEVELS) {
+				return -1;
+			}
+			final int shift = (int) Math.min(Math.max(-index, levels.length), MAX_LEVELS - levels.length); //at least double, as for the upper bound
+			final ArrayDeque<E>[] grown = newLevels(levels.length + shift);
+			System.arraycopy(levels, 0, grown, shift, levels.length);
+			levels = grown;
+			final BitSet shifted = populated.get(0, populated.length());
+			populated.clear();
+			for (int i = shifted.nextSetBit(0); i >= 0; i = shifted.nextSetBit(i + 1)) {
+				populated.set(i + shift);
+			}
+			basePrice -= shift;
+			index += shift;
+		} else if (index >= levels.length) {
+			if (index >= MAX_LEVELS) {
+				return -1;
+			}
+			levels = Arrays.copyOf(levels, (int) Math.min(Math.max(index + 1, levels.length * 2L), MAX_LEVELS));
+		}
+		return (int) index;
+	}
+
+	/**
+	 * Checks whether a price falls within the window. Must be called while holding the level
+	 * lock.
+	 *
+	 * @param price
+	 *            the price
+	 * @return true if the window has a level for the price
+	 */
+	private boolean inWindow(final int price) {
+		final long index = price - basePrice;
+		return index >= 0 && index < levels.length;
+	}
+
+	/**
+	 * Gets the level to dispatch from next: the better of the best populated window level and the
+	 * best outlier level. Must be called while holding the level lock.
+	 *
+	 * @return the best level, {@code null} if the queue is empty
+	 */
+	private ArrayDeque<E> bestLevel() {
+		ArrayDeque<E> best = null;
+		long bestPrice = 0;
+		if (!populated.isEmpty()) {
+			final int index = ascending ? populated.nextSetBit(0) : populated.previousSetBit(levels.length - 1);
+			best = levels[index];
+			bestPrice = basePrice + index;
+		}
+		if (!outliers.isEmpty()) {
+			final Map.Entry<Integer, ArrayDeque<E>> outlier = ascending ? outliers.firstEntry() : outliers.lastEntry();
+			if (best == null || (ascending ? outlier.getKey() <= bestPrice : outlier.getKey() >= bestPrice)) {
+				best = outlier.getValue();
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Marks an emptied level as unpopulated; outlier levels are discarded. Must be called while
+	 * holding the level lock.
+	 *
+	 * @param price
+	 *            the price of the level
+	 * @param level
+	 *            the emptied level
+	 */
+	private void releaseLevel(final int price, final ArrayDeque<E> level) {
+		if (outliers.get(price) == level) {
+			outliers.remove(price);
+		} else {
+			populated.clear((int) (price - basePrice));
+		}
+	}
+
+	/**
+	 * Allocates an array of (empty) levels.
+	 *
+	 * @param length
+	 *            the number of levels
+	 * @return the new array
+	 */
+	@SuppressWarnings("unchecked")
+	private static <E> ArrayDeque<E>[] newLevels(final int length) {
+		return (ArrayDeque<E>[]) new ArrayDeque<?>[length];
+	}
+
+}
@@ -0,0 +1,21 @@
+package com.github.astefanich.broker.book;
+
+import edu.uw.ext.framework.broker.OrderQueue;
+
+/**
+ * An order queue whose threshold is a price, and can be set without boxing it. Order managers
+ * use this in preference to {@link OrderQueue#setThreshold(Object)} when adjusting prices.
+ * 
+ * @author AndrewStefanich
+ * @see PrimitiveOrderQueue
+ */
+public interface PriceThresholdQueue {
+
+	/**
+	 * Adjusts the threshold price and dispatches orders.
+	 * 
+	 * @param price
+	 *            the new threshold price
+	 */
+	void setThreshold(int price);
+}
@@ -0,0 +1,509 @@
+package com.github.astefanich.broker.book;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import edu.uw.ext.framework.broker.OrderQueue;
+import edu.uw.ext.framework.order.PricedOrder;
+
+/**
+ * An {@link OrderQueue} implementation which keeps its book structure as primitives, rather than
+ * as collections of order objects. Each resting order occupies a slot; slots are chained into
+ * per-price FIFO levels through an {@code int} array, and freed slots are recycled through a
+ * free-list, so enqueueing and dispatching allocate no nodes. The order itself is kept in a side
+ * array indexed by slot and dispatched as is, so the order processor sees the order (and order id)
+ * the client placed; the orders are thus still on the heap, only the book around them is not.
+ * <br>
+ * As in {@link PriceLevelOrderQueue}, the level chains are held in arrays indexed by price over a
+ * window of at most {@value #MAX_LEVELS} prices, the populated levels are tracked in a bitmap
+ * scanned a word at a time, and orders priced outside the window (outliers) are chained from a
+ * sparse {@link TreeMap} of levels instead. The window is recentered on the next order's price
+ * whenever it empties.
+ * <br>
+ * Dispatchability is decided by comparing prices directly: an ascending queue dispatches orders
+ * priced at or below the threshold (as the stop buy filter does), a descending queue orders priced
+ * at or above it (as the stop sell filter does). The threshold can be set without boxing, through
+ * {@link #setThreshold(int)}.
+ * <br>
+ * Dispatching runs on the calling thread, or, if the queue is given an {@link Executor}, on that
+ * executor through a {@link CoalescingDispatcher}.
+ *
+ * @param <E>
+ *            Elements: the type of order(s) to be contained within the queue
+ *
+ * @author AndrewStefanich
+ *
+ * @see OrderQueue
+ * @see OrderBookType
+ */
+public final class PrimitiveOrderQueue<E extends PricedOrder> implements OrderQueue<Integer, E>, PriceThresholdQueue {
+
+	/** marks the end of a slot chain */
+	private static final int NONE = -1;
+
+	/** number of order slots allocated when the queue is created */
+	private static final int INITIAL_SLOTS = 256;
+
+	/** number of price levels allocated when the window is (re)centered */
+	private static final int INITIAL_LEVELS = 64;
+
+	/** the most price levels the window may grow to, prices beyond it are outliers */
+	private static final int MAX_LEVELS = 1 << 16;
+
+	/** index of the first slot of an outlier level's chain */
+	private static final int HEAD = 0;
+
+	/** index of the last slot of an outlier level's chain */
+	private static final int TAIL = 1;
+
+	/** true if the lowest priced level is dispatched first, false for the highest */
+	private final boolean ascending;
+
+	/** the order held in each slot, null for free slots */
+	private Object[] orders = new Object[INITIAL_SLOTS];
+
+	/** next slot in the same level, or in the free-list for free slots */
+	private int[] next = new int[INITIAL_SLOTS];
+
+	/** number of slots ever used; slots at and beyond this index have never been used */
+	private int usedSlots;
+
+	/** first slot of the free-list */
+	private int freeSlot = NONE;
+
+	/** first slot of each window level, index 0 is the level priced at basePrice */
+	private int[] levelHeads;
+
+	/** last slot of each window level */
+	private int[] levelTails;
+
+	/** indices of the non-empty window levels */
+	private final BitSet populated = new BitSet();
+
+	/** first and last slots of the levels of the orders priced outside the window, by price */
+	private final TreeMap<Integer, int[]> outliers = new TreeMap<Integer, int[]>();
+
+	/** price of the level at index 0; a long, so prices near the int bounds do not overflow */
+	private long basePrice;
+
+	/** price of the best level, as last found by findBestLevel() */
+	private long bestPrice;
+
+	/** window index of the best level, NONE if it is an outlier level or the queue is empty */
+	private int bestIndex = NONE;
+
+	/** chain of the best level if it is an outlier level, otherwise {@code null} */
+	private int[] bestOutlier;
+
+	/** number of orders in the queue */
+	private int size;
+
+	/** the dispatch threshold price */
+	private int threshold;
+
+	/** The order processor */
+	private volatile Consumer<E> orderProcessor;
+
+	/** lock for concurrent operations on the columns */
+	private final Lock bookLock = new ReentrantLock();
+
+	/** runs dispatches on the executor, null if dispatching runs on the calling thread */
+	private final CoalescingDispatcher dispatcher;
+
+	/**
+	 * Constructs a PrimitiveOrderQueue.
+	 *
+	 * @param threshold
+	 *            the initial threshold price
+	 * @param ascending
+	 *            true to dispatch orders priced at or below the threshold, lowest first; false to
+	 *            dispatch orders priced at or above it, highest first
+	 */
+	public PrimitiveOrderQueue(final int threshold, final boolean ascending) {
+		this(threshold, ascending, null);
+	}
+
+	/**
+	 * Constructs a PrimitiveOrderQueue which dispatches on an executor. At most one dispatch is
+	 * pending or running at a time.
+	 *
+	 * @param threshold
+	 *            the initial threshold price
+	 * @param ascending
+	 *            true to dispatch orders priced at or below the threshold, lowest first; false to
+	 *            dispatch orders priced at or above it, highest first
+	 * @param dispatchExecutor
+	 *            the executor to dispatch orders on, null to dispatch on the calling thread
+	 */
+	public PrimitiveOrderQueue(final int threshold, final boolean ascending, final Executor dispatchExecutor) {
+		this.threshold = threshold;
+		this.ascending = ascending;
+		this.dispatcher = dispatchExecutor == null ? null
+				: new CoalescingDispatcher(dispatchExecutor, this::drainAndProcess);
+	}
+
+	/**
+	 * Stores the specified order in a free slot at the tail of its price level.
+	 * Subsequent to adding the order, this method will dispatch any dispatchable orders.
+	 *
+	 * @param order
+	 *            the order to be added to the queue.
+	 */
+	@Override
+	public void enqueue(final E order) {
+		bookLock.lock();
+		try {
+			final int slot = allocateSlot();
+			orders[slot] = order;
+			next[slot] = NONE;
+
+			final int price = order.getPrice();
+			int[] outlier = outliers.get(price);
+			if (outlier == null) {
+				final int index = levelIndex(price);
+				if (index < 0) {
+					outliers.put(price, new int[] { slot, slot });
+				} else {
+					if (levelHeads[index] == NONE) {
+						levelHeads[index] = slot;
+						populated.set(index);
+					} else {
+						next[levelTails[index]] = slot;
+					}
+					levelTails[index] = slot;
+				}
+			} else { //prices held as outliers stay outliers until their level empties
+				next[outlier[TAIL]] = slot;
+				outlier[TAIL] = slot;
+			}
+			size++;
+		} finally {
+			bookLock.unlock();
+		}
+		dispatchOrders();
+	}
+
+	/**
+	 * Removes the oldest order of the best price level, if it is dispatchable.
+	 *
+	 * @return the first dispatchable order in the queue; {@code null} if there are no dispatchable
+	 *         orders in the queue.
+	 */
+	@Override
+	public E dequeue() {
+		bookLock.lock();
+		try {
+			if (!findBestLevel() || !isBestLevelDispatchable()) {
+				return null;
+			}
+			final int slot = bestHead();
+			final E order = orderAt(slot);
+			final int nextSlot = next[slot];
+			releaseSlot(slot);
+			size--;
+			if (nextSlot == NONE) {
+				releaseBestLevel();
+			} else if (bestOutlier != null) {
+				bestOutlier[HEAD] = nextSlot;
+			} else {
+				levelHeads[bestIndex] = nextSlot;
+			}
+			return order;
+		} finally {
+			bookLock.unlock();
+		}
+	}
+
+	/**
+	 * Executes the callback for each dispatchable order, on the calling thread or on the dispatch
+	 * executor. Every crossed price level is removed from the queue under one lock acquisition and
+	 * passed to the callback, as a single batch if the callback is a
+	 * {@link BatchOrderProcessor}. If there is no callback/orderprocessor registered, the orders
+	 * are simply removed from the queue.
+	 */
+	@Override
+	public void dispatchOrders() {
+		if (dispatcher == null) {
+			drainAndProcess();
+		} else {
+			dispatcher.requestDispatch();
+		}
+	}
+
+	/**
+	 * Drains the dispatchable levels and passes them to the callback until none remain.
+	 */
+	private void drainAndProcess() {
+		List<E> batch = null;
+		while (!(batch = drainLevels()).isEmpty()) {
+			BatchOrderProcessor.process(orderProcessor, batch);
+		}
+	}
+
+	/**
+	 * Removes every dispatchable level, whole, from the best end of the queue.
+	 *
+	 * @return the dispatchable orders, in dispatch order; empty if there are none
+	 */
+	private List<E> drainLevels() {
+		bookLock.lock();
+		try {
+			if (!findBestLevel() || !isBestLevelDispatchable()) {
+				return Collections.emptyList();
+			}
+			final List<E> batch = new ArrayList<E>();
+			do {
+				int slot = bestHead();
+				while (slot != NONE) {
+					final int nextSlot = next[slot];
+					batch.add(orderAt(slot));
+					releaseSlot(slot);
+					size--;
+					slot = nextSlot;
+				}
+				releaseBestLevel();
+			} while (findBestLevel() && isBestLevelDispatchable());
+			return batch;
+		} finally {
+			bookLock.unlock();
+		}
+	}
+
+	/**
+	 * Registers the callback to be used for order processing.
+	 *
+	 * @param proc
+	 *            the callback to be registerd.
+	 */
+	@Override
+	public void setOrderProcessor(final Consumer<E> proc) {
+		this.orderProcessor = proc;
+	}
+
+	/**
+	 * Adjusts the threshold and dispatches orders.
+	 *
+	 * @param threshold
+	 *            the new threshold.
+	 */
+	@Override
+	public void setThreshold(final Integer threshold) {
+		setThreshold(threshold.intValue());
+	}
+
+	/**
+	 * Adjusts the threshold price, without boxing, and dispatches orders.
+	 *
+	 * @param price
+	 *            the new threshold price
+	 */
+	@Override
+	public void setThreshold(final int price) {
+		bookLock.lock();
+		try {
+			this.threshold = price;
+		} finally {
+			bookLock.unlock();
+		}
+		dispatchOrders();
+	}
+
+	/**
+	 * Obtains the current threshold value.
+	 *
+	 * @return the current threshold.
+	 */
+	@Override
+	public Integer getThreshold() {
+		bookLock.lock();
+		try {
+			return threshold;
+		} finally {
+			bookLock.unlock();
+		}
+	}
+
+	/**
+	 * Finds the level to dispatch from next: the better of the best populated window level and
+	 * the best outlier level. Must be called while holding the book lock.
+	 *
+	 * @return true if found, false if the queue is empty
+	 */
+	private boolean findBestLevel() {
+		bestIndex = NONE;
+		bestOutlier = null;
+		if (!populated.isEmpty()) {
+			bestIndex = ascending ? populated.nextSetBit(0) : populated.previousSetBit(levelHeads.length - 1);
+			bestPrice = basePrice + bestIndex;
+		}
+		if (!outliers.isEmpty()) {
+			final Map.Entry<Integer, int[]> outlier = ascending ? outliers.firstEntry() : outliers.lastEntry();
+			if (bestIndex == NONE || (ascending ? outlier.getKey() <= bestPrice : outlier.getKey() >= bestPrice)) {
+				bestIndex = NONE;
+				bestOutlier = outlier.getValue();
+				bestPrice = outlier.getKey();
+			}
+		}
+		return bestIndex != NONE || bestOutlier != null;
+	}
+
+	/**
+	 * Checks whether the best level, as last found, is crossed by the threshold. Must be called
+	 * while holding the book lock.
+	 *
+	 * @return true if the orders of the best level are dispatchable
+	 */
+	private boolean isBestLevelDispatchable() {
+		return ascending ? bestPrice <= threshold : bestPrice >= threshold;
+	}
+
+	/**
+	 * Gets the first slot of the best level, as last found. Must be called while holding the book
+	 * lock.
+	 *
+	 * @return the slot
+	 */
+	private int bestHead() {
+		return bestOutlier != null ? bestOutlier[HEAD] : levelHeads[bestIndex];
+	}
+
+	/**
+	 * Removes the best level, as last found, once its orders have been taken; an outlier level is
+	 * discarded, a window level marked as unpopulated. Must be called while holding the book lock.
+	 */
+	private void releaseBestLevel() {
+		if (bestOutlier != null) {
+			outliers.remove((int) bestPrice);
+		} else {
+			levelHeads[bestIndex] = NONE;
+			populated.clear(bestIndex);
+		}
+	}
+
+	/**
+	 * Gets the order held in a slot. Must be called while holding the book lock.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the order
+	 */
+	@SuppressWarnings("unchecked")
+	private E orderAt(final int slot) {
+		return (E) orders[slot];
+	}
+
+	/**
+	 * Takes a slot from the free-list, or the next never used slot, growing the columns if needed.
+	 * Must be called while holding the book lock.
+	 *
+	 * @return the slot
+	 */
+	private int allocateSlot() {
+		if (freeSlot != NONE) {
+			final int slot = freeSlot;
+			freeSlot = next[slot];
+			return slot;
+		}
+		if (usedSlots == orders.length) {
+			final int length = orders.length * 2;
+			orders = Arrays.copyOf(orders, length);
+			next = Arrays.copyOf(next, length);
+		}
+		return usedSlots++;
+	}
+
+	/**
+	 * Returns a slot to the free-list, and releases its order. Must be called while holding the book
+	 * lock.
+	 *
+	 * @param slot
+	 *            the slot
+	 */
+	private void releaseSlot(final int slot) {
+		orders[slot] = null;
+		next[slot] = freeSlot;
+		freeSlot = slot;
+	}
+
+	/**
+	 * Gets the window index of the level for a price, growing the window to cover the price if it
+	 * can stay within {@link #MAX_LEVELS}. An empty window is recentered on the price instead.
+	 * Must be called while holding the book lock.
+	 *
+	 * @param price
+	 *            the order price
+	 * @return index of the level for the price, -1 if the price is an outlier
+	 */
+	private int levelIndex(final int price) {
+		if (levelHeads == null || (populated.isEmpty() && !inWindow(price))) {
+			levelHeads = newLevels(INITIAL_LEVELS);
+			levelTails = new int[INITIAL_LEVELS];
+			basePrice = (long) price - INITIAL_LEVELS / 2; //leave room for movement in either direction
+		}
+		long index = price - basePrice;
+		if (index < 0) {
+			if (levelHeads.length - index > MAX_LEVELS) {
+				return -1;
+			}
+			final int shift = (int) Math.min(Math.max(-index, levelHeads.length), MAX_LEVELS - levelHeads.length); //at least double, as for the upper bound
+			final int[] grownHeads = newLevels(levelHeads.length + shift);
+			final int[] grownTails = new int[levelTails.length + shift];
+			System.arraycopy(levelHeads, 0, grownHeads, shift, levelHeads.length);
+			System.arraycopy(levelTails, 0, grownTails, shift, levelTails.length);
+			levelHeads = grownHeads;
+			levelTails = grownTails;
+			final BitSet shifted = populated.get(0, populated.length());
+			populated.clear();
+			for (int i = shifted.nextSetBit(0); i >= 0; i = shifted.nextSetBit(i + 1)) {
+				populated.set(i + shift);
+			}
+			basePrice -= shift;
+			index += shift;
+		} else if (index >= levelHeads.length) {
+			if (index >= MAX_LEVELS) {
+				return -1;
+			}
+			final int length = (int) Math.min(Math.max(index + 1, levelHeads.length * 2L), MAX_LEVELS);
+			final int oldLength = levelHeads.length;
+			levelHeads = Arrays.copyOf(levelHeads, length);
+			Arrays.fill(levelHeads, oldLength, length, NONE);
+			levelTails = Arrays.copyOf(levelTails, length);
+		}
+		return (int) index;
+	}
+
+	/**
+	 * Checks whether a price falls within the window. Must be called while holding the book lock.
+	 *
+	 * @param price
+	 *            the price
+	 * @return true if the window has a level for the price
+	 */
+	private boolean inWindow(final int price) {
+		final long index = price - basePrice;
+		return index >= 0 && index < levelHeads.length;
+	}
+
+	/**
+	 * Allocates an array of empty level heads.
+	 *
+	 * @param length
+	 *            the number of levels
+	 * @return the new array
+	 */
+	private static int[] newLevels(final int length) {
+		final int[] heads = new int[length];
+		Arrays.fill(heads, NONE);
+		return heads;
+	}
+
+}
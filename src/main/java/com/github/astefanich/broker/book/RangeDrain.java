@@ -0,0 +1,52 @@
+package com.github.astefanich.broker.book;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.function.BiPredicate;
+
+/**
+ * Removes the whole dispatchable range from the head of a sorted order set under one lock
+ * acquisition of the caller, rather than taking the lock once per order. Used by the
+ * {@code TreeSet} backed order queues when bulk drain is enabled, see
+ * {@link OrderBookType#TREE_SET_BULK}.
+ * <br>
+ * A TreeSet queue's dispatch filter is opaque, so it is still tested once per order; the orders
+ * are removed with {@link NavigableSet#pollFirst()} as they pass, with no further copy. The
+ * price-level queues split the range once per level instead.
+ * 
+ * @author AndrewStefanich
+ */
+public final class RangeDrain {
+
+	/**
+	 * Not instantiable.
+	 */
+	private RangeDrain() {
+	}
+
+	/**
+	 * Removes the leading orders which pass the dispatch filter, up to (but excluding) the first
+	 * order which does not. The caller is responsible for holding any lock guarding the set.
+	 * 
+	 * @param orders
+	 *            the sorted orders
+	 * @param filter
+	 *            the dispatch filter
+	 * @param threshold
+	 *            the current threshold
+	 * @return the removed orders, in order; empty if the first order is not dispatchable
+	 */
+	public static <T, E> List<E> drainHead(final NavigableSet<E> orders, final BiPredicate<T, E> filter,
+			final T threshold) {
+		if (orders.isEmpty() || !filter.test(threshold, orders.first())) {
+			return Collections.emptyList();
+		}
+		final List<E> batch = new ArrayList<E>();
+		do {
+			batch.add(orders.pollFirst());
+		} while (!orders.isEmpty() && filter.test(threshold, orders.first()));
+		return batch;
+	}
+}
@@ -3,6 +3,7 @@ package com.github.astefanich.broker.concurrent;
 import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EventListener;
 import java.util.HashMap;
@@ -10,11 +11,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.function.BiPredicate;
-import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.astefanich.broker.book.BatchOrderProcessor;
+import com.github.astefanich.broker.book.OrderBookSnapshot;
+import com.github.astefanich.broker.book.OrderBookView;
+import com.github.astefanich.exchange.ExtendedStockExchange;
+
 import edu.uw.ext.framework.account.Account;
 import edu.uw.ext.framework.account.AccountException;
 import edu.uw.ext.framework.account.AccountManager;
@@ -58,6 +63,9 @@ public abstract class ConcurrentBroker implements Broker, ExchangeListener, Even
 	/** collection to hold market orders */
 	protected OrderQueue<Boolean, Order> marketOrderQueue;
 
+	/** conflates price changes per stock, {@code null} if each is adjusted as received */
+	private volatile PriceConflator priceConflator;
+
 	/**
 	 * Dispatch filter for marketOrders. Exchange should be open and it should
 	 * contain the ticker symbol for a given order
@@ -69,16 +77,25 @@ public abstract class ConcurrentBroker implements Broker, ExchangeListener, Even
 	 * order processor for market orders; execute a trade with the exchange and
 	 * account manager reflects the order in the account balance, persists the
 	 * DAO/file. Market orders are executed at the market price, so price is
-	 * obtained via a quote with the exchange.
+	 * obtained via a quote with the exchange. A batch of dispatched orders is
+	 * executed in a single request if the exchange supports it; orders of the
+	 * batch which failed are logged, and not reflected.
 	 */
-	protected final Consumer<Order> tradeExecutor = (order) -> {
-		final String exceptionMessage = "Failed to reflect order %d in balance for Account: %s. %s";
-		final String accountID = order.getAccountId();
-		final int executionPrice = stockExchange.executeTrade(order);
-		try {
-			accountManager.getAccount(accountID).reflectOrder(order, executionPrice);
-		} catch (final AccountException e) {
-			LOG.error(String.format(exceptionMessage, order.getOrderId(), accountID, e.getMessage())); //account exception thrown by getAccount (if account is not found)  
+	protected final BatchOrderProcessor<Order> tradeExecutor = (orders) -> {
+		if (orders.size() > 1 && stockExchange instanceof ExtendedStockExchange) {
+			final int[] executionPrices = ((ExtendedStockExchange) stockExchange).executeTrades(orders);
+			for (int i = 0; i < executionPrices.length; i++) {
+				if (executionPrices[i] == ExtendedStockExchange.TRADE_FAILED) {
+					LOG.error(String.format("Order %d for Account: %s failed to execute, not reflected in balance",
+							orders.get(i).getOrderId(), orders.get(i).getAccountId()));
+				} else {
+					reflectExecution(orders.get(i), executionPrices[i]);
+				}
+			}
+		} else {
+			for (Order order : orders) {
+				reflectExecution(order, stockExchange.executeTrade(order));
+			}
 		}
 	};
 
@@ -103,12 +120,19 @@ public abstract class ConcurrentBroker implements Broker, ExchangeListener, Even
 
 	/**
 	 * Assigns stock tickers (key) and order managers (value) in a HashMap, and
-	 * sets each order manager as the "move to market" processor.
+	 * sets each order manager as the "move to market" processor. The initial
+	 * prices are fetched in one request if the exchange supports it.
 	 */
 	protected void initializeOrderManagerMap() {
 		this.orderManagerMap = new HashMap<String, OrderManager>();
+		final Map<String, StockQuote> quotes = stockExchange instanceof ExtendedStockExchange
+				? ((ExtendedStockExchange) stockExchange).getQuotes()
+				: Collections.<String, StockQuote>emptyMap();
 		for (String ticker : listTickers()) {
-			StockQuote quote = stockExchange.getQuote(ticker);
+			StockQuote quote = quotes.get(ticker);
+			if (quote == null) {
+				quote = stockExchange.getQuote(ticker);
+			}
 			OrderManager orderManager = createOrderManager(ticker, quote.getPrice());
 			orderManager.setBuyOrderProcessor((order) -> marketOrderQueue.enqueue(order));
 			orderManager.setSellOrderProcessor((order) -> marketOrderQueue.enqueue(order));
@@ -151,6 +175,49 @@ public abstract class ConcurrentBroker implements Broker, ExchangeListener, Even
 		return Collections.synchronizedList(Arrays.asList(stockExchange.getTickers()));
 	}
 
+	/**
+	 * Gets the order managers of this broker.
+	 * 
+	 * @return unmodifiable view of the order managers, empty if the broker is
+	 *         not yet initialized or is closed
+	 */
+	protected Collection<OrderManager> getOrderManagers() {
+		final Map<String, OrderManager> managers = orderManagerMap;
+		if (managers == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableCollection(managers.values());
+	}
+
+	/**
+	 * Gets the exchange in which this broker operates.
+	 * 
+	 * @return the exchange
+	 */
+	protected final StockExchange getStockExchange() {
+		return stockExchange;
+	}
+
+	/**
+	 * Reflects an executed order in the balance of its account, which persists the account via
+	 * the account manager's DAO. Failures are logged, not thrown, as the trade has already been
+	 * executed.
+	 * 
+	 * @param order
+	 *            the executed order
+	 * @param executionPrice
+	 *            the price the order was executed at
+	 */
+	protected final void reflectExecution(final Order order, final int executionPrice) {
+		final String exceptionMessage = "Failed to reflect order %d in balance for Account: %s. %s";
+		final String accountID = order.getAccountId();
+		try {
+			accountManager.getAccount(accountID).reflectOrder(order, executionPrice);
+		} catch (final AccountException e) {
+			LOG.error(String.format(exceptionMessage, order.getOrderId(), accountID, e.getMessage())); //account exception thrown by getAccount (if account is not found)  
+		}
+	}
+
 	/**
 	 * Gets the OrderManager value associated with a given ticker symbol (key)
 	 * 
@@ -166,6 +233,47 @@ public abstract class ConcurrentBroker implements Broker, ExchangeListener, Even
 		return orderManager;
 	}
 
+	/**
+	 * Subscribes to the price changes of a stock with the exchange, if it delivers only those of
+	 * the stocks subscribed to; the price changes trigger the stock's stop orders.
+	 * 
+	 * @param ticker
+	 *            the stock's ticker symbol
+	 */
+	private void subscribe(final String ticker) {
+		if (stockExchange instanceof ExtendedStockExchange) {
+			((ExtendedStockExchange) stockExchange).subscribe(ticker);
+		}
+	}
+
+	/**
+	 * Gets a snapshot of the resting stop buy orders for a stock.
+	 * 
+	 * @param ticker
+	 *            the stock's ticker symbol
+	 * @return the stop buy depth, lowest price first
+	 * @throws NoSuchElementException
+	 *             if the stock is not traded
+	 */
+	public OrderBookSnapshot getStopBuyDepth(final String ticker) throws NoSuchElementException {
+		checkInvariants();
+		return ((OrderBookView) orderManagerLookup(ticker)).getStopBuyDepth();
+	}
+
+	/**
+	 * Gets a snapshot of the resting stop sell orders for a stock.
+	 * 
+	 * @param ticker
+	 *            the stock's ticker symbol
+	 * @return the stop sell depth, highest price first
+	 * @throws NoSuchElementException
+	 *             if the stock is not traded
+	 */
+	public OrderBookSnapshot getStopSellDepth(final String ticker) throws NoSuchElementException {
+		checkInvariants();
+		return ((OrderBookView) orderManagerLookup(ticker)).getStopSellDepth();
+	}
+
 	/**
 	 * Upon the exchange opening, sets the market dispatch filter threshold (to
 	 * true) and processes any available orders.
@@ -205,10 +313,66 @@ public abstract class ConcurrentBroker implements Broker, ExchangeListener, Even
 		checkInvariants();
 		final String ticker = event.getTicker();
 		final int price = event.getPrice();
+		final PriceConflator conflator = priceConflator;
+		if (conflator != null) {
+			conflator.priceChanged(ticker, price);
+			return;
+		}
 		orderManagerLookup(ticker).adjustPrice(price);
 //		LOG.info(String.format("Price for %s has changed to %d", ticker, price));
 	}
 
+	/**
+	 * Sets whether price changes are conflated per stock. When conflated, the exchange's listener
+	 * thread only records each change, and a dispatcher thread adjusts each stock's order manager
+	 * to the highest, lowest and latest prices received since its last adjustment; so a broker
+	 * which falls behind the price stream skips intermediate prices without missing a stop order
+	 * they would have triggered. That only holds if each adjustment dispatches its orders before
+	 * the next is made, so only brokers whose order managers dispatch inline support it.
+	 * 
+	 * @param conflate
+	 *            true to conflate, false (the default) to adjust each price as received
+	 * @throws UnsupportedOperationException
+	 *             if conflate is true, and this broker's order managers dispatch asynchronously
+	 * @see #isDispatchedInline()
+	 */
+	public final synchronized void setPriceConflation(final boolean conflate) {
+		if (conflate && !isDispatchedInline()) {
+			throw new UnsupportedOperationException(
+					String.format("%s dispatches stop orders asynchronously, prices cannot be conflated",
+							getClass().getSimpleName()));
+		}
+		if (conflate && priceConflator == null) {
+			priceConflator = new PriceConflator(brokerName,
+					(ticker, price) -> orderManagerLookup(ticker).adjustPrice(price));
+		} else if (!conflate && priceConflator != null) {
+			priceConflator.close();
+			priceConflator = null;
+		}
+	}
+
+	/**
+	 * Whether this broker's order managers dispatch the orders a price adjustment triggers before
+	 * the adjustment returns, or before the stock's next adjustment starts. Managers which only
+	 * record the threshold and dispatch later may skip a conflated extreme, since the threshold has
+	 * moved on to the latest price by the time their queues drain.
+	 * 
+	 * @return true if price conflation is supported; false by default
+	 */
+	protected boolean isDispatchedInline() {
+		return false;
+	}
+
+	/**
+	 * Gets the number of price changes folded into a pending adjustment by price conflation.
+	 * 
+	 * @return the conflated price change count, 0 if prices are not conflated
+	 */
+	public long getConflatedPriceCount() {
+		final PriceConflator conflator = priceConflator;
+		return conflator == null ? 0 : conflator.getConflatedCount();
+	}
+
 	/**
 	 * Get the name of this broker.
 	 * 
@@ -328,7 +492,7 @@ public abstract class ConcurrentBroker implements Broker, ExchangeListener, Even
 	@Override
 	public void placeOrder(final MarketBuyOrder order) throws BrokerException {
 		checkInvariants();
-		marketOrderQueue.enqueue(order);
+		queueMarketOrder(order);
 	}
 
 	/**
@@ -342,7 +506,32 @@ public abstract class ConcurrentBroker implements Broker, ExchangeListener, Even
 	@Override
 	public void placeOrder(final MarketSellOrder order) throws BrokerException {
 		checkInvariants();
-		marketOrderQueue.enqueue(order);
+		queueMarketOrder(order);
+	}
+
+	/**
+	 * Adds a market order to the market order queue. A bounded queue which is full refuses the
+	 * order here, where the client learns of it; triggered stop orders are queued regardless.
+	 * 
+	 * @param order
+	 *            the order being placed with the broker
+	 * @throws BrokerException
+	 *             if the queue refuses the order, e.g. a bounded queue is full
+	 */
+	private void queueMarketOrder(final Order order) throws BrokerException {
+		try {
+			if (marketOrderQueue instanceof MpscOrderQueue) {
+				final MpscOrderQueue<Boolean, Order> bounded = (MpscOrderQueue<Boolean, Order>) marketOrderQueue;
+				if (!bounded.tryEnqueue(order)) {
+					throw new BrokerException(String.format("Unable to place order %s: %d orders are waiting",
+							order, bounded.getCapacity()));
+				}
+			} else {
+				marketOrderQueue.enqueue(order);
+			}
+		} catch (final IllegalStateException e) {
+			throw new BrokerException(String.format("Unable to place order %s: %s", order, e.getMessage()), e);
+		}
 	}
 
 	/**
@@ -357,7 +546,9 @@ public abstract class ConcurrentBroker implements Broker, ExchangeListener, Even
 	@Override
 	public void placeOrder(final StopBuyOrder order) throws BrokerException {
 		checkInvariants();
-		orderManagerLookup(order.getStockTicker()).queueOrder(order);
+		final OrderManager orderManager = orderManagerLookup(order.getStockTicker());
+		subscribe(order.getStockTicker());
+		orderManager.queueOrder(order);
 	}
 
 	/**
@@ -372,7 +563,9 @@ public abstract class ConcurrentBroker implements Broker, ExchangeListener, Even
 	@Override
 	public void placeOrder(final StopSellOrder order) throws BrokerException {
 		checkInvariants();
-		orderManagerLookup(order.getStockTicker()).queueOrder(order);
+		final OrderManager orderManager = orderManagerLookup(order.getStockTicker());
+		subscribe(order.getStockTicker());
+		orderManager.queueOrder(order);
 	}
 
 	/**
@@ -387,6 +580,7 @@ public abstract class ConcurrentBroker implements Broker, ExchangeListener, Even
 		LOG.info("Closing broker:" + brokerName);
 		checkInvariants();
 		stockExchange.removeExchangeListener(this);
+		setPriceConflation(false);
 		orderManagerMap = null;
 		try {
 			accountManager.close();
@@ -5,9 +5,18 @@ import static java.util.Comparator.comparingInt;
 import static java.util.Comparator.reverseOrder;
 
 import java.util.Comparator;
+import java.util.concurrent.Executor;
 import java.util.function.BiPredicate;
 import java.util.function.Consumer;
 
+import com.github.astefanich.broker.book.OrderBookDepth;
+import com.github.astefanich.broker.book.OrderBookSnapshot;
+import com.github.astefanich.broker.book.OrderBookType;
+import com.github.astefanich.broker.book.OrderBookView;
+import com.github.astefanich.broker.book.PriceLevelOrderQueue;
+import com.github.astefanich.broker.book.PriceThresholdQueue;
+import com.github.astefanich.broker.book.PrimitiveOrderQueue;
+
 import edu.uw.ext.framework.broker.OrderManager;
 import edu.uw.ext.framework.broker.OrderQueue;
 import edu.uw.ext.framework.order.AbstractOrder;
@@ -25,7 +34,7 @@ import edu.uw.ext.framework.order.StopSellOrder;
  * @see BiPredicate
  * @see Comparator
  */
-public abstract class ConcurrentOrderManager implements OrderManager {
+public abstract class ConcurrentOrderManager implements OrderManager, OrderBookView {
 
 	/****** CONSTANTS *******/
 
@@ -58,12 +67,21 @@ public abstract class ConcurrentOrderManager implements OrderManager {
 	/** Ticker symbol of the stock being managed by this OrderManager */
 	private String stockSymbolTicker;
 
+	/** storage to be used by the order queues */
+	private final OrderBookType orderBookType;
+
 	/** collection of StopBuyOrders for this OrderManager to manage */
 	protected OrderQueue<Integer, StopBuyOrder> stopBuyOrderQueue;
 
 	/** collection of StopSellOrders for this OrderManager to manage */
 	protected OrderQueue<Integer, StopSellOrder> stopSellOrderQueue;
 
+	/** depth of the resting StopBuyOrders */
+	private final OrderBookDepth<StopBuyOrder> stopBuyDepth;
+
+	/** depth of the resting StopSellOrders */
+	private final OrderBookDepth<StopSellOrder> stopSellDepth;
+
 	/**
 	 * Constructor for subclasses; only instantiates the tickerSymbol.
 	 * intializePricedOrderQueues() should be called direclty by the subclass
@@ -74,7 +92,25 @@ public abstract class ConcurrentOrderManager implements OrderManager {
 	 *            for
 	 */
 	protected ConcurrentOrderManager(final String stockSymbolTicker) {
+		this(stockSymbolTicker, OrderBookType.TREE_SET);
+	}
+
+	/**
+	 * Constructor for subclasses; instantiates the tickerSymbol and the book type
+	 * to be used by the queues. intializePricedOrderQueues() should be called
+	 * direclty by the subclass constructors.
+	 * 
+	 * @param stockSymbolTicker
+	 *            the ticker symbol of the stock this instance manages orders
+	 *            for
+	 * @param orderBookType
+	 *            the storage to be used by the order queues
+	 */
+	protected ConcurrentOrderManager(final String stockSymbolTicker, final OrderBookType orderBookType) {
 		this.stockSymbolTicker = stockSymbolTicker;
+		this.orderBookType = orderBookType;
+		this.stopBuyDepth = new OrderBookDepth<StopBuyOrder>(stockSymbolTicker, true);
+		this.stopSellDepth = new OrderBookDepth<StopSellOrder>(stockSymbolTicker, false);
 	}
 
 	/**
@@ -85,6 +121,65 @@ public abstract class ConcurrentOrderManager implements OrderManager {
 	 */
 	protected abstract void initializePricedOrderQueues(int initialPrice);
 
+	/**
+	 * Initializes this OrderManager queues with {@link PriceLevelOrderQueue}s or
+	 * {@link PrimitiveOrderQueue}s, if that is the configured book type. The
+	 * queues dispatch on the calling thread. Subclasses should call this first
+	 * from initializePricedOrderQueues(), and create their own queues if it
+	 * returns false.
+	 * 
+	 * @param initialPrice
+	 *            the initial "stop" price for the queues
+	 * @return true if the queues were initialized, false otherwise
+	 */
+	protected final boolean initializeOrderBookQueues(final int initialPrice) {
+		return initializeOrderBookQueues(initialPrice, null, null);
+	}
+
+	/**
+	 * Initializes this OrderManager queues with {@link PriceLevelOrderQueue}s or
+	 * {@link PrimitiveOrderQueue}s, if that is the configured book type. The
+	 * queues dispatch on the given executors, so subclasses which dispatch
+	 * asynchronously keep doing so whatever the book type.
+	 * 
+	 * @param initialPrice
+	 *            the initial "stop" price for the queues
+	 * @param buyDispatchExecutor
+	 *            the executor the stop buy queue dispatches on, null for the
+	 *            calling thread
+	 * @param sellDispatchExecutor
+	 *            the executor the stop sell queue dispatches on, null for the
+	 *            calling thread
+	 * @return true if the queues were initialized, false otherwise
+	 */
+	protected final boolean initializeOrderBookQueues(final int initialPrice, final Executor buyDispatchExecutor,
+			final Executor sellDispatchExecutor) {
+		switch (orderBookType) {
+		case PRICE_LEVEL:
+			stopBuyOrderQueue = new PriceLevelOrderQueue<StopBuyOrder>(initialPrice, STOP_BUY_ORDER_FILTER, true,
+					buyDispatchExecutor);
+			stopSellOrderQueue = new PriceLevelOrderQueue<StopSellOrder>(initialPrice, STOP_SELL_ORDER_FILTER,
+					false, sellDispatchExecutor);
+			return true;
+		case PRIMITIVE:
+			stopBuyOrderQueue = new PrimitiveOrderQueue<StopBuyOrder>(initialPrice, true, buyDispatchExecutor);
+			stopSellOrderQueue = new PrimitiveOrderQueue<StopSellOrder>(initialPrice, false, sellDispatchExecutor);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Checks whether {@code TreeSet} queues created by subclasses should drain every dispatchable
+	 * order in one batch.
+	 * 
+	 * @return true if the configured book type is {@link OrderBookType#TREE_SET_BULK}
+	 */
+	protected final boolean isBulkDrain() {
+		return orderBookType == OrderBookType.TREE_SET_BULK;
+	}
+
 	/**
 	 * Gets the stock ticker symbol for the stock managed by this stock manager.
 	 * 
@@ -101,8 +196,16 @@ public abstract class ConcurrentOrderManager implements OrderManager {
 	 *            the new price
 	 */
 	public void adjustPrice(final int price) {
-		stopBuyOrderQueue.setThreshold(price);
-		stopSellOrderQueue.setThreshold(price);
+		if (stopBuyOrderQueue instanceof PriceThresholdQueue) { //avoids boxing the price
+			((PriceThresholdQueue) stopBuyOrderQueue).setThreshold(price);
+		} else {
+			stopBuyOrderQueue.setThreshold(price);
+		}
+		if (stopSellOrderQueue instanceof PriceThresholdQueue) {
+			((PriceThresholdQueue) stopSellOrderQueue).setThreshold(price);
+		} else {
+			stopSellOrderQueue.setThreshold(price);
+		}
 	}
 
 	/**
@@ -112,6 +215,7 @@ public abstract class ConcurrentOrderManager implements OrderManager {
 	 *            the order to be queued
 	 */
 	public void queueOrder(final StopBuyOrder order) {
+		stopBuyDepth.added(order);
 		this.stopBuyOrderQueue.enqueue(order);
 	}
 
@@ -122,6 +226,7 @@ public abstract class ConcurrentOrderManager implements OrderManager {
 	 *            the order to be queued
 	 */
 	public void queueOrder(final StopSellOrder order) {
+		stopSellDepth.added(order);
 		stopSellOrderQueue.enqueue(order);
 	}
 
@@ -133,7 +238,7 @@ public abstract class ConcurrentOrderManager implements OrderManager {
 	 *            callback to be registered
 	 */
 	public void setBuyOrderProcessor(final Consumer<StopBuyOrder> processor) {
-		stopBuyOrderQueue.setOrderProcessor(processor);
+		stopBuyOrderQueue.setOrderProcessor(stopBuyDepth.tracking(processor));
 	}
 
 	/**
@@ -144,7 +249,25 @@ public abstract class ConcurrentOrderManager implements OrderManager {
 	 *            callback to be registered
 	 */
 	public void setSellOrderProcessor(final Consumer<StopSellOrder> processor) {
-		stopSellOrderQueue.setOrderProcessor(processor);
+		stopSellOrderQueue.setOrderProcessor(stopSellDepth.tracking(processor));
+	}
+
+	/**
+	 * Gets a snapshot of the resting stop buy orders.
+	 * 
+	 * @return the stop buy depth, lowest price first
+	 */
+	public OrderBookSnapshot getStopBuyDepth() {
+		return stopBuyDepth.snapshot();
+	}
+
+	/**
+	 * Gets a snapshot of the resting stop sell orders.
+	 * 
+	 * @return the stop sell depth, highest price first
+	 */
+	public OrderBookSnapshot getStopSellDepth() {
+		return stopSellDepth.snapshot();
 	}
 
 }
@@ -0,0 +1,378 @@
+package com.github.astefanich.broker.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.astefanich.broker.book.BatchOrderProcessor;
+
+import edu.uw.ext.framework.broker.OrderQueue;
+import edu.uw.ext.framework.order.Order;
+
+/**
+ * A lock-free, multi-producer/single-consumer {@link OrderQueue} implementation. Orders are held
+ * in FIFO order in an array-backed ring; each slot carries a sequence counter, so producers claim
+ * slots with a single compare-and-set and never block each other or the consumer. A single
+ * consumer thread dispatches orders from the head of the ring while they pass the dispatch filter
+ * (e.g. while the exchange is open), and parks when they do not.
+ * <br>
+ * The ring is bounded. While the head order is not dispatchable nothing drains it, so once it is
+ * full {@link #enqueue(Order)} spills orders to an unbounded overflow queue, dispatched after the
+ * ring in FIFO order; orders handed on internally (e.g. triggered stop orders) are never lost.
+ * {@link #tryEnqueue(Order)} refuses an order instead, for callers able to report it.
+ *
+ * @param <T>
+ *            Type: the dispatchable threshold type
+ * @param <E>
+ *            Elements: the type of order(s) to be contained within the queue
+ * @author AndrewStefanich
+ */
+public final class MpscOrderQueue<T, E extends Order> implements OrderQueue<T, E>, Runnable {
+
+	/** this class' logger */
+	private static final Logger LOG = LoggerFactory.getLogger(MpscOrderQueue.class);
+
+	/** default number of ring slots */
+	private static final int DEFAULT_CAPACITY = 1 << 16;
+
+	/** maximum number of orders handed to the processor in one batch */
+	private static final int MAX_BATCH_SIZE = 256;
+
+	/** the ring of orders */
+	private final Object[] ring;
+
+	/**
+	 * per-slot sequence. A slot is free for the producer claiming position p when its sequence is
+	 * p, and holds an order for the consumer when it is p + 1
+	 */
+	private final AtomicLongArray sequences;
+
+	/** capacity - 1, for mapping positions to slots */
+	private final int mask;
+
+	/** next position to be claimed by a producer */
+	private final AtomicLong tail = new AtomicLong();
+
+	/** next position to be consumed. Only read or written by the consumer (under consumerLock) */
+	private long head;
+
+	/**
+	 * orders added while the ring was full, or while earlier ones were still here; only polled by
+	 * the consumer
+	 */
+	private final Queue<E> overflow = new ConcurrentLinkedQueue<E>();
+
+	/** true if the order last peeked came from the overflow queue (under consumerLock) */
+	private boolean peekedOverflow;
+
+	/** threshold object, for use in determining dispatchability */
+	private volatile T threshold;
+
+	/** The order processor */
+	private volatile Consumer<E> orderProcessor;
+
+	/** Filter to control dispatching of orders */
+	private final BiPredicate<T, E> dispatchFilter;
+
+	/** serializes consumption; uncontended unless dequeue() is called from outside the consumer */
+	private final Lock consumerLock = new ReentrantLock();
+
+	/** true while the consumer is parked, or about to park */
+	private volatile boolean consumerWaiting;
+
+	/** false once the queue has been shut down */
+	private volatile boolean running = true;
+
+	/** the single consumer thread */
+	private final Thread consumerThread = new Thread(this, "mpsc-order-queue-consumer");
+
+	/**
+	 * Constructs an MpscOrderQueue with the default capacity, and starts its consumer thread.
+	 *
+	 * @param threshold
+	 *            the initial threshold for dispatchability
+	 * @param filter
+	 *            the dispatch filter used to control dispatching from the queue
+	 */
+	public MpscOrderQueue(final T threshold, final BiPredicate<T, E> filter) {
+		this(threshold, filter, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs an MpscOrderQueue, and starts its consumer thread.
+	 *
+	 * @param threshold
+	 *            the initial threshold for dispatchability
+	 * @param filter
+	 *            the dispatch filter used to control dispatching from the queue
+	 * @param capacity
+	 *            number of ring slots, rounded up to a power of two
+	 * @throws IllegalArgumentException
+	 *             if the capacity is not positive, or too large for an array of a power of two
+	 */
+	public MpscOrderQueue(final T threshold, final BiPredicate<T, E> filter, final int capacity) {
+		if (capacity <= 0 || capacity > (1 << 30)) {
+			throw new IllegalArgumentException("capacity must be between 1 and 2^30: " + capacity);
+		}
+		final int slots = (capacity <= 2) ? 2 : Integer.highestOneBit(capacity - 1) << 1; //next power of two
+		this.ring = new Object[slots];
+		this.sequences = new AtomicLongArray(slots);
+		for (int i = 0; i < slots; i++) {
+			sequences.set(i, i);
+		}
+		this.mask = slots - 1;
+		this.threshold = threshold;
+		this.dispatchFilter = filter;
+		consumerThread.setDaemon(true);
+		consumerThread.start();
+	}
+
+	/**
+	 * Adds the specified order to the tail of the ring, or to the overflow queue if the ring is
+	 * full (e.g. the exchange has been closed while it filled) or earlier orders overflowed, and
+	 * wakes the consumer.
+	 *
+	 * @param order
+	 *            the order to be added to the queue.
+	 * @throws IllegalStateException
+	 *             if the queue has been shut down
+	 */
+	@Override
+	public void enqueue(final E order) {
+		if (!running) {
+			throw new IllegalStateException("Order queue is shut down");
+		}
+		if (!overflow.isEmpty() || !offer(order)) {
+			overflow.add(order);
+		}
+		dispatchOrders();
+	}
+
+	/**
+	 * Adds the specified order to the tail of the ring, and wakes the consumer; unless the ring is
+	 * full, or earlier orders overflowed.
+	 *
+	 * @param order
+	 *            the order to be added to the queue.
+	 * @return true if added, false if refused as the ring is full
+	 * @throws IllegalStateException
+	 *             if the queue has been shut down
+	 */
+	public boolean tryEnqueue(final E order) {
+		if (!running) {
+			throw new IllegalStateException("Order queue is shut down");
+		}
+		final boolean added = overflow.isEmpty() && offer(order);
+		dispatchOrders();
+		return added;
+	}
+
+	/**
+	 * Gets the number of ring slots.
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return ring.length;
+	}
+
+	/**
+	 * Claims the tail slot and publishes the order into it.
+	 *
+	 * @param order
+	 *            the order to add
+	 * @return true if added, false if the ring is full
+	 */
+	private boolean offer(final E order) {
+		for (;;) {
+			final long position = tail.get();
+			final int slot = (int) position & mask;
+			final long available = sequences.get(slot) - position;
+			if (available == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					ring[slot] = order;
+					sequences.set(slot, position + 1); //publishes the order, and orders the read of consumerWaiting after it
+					return true;
+				}
+			} else if (available < 0) {
+				return false; //the consumer has not yet freed this slot from the previous lap
+			}
+		}
+	}
+
+	/**
+	 * Removes the order at the head of the ring, if it is dispatchable. If there are orders, but
+	 * they do not meet dispatch criteria, the order is not removed and {@code null} is returned.
+	 *
+	 * @return the first dispatchable order in the queue; {@code null} if there are no dispatchable
+	 *         orders in the queue.
+	 */
+	@Override
+	public E dequeue() {
+		consumerLock.lock();
+		try {
+			final E order = peek();
+			if (order == null || !dispatchFilter.test(threshold, order)) {
+				return null;
+			}
+			advanceHead();
+			return order;
+		} finally {
+			consumerLock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the order at the head of the ring, or of the overflow queue once the ring is empty,
+	 * without removing it. Must be called while holding the consumer lock.
+	 *
+	 * @return the head order, {@code null} if the queue is empty
+	 */
+	@SuppressWarnings("unchecked")
+	private E peek() {
+		final int slot = (int) head & mask;
+		peekedOverflow = sequences.get(slot) != head + 1;
+		return peekedOverflow ? overflow.peek() : (E) ring[slot];
+	}
+
+	/**
+	 * Removes the order last peeked; frees the head slot for the producers' next lap, if it came
+	 * from the ring. Must be called while holding the consumer lock, after a successful peek().
+	 */
+	private void advanceHead() {
+		if (peekedOverflow) {
+			overflow.poll();
+			return;
+		}
+		final int slot = (int) head & mask;
+		ring[slot] = null;
+		sequences.lazySet(slot, head + ring.length);
+		head++;
+	}
+
+	/**
+	 * Wakes the consumer thread, which will dispatch any dispatchable orders.
+	 */
+	@Override
+	public void dispatchOrders() {
+		if (consumerWaiting) {
+			LockSupport.unpark(consumerThread);
+		}
+	}
+
+	/**
+	 * Registers the callback to be used for order processing.
+	 *
+	 * @param proc
+	 *            the callback to be registerd.
+	 */
+	@Override
+	public void setOrderProcessor(final Consumer<E> proc) {
+		this.orderProcessor = proc;
+	}
+
+	/**
+	 * Adjusts the threshold and dispatches orders.
+	 *
+	 * @param threshold
+	 *            the new threshold.
+	 */
+	@Override
+	public void setThreshold(final T threshold) {
+		this.threshold = threshold;
+		LockSupport.unpark(consumerThread); //unconditionally, the filter result may have changed
+	}
+
+	/**
+	 * Obtains the current threshold value.
+	 *
+	 * @return the current threshold.
+	 */
+	@Override
+	public T getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Stops the consumer thread. Orders remaining in the queue are not dispatched.
+	 */
+	public void shutdown() {
+		running = false;
+		LockSupport.unpark(consumerThread);
+	}
+
+	/**
+	 * Consumer loop. Dispatches orders from the head of the ring in batches while they pass the
+	 * dispatch filter, and parks when the ring is empty or the head order is not dispatchable.
+	 */
+	@Override
+	public void run() {
+		final List<E> batch = new ArrayList<E>(MAX_BATCH_SIZE);
+		while (running) {
+			consumerLock.lock();
+			try {
+				final T currentThreshold = threshold;
+				E order = null;
+				while (batch.size() < MAX_BATCH_SIZE && (order = peek()) != null
+						&& dispatchFilter.test(currentThreshold, order)) {
+					advanceHead();
+					batch.add(order);
+				}
+			} finally {
+				consumerLock.unlock();
+			}
+			if (!batch.isEmpty()) {
+				try {
+					BatchOrderProcessor.process(orderProcessor, new ArrayList<E>(batch));
+				} catch (final RuntimeException e) {
+					LOG.error("Order processor failed, orders dropped: " + batch, e);
+				}
+				batch.clear();
+			} else {
+				awaitSignal();
+			}
+		}
+	}
+
+	/**
+	 * Parks the consumer until a producer or a threshold change wakes it. The waiting flag is set
+	 * before the head is re-checked, so an order published concurrently is never missed.
+	 */
+	private void awaitSignal() {
+		consumerWaiting = true;
+		try {
+			if (running && !isHeadDispatchable()) {
+				LockSupport.park(this);
+			}
+		} finally {
+			consumerWaiting = false;
+		}
+	}
+
+	/**
+	 * Checks whether the head order passes the dispatch filter.
+	 *
+	 * @return true if there is a dispatchable order at the head of the ring
+	 */
+	private boolean isHeadDispatchable() {
+		consumerLock.lock();
+		try {
+			final E order = peek();
+			return order != null && dispatchFilter.test(threshold, order);
+		} finally {
+			consumerLock.unlock();
+		}
+	}
+
+}
@@ -0,0 +1,214 @@
+package com.github.astefanich.broker.concurrent;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjIntConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Conflates the price changes a {@link ConcurrentBroker} receives, so a broker which falls behind
+ * adjusts each stock's price once per pass rather than once per change. Each stock has one
+ * pending slot, holding the latest price and the lowest and highest prices since the slot was last
+ * drained; a dispatcher thread drains the slots, adjusting to the highest, then the lowest, then
+ * the latest price. A stop buy order triggered by any of the skipped prices is triggered by the
+ * highest, and a stop sell order by the lowest, so no order is missed, and the final threshold is
+ * the latest price. That requires each adjustment to dispatch the orders it triggers before the
+ * next adjustment moves the threshold; {@link ConcurrentBroker#setPriceConflation(boolean)} only
+ * conflates for brokers whose order managers do.
+ *
+ * @author AndrewStefanich
+ * @see ConcurrentBroker
+ */
+final class PriceConflator {
+
+	/** this class' logger */
+	private static final Logger LOG = LoggerFactory.getLogger(PriceConflator.class);
+
+	/** how long an idle dispatcher waits for a price before re-checking for shutdown, in ms */
+	private static final long POLL_INTERVAL_MS = 100;
+
+	/** adjusts a stock's price; the order manager's adjustPrice */
+	private final ObjIntConsumer<String> priceAdjuster;
+
+	/** pending slot of each stock, by ticker */
+	private final ConcurrentMap<String, PendingPrice> slots = new ConcurrentHashMap<String, PendingPrice>();
+
+	/** slots holding a price, in the order they became pending */
+	private final BlockingQueue<PendingPrice> pendingSlots = new LinkedBlockingQueue<PendingPrice>();
+
+	/** drains the pending slots */
+	private final Thread dispatcher;
+
+	/** number of price changes folded into an already pending slot */
+	private final AtomicLong conflatedCount = new AtomicLong();
+
+	/** false once closed */
+	private volatile boolean running = true;
+
+	/**
+	 * Constructs a PriceConflator, and starts its dispatcher.
+	 *
+	 * @param name
+	 *            name of the broker, for the dispatcher thread's name
+	 * @param priceAdjuster
+	 *            adjusts a stock's price
+	 */
+	PriceConflator(final String name, final ObjIntConsumer<String> priceAdjuster) {
+		this.priceAdjuster = priceAdjuster;
+		this.dispatcher = new Thread(this::dispatch, name + "-price-dispatcher");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	/**
+	 * Records a price change in the stock's slot, queueing the slot if it was not pending.
+	 *
+	 * @param ticker
+	 *            ticker symbol of the stock
+	 * @param price
+	 *            the new price
+	 */
+	void priceChanged(final String ticker, final int price) {
+		final PendingPrice slot = slots.computeIfAbsent(ticker, PendingPrice::new);
+		if (slot.offer(price)) {
+			pendingSlots.add(slot);
+		} else {
+			conflatedCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Dispatcher loop. Drains pending slots until closed.
+	 */
+	private void dispatch() {
+		final int[] range = new int[3];
+		while (running) {
+			final PendingPrice slot;
+			try {
+				slot = pendingSlots.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+			} catch (final InterruptedException e) {
+				return;
+			}
+			if (slot != null) {
+				slot.take(range);
+				try {
+					adjust(slot.ticker, range[0], range[1], range[2]);
+				} catch (final RuntimeException e) {
+					LOG.error(String.format("Failed to adjust the price of %s to %d", slot.ticker, range[2]), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adjusts a stock's price to each extreme it reached, then to its latest price, skipping
+	 * repeats.
+	 *
+	 * @param ticker
+	 *            ticker symbol of the stock
+	 * @param high
+	 *            highest price since the last adjustment
+	 * @param low
+	 *            lowest price since the last adjustment
+	 * @param latest
+	 *            the latest price
+	 */
+	private void adjust(final String ticker, final int high, final int low, final int latest) {
+		if (high != latest) {
+			priceAdjuster.accept(ticker, high);
+		}
+		if (low != latest && low != high) {
+			priceAdjuster.accept(ticker, low);
+		}
+		priceAdjuster.accept(ticker, latest);
+	}
+
+	/**
+	 * Gets the number of price changes folded into an already pending slot, rather than adjusted
+	 * separately.
+	 *
+	 * @return the conflated price change count
+	 */
+	long getConflatedCount() {
+		return conflatedCount.get();
+	}
+
+	/**
+	 * Stops the dispatcher, discarding pending prices. A price being adjusted completes.
+	 */
+	void close() {
+		running = false;
+		dispatcher.interrupt();
+	}
+
+	/**
+	 * A stock's pending slot; the prices received since the dispatcher last drained it.
+	 */
+	private static final class PendingPrice {
+
+		/** ticker symbol of the stock */
+		private final String ticker;
+
+		/** whether the slot holds a price; guarded by this */
+		private boolean pending;
+
+		/** the latest price; guarded by this */
+		private int latest;
+
+		/** the lowest price; guarded by this */
+		private int low;
+
+		/** the highest price; guarded by this */
+		private int high;
+
+		/**
+		 * Constructs a PendingPrice.
+		 *
+		 * @param ticker
+		 *            ticker symbol of the stock
+		 */
+		PendingPrice(final String ticker) {
+			this.ticker = ticker;
+		}
+
+		/**
+		 * Records a price.
+		 *
+		 * @param price
+		 *            the price
+		 * @return true if the slot was not pending, and must be queued
+		 */
+		synchronized boolean offer(final int price) {
+			latest = price;
+			if (!pending) {
+				pending = true;
+				low = price;
+				high = price;
+				return true;
+			}
+			low = Math.min(low, price);
+			high = Math.max(high, price);
+			return false;
+		}
+
+		/**
+		 * Empties the slot.
+		 *
+		 * @param range
+		 *            receives the highest, lowest and latest prices, in that order
+		 */
+		synchronized void take(final int[] range) {
+			range[0] = high;
+			range[1] = low;
+			range[2] = latest;
+			pending = false;
+		}
+	}
+
+}
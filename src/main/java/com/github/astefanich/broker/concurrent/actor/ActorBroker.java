@@ -0,0 +1,136 @@
+package com.github.astefanich.broker.concurrent.actor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.astefanich.broker.book.OrderBookType;
+import com.github.astefanich.broker.concurrent.ConcurrentBroker;
+import com.github.astefanich.broker.concurrent.MpscOrderQueue;
+import com.github.astefanich.exchange.ExchangeNetworkAdapter;
+
+import edu.uw.ext.framework.account.AccountManager;
+import edu.uw.ext.framework.broker.BrokerException;
+import edu.uw.ext.framework.broker.OrderManager;
+import edu.uw.ext.framework.exchange.StockExchange;
+import edu.uw.ext.framework.order.Order;
+
+/**
+ * Uses {@link ActorOrderManager}s, sharded over a fixed set of single-threaded event loops, and
+ * a lock-free {@link MpscOrderQueue} for market orders. Each stock's order manager is owned by
+ * exactly one event loop, to which all of its price changes and order placements are posted.
+ * 
+ * @author AndrewStefanich
+ * @see OrderManager
+ * @see ExecutorService
+ */
+public final class ActorBroker extends ConcurrentBroker {
+
+	/** this class' logger */
+	private static final Logger LOG = LoggerFactory.getLogger(ActorBroker.class);
+
+	/** single-threaded event loops, order managers are assigned to them round-robin */
+	private final ExecutorService[] eventLoops;
+
+	/** index of the event loop the next order manager is assigned to */
+	private int nextEventLoop;
+
+	/** storage to be used by the order managers' queues */
+	private final OrderBookType orderBookType;
+
+	/**
+	 * Constructs an ActorBroker. Creation should be done by public factory method.
+	 * 
+	 * @param brokerName
+	 *            the name of the broker
+	 * @param accountManager
+	 *            the {@code AccountManager} to be used by the broker
+	 * @param exchange
+	 *            the {@code StockExchange} to be used by the broker.
+	 * @param eventLoopCount
+	 *            the number of event-loop threads to shard the stocks over
+	 * @param orderBookType
+	 *            the storage to be used by the order managers' queues
+	 */
+	ActorBroker(final String brokerName, final AccountManager accountManager, final StockExchange exchange,
+			final int eventLoopCount, final OrderBookType orderBookType) {
+		super(brokerName, accountManager, exchange);
+		this.orderBookType = orderBookType;
+		this.eventLoops = new ExecutorService[eventLoopCount];
+		for (int i = 0; i < eventLoopCount; i++) {
+			final String threadName = String.format("%s-event-loop-%d", brokerName, i);
+			eventLoops[i] = Executors.newSingleThreadExecutor((runnable) -> new Thread(runnable, threadName));
+		}
+		this.marketOrderQueue = new MpscOrderQueue<Boolean, Order>(exchange.isOpen(), market_order_filter);
+		marketOrderQueue.setOrderProcessor(tradeExecutor);
+		initializeOrderManagerMap();
+		exchange.addExchangeListener(this);
+	}
+
+	/**
+	 * Creates an appropriate manager for this broker (ActorOrderManager), owned by the next event
+	 * loop.
+	 * 
+	 * @param tickerSymbol
+	 *            the ticker symbol of the stock
+	 * @param initialPrice
+	 *            current price of the stock
+	 * @return a new OrderManager, for the specified stock
+	 */
+	protected OrderManager createOrderManager(final String tickerSymbol, final int initialPrice) {
+		final ExecutorService eventLoop = eventLoops[nextEventLoop];
+		nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+		return new ActorOrderManager(tickerSymbol, initialPrice, eventLoop, orderBookType);
+	}
+
+	/**
+	 * Each stock's ActorOrderManager adjusts its price, and dispatches the orders it triggers, in
+	 * one message on its event loop, so price conflation is supported.
+	 * 
+	 * @return true
+	 */
+	@Override
+	protected boolean isDispatchedInline() {
+		return true;
+	}
+
+	/**
+	 * Release resources used by the broker. Stops the event loops once their pending messages are
+	 * processed, then the market order queue, and closes the DAO utilized by the account manager.
+	 * Event loops which do not finish within the shutdown timer are stopped, dropping their pending
+	 * messages. The account manager is closed regardless.
+	 * 
+	 * @throws BrokerException
+	 *             if an error occurs during the close operation, or the calling thread is
+	 *             interrupted while waiting for the event loops (its interrupt status is restored)
+	 */
+	@Override
+	public void close() throws BrokerException {
+		for (ExecutorService eventLoop : eventLoops) {
+			eventLoop.shutdown();
+		}
+		LOG.info(String.format("ActorBroker: %s closing %d event loops. No new requests will be accepted.", this,
+				eventLoops.length));
+		final int timeout = ExchangeNetworkAdapter.getShutdownTimer();
+		try {
+			for (ExecutorService eventLoop : eventLoops) {
+				if (!eventLoop.awaitTermination(timeout, TimeUnit.SECONDS)) {
+					LOG.warn(String.format("ActorBroker: %s event loop did not finish within %d seconds of shutdown,"
+							+ " dropping %d pending requests", this, timeout, eventLoop.shutdownNow().size()));
+				}
+			}
+		} catch (InterruptedException e) {
+			for (ExecutorService eventLoop : eventLoops) {
+				eventLoop.shutdownNow();
+			}
+			Thread.currentThread().interrupt();
+			throw new BrokerException("Interrupted before pending requests completed on shutdown");
+		} finally {
+			((MpscOrderQueue<Boolean, Order>) marketOrderQueue).shutdown();
+			super.close();
+		}
+	}
+}
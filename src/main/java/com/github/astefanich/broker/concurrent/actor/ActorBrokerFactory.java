@@ -0,0 +1,108 @@
+package com.github.astefanich.broker.concurrent.actor;
+
+import com.github.astefanich.broker.book.OrderBookType;
+
+import edu.uw.ext.framework.account.AccountManager;
+import edu.uw.ext.framework.broker.Broker;
+import edu.uw.ext.framework.broker.BrokerFactory;
+import edu.uw.ext.framework.exchange.StockExchange;
+
+/**
+ * {@link BrokerFactory} implementation that returns an {@link ActorBroker}.
+ * 
+ * @author AndrewStefanich
+ *
+ */
+public final class ActorBrokerFactory implements BrokerFactory {
+
+	/** storage to be used by the order managers' queues of new brokers */
+	private OrderBookType orderBookType = OrderBookType.TREE_SET;
+
+	/** whether new brokers conflate price changes per stock */
+	private boolean conflatePrices;
+
+	/** number of event-loop threads of new brokers */
+	private int eventLoopCount = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Sets the storage to be used by the order managers' queues of subsequently created brokers.
+	 * 
+	 * @param orderBookType
+	 *            the book type, {@link OrderBookType#TREE_SET} by default
+	 */
+	public void setOrderBookType(final OrderBookType orderBookType) {
+		this.orderBookType = orderBookType;
+	}
+
+	/**
+	 * Gets the storage to be used by the order managers' queues of new brokers.
+	 * 
+	 * @return the book type
+	 */
+	public OrderBookType getOrderBookType() {
+		return orderBookType;
+	}
+
+	/**
+	 * Sets the number of event-loop threads the stocks of subsequently created brokers are sharded
+	 * over.
+	 * 
+	 * @param eventLoopCount
+	 *            the number of threads, the number of available processors by default
+	 */
+	public void setEventLoopCount(final int eventLoopCount) {
+		if (eventLoopCount < 1) {
+			throw new IllegalArgumentException("eventLoopCount must be at least 1: " + eventLoopCount);
+		}
+		this.eventLoopCount = eventLoopCount;
+	}
+
+	/**
+	 * Gets the number of event-loop threads of new brokers.
+	 * 
+	 * @return the number of threads
+	 */
+	public int getEventLoopCount() {
+		return eventLoopCount;
+	}
+
+	/**
+	 * Sets whether subsequently created brokers conflate price changes per stock, so a broker which
+	 * falls behind the price stream adjusts to the extremes and latest price of each stock rather
+	 * than to every change.
+	 * 
+	 * @param conflatePrices
+	 *            true to conflate, false (the default) to adjust each price as received
+	 * @see com.github.astefanich.broker.concurrent.ConcurrentBroker#setPriceConflation(boolean)
+	 */
+	public void setConflatePrices(final boolean conflatePrices) {
+		this.conflatePrices = conflatePrices;
+	}
+
+	/**
+	 * Gets whether new brokers conflate price changes per stock.
+	 * 
+	 * @return true if price changes are conflated
+	 */
+	public boolean isConflatePrices() {
+		return conflatePrices;
+	}
+
+	/**
+	 * Instantiates a new {@code ActorBroker}.
+	 * 
+	 * @param name
+	 *            the broker's name
+	 * @param accountManager
+	 *            the {@link AccountManager} to be used by the broker
+	 * @param exchange
+	 *            the exchange to be used by the broker
+	 * @return a new ActorBroker instance
+	 */
+	@Override
+	public Broker newBroker(String name, AccountManager accountManager, StockExchange exchange) {
+		final ActorBroker broker = new ActorBroker(name, accountManager, exchange, eventLoopCount, orderBookType);
+		broker.setPriceConflation(conflatePrices);
+		return broker;
+	}
+}
@@ -0,0 +1,143 @@
+package com.github.astefanich.broker.concurrent.actor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.astefanich.broker.book.OrderBookType;
+import com.github.astefanich.broker.concurrent.ConcurrentOrderManager;
+import com.github.astefanich.broker.simple.SimpleOrderQueue;
+
+import edu.uw.ext.framework.order.PricedOrder;
+import edu.uw.ext.framework.order.StopBuyOrder;
+import edu.uw.ext.framework.order.StopSellOrder;
+
+/**
+ * Concrete implementation of {@link ConcurrentOrderManager}, owned by a single event-loop thread.
+ * Every operation is posted as a message to the event loop and performed there, so the queues are
+ * only ever touched by that one thread and need no locks of their own.
+ * 
+ * @author AndrewStefanich
+ * 
+ * @see Executor
+ */
+public final class ActorOrderManager extends ConcurrentOrderManager {
+
+	/** this class' logger */
+	private static final Logger LOG = LoggerFactory.getLogger(ActorOrderManager.class);
+
+	/** the single-threaded event loop which owns this manager's queues */
+	private final Executor eventLoop;
+
+	/**
+	 * Constructs an instance of {@code ActorOrderManager}, and initializes {@link PricedOrder}
+	 * queues of the given book type.
+	 * 
+	 * @param stockSymbolTicker
+	 *            the ticker symbol of the stock this instance manages orders for
+	 * @param price
+	 *            the current price of the stock to be managed
+	 * @param eventLoop
+	 *            the single-threaded Executor which owns this manager
+	 * @param orderBookType
+	 *            the storage to be used by the order queues
+	 */
+	public ActorOrderManager(String stockSymbolTicker, int price, Executor eventLoop,
+			OrderBookType orderBookType) {
+		super(stockSymbolTicker, orderBookType);
+		this.eventLoop = eventLoop;
+		initializePricedOrderQueues(price);
+		setBuyOrderProcessor(null); //orders dispatched before a processor is registered still leave the depth
+		setSellOrderProcessor(null);
+	}
+
+	/**
+	 * Initializes this OrderManager queues with unsynchronized {@link SimpleOrderQueue}s.
+	 * 
+	 * @param initialPrice
+	 *            the initial "stop" price for the queues
+	 */
+	protected void initializePricedOrderQueues(int initialPrice) {
+		if (initializeOrderBookQueues(initialPrice)) {
+			return;
+		}
+		stopBuyOrderQueue = new SimpleOrderQueue<Integer, StopBuyOrder>(initialPrice, STOP_BUY_ORDER_FILTER,
+				STOP_BUY_ORDER_COMPARATOR, isBulkDrain());
+		stopSellOrderQueue = new SimpleOrderQueue<Integer, StopSellOrder>(initialPrice, STOP_SELL_ORDER_FILTER,
+				STOP_SELL_ORDER_COMPARATOR, isBulkDrain());
+	}
+
+	/**
+	 * Posts a message to the event loop. Messages posted after the broker has shut the event loop
+	 * down are dropped.
+	 * 
+	 * @param message
+	 *            the operation to be performed on the event loop
+	 */
+	private void post(final Runnable message) {
+		try {
+			eventLoop.execute(message);
+		} catch (final RejectedExecutionException e) {
+			LOG.warn(String.format("OrderManager for %s is closed, request dropped", getSymbol()));
+		}
+	}
+
+	/**
+	 * Posts a price adjustment to the event loop.
+	 * 
+	 * @param price
+	 *            the new price
+	 */
+	@Override
+	public void adjustPrice(final int price) {
+		post(() -> super.adjustPrice(price));
+	}
+
+	/**
+	 * Posts a stop buy order to the event loop, to be queued.
+	 * 
+	 * @param order
+	 *            the order to be queued
+	 */
+	@Override
+	public void queueOrder(final StopBuyOrder order) {
+		post(() -> super.queueOrder(order));
+	}
+
+	/**
+	 * Posts a stop sell order to the event loop, to be queued.
+	 * 
+	 * @param order
+	 *            the order to be queued
+	 */
+	@Override
+	public void queueOrder(final StopSellOrder order) {
+		post(() -> super.queueOrder(order));
+	}
+
+	/**
+	 * Posts the registration of the buy order processor to the event loop.
+	 * 
+	 * @param processor
+	 *            callback to be registered
+	 */
+	@Override
+	public void setBuyOrderProcessor(final Consumer<StopBuyOrder> processor) {
+		post(() -> super.setBuyOrderProcessor(processor));
+	}
+
+	/**
+	 * Posts the registration of the sell order processor to the event loop.
+	 * 
+	 * @param processor
+	 *            callback to be registered
+	 */
+	@Override
+	public void setSellOrderProcessor(final Consumer<StopSellOrder> processor) {
+		post(() -> super.setSellOrderProcessor(processor));
+	}
+
+}
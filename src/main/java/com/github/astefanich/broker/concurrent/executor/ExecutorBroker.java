@@ -7,6 +7,7 @@ import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.astefanich.broker.book.OrderBookType;
 import com.github.astefanich.broker.concurrent.ConcurrentBroker;
 import com.github.astefanich.exchange.ExchangeNetworkAdapter;
 
@@ -29,7 +30,10 @@ public final class ExecutorBroker extends ConcurrentBroker {
 	private static final Logger LOG = LoggerFactory.getLogger(ExecutorBroker.class);
 
 	/** Executor for concurrent operations. Will be passed to order manager and order queues */
-	private final ExecutorService threadPool = Executors.newCachedThreadPool();
+	private final ExecutorService threadPool;
+
+	/** storage to be used by the order managers' queues */
+	private final OrderBookType orderBookType;
 
 	/**
 	 * Constructs an ExecutorBroker. Creation should be done by public factory method.
@@ -42,9 +46,49 @@ public final class ExecutorBroker extends ConcurrentBroker {
 	 *            the {@code StockExchange} to be used by the broker.
 	 */
 	ExecutorBroker(final String brokerName, final AccountManager accountManager, final StockExchange exchange) {
+		this(brokerName, accountManager, exchange, OrderBookType.TREE_SET);
+	}
+
+	/**
+	 * Constructs an ExecutorBroker whose order managers use the given book type. Creation should
+	 * be done by public factory method.
+	 * 
+	 * @param brokerName
+	 *            the name of the broker
+	 * @param accountManager
+	 *            the {@code AccountManager} to be used by the broker
+	 * @param exchange
+	 *            the {@code StockExchange} to be used by the broker.
+	 * @param orderBookType
+	 *            the storage to be used by the order managers' queues
+	 */
+	ExecutorBroker(final String brokerName, final AccountManager accountManager, final StockExchange exchange,
+			final OrderBookType orderBookType) {
+		this(brokerName, accountManager, exchange, orderBookType, Executors.newCachedThreadPool());
+	}
+
+	/**
+	 * Constructs an ExecutorBroker whose order managers use the given book type, and whose queues
+	 * dispatch on the given executor. Creation should be done by public factory method.
+	 * 
+	 * @param brokerName
+	 *            the name of the broker
+	 * @param accountManager
+	 *            the {@code AccountManager} to be used by the broker
+	 * @param exchange
+	 *            the {@code StockExchange} to be used by the broker.
+	 * @param orderBookType
+	 *            the storage to be used by the order managers' queues
+	 * @param threadPool
+	 *            the executor the order queues dispatch on, shut down by close()
+	 */
+	ExecutorBroker(final String brokerName, final AccountManager accountManager, final StockExchange exchange,
+			final OrderBookType orderBookType, final ExecutorService threadPool) {
 		super(brokerName, accountManager, exchange);
+		this.orderBookType = orderBookType;
+		this.threadPool = threadPool;
 		this.marketOrderQueue = new ExecutorOrderQueue<Boolean, Order>(exchange.isOpen(), market_order_filter,
-				threadPool);
+				threadPool, true); //drained in batches, executed in one request each
 		marketOrderQueue.setOrderProcessor(tradeExecutor);
 		initializeOrderManagerMap();
 		exchange.addExchangeListener(this);
@@ -60,7 +104,26 @@ public final class ExecutorBroker extends ConcurrentBroker {
 	 * @return a new OrderManager, for the specified stock
 	 */
 	protected OrderManager createOrderManager(final String tickerSymbol, final int initialPrice) {
-		return new ExecutorOrderManager(tickerSymbol, initialPrice, threadPool);
+		return new ExecutorOrderManager(tickerSymbol, initialPrice, threadPool, orderBookType);
+	}
+
+	/**
+	 * Gets the number of order queue dispatches which were coalesced into an already pending drain
+	 * task, across the market order queue and every order manager's queues.
+	 * 
+	 * @return the coalesced dispatch count
+	 */
+	public long getCoalescedDispatchCount() {
+		long count = 0;
+		if (marketOrderQueue instanceof ExecutorOrderQueue) {
+			count += ((ExecutorOrderQueue<?, ?>) marketOrderQueue).getCoalescedDispatchCount();
+		}
+		for (OrderManager orderManager : getOrderManagers()) {
+			if (orderManager instanceof ExecutorOrderManager) {
+				count += ((ExecutorOrderManager) orderManager).getCoalescedDispatchCount();
+			}
+		}
+		return count;
 	}
 
 	/**
@@ -71,6 +134,8 @@ public final class ExecutorBroker extends ConcurrentBroker {
 	 */
 	@Override
 	public void close() throws BrokerException {
+		LOG.info(String.format("ExecutorBroker: %s coalesced %d order queue dispatches", this,
+				getCoalescedDispatchCount()));
 		threadPool.shutdown();
 		LOG.info(String.format("ExecutorBroker: %s closing ExecutorService: %s. No new requests will be accepted.",
 				this, threadPool));
@@ -1,5 +1,7 @@
 package com.github.astefanich.broker.concurrent.executor;
 
+import com.github.astefanich.broker.book.OrderBookType;
+
 import edu.uw.ext.framework.account.AccountManager;
 import edu.uw.ext.framework.broker.Broker;
 import edu.uw.ext.framework.broker.BrokerFactory;
@@ -13,6 +15,45 @@ import edu.uw.ext.framework.exchange.StockExchange;
  */
 public final class ExecutorBrokerFactory implements BrokerFactory {
 
+	/** storage to be used by the order managers' queues of new brokers */
+	private OrderBookType orderBookType = OrderBookType.TREE_SET;
+
+	/**
+	 * Sets the storage to be used by the order managers' queues of subsequently created brokers.
+	 * 
+	 * @param orderBookType
+	 *            the book type, {@link OrderBookType#TREE_SET} by default
+	 */
+	public void setOrderBookType(final OrderBookType orderBookType) {
+		this.orderBookType = orderBookType;
+	}
+
+	/**
+	 * Gets the storage to be used by the order managers' queues of new brokers.
+	 * 
+	 * @return the book type
+	 */
+	public OrderBookType getOrderBookType() {
+		return orderBookType;
+	}
+
+	/**
+	 * Rejects price conflation: the order managers' queues dispatch on the thread pool, so a conflated
+	 * extreme may be skipped before the queues drain. Accepts false, the only supported value.
+	 * 
+	 * @param conflatePrices
+	 *            must be false
+	 * @throws UnsupportedOperationException
+	 *             if conflatePrices is true
+	 * @see com.github.astefanich.broker.concurrent.ConcurrentBroker#setPriceConflation(boolean)
+	 */
+	public void setConflatePrices(final boolean conflatePrices) {
+		if (conflatePrices) {
+			throw new UnsupportedOperationException(
+					"ExecutorBroker dispatches stop orders asynchronously, prices cannot be conflated");
+		}
+	}
+
 	/**
 	 * Instantiates a new {@code ExecutorBroker}.
 	 * 
@@ -26,6 +67,6 @@ public final class ExecutorBrokerFactory implements BrokerFactory {
 	 */
 	@Override
 	public Broker newBroker(String name, AccountManager accountManager, StockExchange exchange) {
-		return new ExecutorBroker(name, accountManager, exchange);
+		return new ExecutorBroker(name, accountManager, exchange, orderBookType);
 	}
 }
@@ -2,6 +2,7 @@ package com.github.astefanich.broker.concurrent.executor;
 
 import java.util.concurrent.Executor;
 
+import com.github.astefanich.broker.book.OrderBookType;
 import com.github.astefanich.broker.concurrent.ConcurrentOrderManager;
 
 import edu.uw.ext.framework.order.PricedOrder;
@@ -34,22 +35,62 @@ public final class ExecutorOrderManager extends ConcurrentOrderManager {
 	 *            the Executor to utilize for multithreading tasks.
 	 */
 	public ExecutorOrderManager(String stockSymbolTicker, int price, Executor threadPool) {
-		super(stockSymbolTicker);
+		this(stockSymbolTicker, price, threadPool, OrderBookType.TREE_SET);
+	}
+
+	/**
+	 * Constructs an instance of {@code ExecutorOrderManager}, initializes {@link PricedOrder}
+	 * queues of the given book type.
+	 * 
+	 * @param stockSymbolTicker
+	 *            the ticker symbol of the stock this instance manages orders for
+	 * @param price
+	 *            the current price of the stock to be managed
+	 * @param threadPool
+	 *            the Executor to utilize for multithreading tasks.
+	 * @param orderBookType
+	 *            the storage to be used by the order queues
+	 */
+	public ExecutorOrderManager(String stockSymbolTicker, int price, Executor threadPool,
+			OrderBookType orderBookType) {
+		super(stockSymbolTicker, orderBookType);
 		this.threadPool = threadPool;
 		initializePricedOrderQueues(price);
+		setBuyOrderProcessor(null); //orders dispatched before a processor is registered still leave the depth
+		setSellOrderProcessor(null);
+	}
+
+	/**
+	 * Gets the number of dispatches coalesced by this manager's {@link ExecutorOrderQueue}s.
+	 * 
+	 * @return the coalesced dispatch count, 0 if the queues are not {@code ExecutorOrderQueue}s
+	 */
+	public long getCoalescedDispatchCount() {
+		long count = 0;
+		if (stopBuyOrderQueue instanceof ExecutorOrderQueue) {
+			count += ((ExecutorOrderQueue<?, ?>) stopBuyOrderQueue).getCoalescedDispatchCount();
+		}
+		if (stopSellOrderQueue instanceof ExecutorOrderQueue) {
+			count += ((ExecutorOrderQueue<?, ?>) stopSellOrderQueue).getCoalescedDispatchCount();
+		}
+		return count;
 	}
 
 	/**
-	 * Initializes this OrderManager queues with {@link ExecutorOrderQueue}s.
+	 * Initializes this OrderManager queues with {@link ExecutorOrderQueue}s. Other book types
+	 * dispatch on the thread pool as well.
 	 * 
 	 * @param initialPrice
 	 *            the initial "stop" price for the queues
 	 */
 	protected void initializePricedOrderQueues(int initialPrice) {
+		if (initializeOrderBookQueues(initialPrice, this.threadPool, this.threadPool)) {
+			return;
+		}
 		stopBuyOrderQueue = new ExecutorOrderQueue<Integer, StopBuyOrder>(initialPrice, STOP_BUY_ORDER_FILTER,
-				STOP_BUY_ORDER_COMPARATOR, this.threadPool);
+				STOP_BUY_ORDER_COMPARATOR, this.threadPool, isBulkDrain());
 		stopSellOrderQueue = new ExecutorOrderQueue<Integer, StopSellOrder>(initialPrice, STOP_SELL_ORDER_FILTER,
-				STOP_SELL_ORDER_COMPARATOR, this.threadPool);
+				STOP_SELL_ORDER_COMPARATOR, this.threadPool, isBulkDrain());
 	}
 
 }
@@ -1,6 +1,8 @@
 package com.github.astefanich.broker.concurrent.executor;
 
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.TreeSet;
 import java.util.concurrent.Executor;
 import java.util.concurrent.locks.Lock;
@@ -8,6 +10,10 @@ import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiPredicate;
 import java.util.function.Consumer;
 
+import com.github.astefanich.broker.book.BatchOrderProcessor;
+import com.github.astefanich.broker.book.CoalescingDispatcher;
+import com.github.astefanich.broker.book.RangeDrain;
+
 import edu.uw.ext.framework.broker.OrderQueue;
 import edu.uw.ext.framework.order.Order;
 
@@ -38,8 +44,11 @@ public class ExecutorOrderQueue<T, E extends Order> implements OrderQueue<T, E>,
 	/** Filter to control dispatching of orders */
 	private BiPredicate<T, E> dispatchFilter;
 
-	/** thread pool for concurrent operations */
-	private Executor threadPool;
+	/** true to drain every dispatchable order in one batch, false to dispatch them one at a time */
+	private final boolean bulkDrain;
+
+	/** schedules run() on the thread pool, at most one pending drain at a time */
+	private final CoalescingDispatcher dispatcher;
 
 	/** lock for concurrent operations, for the TreeSet */
 	private final Lock collectionLock = new ReentrantLock();
@@ -59,10 +68,30 @@ public class ExecutorOrderQueue<T, E extends Order> implements OrderQueue<T, E>,
 	 *            the executor to be used to process this queue's orders
 	 */
 	public ExecutorOrderQueue(final T threshold, final BiPredicate<T, E> filter, Executor threadPool) {
+		this(threshold, filter, threadPool, false);
+	}
+
+	/**
+	 * Constructs a SimpleOrderQueue, orders added will be automatically sorted according to natural
+	 * ordering, optionally draining every dispatchable order in one batch.
+	 * 
+	 * @param threshold
+	 *            the initial threshold for dispatchability
+	 * @param filter
+	 *            the dispatch filter used to control dispatching from the queue
+	 * @param threadPool
+	 *            the executor to be used to process this queue's orders
+	 * @param bulkDrain
+	 *            true to drain every dispatchable order in one batch, false to dispatch them one at
+	 *            a time
+	 */
+	public ExecutorOrderQueue(final T threshold, final BiPredicate<T, E> filter, Executor threadPool,
+			final boolean bulkDrain) {
 		this.orderQueue = new TreeSet<E>();
 		this.threshold = threshold;
 		this.dispatchFilter = filter;
-		this.threadPool = threadPool;
+		this.bulkDrain = bulkDrain;
+		this.dispatcher = new CoalescingDispatcher(threadPool, this);
 	}
 
 	/**
@@ -80,10 +109,32 @@ public class ExecutorOrderQueue<T, E extends Order> implements OrderQueue<T, E>,
 	 */
 	public ExecutorOrderQueue(final T threshold, final BiPredicate<T, E> filter, final Comparator<E> comparator,
 			Executor threadPool) {
+		this(threshold, filter, comparator, threadPool, false);
+	}
+
+	/**
+	 * Constructs a SimpleOrderQueue, orders added will be automatcially sorted according to a
+	 * custom sorting order, optionally draining every dispatchable order in one batch.
+	 * 
+	 * @param threshold
+	 *            the initial threshold for dispatchability
+	 * @param filter
+	 *            the dispatch filter used to control dispatching from the queue.
+	 * @param comparator
+	 *            custom sorting order
+	 * @param threadPool
+	 *            the Executor to utilize for multithreading tasks.
+	 * @param bulkDrain
+	 *            true to drain every dispatchable order in one batch, false to dispatch them one at
+	 *            a time
+	 */
+	public ExecutorOrderQueue(final T threshold, final BiPredicate<T, E> filter, final Comparator<E> comparator,
+			Executor threadPool, final boolean bulkDrain) {
 		this.orderQueue = new TreeSet<E>(comparator);
 		this.threshold = threshold;
 		this.dispatchFilter = filter;
-		this.threadPool = threadPool;
+		this.bulkDrain = bulkDrain;
+		this.dispatcher = new CoalescingDispatcher(threadPool, this);
 	}
 
 	/**
@@ -127,11 +178,41 @@ public class ExecutorOrderQueue<T, E extends Order> implements OrderQueue<T, E>,
 	}
 
 	/**
-	 * Executes this instance's run(), via a cachedThreadPool.
+	 * Removes the next dispatchable order, or with bulk drain every dispatchable order, from the
+	 * head of the queue, under a single acquisition of the collection lock.
+	 * 
+	 * @return the dispatchable orders, in order; empty if there are none
+	 */
+	private List<E> drainDispatchable() {
+		if (!bulkDrain) {
+			final E order = dequeue();
+			return (order == null) ? Collections.<E>emptyList() : Collections.singletonList(order);
+		}
+		collectionLock.lock();
+		try {
+			return RangeDrain.drainHead(orderQueue, dispatchFilter, threshold);
+		} finally {
+			collectionLock.unlock();
+		}
+	}
+
+	/**
+	 * Executes this instance's run(), via the thread pool. If a run is already queued or in
+	 * progress, it is marked dirty instead and will make another pass.
 	 */
 	@Override
 	public void dispatchOrders() {
-		threadPool.execute(this);
+		dispatcher.requestDispatch();
+	}
+
+	/**
+	 * Gets the number of dispatches which were coalesced into an already pending run, rather than
+	 * submitting a task of their own.
+	 * 
+	 * @return the coalesced dispatch count
+	 */
+	public long getCoalescedDispatchCount() {
+		return dispatcher.getCoalescedCount();
 	}
 
 	/**
@@ -176,26 +257,21 @@ public class ExecutorOrderQueue<T, E extends Order> implements OrderQueue<T, E>,
 
 	/**
 	 * Executes the callback for each dispatchable order. Each dispatchable order is removed from
-	 * the queue and passed to the callback. If there is no callback/orderprocessor registered, the
-	 * order is simply revmoed from the queue.
+	 * the queue and passed to the callback; with bulk drain the dispatchable range is removed in one
+	 * pass and passed on as a single batch if the callback is a {@link BatchOrderProcessor}. If there is no callback/orderprocessor registered, the orders
+	 * are simply revmoed from the queue. The dispatcher never runs this concurrently with itself,
+	 * so the collection lock is only held while draining, not while processing.
 	 */
 	@Override
 	public void run() {
-		collectionLock.lock();
-		E myOrder = null;
-		try {
-			while ((myOrder = dequeue()) != null) {
-				orderProcessorLock.lock();
-				try {
-					if (orderProcessor != null) {	//the order will be processed only if an orderprocessor has been registered.
-					}
-					orderProcessor.accept(myOrder);
-				} finally {
-					orderProcessorLock.unlock();
-				}
+		List<E> batch = null;
+		while (!(batch = drainDispatchable()).isEmpty()) {
+			orderProcessorLock.lock();
+			try {
+				BatchOrderProcessor.process(orderProcessor, batch); //the orders will be processed only if an orderprocessor has been registered.
+			} finally {
+				orderProcessorLock.unlock();
 			}
-		} finally {
-			collectionLock.unlock();
 		}
 	} //end of run()
 
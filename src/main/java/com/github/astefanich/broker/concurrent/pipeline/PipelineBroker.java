@@ -0,0 +1,196 @@
+package com.github.astefanich.broker.concurrent.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.astefanich.broker.book.OrderBookType;
+import com.github.astefanich.broker.concurrent.ConcurrentBroker;
+import com.github.astefanich.broker.concurrent.MpscOrderQueue;
+import com.github.astefanich.broker.concurrent.actor.ActorOrderManager;
+import com.github.astefanich.exchange.ExchangeNetworkAdapter;
+
+import edu.uw.ext.framework.account.AccountManager;
+import edu.uw.ext.framework.broker.BrokerException;
+import edu.uw.ext.framework.broker.OrderManager;
+import edu.uw.ext.framework.exchange.StockExchange;
+import edu.uw.ext.framework.order.Order;
+
+/**
+ * Processes orders as a pipeline of stages, each with its own threads, connected by bounded
+ * queues:
+ * <ol>
+ * <li>stop book: price changes and stop order placements, per stock, on {@link ActorOrderManager}s
+ * owned by the stage's lanes</li>
+ * <li>market queue: a lock-free {@link MpscOrderQueue}, released while the exchange is open</li>
+ * <li>exchange: executes the trade with the exchange (a network round trip when the exchange is
+ * remote)</li>
+ * <li>account: reflects the execution in the account's balance, persisting the account</li>
+ * </ol>
+ * A slow exchange or account store only fills the queue in front of its own stage, and stops
+ * dispatching to it once full, instead of stalling order matching for every stock.
+ *
+ * @author AndrewStefanich
+ * @see PipelineStage
+ */
+public final class PipelineBroker extends ConcurrentBroker {
+
+	/** this class' logger */
+	private static final Logger LOG = LoggerFactory.getLogger(PipelineBroker.class);
+
+	/** stop book stage, runs the order managers' operations. Keyed by ticker */
+	private final PipelineStage<Runnable> stopBookStage;
+
+	/** exchange stage, executes market orders. Keyed by ticker */
+	private final PipelineStage<Order> exchangeStage;
+
+	/** account stage, reflects executions in the accounts. Keyed by account */
+	private final PipelineStage<Execution> accountStage;
+
+	/** storage to be used by the order managers' queues */
+	private final OrderBookType orderBookType;
+
+	/**
+	 * Constructs a PipelineBroker. Creation should be done by public factory method.
+	 *
+	 * @param brokerName
+	 *            the name of the broker
+	 * @param accountManager
+	 *            the {@code AccountManager} to be used by the broker
+	 * @param exchange
+	 *            the {@code StockExchange} to be used by the broker.
+	 * @param orderBookType
+	 *            the storage to be used by the order managers' queues
+	 * @param stopBookThreads
+	 *            number of threads of the stop book stage
+	 * @param exchangeThreads
+	 *            number of threads of the exchange stage
+	 * @param accountThreads
+	 *            number of threads of the account stage
+	 * @param stageCapacity
+	 *            number of items each stage thread's queue holds before its feeder blocks
+	 */
+	PipelineBroker(final String brokerName, final AccountManager accountManager, final StockExchange exchange,
+			final OrderBookType orderBookType, final int stopBookThreads, final int exchangeThreads,
+			final int accountThreads, final int stageCapacity) {
+		super(brokerName, accountManager, exchange);
+		this.orderBookType = orderBookType;
+		this.accountStage = new PipelineStage<Execution>(brokerName + "-account", accountThreads, stageCapacity,
+				(execution) -> reflectExecution(execution.order, execution.price));
+		this.exchangeStage = new PipelineStage<Order>(brokerName + "-exchange", exchangeThreads, stageCapacity,
+				(order) -> {
+					final int executionPrice = getStockExchange().executeTrade(order);
+					accountStage.submit(order.getAccountId(), new Execution(order, executionPrice));
+				});
+		this.stopBookStage = new PipelineStage<Runnable>(brokerName + "-stop-book", stopBookThreads,
+				stageCapacity, Runnable::run);
+		this.marketOrderQueue = new MpscOrderQueue<Boolean, Order>(exchange.isOpen(), market_order_filter);
+		marketOrderQueue.setOrderProcessor((order) -> exchangeStage.submit(order.getStockTicker(), order));
+		initializeOrderManagerMap();
+		exchange.addExchangeListener(this);
+	}
+
+	/**
+	 * Creates an appropriate manager for this broker (ActorOrderManager), owned by the stop book
+	 * stage lane for the stock.
+	 *
+	 * @param tickerSymbol
+	 *            the ticker symbol of the stock
+	 * @param initialPrice
+	 *            current price of the stock
+	 * @return a new OrderManager, for the specified stock
+	 */
+	protected OrderManager createOrderManager(final String tickerSymbol, final int initialPrice) {
+		return new ActorOrderManager(tickerSymbol, initialPrice, stopBookStage.laneExecutor(tickerSymbol),
+				orderBookType);
+	}
+
+	/**
+	 * Each stock's ActorOrderManager adjusts its price, and dispatches the orders it triggers, in
+	 * one message on its stop book stage lane, so price conflation is supported.
+	 * 
+	 * @return true
+	 */
+	@Override
+	protected boolean isDispatchedInline() {
+		return true;
+	}
+
+	/**
+	 * Release resources used by the broker. Stops the stages from the front of the pipeline to the
+	 * back, each once the items already submitted to it are processed, and closes the DAO utilized
+	 * by the account manager. A stage which does not drain in time is reported, and left to its
+	 * (daemon) workers.
+	 *
+	 * @throws BrokerException
+	 *             if an error occurs during the close operation, or the calling thread is
+	 *             interrupted while waiting for the stages (its interrupt status is restored)
+	 */
+	@Override
+	public void close() throws BrokerException {
+		final int timeout = ExchangeNetworkAdapter.getShutdownTimer();
+		try {
+			final List<PipelineStage<?>> undrained = new ArrayList<PipelineStage<?>>();
+			if (!stopBookStage.shutdown(timeout)) {
+				undrained.add(stopBookStage);
+			}
+			((MpscOrderQueue<Boolean, Order>) marketOrderQueue).shutdown();
+			if (!exchangeStage.shutdown(timeout)) {
+				undrained.add(exchangeStage);
+			}
+			if (!accountStage.shutdown(timeout)) {
+				undrained.add(accountStage);
+			}
+			if (undrained.isEmpty()) {
+				LOG.info(String.format("PipelineBroker: %s closed stages %s, %s, %s", this, stopBookStage,
+						exchangeStage, accountStage));
+			} else {
+				LOG.warn(String.format("PipelineBroker: %s stages not drained within %d seconds of shutdown: %s",
+						this, timeout, undrained));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new BrokerException("Interrupted before pending orders completed on shutdown");
+		} finally {
+			((MpscOrderQueue<Boolean, Order>) marketOrderQueue).shutdown();
+			super.close();
+		}
+	}
+
+	/**
+	 * An executed order, passed from the exchange stage to the account stage.
+	 */
+	private static final class Execution {
+
+		/** the executed order */
+		private final Order order;
+
+		/** the price the order was executed at */
+		private final int price;
+
+		/**
+		 * Constructs an Execution.
+		 *
+		 * @param order
+		 *            the executed order
+		 * @param price
+		 *            the price the order was executed at
+		 */
+		Execution(final Order order, final int price) {
+			this.order = order;
+			this.price = price;
+		}
+
+		/**
+		 * String representation of this execution.
+		 *
+		 * @return order id and price
+		 */
+		@Override
+		public String toString() {
+			return String.format("order %d at %d", order.getOrderId(), price);
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package com.github.astefanich.broker.concurrent.pipeline;
+
+import com.github.astefanich.broker.book.OrderBookType;
+
+import edu.uw.ext.framework.account.AccountManager;
+import edu.uw.ext.framework.broker.Broker;
+import edu.uw.ext.framework.broker.BrokerFactory;
+import edu.uw.ext.framework.exchange.StockExchange;
+
+/**
+ * {@link BrokerFactory} implementation that returns a {@link PipelineBroker}.
+ * 
+ * @author AndrewStefanich
+ *
+ */
+public final class PipelineBrokerFactory implements BrokerFactory {
+
+	/** storage to be used by the order managers' queues of new brokers */
+	private OrderBookType orderBookType = OrderBookType.TREE_SET;
+
+	/** whether new brokers conflate price changes per stock */
+	private boolean conflatePrices;
+
+	/** number of stop book stage threads of new brokers */
+	private int stopBookThreads = Runtime.getRuntime().availableProcessors();
+
+	/** number of exchange stage threads of new brokers */
+	private int exchangeThreads = 4;
+
+	/** number of account stage threads of new brokers */
+	private int accountThreads = 2;
+
+	/** capacity of each stage thread's queue of new brokers */
+	private int stageCapacity = 1024;
+
+	/**
+	 * Sets the storage to be used by the order managers' queues of subsequently created brokers.
+	 * 
+	 * @param orderBookType
+	 *            the book type, {@link OrderBookType#TREE_SET} by default
+	 */
+	public void setOrderBookType(final OrderBookType orderBookType) {
+		this.orderBookType = orderBookType;
+	}
+
+	/**
+	 * Gets the storage to be used by the order managers' queues of new brokers.
+	 * 
+	 * @return the book type
+	 */
+	public OrderBookType getOrderBookType() {
+		return orderBookType;
+	}
+
+	/**
+	 * Sets the number of threads the stocks of subsequently created brokers are sharded over for
+	 * price changes and stop order placement.
+	 * 
+	 * @param stopBookThreads
+	 *            the number of threads, the number of available processors by default
+	 */
+	public void setStopBookThreads(final int stopBookThreads) {
+		this.stopBookThreads = checkPositive("stopBookThreads", stopBookThreads);
+	}
+
+	/**
+	 * Gets the number of stop book stage threads of new brokers.
+	 * 
+	 * @return the number of threads
+	 */
+	public int getStopBookThreads() {
+		return stopBookThreads;
+	}
+
+	/**
+	 * Sets the number of threads executing trades with the exchange for subsequently created
+	 * brokers. Trades for a stock are always executed in order, by one thread.
+	 * 
+	 * @param exchangeThreads
+	 *            the number of threads, 4 by default
+	 */
+	public void setExchangeThreads(final int exchangeThreads) {
+		this.exchangeThreads = checkPositive("exchangeThreads", exchangeThreads);
+	}
+
+	/**
+	 * Gets the number of exchange stage threads of new brokers.
+	 * 
+	 * @return the number of threads
+	 */
+	public int getExchangeThreads() {
+		return exchangeThreads;
+	}
+
+	/**
+	 * Sets the number of threads updating accounts for subsequently created brokers. An account is
+	 * always updated by one thread.
+	 * 
+	 * @param accountThreads
+	 *            the number of threads, 2 by default
+	 */
+	public void setAccountThreads(final int accountThreads) {
+		this.accountThreads = checkPositive("accountThreads", accountThreads);
+	}
+
+	/**
+	 * Gets the number of account stage threads of new brokers.
+	 * 
+	 * @return the number of threads
+	 */
+	public int getAccountThreads() {
+		return accountThreads;
+	}
+
+	/**
+	 * Sets the number of items each stage thread's queue holds, before the stage feeding it
+	 * blocks, for subsequently created brokers.
+	 * 
+	 * @param stageCapacity
+	 *            the capacity, 1024 by default
+	 */
+	public void setStageCapacity(final int stageCapacity) {
+		this.stageCapacity = checkPositive("stageCapacity", stageCapacity);
+	}
+
+	/**
+	 * Gets the capacity of each stage thread's queue of new brokers.
+	 * 
+	 * @return the capacity
+	 */
+	public int getStageCapacity() {
+		return stageCapacity;
+	}
+
+	/**
+	 * Checks a property value is at least 1.
+	 * 
+	 * @param property
+	 *            name of the property
+	 * @param value
+	 *            the value
+	 * @return the value
+	 * @throws IllegalArgumentException
+	 *             if the value is less than 1
+	 */
+	private static int checkPositive(final String property, final int value) {
+		if (value < 1) {
+			throw new IllegalArgumentException(String.format("%s must be at least 1: %d", property, value));
+		}
+		return value;
+	}
+
+	/**
+	 * Sets whether subsequently created brokers conflate price changes per stock, so a broker which
+	 * falls behind the price stream adjusts to the extremes and latest price of each stock rather
+	 * than to every change.
+	 * 
+	 * @param conflatePrices
+	 *            true to conflate, false (the default) to adjust each price as received
+	 * @see com.github.astefanich.broker.concurrent.ConcurrentBroker#setPriceConflation(boolean)
+	 */
+	public void setConflatePrices(final boolean conflatePrices) {
+		this.conflatePrices = conflatePrices;
+	}
+
+	/**
+	 * Gets whether new brokers conflate price changes per stock.
+	 * 
+	 * @return true if price changes are conflated
+	 */
+	public boolean isConflatePrices() {
+		return conflatePrices;
+	}
+
+	/**
+	 * Instantiates a new {@code PipelineBroker}.
+	 * 
+	 * @param name
+	 *            the broker's name
+	 * @param accountManager
+	 *            the {@link AccountManager} to be used by the broker
+	 * @param exchange
+	 *            the exchange to be used by the broker
+	 * @return a new PipelineBroker instance
+	 */
+	@Override
+	public Broker newBroker(String name, AccountManager accountManager, StockExchange exchange) {
+		final PipelineBroker broker = new PipelineBroker(name, accountManager, exchange, orderBookType,
+				stopBookThreads, exchangeThreads, accountThreads, stageCapacity);
+		broker.setPriceConflation(conflatePrices);
+		return broker;
+	}
+}
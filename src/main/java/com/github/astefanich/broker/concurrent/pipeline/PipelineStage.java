@@ -0,0 +1,196 @@
+package com.github.astefanich.broker.concurrent.pipeline;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One stage of a {@link PipelineBroker}. Items are handed to a fixed set of worker threads
+ * through bounded, array-backed lanes, one lane per worker. Items are assigned a lane by key, so
+ * items with the same key (e.g. orders for the same stock) are handled in the order they were
+ * submitted, by the same thread. Submitting to a full lane blocks, so a slow stage pushes back on
+ * the stage feeding it rather than buffering without bound.
+ *
+ * @param <I>
+ *            Items: the type of work item handled by the stage
+ * @author AndrewStefanich
+ */
+final class PipelineStage<I> {
+
+	/** this class' logger */
+	private static final Logger LOG = LoggerFactory.getLogger(PipelineStage.class);
+
+	/** how long an idle worker waits for an item before re-checking for shutdown, in ms */
+	private static final long POLL_INTERVAL_MS = 100;
+
+	/** name of this stage, used for thread names and logging */
+	private final String name;
+
+	/** per-worker bounded lanes */
+	private final BlockingQueue<I>[] lanes;
+
+	/** the worker threads, workers[i] drains lanes[i] */
+	private final Thread[] workers;
+
+	/** performs the stage's work on an item */
+	private final Consumer<I> handler;
+
+	/** number of items handled */
+	private final AtomicLong processedCount = new AtomicLong();
+
+	/** false once the stage stops accepting items */
+	private volatile boolean running = true;
+
+	/**
+	 * Constructs a PipelineStage, and starts its workers.
+	 *
+	 * @param name
+	 *            name of the stage
+	 * @param parallelism
+	 *            number of worker threads
+	 * @param capacity
+	 *            number of items each worker's lane holds before submitters block
+	 * @param handler
+	 *            performs the stage's work on an item
+	 */
+	@SuppressWarnings("unchecked")
+	PipelineStage(final String name, final int parallelism, final int capacity, final Consumer<I> handler) {
+		if (parallelism < 1 || capacity < 1) {
+			throw new IllegalArgumentException(String.format(
+					"Stage %s needs at least 1 thread and a capacity of 1: %d threads, capacity %d", name,
+					parallelism, capacity));
+		}
+		this.name = name;
+		this.handler = handler;
+		this.lanes = (BlockingQueue<I>[]) new BlockingQueue<?>[parallelism];
+		this.workers = new Thread[parallelism];
+		for (int i = 0; i < parallelism; i++) {
+			final BlockingQueue<I> lane = new ArrayBlockingQueue<I>(capacity);
+			lanes[i] = lane;
+			workers[i] = new Thread(() -> drain(lane), String.format("%s-%d", name, i));
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Submits an item to the lane for its key, blocking while the lane is full.
+	 *
+	 * @param key
+	 *            the item's key; items with equal keys are handled in submission order
+	 * @param item
+	 *            the item
+	 * @throws RejectedExecutionException
+	 *             if the stage has been shut down, or the submitter is interrupted while waiting
+	 */
+	void submit(final Object key, final I item) {
+		if (!running) {
+			throw new RejectedExecutionException(String.format("Stage %s is shut down", name));
+		}
+		try {
+			lanes[(key.hashCode() & Integer.MAX_VALUE) % lanes.length].put(item);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException(String.format("Interrupted while submitting to stage %s", name));
+		}
+	}
+
+	/**
+	 * Gets an Executor which runs tasks on this stage's lane for a key. Only meaningful for a
+	 * stage of Runnables, whose handler runs them.
+	 *
+	 * @param key
+	 *            the key
+	 * @return an Executor submitting to the key's lane
+	 */
+	@SuppressWarnings("unchecked")
+	Executor laneExecutor(final Object key) {
+		return (task) -> submit(key, (I) task);
+	}
+
+	/**
+	 * Gets the number of items waiting in this stage's lanes.
+	 *
+	 * @return the backlog
+	 */
+	int getBacklog() {
+		int backlog = 0;
+		for (BlockingQueue<I> lane : lanes) {
+			backlog += lane.size();
+		}
+		return backlog;
+	}
+
+	/**
+	 * Gets the number of items handled by this stage.
+	 *
+	 * @return the count
+	 */
+	long getProcessedCount() {
+		return processedCount.get();
+	}
+
+	/**
+	 * Stops accepting items, and waits for the workers to handle the items already submitted.
+	 *
+	 * @param timeoutSeconds
+	 *            maximum time to wait for each worker
+	 * @return true if every worker finished within the timeout
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	boolean shutdown(final long timeoutSeconds) throws InterruptedException {
+		running = false;
+		boolean terminated = true;
+		for (Thread worker : workers) {
+			worker.join(TimeUnit.SECONDS.toMillis(timeoutSeconds));
+			terminated &= !worker.isAlive();
+		}
+		return terminated;
+	}
+
+	/**
+	 * Worker loop. Handles the items of one lane until the stage is shut down and the lane is
+	 * empty.
+	 *
+	 * @param lane
+	 *            the worker's lane
+	 */
+	private void drain(final BlockingQueue<I> lane) {
+		while (running || !lane.isEmpty()) {
+			final I item;
+			try {
+				item = lane.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+			} catch (final InterruptedException e) {
+				LOG.warn(String.format("Stage %s worker interrupted, %d items dropped", name, lane.size()));
+				return;
+			}
+			if (item != null) {
+				try {
+					handler.accept(item);
+				} catch (final RuntimeException e) {
+					LOG.error(String.format("Stage %s failed to handle %s", name, item), e);
+				}
+				processedCount.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * String representation of this stage.
+	 *
+	 * @return stage name, parallelism, backlog and processed count
+	 */
+	@Override
+	public String toString() {
+		return String.format("%s[threads=%d, backlog=%d, processed=%d]", name, workers.length, getBacklog(),
+				getProcessedCount());
+	}
+}
@@ -1,20 +1,27 @@
 package com.github.astefanich.broker.concurrent.threaded;
 
+import com.github.astefanich.broker.book.OrderBookType;
 import com.github.astefanich.broker.concurrent.ConcurrentBroker;
+import com.github.astefanich.broker.concurrent.MpscOrderQueue;
 
 import edu.uw.ext.framework.account.AccountManager;
+import edu.uw.ext.framework.broker.BrokerException;
 import edu.uw.ext.framework.broker.OrderManager;
 import edu.uw.ext.framework.exchange.StockExchange;
 import edu.uw.ext.framework.order.Order;
 
 /**
- * Uses a {@link ThreadedOrderManager} and a {@link ThreadedOrderQueue} for market orders.
+ * Uses {@link ThreadedOrderManager}s, and a lock-free {@link MpscOrderQueue} with its own consumer
+ * thread for market orders.
  * 
  * @author AndrewStefanich
  * @see OrderManager
  */
 public final class ThreadedBroker extends ConcurrentBroker {
 
+	/** storage to be used by the order managers' queues */
+	private final OrderBookType orderBookType;
+
 	/**
 	 * Constructs a ThreadBroker. Creation should be done by public factory method.
 	 * 
@@ -26,8 +33,27 @@ public final class ThreadedBroker extends ConcurrentBroker {
 	 *            the {@code StockExchange} to be used by the broker.
 	 */
 	protected ThreadedBroker(String brokerName, AccountManager accountManager, StockExchange exchange) {
+		this(brokerName, accountManager, exchange, OrderBookType.TREE_SET);
+	}
+
+	/**
+	 * Constructs a ThreadBroker whose order managers use the given book type. Creation should be
+	 * done by public factory method.
+	 * 
+	 * @param brokerName
+	 *            the name of the broker
+	 * @param accountManager
+	 *            the {@code AccountManager} to be used by the broker
+	 * @param exchange
+	 *            the {@code StockExchange} to be used by the broker.
+	 * @param orderBookType
+	 *            the storage to be used by the order managers' queues
+	 */
+	protected ThreadedBroker(String brokerName, AccountManager accountManager, StockExchange exchange,
+			OrderBookType orderBookType) {
 		super(brokerName, accountManager, exchange);
-		this.marketOrderQueue = new ThreadedOrderQueue<Boolean, Order>(exchange.isOpen(), market_order_filter);
+		this.orderBookType = orderBookType;
+		this.marketOrderQueue = new MpscOrderQueue<Boolean, Order>(exchange.isOpen(), market_order_filter);
 		marketOrderQueue.setOrderProcessor(tradeExecutor);
 		initializeOrderManagerMap();
 		exchange.addExchangeListener(this);
@@ -43,6 +69,19 @@ public final class ThreadedBroker extends ConcurrentBroker {
 	 * @return a new OrderManager, for the specified stock
 	 */
 	protected OrderManager createOrderManager(String tickerSymbol, int initialPrice) {
-		return new ThreadedOrderManager(tickerSymbol, initialPrice);
+		return new ThreadedOrderManager(tickerSymbol, initialPrice, orderBookType);
+	}
+
+	/**
+	 * Release resources used by the broker. Stops the market order queue's consumer thread, and
+	 * closes the DAO utilized by the account manager.
+	 * 
+	 * @throws BrokerException
+	 *             if an error occurs during the close operation
+	 */
+	@Override
+	public void close() throws BrokerException {
+		((MpscOrderQueue<Boolean, Order>) marketOrderQueue).shutdown();
+		super.close();
 	}
 }
@@ -1,5 +1,7 @@
 package com.github.astefanich.broker.concurrent.threaded;
 
+import com.github.astefanich.broker.book.OrderBookType;
+
 import edu.uw.ext.framework.account.AccountManager;
 import edu.uw.ext.framework.broker.Broker;
 import edu.uw.ext.framework.broker.BrokerFactory;
@@ -13,6 +15,46 @@ import edu.uw.ext.framework.exchange.StockExchange;
  */
 public final class ThreadedBrokerFactory implements BrokerFactory {
 
+	/** storage to be used by the order managers' queues of new brokers */
+	private OrderBookType orderBookType = OrderBookType.TREE_SET;
+
+	/**
+	 * Sets the storage to be used by the order managers' queues of subsequently created brokers.
+	 * 
+	 * @param orderBookType
+	 *            the book type, {@link OrderBookType#TREE_SET} by default
+	 */
+	public void setOrderBookType(final OrderBookType orderBookType) {
+		this.orderBookType = orderBookType;
+	}
+
+	/**
+	 * Gets the storage to be used by the order managers' queues of new brokers.
+	 * 
+	 * @return the book type
+	 */
+	public OrderBookType getOrderBookType() {
+		return orderBookType;
+	}
+
+	/**
+	 * Rejects price conflation: the order managers' queues dispatch on threads of their own, so a
+	 * conflated extreme may be skipped before the queues drain. Accepts false, the only supported
+	 * value.
+	 * 
+	 * @param conflatePrices
+	 *            must be false
+	 * @throws UnsupportedOperationException
+	 *             if conflatePrices is true
+	 * @see com.github.astefanich.broker.concurrent.ConcurrentBroker#setPriceConflation(boolean)
+	 */
+	public void setConflatePrices(final boolean conflatePrices) {
+		if (conflatePrices) {
+			throw new UnsupportedOperationException(
+					"ThreadedBroker dispatches stop orders asynchronously, prices cannot be conflated");
+		}
+	}
+
 	/**
 	 * Instantiates a new {@code ThreadedBroker}.
 	 * 
@@ -26,6 +68,6 @@ public final class ThreadedBrokerFactory implements BrokerFactory {
 	 */
 	@Override
 	public Broker newBroker(String name, AccountManager accountManager, StockExchange exchange) {
-		return new ThreadedBroker(name, accountManager, exchange);
+		return new ThreadedBroker(name, accountManager, exchange, orderBookType);
 	}
 }
@@ -1,5 +1,9 @@
 package com.github.astefanich.broker.concurrent.threaded;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import com.github.astefanich.broker.book.OrderBookType;
 import com.github.astefanich.broker.concurrent.ConcurrentOrderManager;
 
 import edu.uw.ext.framework.order.PricedOrder;
@@ -25,22 +29,60 @@ public final class ThreadedOrderManager extends ConcurrentOrderManager {
 	 *            the current price of the stock to be managed
 	 */
 	public ThreadedOrderManager(String stockSymbolTicker, int price) {
-		super(stockSymbolTicker);
-		initializePricedOrderQueues(price);
+		this(stockSymbolTicker, price, OrderBookType.TREE_SET);
+	}
 
+	/**
+	 * Constructs an instance of {@code ThreadedOrderManager}, and initializes {@link PricedOrder}
+	 * queues of the given book type.
+	 * 
+	 * @param stockSymbolTicker
+	 *            the ticker symbol of the stock this instance manages orders for
+	 * @param price
+	 *            the current price of the stock to be managed
+	 * @param orderBookType
+	 *            the storage to be used by the order queues
+	 */
+	public ThreadedOrderManager(String stockSymbolTicker, int price, OrderBookType orderBookType) {
+		super(stockSymbolTicker, orderBookType);
+		initializePricedOrderQueues(price);
+		setBuyOrderProcessor(null); //orders dispatched before a processor is registered still leave the depth
+		setSellOrderProcessor(null);
 	}
 
 	/**
-	 * Initializes this OrderManager queues with {@link ThreadedOrderQueue}s.
+	 * Initializes this OrderManager queues with {@link ThreadedOrderQueue}s. Other book types
+	 * dispatch on a daemon thread of their own per queue as well.
 	 * 
 	 * @param initialPrice
 	 *            the initial "stop" price for the queues
 	 */
 	protected void initializePricedOrderQueues(int initialPrice) {
+		if (initializeOrderBookQueues(initialPrice, newDispatchExecutor("stop-buy"),
+				newDispatchExecutor("stop-sell"))) {
+			return;
+		}
 		stopBuyOrderQueue = new ThreadedOrderQueue<Integer, StopBuyOrder>(initialPrice, STOP_BUY_ORDER_FILTER,
-				STOP_BUY_ORDER_COMPARATOR);
+				STOP_BUY_ORDER_COMPARATOR, isBulkDrain());
 		stopSellOrderQueue = new ThreadedOrderQueue<Integer, StopSellOrder>(initialPrice, STOP_SELL_ORDER_FILTER,
-				STOP_SELL_ORDER_COMPARATOR);
+				STOP_SELL_ORDER_COMPARATOR, isBulkDrain());
+	}
+
+	/**
+	 * Creates the executor a queue dispatches on. Its thread is a daemon, so a closed broker's
+	 * queues do not keep the JVM running; it is started by the first dispatch.
+	 * 
+	 * @param queue
+	 *            name of the queue, for the thread's name
+	 * @return the executor
+	 */
+	private Executor newDispatchExecutor(final String queue) {
+		final String name = String.format("%s-%s", getSymbol(), queue);
+		return Executors.newSingleThreadExecutor((task) -> {
+			final Thread thread = new Thread(task, name);
+			thread.setDaemon(true);
+			return thread;
+		});
 	}
 
 }
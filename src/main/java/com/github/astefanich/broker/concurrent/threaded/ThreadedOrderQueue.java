@@ -1,6 +1,8 @@
 package com.github.astefanich.broker.concurrent.threaded;
 
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.TreeSet;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
@@ -8,6 +10,9 @@ import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiPredicate;
 import java.util.function.Consumer;
 
+import com.github.astefanich.broker.book.BatchOrderProcessor;
+import com.github.astefanich.broker.book.RangeDrain;
+
 import edu.uw.ext.framework.broker.OrderQueue;
 import edu.uw.ext.framework.order.Order;
 
@@ -38,6 +43,9 @@ public class ThreadedOrderQueue<T, E extends Order> implements OrderQueue<T, E>,
 	/** Filter to control dispatching of orders */
 	private BiPredicate<T, E> dispatchFilter;
 
+	/** true to drain every dispatchable order in one batch, false to dispatch them one at a time */
+	private final boolean bulkDrain;
+
 	/** lock for concurrent operations on a collection */
 	private final Lock collectionLock = new ReentrantLock();
 
@@ -60,6 +68,7 @@ public class ThreadedOrderQueue<T, E extends Order> implements OrderQueue<T, E>,
 		this.orderQueue = new TreeSet<E>();
 		this.threshold = threshold;
 		this.dispatchFilter = filter;
+		this.bulkDrain = false;
 		queueThread.start();
 	}
 
@@ -75,9 +84,29 @@ public class ThreadedOrderQueue<T, E extends Order> implements OrderQueue<T, E>,
 	 *            custom sorting order
 	 */
 	public ThreadedOrderQueue(final T threshold, final BiPredicate<T, E> filter, final Comparator<E> comparator) {
+		this(threshold, filter, comparator, false);
+	}
+
+	/**
+	 * Constructs a SimpleOrderQueue, orders added will be automatcially sorted according to a
+	 * custom sorting order, optionally draining every dispatchable order in one batch.
+	 * 
+	 * @param threshold
+	 *            the initial threshold for dispatchability
+	 * @param filter
+	 *            the dispatch filter used to control dispatching from the queue.
+	 * @param comparator
+	 *            custom sorting order
+	 * @param bulkDrain
+	 *            true to drain every dispatchable order in one batch, false to dispatch them one at
+	 *            a time
+	 */
+	public ThreadedOrderQueue(final T threshold, final BiPredicate<T, E> filter, final Comparator<E> comparator,
+			final boolean bulkDrain) {
 		this.orderQueue = new TreeSet<E>(comparator);
 		this.threshold = threshold;
 		this.dispatchFilter = filter;
+		this.bulkDrain = bulkDrain;
 		queueThread.start();
 	}
 
@@ -121,6 +150,25 @@ public class ThreadedOrderQueue<T, E extends Order> implements OrderQueue<T, E>,
 		return myOrder;
 	}
 
+	/**
+	 * Removes the next dispatchable order, or with bulk drain every dispatchable order, from the
+	 * head of the queue, under a single acquisition of the collection lock.
+	 * 
+	 * @return the dispatchable orders, in order; empty if there are none
+	 */
+	private List<E> drainDispatchable() {
+		if (!bulkDrain) {
+			final E order = dequeue();
+			return (order == null) ? Collections.<E>emptyList() : Collections.singletonList(order);
+		}
+		collectionLock.lock();
+		try {
+			return RangeDrain.drainHead(orderQueue, dispatchFilter, threshold);
+		} finally {
+			collectionLock.unlock();
+		}
+	}
+
 	/**
 	 * Signals run(). The dispatching thread will be woken up, and will again check for any
 	 * dispatchable orders, and process them accordingly.
@@ -173,22 +221,22 @@ public class ThreadedOrderQueue<T, E extends Order> implements OrderQueue<T, E>,
 	/**
 	 * Dispatches orders in a separate thread. This thread will wait if there are no dispatchable
 	 * orders in the queue.
-	 * Each dispatchable order is removed from the queue and passed to the callback. If there is no
-	 * callback/orderprocessor registered, the order is simply revmoed from the queue.
+	 * Each dispatchable order is removed from the queue and passed to the callback; with bulk drain
+	 * the dispatchable range is removed in one pass and passed on as a single batch if the callback
+	 * is a {@link BatchOrderProcessor}. If there is no
+	 * callback/orderprocessor registered, the orders are simply revmoed from the queue.
 	 */
 	@Override
 	public void run() {
 		for (;;) {
 			collectionLock.lock();
-			E myOrder = null;
+			List<E> batch = null;
 			try {
-				while ((myOrder = dequeue()) == null) {
+				while ((batch = drainDispatchable()).isEmpty()) {
 					orderThresholdCondition.await();
 				}
 				final Consumer<E> oProcessor = orderProcessor; //creating a local variable makes this thread safe
-				if (oProcessor != null) {
-					oProcessor.accept(myOrder);
-				}
+				BatchOrderProcessor.process(oProcessor, batch);
 			} catch (InterruptedException e) {
 				break;  //we break the infinite loop if something tells this thread to terminate/interrupts it
 			} finally {
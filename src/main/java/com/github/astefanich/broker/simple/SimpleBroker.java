@@ -8,11 +8,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.function.BiPredicate;
-import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.astefanich.broker.book.BatchOrderProcessor;
+import com.github.astefanich.broker.book.OrderBookSnapshot;
+import com.github.astefanich.broker.book.OrderBookType;
+import com.github.astefanich.broker.book.OrderBookView;
+import com.github.astefanich.exchange.ExtendedStockExchange;
+
 import edu.uw.ext.framework.account.Account;
 import edu.uw.ext.framework.account.AccountException;
 import edu.uw.ext.framework.account.AccountManager;
@@ -61,6 +66,9 @@ public final class SimpleBroker implements Broker, ExchangeListener, EventListen
 	/** collection to hold market orders */
 	private OrderQueue<Boolean, Order> marketOrderQueue;
 
+	/** storage to be used by the order managers' queues */
+	private final OrderBookType orderBookType;
+
 	/**
 	 * Dispatch filter for marketOrders. Exchange should be open and it should contain the ticker
 	 * symbol for a given order
@@ -71,19 +79,41 @@ public final class SimpleBroker implements Broker, ExchangeListener, EventListen
 	/**
 	 * order processor for market orders; execute a trade with the exchange and account manager
 	 * reflects the order in the account balance, persists the DAO/file. Market orders are executed
-	 * at the market price, so price is obtained via a quote with the exchange.
+	 * at the market price, so price is obtained via a quote with the exchange. A batch of
+	 * dispatched orders is executed in a single request if the exchange supports it, and each
+	 * order reflected at the price it was executed at; orders of the batch which failed are
+	 * logged, and not reflected.
 	 */
-	private final Consumer<Order> tradeExecutor = (order) -> {
+	private final BatchOrderProcessor<Order> tradeExecutor = (orders) -> {
 		final String exceptionMessage = "Failed to reflect order %d in balance for Account: %s. %s";
-		final String accountID = order.getAccountId();
-		final String stockTicker = order.getStockTicker();
-		stockExchange.executeTrade(order);
-		try {
-			accountManager.getAccount(accountID).reflectOrder(order, requestQuote(stockTicker).getPrice());
-		} catch (final AccountException e) {
-			LOG.error(String.format(exceptionMessage, order.getOrderId(), accountID, e.getMessage())); //account exception thrown by getAccount (if account is not found)  
-		} catch (final BrokerException e) {
-			LOG.error(String.format(exceptionMessage, order.getOrderId(), accountID, e.getMessage())); //broker exception thrown by requestQuote
+		if (orders.size() > 1 && stockExchange instanceof ExtendedStockExchange) {
+			final int[] executionPrices = ((ExtendedStockExchange) stockExchange).executeTrades(orders);
+			for (int i = 0; i < executionPrices.length; i++) {
+				final Order order = orders.get(i);
+				if (executionPrices[i] == ExtendedStockExchange.TRADE_FAILED) {
+					LOG.error(String.format("Order %d for Account: %s failed to execute, not reflected in balance",
+							order.getOrderId(), order.getAccountId()));
+					continue;
+				}
+				try {
+					accountManager.getAccount(order.getAccountId()).reflectOrder(order, executionPrices[i]);
+				} catch (final AccountException e) {
+					LOG.error(String.format(exceptionMessage, order.getOrderId(), order.getAccountId(), e.getMessage()));
+				}
+			}
+			return;
+		}
+		for (Order order : orders) {
+			final String accountID = order.getAccountId();
+			final String stockTicker = order.getStockTicker();
+			stockExchange.executeTrade(order);
+			try {
+				accountManager.getAccount(accountID).reflectOrder(order, requestQuote(stockTicker).getPrice());
+			} catch (final AccountException e) {
+				LOG.error(String.format(exceptionMessage, order.getOrderId(), accountID, e.getMessage())); //account exception thrown by getAccount (if account is not found)  
+			} catch (final BrokerException e) {
+				LOG.error(String.format(exceptionMessage, order.getOrderId(), accountID, e.getMessage())); //broker exception thrown by requestQuote
+			}
 		}
 	};
 
@@ -100,10 +130,30 @@ public final class SimpleBroker implements Broker, ExchangeListener, EventListen
 	 *            the {@code StockExchange} to be used by the broker.
 	 */
 	SimpleBroker(String brokerName, AccountManager accountManager, StockExchange stockExchange) {
+		this(brokerName, accountManager, stockExchange, OrderBookType.TREE_SET);
+	}
+
+	/**
+	 * Constructs a SimpleBroker whose order managers use the given book type.
+	 * Creation should be done by public factory method.
+	 * 
+	 * @param brokerName
+	 *            the name of the broker
+	 * @param acctMngr
+	 *            the {@code AccountManager} to be used by the broker
+	 * @param exchange
+	 *            the {@code StockExchange} to be used by the broker.
+	 * @param orderBookType
+	 *            the storage to be used by the order managers' queues
+	 */
+	SimpleBroker(String brokerName, AccountManager accountManager, StockExchange stockExchange,
+			OrderBookType orderBookType) {
+		this.orderBookType = orderBookType;
 		this.brokerName = brokerName;
 		this.accountManager = accountManager;
 		this.stockExchange = stockExchange;
-		this.marketOrderQueue = new SimpleOrderQueue<Boolean, Order>(stockExchange.isOpen(), market_order_filter);
+		this.marketOrderQueue = new SimpleOrderQueue<Boolean, Order>(stockExchange.isOpen(), market_order_filter,
+				true); //drained in batches, executed in one request each
 		marketOrderQueue.setOrderProcessor(tradeExecutor);
 		initializeOrderManagerMap();
 		stockExchange.addExchangeListener(this);
@@ -111,13 +161,20 @@ public final class SimpleBroker implements Broker, ExchangeListener, EventListen
 
 	/**
 	 * Assigns stock tickers (key) and order managers (value) in a HashMap, and sets each order
-	 * manager as the "move to market" processor.
+	 * manager as the "move to market" processor. The initial prices are fetched in one request if
+	 * the exchange supports it.
 	 */
 	private void initializeOrderManagerMap() {
 		this.orderManagerMap = new HashMap<String, OrderManager>();
+		final Map<String, StockQuote> quotes = stockExchange instanceof ExtendedStockExchange
+				? ((ExtendedStockExchange) stockExchange).getQuotes()
+				: Collections.<String, StockQuote>emptyMap();
 		for (String ticker : listTickers()) {
-			StockQuote quote = stockExchange.getQuote(ticker);
-			OrderManager orderManager = new SimpleOrderManager(ticker, quote.getPrice());
+			StockQuote quote = quotes.get(ticker);
+			if (quote == null) {
+				quote = stockExchange.getQuote(ticker);
+			}
+			OrderManager orderManager = new SimpleOrderManager(ticker, quote.getPrice(), orderBookType);
 			orderManager.setBuyOrderProcessor((order) -> marketOrderQueue.enqueue(order));
 			orderManager.setSellOrderProcessor((order) -> marketOrderQueue.enqueue(order));
 			orderManagerMap.put(ticker, orderManager);
@@ -166,6 +223,47 @@ public final class SimpleBroker implements Broker, ExchangeListener, EventListen
 		return orderManager;
 	}
 
+	/**
+	 * Subscribes to the price changes of a stock with the exchange, if it delivers only those of
+	 * the stocks subscribed to; the price changes trigger the stock's stop orders.
+	 * 
+	 * @param ticker
+	 *            the stock's ticker symbol
+	 */
+	private void subscribe(final String ticker) {
+		if (stockExchange instanceof ExtendedStockExchange) {
+			((ExtendedStockExchange) stockExchange).subscribe(ticker);
+		}
+	}
+
+	/**
+	 * Gets a snapshot of the resting stop buy orders for a stock.
+	 * 
+	 * @param ticker
+	 *            the stock's ticker symbol
+	 * @return the stop buy depth, lowest price first
+	 * @throws NoSuchElementException
+	 *             if the stock is not traded
+	 */
+	public OrderBookSnapshot getStopBuyDepth(final String ticker) throws NoSuchElementException {
+		checkInvariants();
+		return ((OrderBookView) orderManagerLookup(ticker)).getStopBuyDepth();
+	}
+
+	/**
+	 * Gets a snapshot of the resting stop sell orders for a stock.
+	 * 
+	 * @param ticker
+	 *            the stock's ticker symbol
+	 * @return the stop sell depth, highest price first
+	 * @throws NoSuchElementException
+	 *             if the stock is not traded
+	 */
+	public OrderBookSnapshot getStopSellDepth(final String ticker) throws NoSuchElementException {
+		checkInvariants();
+		return ((OrderBookView) orderManagerLookup(ticker)).getStopSellDepth();
+	}
+
 	/**
 	 * Upon the exchange opening, sets the market dispatch filter threshold (to true) and processes
 	 * any available orders.
@@ -358,7 +456,9 @@ public final class SimpleBroker implements Broker, ExchangeListener, EventListen
 	@Override
 	public void placeOrder(final StopBuyOrder order) throws BrokerException {
 		checkInvariants();
-		orderManagerLookup(order.getStockTicker()).queueOrder(order);
+		final OrderManager orderManager = orderManagerLookup(order.getStockTicker());
+		subscribe(order.getStockTicker());
+		orderManager.queueOrder(order);
 
 	}
 
@@ -374,7 +474,9 @@ public final class SimpleBroker implements Broker, ExchangeListener, EventListen
 	@Override
 	public void placeOrder(final StopSellOrder order) throws BrokerException {
 		checkInvariants();
-		orderManagerLookup(order.getStockTicker()).queueOrder(order);
+		final OrderManager orderManager = orderManagerLookup(order.getStockTicker());
+		subscribe(order.getStockTicker());
+		orderManager.queueOrder(order);
 
 	}
 
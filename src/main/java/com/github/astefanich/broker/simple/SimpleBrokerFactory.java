@@ -1,5 +1,7 @@
 package com.github.astefanich.broker.simple;
 
+import com.github.astefanich.broker.book.OrderBookType;
+
 import edu.uw.ext.framework.account.AccountManager;
 import edu.uw.ext.framework.broker.Broker;
 import edu.uw.ext.framework.broker.BrokerFactory;
@@ -13,6 +15,28 @@ import edu.uw.ext.framework.exchange.StockExchange;
  */
 public final class SimpleBrokerFactory implements BrokerFactory {
 
+	/** storage to be used by the order managers' queues of new brokers */
+	private OrderBookType orderBookType = OrderBookType.TREE_SET;
+
+	/**
+	 * Sets the storage to be used by the order managers' queues of subsequently created brokers.
+	 * 
+	 * @param orderBookType
+	 *            the book type, {@link OrderBookType#TREE_SET} by default
+	 */
+	public void setOrderBookType(final OrderBookType orderBookType) {
+		this.orderBookType = orderBookType;
+	}
+
+	/**
+	 * Gets the storage to be used by the order managers' queues of new brokers.
+	 * 
+	 * @return the book type
+	 */
+	public OrderBookType getOrderBookType() {
+		return orderBookType;
+	}
+
 	/**
 	 * Instantiates a new {@code SimpleBroker}.
 	 * 
@@ -26,7 +50,7 @@ public final class SimpleBrokerFactory implements BrokerFactory {
 	 */
 	@Override
 	public Broker newBroker(String name, AccountManager accountManager, StockExchange exchange) {
-		return new SimpleBroker(name, accountManager, exchange);
+		return new SimpleBroker(name, accountManager, exchange, orderBookType);
 	}
 
 }
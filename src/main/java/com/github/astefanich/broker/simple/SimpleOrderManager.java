@@ -8,6 +8,14 @@ import java.util.Comparator;
 import java.util.function.BiPredicate;
 import java.util.function.Consumer;
 
+import com.github.astefanich.broker.book.OrderBookDepth;
+import com.github.astefanich.broker.book.OrderBookSnapshot;
+import com.github.astefanich.broker.book.OrderBookType;
+import com.github.astefanich.broker.book.OrderBookView;
+import com.github.astefanich.broker.book.PriceLevelOrderQueue;
+import com.github.astefanich.broker.book.PriceThresholdQueue;
+import com.github.astefanich.broker.book.PrimitiveOrderQueue;
+
 import edu.uw.ext.framework.broker.OrderManager;
 import edu.uw.ext.framework.broker.OrderQueue;
 import edu.uw.ext.framework.order.AbstractOrder;
@@ -27,7 +35,7 @@ import edu.uw.ext.framework.order.StopSellOrder;
  * @see StopBuyOrder
  *
  */
-public final class SimpleOrderManager implements OrderManager {
+public final class SimpleOrderManager implements OrderManager, OrderBookView {
 
 	/****** CONSTANTS *******/
 
@@ -66,6 +74,12 @@ public final class SimpleOrderManager implements OrderManager {
 	/** collection of StopSellOrders for this OrderManager to manage */
 	private OrderQueue<Integer, StopSellOrder> stopSellOrderQueue;
 
+	/** depth of the resting StopBuyOrders */
+	private final OrderBookDepth<StopBuyOrder> stopBuyDepth;
+
+	/** depth of the resting StopSellOrders */
+	private final OrderBookDepth<StopSellOrder> stopSellDepth;
+
 	/**
 	 * Constructs a SimpleOrderManager, and instantiates two order queues with thresholds at the
 	 * given price.
@@ -76,11 +90,43 @@ public final class SimpleOrderManager implements OrderManager {
 	 *            the current price of the stock to be managed
 	 */
 	public SimpleOrderManager(final String stockSymbolTicker, final int initialPrice) {
+		this(stockSymbolTicker, initialPrice, OrderBookType.TREE_SET);
+	}
+
+	/**
+	 * Constructs a SimpleOrderManager, and instantiates two order queues of the given book type
+	 * with thresholds at the given price.
+	 * 
+	 * @param stockSymbolTicker
+	 *            the ticker symbol of the stock this instance manages orders for
+	 * @param initialPrice
+	 *            the current price of the stock to be managed
+	 * @param orderBookType
+	 *            the storage to be used by the order queues
+	 */
+	public SimpleOrderManager(final String stockSymbolTicker, final int initialPrice,
+			final OrderBookType orderBookType) {
 		this.stockSymbolTicker = stockSymbolTicker;
-		stopBuyOrderQueue = new SimpleOrderQueue<Integer, StopBuyOrder>(initialPrice, STOP_BUY_ORDER_FILTER,
-				STOP_BUY_ORDER_COMPARATOR);
-		stopSellOrderQueue = new SimpleOrderQueue<Integer, StopSellOrder>(initialPrice, STOP_SELL_ORDER_FILTER,
-				STOP_SELL_ORDER_COMPARATOR);
+		this.stopBuyDepth = new OrderBookDepth<StopBuyOrder>(stockSymbolTicker, true);
+		this.stopSellDepth = new OrderBookDepth<StopSellOrder>(stockSymbolTicker, false);
+		switch (orderBookType) {
+		case PRICE_LEVEL:
+			stopBuyOrderQueue = new PriceLevelOrderQueue<StopBuyOrder>(initialPrice, STOP_BUY_ORDER_FILTER, true);
+			stopSellOrderQueue = new PriceLevelOrderQueue<StopSellOrder>(initialPrice, STOP_SELL_ORDER_FILTER,
+					false);
+			break;
+		case PRIMITIVE:
+			stopBuyOrderQueue = new PrimitiveOrderQueue<StopBuyOrder>(initialPrice, true);
+			stopSellOrderQueue = new PrimitiveOrderQueue<StopSellOrder>(initialPrice, false);
+			break;
+		default:
+			stopBuyOrderQueue = new SimpleOrderQueue<Integer, StopBuyOrder>(initialPrice, STOP_BUY_ORDER_FILTER,
+					STOP_BUY_ORDER_COMPARATOR, orderBookType == OrderBookType.TREE_SET_BULK);
+			stopSellOrderQueue = new SimpleOrderQueue<Integer, StopSellOrder>(initialPrice, STOP_SELL_ORDER_FILTER,
+					STOP_SELL_ORDER_COMPARATOR, orderBookType == OrderBookType.TREE_SET_BULK);
+		}
+		setBuyOrderProcessor(null); //orders dispatched before a processor is registered still leave the depth
+		setSellOrderProcessor(null);
 	}
 
 	/**
@@ -101,8 +147,16 @@ public final class SimpleOrderManager implements OrderManager {
 	 */
 	@Override
 	public void adjustPrice(final int price) {
-		stopBuyOrderQueue.setThreshold(price);
-		stopSellOrderQueue.setThreshold(price);
+		if (stopBuyOrderQueue instanceof PriceThresholdQueue) { //avoids boxing the price
+			((PriceThresholdQueue) stopBuyOrderQueue).setThreshold(price);
+		} else {
+			stopBuyOrderQueue.setThreshold(price);
+		}
+		if (stopSellOrderQueue instanceof PriceThresholdQueue) {
+			((PriceThresholdQueue) stopSellOrderQueue).setThreshold(price);
+		} else {
+			stopSellOrderQueue.setThreshold(price);
+		}
 
 	}
 
@@ -114,6 +168,7 @@ public final class SimpleOrderManager implements OrderManager {
 	 */
 	@Override
 	public void queueOrder(final StopBuyOrder order) {
+		stopBuyDepth.added(order);
 		this.stopBuyOrderQueue.enqueue(order);
 
 	}
@@ -126,6 +181,7 @@ public final class SimpleOrderManager implements OrderManager {
 	 */
 	@Override
 	public void queueOrder(final StopSellOrder order) {
+		stopSellDepth.added(order);
 		stopSellOrderQueue.enqueue(order);
 
 	}
@@ -139,7 +195,7 @@ public final class SimpleOrderManager implements OrderManager {
 	 */
 	@Override
 	public void setBuyOrderProcessor(final Consumer<StopBuyOrder> processor) {
-		stopBuyOrderQueue.setOrderProcessor(processor);
+		stopBuyOrderQueue.setOrderProcessor(stopBuyDepth.tracking(processor));
 
 	}
 
@@ -152,8 +208,28 @@ public final class SimpleOrderManager implements OrderManager {
 	 */
 	@Override
 	public void setSellOrderProcessor(final Consumer<StopSellOrder> processor) {
-		stopSellOrderQueue.setOrderProcessor(processor);
+		stopSellOrderQueue.setOrderProcessor(stopSellDepth.tracking(processor));
 
 	}
 
+	/**
+	 * Gets a snapshot of the resting stop buy orders.
+	 * 
+	 * @return the stop buy depth, lowest price first
+	 */
+	@Override
+	public OrderBookSnapshot getStopBuyDepth() {
+		return stopBuyDepth.snapshot();
+	}
+
+	/**
+	 * Gets a snapshot of the resting stop sell orders.
+	 * 
+	 * @return the stop sell depth, highest price first
+	 */
+	@Override
+	public OrderBookSnapshot getStopSellDepth() {
+		return stopSellDepth.snapshot();
+	}
+
 }
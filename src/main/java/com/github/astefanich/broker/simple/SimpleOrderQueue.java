@@ -1,10 +1,14 @@
 package com.github.astefanich.broker.simple;
 
 import java.util.Comparator;
+import java.util.List;
 import java.util.TreeSet;
 import java.util.function.BiPredicate;
 import java.util.function.Consumer;
 
+import com.github.astefanich.broker.book.BatchOrderProcessor;
+import com.github.astefanich.broker.book.RangeDrain;
+
 import edu.uw.ext.framework.broker.OrderQueue;
 import edu.uw.ext.framework.order.Order;
 
@@ -36,6 +40,9 @@ public final class SimpleOrderQueue<T, E extends Order> implements OrderQueue<T,
 	/** Filter to control dispatching of orders */
 	private BiPredicate<T, E> dispatchFilter;
 
+	/** true to drain every dispatchable order in one batch, false to dispatch them one at a time */
+	private final boolean bulkDrain;
+
 	/**
 	 * Constructs a SimpleOrderQueue, orders added will be automatically sorted according to natural
 	 * ordering.
@@ -46,9 +53,26 @@ public final class SimpleOrderQueue<T, E extends Order> implements OrderQueue<T,
 	 *            the dispatch filter used to control dispatching from the queue
 	 */
 	public SimpleOrderQueue(final T threshold, final BiPredicate<T, E> filter) {
+		this(threshold, filter, false);
+	}
+
+	/**
+	 * Constructs a SimpleOrderQueue, orders added will be automatically sorted according to natural
+	 * ordering, optionally draining every dispatchable order in one batch.
+	 * 
+	 * @param threshold
+	 *            the initial threshold for dispatchability
+	 * @param filter
+	 *            the dispatch filter used to control dispatching from the queue
+	 * @param bulkDrain
+	 *            true to drain every dispatchable order in one batch, false to dispatch them one at
+	 *            a time
+	 */
+	public SimpleOrderQueue(final T threshold, final BiPredicate<T, E> filter, final boolean bulkDrain) {
 		this.orderQueue = new TreeSet<E>();
 		this.threshold = threshold;
 		this.dispatchFilter = filter;
+		this.bulkDrain = bulkDrain;
 	}
 
 	/**
@@ -63,9 +87,29 @@ public final class SimpleOrderQueue<T, E extends Order> implements OrderQueue<T,
 	 *            custom sorting order
 	 */
 	public SimpleOrderQueue(final T threshold, final BiPredicate<T, E> filter, final Comparator<E> comparator) {
+		this(threshold, filter, comparator, false);
+	}
+
+	/**
+	 * Constructs a SimpleOrderQueue, orders added will be automatcially sorted according to a
+	 * custom sorting order, optionally draining every dispatchable order in one batch.
+	 * 
+	 * @param threshold
+	 *            the initial threshold for dispatchability
+	 * @param filter
+	 *            the dispatch filter used to control dispatching from the queue.
+	 * @param comparator
+	 *            custom sorting order
+	 * @param bulkDrain
+	 *            true to drain every dispatchable order in one batch, false to dispatch them one at
+	 *            a time
+	 */
+	public SimpleOrderQueue(final T threshold, final BiPredicate<T, E> filter, final Comparator<E> comparator,
+			final boolean bulkDrain) {
 		this.orderQueue = new TreeSet<E>(comparator);
 		this.threshold = threshold;
 		this.dispatchFilter = filter;
+		this.bulkDrain = bulkDrain;
 	}
 
 	/**
@@ -106,16 +150,24 @@ public final class SimpleOrderQueue<T, E extends Order> implements OrderQueue<T,
 
 	/**
 	 * Executes the callback for each dispatchable order. Each dispatchable order is removed from
-	 * the queue and passed to the callback. If there is no callback/orderprocessor registered, the
-	 * order is simply revmoed from the queue.
+	 * the queue and passed to the callback; with bulk drain the dispatchable range is removed in one
+	 * pass and passed on as a single batch if the callback is a {@link BatchOrderProcessor}. If
+	 * there is no callback/orderprocessor registered, the orders are simply revmoed from the queue.
 	 */
 	@Override
 	public void dispatchOrders() {
-		E myOrder = null;
-		while ((myOrder = dequeue()) != null) {
-			if (orderProcessor != null) {	//the order will be processed only if an orderprocessor has been registered.
-				orderProcessor.accept(myOrder);
+		if (!bulkDrain) {
+			E myOrder = null;
+			while ((myOrder = dequeue()) != null) {
+				if (orderProcessor != null) {	//the order will be processed only if an orderprocessor has been registered.
+					orderProcessor.accept(myOrder);
+				}
 			}
+			return;
+		}
+		List<E> batch = null;
+		while (!(batch = RangeDrain.drainHead(orderQueue, dispatchFilter, threshold)).isEmpty()) {
+			BatchOrderProcessor.process(orderProcessor, batch); //the orders will be processed only if an orderprocessor has been registered.
 		}
 
 	}
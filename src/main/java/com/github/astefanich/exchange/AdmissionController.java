@@ -0,0 +1,249 @@
+package com.github.astefanich.exchange;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Admission control for the command servers of an {@link ExchangeNetworkAdapter}, so an overloaded
+ * exchange sheds work instead of taking on ever more threads. Bounds the connections open at once,
+ * the commands executing at once across all connections, and the commands a connection may have
+ * pipelined; a connection or command over a limit is refused at once with [BUSY], which a client
+ * may retry later. On a thread-per-connection server, a command waits for an execution permit at
+ * most the queue timeout, measured from its receipt; an I/O thread never waits. A command's queue
+ * time (receipt to start of execution) is accounted. A limit of 0 is no limit. Thread safe.
+ *
+ * @author AndrewStefanich
+ * @see ExchangeNetworkAdapter
+ * @see NioCommandServer
+ */
+final class AdmissionController {
+
+	/** this class' logger */
+	private static final Logger LOG = LoggerFactory.getLogger(AdmissionController.class);
+
+	/** a warning is logged each time this many more commands have been refused */
+	private static final int REJECTIONS_PER_WARNING = 1000;
+
+	/** connection permits, {@code null} if connections are not limited */
+	private final Semaphore connections;
+
+	/** execution permits, {@code null} if commands in flight are not limited */
+	private final Semaphore inFlight;
+
+	/** commands a connection may have pipelined, 0 if not limited */
+	private final int maxInFlightPerConnection;
+
+	/** longest a command may wait to start executing (in nanoseconds), 0 to never wait for a permit */
+	private final long queueTimeoutNanos;
+
+	/** number of commands admitted */
+	private final LongAdder admittedCommands = new LongAdder();
+
+	/** number of commands refused with [BUSY] */
+	private final AtomicLong rejectedCommands = new AtomicLong();
+
+	/** number of connections refused with [BUSY] */
+	private final LongAdder rejectedConnections = new LongAdder();
+
+	/** total queue time of the commands admitted (in nanoseconds) */
+	private final LongAdder totalQueueNanos = new LongAdder();
+
+	/** longest queue time of a command admitted (in nanoseconds) */
+	private final AtomicLong maxQueueNanos = new AtomicLong();
+
+	/**
+	 * Constructs an AdmissionController.
+	 *
+	 * @param maxConnections
+	 *            connections open at once, 0 for no limit
+	 * @param maxInFlight
+	 *            commands executing at once, across all connections; 0 for no limit
+	 * @param maxInFlightPerConnection
+	 *            commands a connection may have pipelined, received but not yet answered; 0 for
+	 *            no limit
+	 * @param queueTimeoutMillis
+	 *            longest a command may wait to start executing (in milliseconds), 0 to refuse a
+	 *            command finding no execution permit at once
+	 */
+	AdmissionController(final int maxConnections, final int maxInFlight, final int maxInFlightPerConnection,
+			final long queueTimeoutMillis) {
+		this.connections = maxConnections > 0 ? new Semaphore(maxConnections) : null;
+		this.inFlight = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+		this.maxInFlightPerConnection = maxInFlightPerConnection;
+		this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+	}
+
+	/**
+	 * Constructs an AdmissionController which admits everything, only accounting queue times.
+	 */
+	AdmissionController() {
+		this(0, 0, 0, 0);
+	}
+
+	/**
+	 * Admits a connection, if there is room for it. An admitted connection must be released when
+	 * closed.
+	 *
+	 * @return true if admitted, false if the connection is to be refused with [BUSY]
+	 */
+	boolean admitConnection() {
+		if (connections == null || connections.tryAcquire()) {
+			return true;
+		}
+		rejectedConnections.increment();
+		return false;
+	}
+
+	/**
+	 * Releases an admitted connection.
+	 */
+	void releaseConnection() {
+		if (connections != null) {
+			connections.release();
+		}
+	}
+
+	/**
+	 * Admits a command for execution, waiting for an execution permit no longer than what remains
+	 * of the queue timeout. An admitted command must be released once executed.
+	 *
+	 * @param receivedNanos
+	 *            {@link System#nanoTime()} when the command was received
+	 * @return true if admitted, false if the command is to be refused with [BUSY]
+	 */
+	boolean admitCommand(final long receivedNanos) {
+		boolean admitted = inFlight == null || inFlight.tryAcquire();
+		if (!admitted && queueTimeoutNanos > 0) {
+			final long remaining = queueTimeoutNanos - (System.nanoTime() - receivedNanos);
+			try {
+				admitted = remaining > 0 && inFlight.tryAcquire(remaining, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return admitted(receivedNanos, admitted);
+	}
+
+	/**
+	 * Admits a command for execution if an execution permit is free, without waiting for one
+	 * whatever the queue timeout; for an I/O thread serving many connections, which must not
+	 * block. An admitted command must be released once executed.
+	 *
+	 * @param receivedNanos
+	 *            {@link System#nanoTime()} when the command was received
+	 * @return true if admitted, false if the command is to be refused with [BUSY]
+	 */
+	boolean tryAdmitCommand(final long receivedNanos) {
+		return admitted(receivedNanos, inFlight == null || inFlight.tryAcquire());
+	}
+
+	/**
+	 * Accounts a command admitted, or refused.
+	 *
+	 * @param receivedNanos
+	 *            {@link System#nanoTime()} when the command was received
+	 * @param admitted
+	 *            whether the command got an execution permit
+	 * @return admitted
+	 */
+	private boolean admitted(final long receivedNanos, final boolean admitted) {
+		if (!admitted) {
+			reject();
+			return false;
+		}
+		final long queueNanos = System.nanoTime() - receivedNanos;
+		admittedCommands.increment();
+		totalQueueNanos.add(queueNanos);
+		long max;
+		while (queueNanos > (max = maxQueueNanos.get()) && !maxQueueNanos.compareAndSet(max, queueNanos)) {
+			//raced with another command, try again
+		}
+		return true;
+	}
+
+	/**
+	 * Releases an admitted command.
+	 */
+	void releaseCommand() {
+		if (inFlight != null) {
+			inFlight.release();
+		}
+	}
+
+	/**
+	 * Tests whether a connection may have one more command pipelined, counting one refused if not.
+	 *
+	 * @param pipelined
+	 *            commands the connection has pipelined before this one
+	 * @return true if within the limit, false if the command is to be refused with [BUSY]
+	 */
+	boolean admitPipelined(final int pipelined) {
+		if (maxInFlightPerConnection == 0 || pipelined < maxInFlightPerConnection) {
+			return true;
+		}
+		reject();
+		return false;
+	}
+
+	/**
+	 * Counts a command refused, warning of the first and every {@value #REJECTIONS_PER_WARNING}th.
+	 */
+	private void reject() {
+		final long rejected = rejectedCommands.incrementAndGet();
+		if (rejected % REJECTIONS_PER_WARNING == 1) {
+			LOG.warn(String.format("Exchange overloaded, %d commands refused with BUSY", rejected));
+		}
+	}
+
+	/**
+	 * Gets the number of commands admitted.
+	 *
+	 * @return the count
+	 */
+	long getAdmittedCommands() {
+		return admittedCommands.sum();
+	}
+
+	/**
+	 * Gets the number of commands refused with [BUSY].
+	 *
+	 * @return the count
+	 */
+	long getRejectedCommands() {
+		return rejectedCommands.get();
+	}
+
+	/**
+	 * Gets the number of connections refused with [BUSY].
+	 *
+	 * @return the count
+	 */
+	long getRejectedConnections() {
+		return rejectedConnections.sum();
+	}
+
+	/**
+	 * Gets the mean queue time of the commands admitted.
+	 *
+	 * @return the mean (in nanoseconds), 0 if none has been admitted
+	 */
+	long getMeanQueueNanos() {
+		final long admitted = admittedCommands.sum();
+		return admitted == 0 ? 0 : totalQueueNanos.sum() / admitted;
+	}
+
+	/**
+	 * Gets the longest queue time of a command admitted.
+	 *
+	 * @return the longest (in nanoseconds)
+	 */
+	long getMaxQueueNanos() {
+		return maxQueueNanos.get();
+	}
+
+} //END OF AdmissionController CLASS
@@ -0,0 +1,498 @@
+package com.github.astefanich.exchange;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.uw.ext.framework.exchange.StockExchange;
+import edu.uw.ext.framework.exchange.StockQuote;
+import edu.uw.ext.framework.order.MarketBuyOrder;
+import edu.uw.ext.framework.order.MarketSellOrder;
+import edu.uw.ext.framework.order.Order;
+
+/**
+ * Executes binary frames received by an {@link ExchangeNetworkAdapter} against the real
+ * {@link StockExchange}, and writes the response frames. Fields are read in place from the
+ * received buffer; ticker symbols are looked up by their packed bytes in a table of the exchange's
+ * tickers, and account IDs in a cache of recently seen IDs compared byte by byte, so parsing a
+ * quote or trade command allocates nothing (the order handed to the exchange is the only object
+ * created). Shared by the connections of both command servers. A correlated command's response
+ * echoes its correlation ID.
+ *
+ * @author AndrewStefanich
+ * @see BinaryProtocol
+ * @see CommandProcessor
+ */
+final class BinaryCommandProcessor {
+
+	/** this class' logger */
+	private static final Logger LOG = LoggerFactory.getLogger(BinaryCommandProcessor.class);
+
+	/** charset of account IDs */
+	private static final Charset CHARSET = Charset.forName(ProtocolConstants.ENCODING.toString());
+
+	/** number of slots of the account ID cache, a power of 2 */
+	private static final int ACCOUNT_CACHE_SIZE = 1024;
+
+	/** the real StockExchange commands are executed against */
+	private final StockExchange exchange;
+
+	/** packed tickers by slot, open addressing, 0 for an empty slot */
+	private final int[] tickerKeys;
+
+	/** ticker symbols by slot */
+	private final String[] tickerSymbols;
+
+	/** addresses of the price change event groups, group 1 first; empty if not sharded */
+	private volatile InetAddress[] eventGroups = new InetAddress[0];
+
+	/** recently seen account IDs, by hash of their bytes. Racy, but only holds immutable Strings */
+	private final String[] accountCache = new String[ACCOUNT_CACHE_SIZE];
+
+	/**
+	 * Constructs a BinaryCommandProcessor, building the ticker table from the exchange's tickers.
+	 *
+	 * @param exchange
+	 *            the {@code StockExchange} used to service requests
+	 */
+	BinaryCommandProcessor(final StockExchange exchange) {
+		this.exchange = exchange;
+		final String[] tickers = exchange.getTickers();
+		int size = 16;
+		while (size < tickers.length * 2) {
+			size <<= 1;
+		}
+		this.tickerKeys = new int[size];
+		this.tickerSymbols = new String[size];
+		for (String ticker : tickers) {
+			if (BinaryProtocol.isEncodable(ticker)) {
+				final int packed = BinaryProtocol.packTicker(ticker);
+				final int slot = tickerSlot(packed);
+				tickerKeys[slot] = packed;
+				tickerSymbols[slot] = ticker;
+			} else {
+				LOG.warn(String.format("Ticker %s cannot be sent in the binary protocol", ticker));
+			}
+		}
+	}
+
+	/**
+	 * Sets the price change event groups advertised by [OP_GET_EVENT_GROUPS].
+	 *
+	 * @param eventGroups
+	 *            addresses of the groups, group 1 first; empty if price changes are not sharded
+	 */
+	void setEventGroups(final InetAddress[] eventGroups) {
+		this.eventGroups = eventGroups;
+	}
+
+	/**
+	 * Processes a command frame, and appends its response frame.
+	 *
+	 * @param frame
+	 *            the received frame, positioned at its opcode and limited to its end; consumed
+	 * @param response
+	 *            buffer the response is appended to, in write mode
+	 * @return the buffer holding the response, {@code response} or a larger copy of it
+	 * @throws java.nio.BufferUnderflowException
+	 *             if the frame is shorter than its command requires
+	 */
+	ByteBuffer process(final ByteBuffer frame, final ByteBuffer response) {
+		final byte opcode = frame.get();
+		final int correlationId = (opcode & BinaryProtocol.CORRELATED) != 0 ? frame.getInt() : 0;
+		ByteBuffer reply;
+		switch ((byte) (opcode & ~BinaryProtocol.CORRELATED)) {
+
+		case BinaryProtocol.OP_GET_STATE:
+			reply = beginResponse(response, opcode, correlationId, 1);
+			reply.put(exchange.isOpen() ? (byte) 1 : (byte) 0);
+			return reply;
+
+		case BinaryProtocol.OP_GET_TICKERS:
+			final String[] tickers = exchange.getTickers();
+			reply = beginResponse(response, opcode, correlationId,
+					4 + tickers.length * BinaryProtocol.TICKER_BYTES);
+			reply.putInt(tickers.length);
+			for (String ticker : tickers) {
+				reply.putInt(BinaryProtocol.packTicker(ticker));
+			}
+			return reply;
+
+		case BinaryProtocol.OP_GET_QUOTE:
+			final StockQuote quote = exchange.getQuote(readTicker(frame));
+			reply = beginResponse(response, opcode, correlationId, 4);
+			reply.putInt(quote == null ? (Integer) ProtocolConstants.INVALID_STOCK.getValue() : quote.getPrice());
+			return reply;
+
+		case BinaryProtocol.OP_GET_QUOTES:
+			final int requested = frame.getInt();
+			if (requested < 0 || requested > frame.remaining() / BinaryProtocol.TICKER_BYTES) {
+				throw new IllegalArgumentException("Invalid ticker count: " + requested);
+			}
+			final String[] symbols = requested == 0 ? exchange.getTickers() : new String[requested];
+			for (int i = 0; i < requested; i++) {
+				symbols[i] = readTicker(frame);
+			}
+			return putQuotes(response, opcode, correlationId, symbols);
+
+		case BinaryProtocol.OP_EXECUTE_TRADE:
+			final int price = executeOrder(frame, exchange.isOpen());
+			reply = beginResponse(response, opcode, correlationId, 4);
+			reply.putInt(price);
+			return reply;
+
+		case BinaryProtocol.OP_EXECUTE_TRADES:
+			final int count = frame.getInt();
+			if (count < 0 || count > frame.remaining() / BinaryProtocol.ORDER_BYTES) {
+				throw new IllegalArgumentException("Invalid order count: " + count);
+			}
+			final boolean open = exchange.isOpen();
+			reply = beginResponse(response, opcode, correlationId, 4 + count * 4);
+			reply.putInt(count);
+			for (int i = 0; i < count; i++) {
+				reply.putInt(executeBatchedOrder(frame, open));
+			}
+			return reply;
+
+		case BinaryProtocol.OP_SNAPSHOT:
+			final boolean isOpen = exchange.isOpen();
+			final String[] listed = exchange.getTickers();
+			final StockQuote[] quotes = quoteEach(listed);
+			reply = beginResponse(response, opcode, correlationId,
+					1 + 4 + countQuoted(quotes) * (BinaryProtocol.TICKER_BYTES + 4));
+			reply.put(isOpen ? (byte) 1 : (byte) 0);
+			putQuoted(reply, listed, quotes);
+			return reply;
+
+		case BinaryProtocol.OP_GET_EVENT_GROUPS:
+			final InetAddress[] groups = eventGroups;
+			final String[] sharded = groups.length > 0 ? exchange.getTickers() : new String[0];
+			reply = beginResponse(response, opcode, correlationId,
+					4 + groups.length * 4 + 4 + sharded.length * (BinaryProtocol.TICKER_BYTES + 4));
+			reply.putInt(groups.length);
+			for (InetAddress group : groups) {
+				reply.put(group.getAddress());
+			}
+			reply.putInt(sharded.length);
+			for (String ticker : sharded) {
+				reply.putInt(BinaryProtocol.packTicker(ticker));
+				reply.putInt(EventGroups.groupOf(ticker, groups.length));
+			}
+			return reply;
+
+		default:
+			LOG.warn(String.format("Server received unknown binary command from client: %d", opcode));
+			frame.position(frame.limit());
+			return beginResponse(response, (byte) (BinaryProtocol.OP_ERROR | opcode & BinaryProtocol.CORRELATED),
+					correlationId, 0);
+		} //end of opcode switch statement
+	} //end of process()
+
+	/**
+	 * Skips a command frame without executing it, and appends an [OP_BUSY] response, echoing its
+	 * correlation ID.
+	 *
+	 * @param frame
+	 *            the received frame, positioned at its opcode and limited to its end; consumed
+	 * @param response
+	 *            buffer the response is appended to, in write mode
+	 * @return the buffer holding the response, {@code response} or a larger copy of it
+	 */
+	ByteBuffer busy(final ByteBuffer frame, final ByteBuffer response) {
+		final byte opcode = frame.get();
+		final int correlationId = (opcode & BinaryProtocol.CORRELATED) != 0 ? frame.getInt() : 0;
+		frame.position(frame.limit());
+		return beginResponse(response, (byte) (BinaryProtocol.OP_BUSY | opcode & BinaryProtocol.CORRELATED),
+				correlationId, 0);
+	}
+
+	/**
+	 * Appends an [OP_ERROR] response to a command frame which could not be processed, echoing its
+	 * correlation ID if the frame holds one.
+	 *
+	 * @param frame
+	 *            the received frame, positioned at its opcode and limited to its end; consumed
+	 * @param response
+	 *            buffer the response is appended to, in write mode
+	 * @return the buffer holding the response, {@code response} or a larger copy of it
+	 */
+	ByteBuffer error(final ByteBuffer frame, final ByteBuffer response) {
+		final byte opcode = frame.hasRemaining() ? frame.get() : BinaryProtocol.OP_ERROR;
+		final int correlationId = (opcode & BinaryProtocol.CORRELATED) != 0 && frame.remaining() >= 4
+				? frame.getInt() : 0;
+		frame.position(frame.limit());
+		return beginResponse(response, (byte) (BinaryProtocol.OP_ERROR | opcode & BinaryProtocol.CORRELATED),
+				correlationId, 0);
+	}
+
+	/**
+	 * Appends the response to [OP_GET_QUOTES]; the quote of each stock traded among those
+	 * requested.
+	 *
+	 * @param response
+	 *            buffer the response is appended to, in write mode
+	 * @param opcode
+	 *            opcode of the response, including the correlated flag
+	 * @param correlationId
+	 *            correlation ID of the command, ignored if the opcode is not flagged
+	 * @param tickers
+	 *            ticker symbols of the stocks requested
+	 * @return the buffer holding the response, {@code response} or a larger copy of it
+	 */
+	private ByteBuffer putQuotes(final ByteBuffer response, final byte opcode, final int correlationId,
+			final String[] tickers) {
+		final StockQuote[] quotes = quoteEach(tickers);
+		final ByteBuffer reply = beginResponse(response, opcode, correlationId,
+				4 + countQuoted(quotes) * (BinaryProtocol.TICKER_BYTES + 4));
+		putQuoted(reply, tickers, quotes);
+		return reply;
+	}
+
+	/**
+	 * Gets the quote of each stock from the exchange; {@code null} for a ticker which is not
+	 * traded, or cannot be sent in the binary protocol.
+	 *
+	 * @param tickers
+	 *            ticker symbols of the stocks
+	 * @return the quotes, by position of the tickers
+	 */
+	private StockQuote[] quoteEach(final String[] tickers) {
+		final StockQuote[] quotes = new StockQuote[tickers.length];
+		for (int i = 0; i < tickers.length; i++) {
+			if (BinaryProtocol.isEncodable(tickers[i])) {
+				quotes[i] = exchange.getQuote(tickers[i]);
+			}
+		}
+		return quotes;
+	}
+
+	/**
+	 * Counts the quotes which are not {@code null}.
+	 *
+	 * @param quotes
+	 *            the quotes
+	 * @return the count
+	 */
+	private static int countQuoted(final StockQuote[] quotes) {
+		int quoted = 0;
+		for (StockQuote quote : quotes) {
+			quoted += quote == null ? 0 : 1;
+		}
+		return quoted;
+	}
+
+	/**
+	 * Puts the count of quotes which are not {@code null}, then the ticker and price of each.
+	 *
+	 * @param reply
+	 *            the response being built, with room for the quotes
+	 * @param tickers
+	 *            ticker symbols of the stocks
+	 * @param quotes
+	 *            the quotes, by position of the tickers
+	 */
+	private static void putQuoted(final ByteBuffer reply, final String[] tickers, final StockQuote[] quotes) {
+		reply.putInt(countQuoted(quotes));
+		for (int i = 0; i < tickers.length; i++) {
+			if (quotes[i] != null) {
+				reply.putInt(BinaryProtocol.packTicker(tickers[i]));
+				reply.putInt(quotes[i].getPrice());
+			}
+		}
+	}
+
+	/**
+	 * Begins a response frame, echoing the correlation ID of a correlated command.
+	 *
+	 * @param response
+	 *            buffer the response is appended to, in write mode
+	 * @param opcode
+	 *            opcode of the response, including the correlated flag
+	 * @param correlationId
+	 *            correlation ID of the command, ignored if the opcode is not flagged
+	 * @param payloadLength
+	 *            bytes of the payload which will follow
+	 * @return the buffer the response was begun in, {@code response} or a larger copy of it
+	 */
+	private static ByteBuffer beginResponse(final ByteBuffer response, final byte opcode, final int correlationId,
+			final int payloadLength) {
+		if ((opcode & BinaryProtocol.CORRELATED) == 0) {
+			return BinaryProtocol.beginFrame(response, opcode, payloadLength);
+		}
+		final ByteBuffer reply = BinaryProtocol.beginFrame(response, opcode, 4 + payloadLength);
+		reply.putInt(correlationId);
+		return reply;
+	}
+
+	/**
+	 * Reads an order of [OP_EXECUTE_TRADES] and executes it with the exchange. A failure to
+	 * execute is reported for the order alone, so the orders executed before it are still reported
+	 * with their prices; a malformed order still fails the command.
+	 *
+	 * @param frame
+	 *            the received frame, positioned at the order
+	 * @param open
+	 *            whether the exchange is open
+	 * @return the execution price, 0 if the trade is not executed, [TRADE_FAILED] if it failed
+	 */
+	private int executeBatchedOrder(final ByteBuffer frame, final boolean open) {
+		final byte side = frame.get();
+		final String symbol = readTicker(frame);
+		final int numShares = frame.getInt();
+		final String accountID = readAccountId(frame);
+		try {
+			return executeOrder(side, symbol, numShares, accountID, open);
+		} catch (RuntimeException e) {
+			LOG.error(String.format("Could not execute order for %s of a batch", symbol), e);
+			return (Integer) ProtocolConstants.TRADE_FAILED.getValue();
+		}
+	}
+
+	/**
+	 * Reads an order of a trade command and executes it with the exchange.
+	 *
+	 * @param frame
+	 *            the received frame, positioned at the order
+	 * @param open
+	 *            whether the exchange is open
+	 * @return the execution price, 0 if the trade is not executed
+	 */
+	private int executeOrder(final ByteBuffer frame, final boolean open) {
+		final byte side = frame.get();
+		final String symbol = readTicker(frame);
+		final int numShares = frame.getInt();
+		final String accountID = readAccountId(frame);
+		return executeOrder(side, symbol, numShares, accountID, open);
+	}
+
+	/**
+	 * Executes an order with the exchange.
+	 *
+	 * @param side
+	 *            [SIDE_BUY]|[SIDE_SELL]
+	 * @param symbol
+	 *            ticker symbol of the stock
+	 * @param numShares
+	 *            number of shares
+	 * @param accountID
+	 *            account of the order
+	 * @param open
+	 *            whether the exchange is open
+	 * @return the execution price, 0 if the trade is not executed
+	 */
+	private int executeOrder(final byte side, final String symbol, final int numShares, final String accountID,
+			final boolean open) {
+		if (!open) {
+			return 0;
+		}
+		final Order order;
+		switch (side) {
+		case BinaryProtocol.SIDE_BUY:
+			order = new MarketBuyOrder(accountID, numShares, symbol);
+			break;
+		case BinaryProtocol.SIDE_SELL:
+			order = new MarketSellOrder(accountID, numShares, symbol);
+			break;
+		default:
+			LOG.warn(String.format("Server received order side %d from client. Unknown order type!", side));
+			return 0;
+		}
+		return exchange.executeTrade(order);
+	}
+
+	/**
+	 * Reads a ticker, resolving it through the ticker table. Only a ticker the exchange did not
+	 * trade when this processor was constructed is decoded into a new String.
+	 *
+	 * @param frame
+	 *            the received frame, positioned at the ticker
+	 * @return the ticker symbol
+	 */
+	private String readTicker(final ByteBuffer frame) {
+		final int packed = frame.getInt();
+		for (int slot = tickerSlot(packed); tickerKeys[slot] != 0; slot = (slot + 1) & (tickerKeys.length - 1)) {
+			if (tickerKeys[slot] == packed) {
+				return tickerSymbols[slot];
+			}
+		}
+		return BinaryProtocol.unpackTicker(packed);
+	}
+
+	/**
+	 * Finds the slot of a packed ticker in the ticker table; the first empty slot or the slot
+	 * holding it.
+	 *
+	 * @param packed
+	 *            the packed ticker
+	 * @return the slot
+	 */
+	private int tickerSlot(final int packed) {
+		final int mask = tickerKeys.length - 1;
+		int slot = (packed * 0x9E3779B9) >>> 16 & mask;
+		while (tickerKeys[slot] != 0 && tickerKeys[slot] != packed) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Reads an account ID, returning the cached String if its bytes match those of the ID last
+	 * seen with the same hash, and caching a newly decoded String if not.
+	 *
+	 * @param frame
+	 *            the received frame, positioned at the account ID's length
+	 * @return the account ID
+	 */
+	private String readAccountId(final ByteBuffer frame) {
+		final int length = frame.getShort() & 0xFFFF;
+		final int start = frame.position();
+		if (length > frame.remaining()) {
+			throw new IllegalArgumentException("Account ID longer than the frame: " + length);
+		}
+		int hash = 0;
+		for (int i = start; i < start + length; i++) {
+			hash = 31 * hash + frame.get(i);
+		}
+		final int slot = (hash ^ (hash >>> 16)) & (ACCOUNT_CACHE_SIZE - 1);
+		String accountID = accountCache[slot];
+		if (accountID == null || !matches(accountID, frame, start, length)) {
+			final byte[] bytes = new byte[length];
+			frame.get(bytes);
+			accountID = new String(bytes, CHARSET);
+			accountCache[slot] = accountID;
+		} else {
+			frame.position(start + length);
+		}
+		return accountID;
+	}
+
+	/**
+	 * Tests whether an ASCII String equals the bytes of an encoded String.
+	 *
+	 * @param string
+	 *            the String
+	 * @param frame
+	 *            buffer holding the bytes
+	 * @param start
+	 *            index of the first byte
+	 * @param length
+	 *            number of bytes
+	 * @return true if every char of the String is the corresponding ASCII byte
+	 */
+	private static boolean matches(final String string, final ByteBuffer frame, final int start, final int length) {
+		if (string.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			final byte b = frame.get(start + i);
+			if (b < 0 || string.charAt(i) != b) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+} //END OF BinaryCommandProcessor CLASS
@@ -0,0 +1,230 @@
+package com.github.astefanich.exchange;
+
+import java.nio.ByteBuffer;
+
+import edu.uw.ext.framework.order.Order;
+
+/**
+ * Constants and codec helpers of the binary command protocol; a compact alternative to the text
+ * lines of {@link ProtocolConstants}. A client switches a command connection to it by sending
+ * [BINARY_PROTOCOL_CMD] as a text line, and waiting for the same line to be echoed; from then on
+ * every command and response on the connection is a binary frame. A server which does not echo it
+ * keeps the connection in the text protocol. <br>
+ * <br>
+ * Frames are big-endian: <i>length</i> (int, bytes following the length), <i>opcode</i> (byte),
+ * <i>payload</i>. A response carries the opcode of its command, or {@link #OP_ERROR} if the opcode
+ * is unknown, or {@link #OP_BUSY} if the exchange refused it for overload. A command whose opcode has the {@link #CORRELATED} flag set carries a
+ * <i>correlation_ID</i> (int) ahead of its payload, which its response (flagged too) echoes, so a
+ * client may pipeline commands. Tickers are 4 ASCII bytes, padded with spaces, as in the records of
+ * {@code exchange.dat}. <br>
+ * <br>
+ * Request: [OP_GET_STATE] <br>
+ * Response: <i>open</i> (byte, 1 if open, 0 if closed) <br>
+ * - <br>
+ * Request: [OP_GET_TICKERS] <br>
+ * Response: <i>count</i> (int) <i>ticker</i>... <br>
+ * - <br>
+ * Request: [OP_GET_QUOTE] <i>ticker</i> <br>
+ * Response: <i>price</i> (int, [INVALID_STOCK] if the stock is not traded) <br>
+ * - <br>
+ * Request: [OP_GET_QUOTES] <i>count</i> (int) <i>ticker</i>... (every stock if the count is 0) <br>
+ * Response: <i>count</i> (int) (<i>ticker</i> <i>price</i> (int))... (stocks not traded are left
+ * out) <br>
+ * - <br>
+ * Request: [OP_EXECUTE_TRADE] <i>order</i> <br>
+ * Response: <i>execution_price</i> (int) <br>
+ * - <br>
+ * Request: [OP_EXECUTE_TRADES] <i>count</i> (int) <i>order</i>... <br>
+ * Response: <i>count</i> (int) <i>execution_price</i> (int, [TRADE_FAILED] if the order failed)...
+ * <br>
+ * - <br>
+ * Request: [OP_SNAPSHOT] <br>
+ * Response: <i>open</i> (byte) <i>count</i> (int) (<i>ticker</i> <i>price</i> (int))... <br>
+ * - <br>
+ * Request: [OP_GET_EVENT_GROUPS] <br>
+ * Response: <i>count</i> (int) <i>group_address</i> (4 bytes, IPv4)... <i>tickers</i> (int)
+ * (<i>ticker</i> <i>group</i> (int))... <br>
+ * <br>
+ * An <i>order</i> is: <i>side</i> (byte, [SIDE_BUY]|[SIDE_SELL]), <i>ticker</i>, <i>shares</i> (int),
+ * <i>account_ID</i> (unsigned short length, then UTF-8 bytes).
+ *
+ * @author AndrewStefanich
+ * @see ProtocolConstants
+ * @see BinaryCommandProcessor
+ */
+final class BinaryProtocol {
+
+	/** response opcode of a command with an unknown opcode */
+	static final byte OP_ERROR = 0;
+
+	/** [GET_STATE_CMD] */
+	static final byte OP_GET_STATE = 1;
+
+	/** [GET_TICKERS_CMD] */
+	static final byte OP_GET_TICKERS = 2;
+
+	/** [GET_QUOTE_CMD] */
+	static final byte OP_GET_QUOTE = 3;
+
+	/** [EXECUTE_TRADE_CMD] */
+	static final byte OP_EXECUTE_TRADE = 4;
+
+	/** [EXECUTE_TRADES_CMD] */
+	static final byte OP_EXECUTE_TRADES = 5;
+
+	/** [SNAPSHOT_CMD] */
+	static final byte OP_SNAPSHOT = 6;
+
+	/** [GET_QUOTES_CMD] */
+	static final byte OP_GET_QUOTES = 7;
+
+	/** [GET_EVENT_GROUPS_CMD] */
+	static final byte OP_GET_EVENT_GROUPS = 8;
+
+	/** [BUSY] response opcode of a command refused for overload, without a payload */
+	static final byte OP_BUSY = 9;
+
+	/** flag of an opcode whose frame carries a correlation ID */
+	static final byte CORRELATED = (byte) 0x80;
+
+	/** side of a buy order */
+	static final byte SIDE_BUY = 1;
+
+	/** side of a sell order */
+	static final byte SIDE_SELL = 0;
+
+	/** bytes of the length field of a frame */
+	static final int LENGTH_BYTES = 4;
+
+	/** bytes of the length and opcode fields of a frame */
+	static final int HEADER_BYTES = LENGTH_BYTES + 1;
+
+	/** bytes of a ticker */
+	static final int TICKER_BYTES = 4;
+
+	/** bytes of an order, not counting the account ID's bytes */
+	static final int ORDER_BYTES = 1 + TICKER_BYTES + 4 + 2;
+
+	/** longest frame accepted, length field included; a connection sending a longer one is closed */
+	static final int MAX_FRAME_LENGTH = 1 << 20;
+
+	/** padding of tickers shorter than {@value #TICKER_BYTES} bytes */
+	private static final byte PAD = ' ';
+
+	/**
+	 * Not instantiable.
+	 */
+	private BinaryProtocol() {
+	}
+
+	/**
+	 * Tests whether a ticker symbol can be sent in the binary protocol.
+	 *
+	 * @param ticker
+	 *            the ticker symbol
+	 * @return true if the ticker is at most {@value #TICKER_BYTES} ASCII characters, without
+	 *         padding
+	 */
+	static boolean isEncodable(final String ticker) {
+		if (ticker.isEmpty() || ticker.length() > TICKER_BYTES || ticker.charAt(ticker.length() - 1) == PAD) {
+			return false;
+		}
+		for (int i = 0; i < ticker.length(); i++) {
+			if (ticker.charAt(i) > 0x7F) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Packs a ticker symbol into an int, the 4 bytes of its encoding read as a big-endian int.
+	 *
+	 * @param ticker
+	 *            the ticker symbol, must be encodable
+	 * @return the packed ticker
+	 */
+	static int packTicker(final String ticker) {
+		int packed = 0;
+		for (int i = 0; i < TICKER_BYTES; i++) {
+			packed = (packed << 8) | (i < ticker.length() ? ticker.charAt(i) & 0xFF : PAD);
+		}
+		return packed;
+	}
+
+	/**
+	 * Unpacks a ticker symbol packed by {@link #packTicker(String)}.
+	 *
+	 * @param packed
+	 *            the packed ticker
+	 * @return the ticker symbol, without padding
+	 */
+	static String unpackTicker(final int packed) {
+		final char[] chars = new char[TICKER_BYTES];
+		int length = 0;
+		for (int i = 0; i < TICKER_BYTES; i++) {
+			final char c = (char) ((packed >>> (8 * (TICKER_BYTES - 1 - i))) & 0xFF);
+			chars[i] = c;
+			if (c != PAD) {
+				length = i + 1;
+			}
+		}
+		return new String(chars, 0, length);
+	}
+
+	/**
+	 * Puts an order into a command frame; side, ticker, shares and account ID.
+	 *
+	 * @param frame
+	 *            the command being built
+	 * @param order
+	 *            the order, for an encodable ticker
+	 * @param accountID
+	 *            the encoded account ID of the order
+	 */
+	static void putOrder(final ByteBuffer frame, final Order order, final byte[] accountID) {
+		frame.put(order.isBuyOrder() ? SIDE_BUY : SIDE_SELL);
+		frame.putInt(packTicker(order.getStockTicker()));
+		frame.putInt(order.getNumberOfShares());
+		frame.putShort((short) accountID.length);
+		frame.put(accountID);
+	}
+
+	/**
+	 * Begins a frame in a buffer, growing it if the frame does not fit.
+	 *
+	 * @param buffer
+	 *            the buffer, in write mode
+	 * @param opcode
+	 *            opcode of the frame
+	 * @param payloadLength
+	 *            bytes of the payload which will follow
+	 * @return the buffer the frame was begun in, {@code buffer} or a larger copy of it
+	 */
+	static ByteBuffer beginFrame(final ByteBuffer buffer, final byte opcode, final int payloadLength) {
+		final ByteBuffer frame = ensureRemaining(buffer, HEADER_BYTES + payloadLength);
+		frame.putInt(1 + payloadLength);
+		frame.put(opcode);
+		return frame;
+	}
+
+	/**
+	 * Ensures a buffer has room for more bytes.
+	 *
+	 * @param buffer
+	 *            the buffer, in write mode
+	 * @param bytes
+	 *            the bytes needed
+	 * @return {@code buffer} if it has room, otherwise a larger copy of it, in write mode
+	 */
+	static ByteBuffer ensureRemaining(final ByteBuffer buffer, final int bytes) {
+		if (buffer.remaining() >= bytes) {
+			return buffer;
+		}
+		final ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+		buffer.flip();
+		grown.put(buffer);
+		return grown;
+	}
+
+} //END OF BinaryProtocol CLASS
@@ -0,0 +1,362 @@
+package com.github.astefanich.exchange;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pipelining client side of a command connection, shared by all threads using an
+ * {@link ExchangeNetworkProxy}. Each command is tagged with a correlation ID and written whole
+ * under a lock, without waiting for earlier commands' responses; a single reader thread matches
+ * each response to its command by ID and completes the command's {@link CompletableFuture}. Commands
+ * are text lines wrapped in [CORRELATED_CMD], or {@link BinaryProtocol} frames with the
+ * {@link BinaryProtocol#CORRELATED} flag, depending on the protocol negotiated for the connection.
+ * A command an overloaded exchange answers [BUSY] is sent again after a backoff, doubled on each
+ * further [BUSY], and fails once the retries are spent.
+ *
+ * @author AndrewStefanich
+ * @see ExchangeNetworkProxy
+ */
+final class CommandClient {
+
+	/** this class' logger */
+	private static final Logger LOG = LoggerFactory.getLogger(CommandClient.class);
+
+	/** charset of commands and responses */
+	private static final Charset CHARSET = Charset.forName(ProtocolConstants.ENCODING.toString());
+
+	/** times a command answered [BUSY] is sent again before it fails */
+	private static final int MAX_BUSY_RETRIES = 5;
+
+	/** wait before a command answered [BUSY] is first sent again (in milliseconds) */
+	private static final long BUSY_BACKOFF_MILLIS = 1;
+
+	/** the command connection */
+	private final Socket socket;
+
+	/** the connection's output, also the lock commands are written under */
+	private final OutputStream out;
+
+	/** commands awaiting responses, by correlation ID */
+	private final ConcurrentMap<Integer, PendingCommand> pending = new ConcurrentHashMap<Integer, PendingCommand>();
+
+	/** sends commands answered [BUSY] again; its thread only lives while retries are scheduled */
+	private final ScheduledThreadPoolExecutor retryTimer = new ScheduledThreadPoolExecutor(1);
+
+	/** correlation ID of the next command */
+	private final AtomicInteger nextCorrelationId = new AtomicInteger();
+
+	/** cause of the connection's failure, {@code null} while it is usable */
+	private volatile IOException failure;
+
+	/**
+	 * Constructs a CommandClient, and starts its reader.
+	 *
+	 * @param socket
+	 *            the command connection, any protocol switch already acknowledged
+	 * @param binary
+	 *            true if the connection has been switched to binary frames
+	 * @param threadPool
+	 *            runs the reader
+	 * @throws IOException
+	 *             if the connection's streams cannot be obtained
+	 */
+	CommandClient(final Socket socket, final boolean binary, final Executor threadPool) throws IOException {
+		this.socket = socket;
+		this.out = socket.getOutputStream();
+		retryTimer.setKeepAliveTime(1, TimeUnit.SECONDS);
+		retryTimer.allowCoreThreadTimeOut(true);
+		if (binary) {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			threadPool.execute(() -> readResponses(() -> readFrame(in)));
+		} else {
+			final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), CHARSET));
+			threadPool.execute(() -> readResponses(() -> readLine(in)));
+		}
+	}
+
+	/**
+	 * Sends a text command.
+	 *
+	 * @param command
+	 *            the command line, without its terminator
+	 * @return completed with the response line, or exceptionally if the command failed
+	 */
+	CompletableFuture<String> send(final String command) {
+		final int correlationId = nextCorrelationId.getAndIncrement();
+		final StringBuilder stringBuilder = new StringBuilder();
+		stringBuilder.append(ProtocolConstants.CORRELATED_CMD);
+		stringBuilder.append(ProtocolConstants.ELEMENT_DELIMITER);
+		stringBuilder.append(correlationId);
+		stringBuilder.append(ProtocolConstants.ELEMENT_DELIMITER);
+		stringBuilder.append(command);
+		stringBuilder.append('\n');
+		final byte[] bytes = stringBuilder.toString().getBytes(CHARSET);
+		return send(correlationId, bytes, bytes.length).thenApply(String.class::cast);
+	}
+
+	/**
+	 * Creates a binary command frame, with room for the correlation ID.
+	 *
+	 * @param opcode
+	 *            opcode of the command
+	 * @param payloadLength
+	 *            bytes of the payload which will be put
+	 * @return the frame, positioned at its payload
+	 */
+	ByteBuffer newFrame(final byte opcode, final int payloadLength) {
+		final ByteBuffer frame = ByteBuffer.allocate(BinaryProtocol.HEADER_BYTES + 4 + payloadLength);
+		frame.putInt(1 + 4 + payloadLength);
+		frame.put((byte) (opcode | BinaryProtocol.CORRELATED));
+		frame.putInt(0); //correlation ID, set when sent
+		return frame;
+	}
+
+	/**
+	 * Sends a binary command frame.
+	 *
+	 * @param frame
+	 *            frame created by {@link #newFrame(byte, int)}, with its payload put
+	 * @return completed with the response payload, or exceptionally if the command failed
+	 */
+	CompletableFuture<ByteBuffer> send(final ByteBuffer frame) {
+		final int correlationId = nextCorrelationId.getAndIncrement();
+		frame.putInt(BinaryProtocol.HEADER_BYTES, correlationId);
+		return send(correlationId, frame.array(), frame.position()).thenApply(ByteBuffer.class::cast);
+	}
+
+	/**
+	 * Registers a command awaiting its response, and writes it.
+	 *
+	 * @param correlationId
+	 *            the command's correlation ID
+	 * @param bytes
+	 *            the encoded command
+	 * @param length
+	 *            number of bytes of the command
+	 * @return completed with the response
+	 */
+	private CompletableFuture<Object> send(final int correlationId, final byte[] bytes, final int length) {
+		final PendingCommand command = new PendingCommand(bytes, length);
+		write(correlationId, command);
+		return command.response;
+	}
+
+	/**
+	 * Registers a command awaiting its response, and writes it; failing it if the connection has
+	 * failed.
+	 *
+	 * @param correlationId
+	 *            the command's correlation ID
+	 * @param command
+	 *            the command
+	 */
+	private void write(final int correlationId, final PendingCommand command) {
+		pending.put(correlationId, command);
+		try {
+			if (failure != null) {
+				throw failure;
+			}
+			synchronized (out) {
+				out.write(command.bytes, 0, command.length);
+				out.flush();
+			}
+		} catch (IOException e) {
+			pending.remove(correlationId);
+			command.response.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Schedules a command answered [BUSY] to be sent again after its backoff, or fails it once its
+	 * retries are spent. Reader only.
+	 *
+	 * @param correlationId
+	 *            the command's correlation ID
+	 * @param command
+	 *            the command, no longer registered as awaiting its response
+	 */
+	private void retry(final int correlationId, final PendingCommand command) {
+		if (command.busyRetries == MAX_BUSY_RETRIES) {
+			command.response.completeExceptionally(new IOException(String.format(
+					"Exchange busy, command refused %d times", MAX_BUSY_RETRIES + 1)));
+			return;
+		}
+		final long backoffMillis = BUSY_BACKOFF_MILLIS << command.busyRetries++;
+		try {
+			retryTimer.schedule(() -> write(correlationId, command), backoffMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			command.response.completeExceptionally(new IOException("Command connection closed", e));
+		}
+	}
+
+	/**
+	 * Closes the connection, failing the commands awaiting responses.
+	 */
+	void close() {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			LOG.warn("Error closing command connection", e);
+		}
+	}
+
+	/**
+	 * Reader loop. Completes commands with their responses until the connection fails, then fails
+	 * the commands still awaiting responses.
+	 *
+	 * @param reader
+	 *            reads and dispatches one response
+	 */
+	private void readResponses(final ResponseReader reader) {
+		try {
+			while (reader.readResponse()) {
+				//next response
+			}
+			failure = new IOException("Exchange closed the command connection");
+		} catch (IOException e) {
+			failure = e;
+		}
+		LOG.info("Command connection closed: " + failure.getMessage());
+		retryTimer.shutdown();  //retries already scheduled still run, and fail
+		for (Integer correlationId : pending.keySet()) {
+			final PendingCommand command = pending.remove(correlationId);
+			if (command != null) {
+				command.response.completeExceptionally(failure);
+			}
+		}
+	}
+
+	/**
+	 * Reads a text response; <i>correlation_ID</i>[ELEMENT_DELIMITER]<i>response</i>.
+	 *
+	 * @param in
+	 *            the connection's reader
+	 * @return false at the end of the stream
+	 * @throws IOException
+	 *             if the response cannot be read
+	 */
+	private boolean readLine(final BufferedReader in) throws IOException {
+		final String line = in.readLine();
+		if (line == null) {
+			return false;
+		}
+		if (line.equals(ProtocolConstants.BUSY.toString())) {
+			LOG.warn("Exchange busy, command connection refused");
+			return true;  //the exchange closes the connection
+		}
+		final int delimiter = line.indexOf(ProtocolConstants.ELEMENT_DELIMITER.toString());
+		final int correlationId;
+		try {
+			correlationId = Integer.parseInt(line.substring(0, delimiter));
+		} catch (RuntimeException e) {
+			LOG.warn(String.format("Uncorrelated response from exchange: %s", line));
+			return true;
+		}
+		final PendingCommand command = pending.remove(correlationId);
+		if (command != null) {
+			final String result = line.substring(delimiter + 1);
+			if (result.equals(ProtocolConstants.COMMAND_FAILED.toString())) {
+				command.response.completeExceptionally(new IOException("Exchange failed to execute command"));
+			} else if (result.equals(ProtocolConstants.BUSY.toString())) {
+				retry(correlationId, command);
+			} else {
+				command.response.complete(result);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads a binary response frame; the payload follows the opcode and correlation ID.
+	 *
+	 * @param in
+	 *            the connection's input
+	 * @return true
+	 * @throws IOException
+	 *             if the response cannot be read, including at the end of the stream
+	 */
+	private boolean readFrame(final DataInputStream in) throws IOException {
+		final int length = in.readInt();
+		final byte opcode = in.readByte();
+		final int correlationId = in.readInt();
+		final byte[] payload = new byte[length - 1 - 4];
+		in.readFully(payload);
+		final PendingCommand command = pending.remove(correlationId);
+		if (command == null) {
+			LOG.warn(String.format("Uncorrelated response from exchange: %d", correlationId));
+		} else if ((opcode & ~BinaryProtocol.CORRELATED) == BinaryProtocol.OP_ERROR) {
+			command.response.completeExceptionally(new IOException("Exchange rejected command"));
+		} else if ((opcode & ~BinaryProtocol.CORRELATED) == BinaryProtocol.OP_BUSY) {
+			retry(correlationId, command);
+		} else {
+			command.response.complete(ByteBuffer.wrap(payload));
+		}
+		return true;
+	}
+
+	/**
+	 * A command awaiting its response, kept encoded so it can be sent again.
+	 */
+	private static final class PendingCommand {
+
+		/** completed with the response */
+		private final CompletableFuture<Object> response = new CompletableFuture<Object>();
+
+		/** the encoded command */
+		private final byte[] bytes;
+
+		/** number of bytes of the command */
+		private final int length;
+
+		/** times the command has been sent again after [BUSY]; reader only */
+		private int busyRetries;
+
+		/**
+		 * Constructs a PendingCommand.
+		 *
+		 * @param bytes
+		 *            the encoded command
+		 * @param length
+		 *            number of bytes of the command
+		 */
+		PendingCommand(final byte[] bytes, final int length) {
+			this.bytes = bytes;
+			this.length = length;
+		}
+	} //END OF PendingCommand CLASS
+
+	/**
+	 * Reads one response of the connection's protocol.
+	 */
+	@FunctionalInterface
+	private interface ResponseReader {
+
+		/**
+		 * Reads and dispatches one response.
+		 *
+		 * @return false at the end of the stream
+		 * @throws IOException
+		 *             if the response cannot be read
+		 */
+		boolean readResponse() throws IOException;
+	}
+
+} //END OF CommandClient CLASS
@@ -0,0 +1,273 @@
+package com.github.astefanich.exchange;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.uw.ext.framework.exchange.StockExchange;
+import edu.uw.ext.framework.exchange.StockQuote;
+import edu.uw.ext.framework.order.MarketBuyOrder;
+import edu.uw.ext.framework.order.MarketSellOrder;
+
+/**
+ * Executes commands received by an {@link ExchangeNetworkAdapter} against the real
+ * {@link StockExchange}, and produces the response. Independent of how the command was read, so it
+ * is shared by the blocking and non-blocking command servers.
+ *
+ * @author AndrewStefanich
+ * @see ProtocolConstants
+ */
+final class CommandProcessor {
+
+	/** this class' logger */
+	private static final Logger LOG = LoggerFactory.getLogger(CommandProcessor.class);
+
+	/** the real StockExchange commands are executed against */
+	private final StockExchange exchange;
+
+	/** addresses of the price change event groups, group 1 first; empty if not sharded */
+	private volatile InetAddress[] eventGroups = new InetAddress[0];
+
+	/**
+	 * Constructs a CommandProcessor.
+	 *
+	 * @param exchange
+	 *            the {@code StockExchange} used to service requests
+	 */
+	CommandProcessor(final StockExchange exchange) {
+		this.exchange = exchange;
+	}
+
+	/**
+	 * Sets the price change event groups advertised by [GET_EVENT_GROUPS_CMD].
+	 *
+	 * @param eventGroups
+	 *            addresses of the groups, group 1 first; empty if price changes are not sharded
+	 */
+	void setEventGroups(final InetAddress[] eventGroups) {
+		this.eventGroups = eventGroups;
+	}
+
+	/**
+	 * Processes a command and produces the response.
+	 *
+	 * @param receivedCmdString
+	 *            the text line received from the client
+	 * @return the response line, {@code null} if the command has no response
+	 */
+	String process(final String receivedCmdString) {
+		final String[] tokens = receivedCmdString.split(ProtocolConstants.ELEMENT_DELIMITER.toString());
+		final ProtocolConstants commandArg = ProtocolConstants
+				.valueOf(tokens[(Integer) ProtocolConstants.CMD_ELEMENT.getValue()]);
+
+		switch (commandArg) {
+
+		//Request: [GET_STATE_CMD]
+		//Response: [OPEN_STATE]|[CLOSED_STATE]
+		case GET_STATE_CMD:
+			if (exchange.isOpen()) {
+				return ProtocolConstants.OPEN_STATE.toString();
+			} else {
+				return ProtocolConstants.CLOSED_STATE.toString();
+			}
+
+		//Request: [GET_TICKERS_CMD]
+		//Response:symbol[ELEMENT_DELIMITER]symbol....
+		case GET_TICKERS_CMD:
+			String[] tickers = exchange.getTickers();
+			StringBuilder stringBuilder = new StringBuilder();
+			for (int i = 0; i < tickers.length; i++) {
+				stringBuilder.append(tickers[i]);
+				if (i < tickers.length - 1)  //don't append ":" to the last element
+					stringBuilder.append(ProtocolConstants.ELEMENT_DELIMITER.toString());
+			}
+			return stringBuilder.toString();
+
+		//Request: [GET_QUOTE_CMD][ELEMENT_DELIMITER]symbol
+		//Response: price
+		case GET_QUOTE_CMD:
+			String tickerSymbol = tokens[(Integer) ProtocolConstants.QUOTE_CMD_TICKER_ELEMENT.getValue()];
+			StockQuote quote = exchange.getQuote(tickerSymbol);
+			return Integer.toString(quote.getPrice());
+
+		//Request: [GET_QUOTES_CMD]([ELEMENT_DELIMITER]symbol)...
+		//Response: symbol[ELEMENT_DELIMITER]price([ELEMENT_DELIMITER]symbol[ELEMENT_DELIMITER]price)...
+		case GET_QUOTES_CMD:
+			final int firstTicker = (Integer) ProtocolConstants.QUOTES_CMD_FIRST_TICKER_ELEMENT.getValue();
+			final String[] requested = tokens.length > firstTicker
+					? Arrays.copyOfRange(tokens, firstTicker, tokens.length)
+					: exchange.getTickers();
+			final StringBuilder quotes = new StringBuilder();
+			for (String ticker : requested) {
+				final StockQuote tickerQuote = exchange.getQuote(ticker);
+				if (tickerQuote != null) {
+					if (quotes.length() > 0) {
+						quotes.append(ProtocolConstants.ELEMENT_DELIMITER);
+					}
+					quotes.append(ticker);
+					quotes.append(ProtocolConstants.ELEMENT_DELIMITER);
+					quotes.append(tickerQuote.getPrice());
+				}
+			}
+			return quotes.toString();
+
+		//Request: [EXECUTE_TRADE_CMD][ELEMENT_DELIMITER][BUY_ORDER]|[SELL_ORDER]
+		//[ELEMENT_DELIMITER]account_ID[ELEMENT_DELIMITER]symbol[ELEMENT_DELIMITER]shares
+		//Response:execution_price
+		case EXECUTE_TRADE_CMD:
+			if (!exchange.isOpen()) {
+				return "0";  //0 if trade is not executed
+			}
+			return Integer.toString(
+					executeOrder(tokens, (Integer) ProtocolConstants.EXECUTE_TRADE_CMD_TYPE_ELEMENT.getValue()));
+
+		//Request: [EXECUTE_TRADES_CMD][ELEMENT_DELIMITER]count([ELEMENT_DELIMITER][BUY_ORDER]|[SELL_ORDER]
+		//[ELEMENT_DELIMITER]account_ID[ELEMENT_DELIMITER]symbol[ELEMENT_DELIMITER]shares)...
+		//Response:execution_price[ELEMENT_DELIMITER]execution_price... ([TRADE_FAILED] for a failed order)
+		case EXECUTE_TRADES_CMD:
+			final int count = Integer
+					.parseInt(tokens[(Integer) ProtocolConstants.EXECUTE_TRADES_CMD_COUNT_ELEMENT.getValue()]);
+			final int orderElements = (Integer) ProtocolConstants.EXECUTE_TRADES_CMD_ORDER_ELEMENTS.getValue();
+			final boolean open = exchange.isOpen();
+			final StringBuilder prices = new StringBuilder();
+			int orderStart = (Integer) ProtocolConstants.EXECUTE_TRADES_CMD_FIRST_ORDER_ELEMENT.getValue();
+			for (int i = 0; i < count; i++, orderStart += orderElements) {
+				if (i > 0) {
+					prices.append(ProtocolConstants.ELEMENT_DELIMITER);
+				}
+				prices.append(open ? executeBatchedOrder(tokens, orderStart) : 0);  //0 if trade is not executed
+			}
+			return prices.toString();
+
+		//Request: [SNAPSHOT_CMD]
+		//Response: [OPEN_STATE]|[CLOSED_STATE]([ELEMENT_DELIMITER]symbol[ELEMENT_DELIMITER]price)...
+		case SNAPSHOT_CMD:
+			final StringBuilder snapshot = new StringBuilder();
+			snapshot.append(exchange.isOpen() ? ProtocolConstants.OPEN_STATE : ProtocolConstants.CLOSED_STATE);
+			for (String ticker : exchange.getTickers()) {
+				final StockQuote tickerQuote = exchange.getQuote(ticker);
+				if (tickerQuote != null) {
+					snapshot.append(ProtocolConstants.ELEMENT_DELIMITER);
+					snapshot.append(ticker);
+					snapshot.append(ProtocolConstants.ELEMENT_DELIMITER);
+					snapshot.append(tickerQuote.getPrice());
+				}
+			}
+			return snapshot.toString();
+
+		//Request: [GET_EVENT_GROUPS_CMD]
+		//Response: count([ELEMENT_DELIMITER]group_address)...([ELEMENT_DELIMITER]symbol[ELEMENT_DELIMITER]group)...
+		case GET_EVENT_GROUPS_CMD:
+			final InetAddress[] groups = eventGroups;
+			final StringBuilder layout = new StringBuilder();
+			layout.append(groups.length);
+			for (InetAddress group : groups) {
+				layout.append(ProtocolConstants.ELEMENT_DELIMITER);
+				layout.append(group.getHostAddress());
+			}
+			if (groups.length > 0) {
+				for (String ticker : exchange.getTickers()) {
+					layout.append(ProtocolConstants.ELEMENT_DELIMITER);
+					layout.append(ticker);
+					layout.append(ProtocolConstants.ELEMENT_DELIMITER);
+					layout.append(EventGroups.groupOf(ticker, groups.length));
+				}
+			}
+			return layout.toString();
+
+		//Request: [CORRELATED_CMD][ELEMENT_DELIMITER]correlation_ID[ELEMENT_DELIMITER]command
+		//Response: correlation_ID[ELEMENT_DELIMITER]response|[COMMAND_FAILED]
+		case CORRELATED_CMD:
+			final String correlationId = tokens[(Integer) ProtocolConstants.CORRELATED_CMD_ID_ELEMENT.getValue()];
+			final String command = receivedCmdString.substring(commandArg.toString().length()
+					+ correlationId.length() + 2 * ProtocolConstants.ELEMENT_DELIMITER.toString().length());
+			String response;
+			try {
+				response = process(command);
+			} catch (RuntimeException e) {
+				LOG.error(String.format("Could not process command: %s", command), e);
+				response = null;
+			}
+			//always respond, the client is waiting on the correlation ID
+			return correlationId + ProtocolConstants.ELEMENT_DELIMITER
+					+ (response == null ? ProtocolConstants.COMMAND_FAILED : response);
+
+		default:
+			LOG.warn(String.format("Server received unknown command from client: %s", receivedCmdString));
+			return null;
+		} //end of COMMANDTYPE switch statement
+	} //end of process()
+
+	/**
+	 * Produces the response to a command refused for overload, without executing it.
+	 *
+	 * @param receivedCmdString
+	 *            the text line received from the client
+	 * @return [BUSY], prefixed with the correlation ID of a correlated command
+	 */
+	String busy(final String receivedCmdString) {
+		final String prefix = ProtocolConstants.CORRELATED_CMD.toString() + ProtocolConstants.ELEMENT_DELIMITER;
+		if (receivedCmdString.startsWith(prefix)) {
+			final int idEnd = receivedCmdString.indexOf(ProtocolConstants.ELEMENT_DELIMITER.toString(),
+					prefix.length());
+			if (idEnd > 0) {
+				return receivedCmdString.substring(prefix.length(), idEnd) + ProtocolConstants.ELEMENT_DELIMITER
+						+ ProtocolConstants.BUSY;
+			}
+		}
+		return ProtocolConstants.BUSY.toString();
+	}
+
+	/**
+	 * Executes one order of [EXECUTE_TRADES_CMD]. A failure is reported for the order alone, so
+	 * the orders executed before it are still reported with their prices.
+	 *
+	 * @param tokens
+	 *            the elements of the command
+	 * @param orderStart
+	 *            index of the order's type element
+	 * @return the execution price, [TRADE_FAILED] if the order failed
+	 */
+	private int executeBatchedOrder(final String[] tokens, final int orderStart) {
+		try {
+			return executeOrder(tokens, orderStart);
+		} catch (RuntimeException e) {
+			LOG.error(String.format("Could not execute order at element %d of a batch", orderStart), e);
+			return (Integer) ProtocolConstants.TRADE_FAILED.getValue();
+		}
+	}
+
+	/**
+	 * Executes one order of a trade command with the exchange. The order's elements are laid out
+	 * as in [EXECUTE_TRADE_CMD]; type, account, symbol, shares.
+	 *
+	 * @param tokens
+	 *            the elements of the command
+	 * @param orderStart
+	 *            index of the order's type element
+	 * @return the execution price, 0 if the order type is unknown
+	 */
+	private int executeOrder(final String[] tokens, final int orderStart) {
+		final int typeOffset = (Integer) ProtocolConstants.EXECUTE_TRADE_CMD_TYPE_ELEMENT.getValue();
+		final String accountID = tokens[orderStart
+				+ (Integer) ProtocolConstants.EXECUTE_TRADE_CMD_ACCOUNT_ELEMENT.getValue() - typeOffset];
+		final String symbol = tokens[orderStart
+				+ (Integer) ProtocolConstants.EXECUTE_TRADE_CMD_TICKER_ELEMENT.getValue() - typeOffset];
+		final int numShares = Integer.parseInt(tokens[orderStart
+				+ (Integer) ProtocolConstants.EXECUTE_TRADE_CMD_SHARES_ELEMENT.getValue() - typeOffset]);
+
+		final ProtocolConstants orderType = ProtocolConstants.valueOf(tokens[orderStart]);
+		switch (orderType) {
+		case BUY_ORDER:
+			return exchange.executeTrade(new MarketBuyOrder(accountID, numShares, symbol));
+		case SELL_ORDER:
+			return exchange.executeTrade(new MarketSellOrder(accountID, numShares, symbol));
+		default:
+			LOG.warn(String.format("Server received %s from client. Unknown order type!", orderType));
+			return 0;
+		}
+	}
+
+} //END OF CommandProcessor CLASS
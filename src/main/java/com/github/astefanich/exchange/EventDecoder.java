@@ -0,0 +1,228 @@
+package com.github.astefanich.exchange;
+
+import java.nio.charset.Charset;
+
+/**
+ * Decodes the elements of an event datagram in place, from the receive buffer, for an
+ * {@link ExchangeNetworkProxy}. Event types are matched against their encoded names, numbers are
+ * parsed digit by digit, and tickers are interned, so the first datagram carrying a ticker creates
+ * its {@code String} and every later one reuses it. Once each ticker has been seen, decoding
+ * allocates nothing. Not thread safe; owned by the thread receiving the events.
+ *
+ * @author AndrewStefanich
+ * @see ExchangeNetworkProxy
+ * @see EventPublisher
+ */
+final class EventDecoder {
+
+	/** the types of event decoded */
+	private static final ProtocolConstants[] EVENT_TYPES = { ProtocolConstants.PRICE_CHANGE_EVENT,
+			ProtocolConstants.PRICE_CHANGES_EVENT, ProtocolConstants.OPEN_EVENT, ProtocolConstants.CLOSED_EVENT,
+			ProtocolConstants.TICKERS_CHANGED_EVENT };
+
+	/** the delimiter, as a byte */
+	private static final byte DELIMITER = (byte) ProtocolConstants.ELEMENT_DELIMITER.toString().charAt(0);
+
+	/** charset of the events */
+	private static final Charset CHARSET = Charset.forName(ProtocolConstants.ENCODING.toString());
+
+	/** initial number of slots of the ticker table, a power of two */
+	private static final int INITIAL_SLOTS = 64;
+
+	/** the encoded names of the event types, by position in EVENT_TYPES */
+	private final byte[][] eventTypeNames = new byte[EVENT_TYPES.length][];
+
+	/** encoded tickers seen, by slot; open addressing, an empty slot is {@code null} */
+	private byte[][] tickerBytes = new byte[INITIAL_SLOTS][];
+
+	/** interned tickers, by the slot of their encoding */
+	private String[] tickers = new String[INITIAL_SLOTS];
+
+	/** number of tickers interned */
+	private int tickerCount;
+
+	/** the datagram being decoded */
+	private byte[] data;
+
+	/** end of the datagram */
+	private int limit;
+
+	/** start of the current element */
+	private int start;
+
+	/** end of the current element, the index of the delimiter following it (or limit) */
+	private int end;
+
+	/**
+	 * Constructs an EventDecoder.
+	 */
+	EventDecoder() {
+		for (int i = 0; i < EVENT_TYPES.length; i++) {
+			eventTypeNames[i] = EVENT_TYPES[i].toString().getBytes(CHARSET);
+		}
+	}
+
+	/**
+	 * Starts decoding a datagram, before its first element.
+	 *
+	 * @param data
+	 *            the receive buffer, not copied
+	 * @param offset
+	 *            start of the datagram
+	 * @param length
+	 *            length of the datagram
+	 */
+	void reset(final byte[] data, final int offset, final int length) {
+		this.data = data;
+		this.limit = offset + length;
+		this.start = offset;
+		this.end = offset - 1;
+	}
+
+	/**
+	 * Moves to the next element.
+	 *
+	 * @return false if there are no more elements
+	 */
+	boolean nextElement() {
+		if (!hasNext()) {
+			return false;
+		}
+		start = end + 1;
+		end = start;
+		while (end < limit && data[end] != DELIMITER) {
+			end++;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether there is an element after the current one.
+	 *
+	 * @return true if there is
+	 */
+	boolean hasNext() {
+		return end < limit;
+	}
+
+	/**
+	 * Gets the current element as an event type.
+	 *
+	 * @return the event type, {@code null} if not an event
+	 */
+	ProtocolConstants eventType() {
+		for (int i = 0; i < eventTypeNames.length; i++) {
+			if (matches(eventTypeNames[i])) {
+				return EVENT_TYPES[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the current element as a ticker, interned.
+	 *
+	 * @return the ticker
+	 */
+	String ticker() {
+		int hash = 1;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + data[i];
+		}
+		final int mask = tickers.length - 1;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (tickerBytes[slot] != null) {
+			if (matches(tickerBytes[slot])) {
+				return tickers[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		final byte[] encoded = new byte[end - start];
+		System.arraycopy(data, start, encoded, 0, encoded.length);
+		final String ticker = new String(encoded, CHARSET);
+		tickerBytes[slot] = encoded;
+		tickers[slot] = ticker;
+		if (++tickerCount * 2 > tickers.length) {
+			grow();
+		}
+		return ticker;
+	}
+
+	/**
+	 * Doubles the slots of the ticker table, keeping a load factor of at most one half.
+	 */
+	private void grow() {
+		final byte[][] oldBytes = tickerBytes;
+		final String[] oldTickers = tickers;
+		tickerBytes = new byte[oldBytes.length * 2][];
+		tickers = new String[oldTickers.length * 2];
+		final int mask = tickers.length - 1;
+		for (int i = 0; i < oldBytes.length; i++) {
+			if (oldBytes[i] != null) {
+				int hash = 1;
+				for (byte b : oldBytes[i]) {
+					hash = 31 * hash + b;
+				}
+				int slot = (hash ^ (hash >>> 16)) & mask;
+				while (tickerBytes[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				tickerBytes[slot] = oldBytes[i];
+				tickers[slot] = oldTickers[i];
+			}
+		}
+	}
+
+	/**
+	 * Gets the current element as a decimal number.
+	 *
+	 * @return the number
+	 * @throws NumberFormatException
+	 *             if the element is not a number
+	 */
+	long number() {
+		final boolean negative = end > start && data[start] == '-';
+		int i = negative ? start + 1 : start;
+		if (i == end) {
+			throw new NumberFormatException(new String(data, start, end - start, CHARSET));
+		}
+		long value = 0;
+		for (; i < end; i++) {
+			final int digit = data[i] - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException(new String(data, start, end - start, CHARSET));
+			}
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Gets the current element as text, for logging.
+	 *
+	 * @return the element
+	 */
+	String element() {
+		return new String(data, start, end - start, CHARSET);
+	}
+
+	/**
+	 * Compares the current element with an encoded value.
+	 *
+	 * @param encoded
+	 *            the encoded value
+	 * @return true if equal
+	 */
+	private boolean matches(final byte[] encoded) {
+		if (encoded.length != end - start) {
+			return false;
+		}
+		for (int i = 0; i < encoded.length; i++) {
+			if (encoded[i] != data[start + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+} //END OF EventDecoder CLASS
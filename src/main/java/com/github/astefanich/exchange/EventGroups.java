@@ -0,0 +1,126 @@
+package com.github.astefanich.exchange;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable layout of an exchange's event groups, as returned by [GET_EVENT_GROUPS_CMD]. Group 0
+ * is the multicast group the exchange was configured with, which carries the opened, closed and
+ * tickers changed events. The price changes are sharded by ticker over groups 1 to {@link #size()},
+ * at the following addresses on the same port; with no such groups, they are sent to group 0 too.
+ * Each group numbers its events in a sequence of its own.
+ *
+ * @author AndrewStefanich
+ * @see ExchangeNetworkAdapter
+ * @see ExchangeNetworkProxy
+ */
+final class EventGroups {
+
+	/** addresses of the price change groups, group 1 first */
+	private final List<InetAddress> addresses;
+
+	/** group of each stock, by ticker symbol */
+	private final Map<String, Integer> groups;
+
+	/**
+	 * Constructs an EventGroups.
+	 *
+	 * @param addresses
+	 *            addresses of the price change groups, group 1 first; not copied
+	 * @param groups
+	 *            group of each stock, by ticker symbol; not copied
+	 */
+	EventGroups(final List<InetAddress> addresses, final Map<String, Integer> groups) {
+		this.addresses = Collections.unmodifiableList(addresses);
+		this.groups = Collections.unmodifiableMap(groups);
+	}
+
+	/**
+	 * Gets the group a stock's price changes are sent to; the sharding rule of the exchange.
+	 *
+	 * @param ticker
+	 *            ticker symbol of the stock
+	 * @param count
+	 *            number of price change groups
+	 * @return the group, from 1 to count; 0 if there are no price change groups
+	 */
+	static int groupOf(final String ticker, final int count) {
+		return count == 0 ? 0 : 1 + Math.floorMod(ticker.hashCode(), count);
+	}
+
+	/**
+	 * Derives the addresses of the price change groups from that of group 0; the addresses
+	 * following it.
+	 *
+	 * @param base
+	 *            address of group 0, an IPv4 multicast address
+	 * @param count
+	 *            number of price change groups
+	 * @return the addresses, group 1 first
+	 * @throws IllegalArgumentException
+	 *             if an address would not be an IPv4 multicast address
+	 */
+	static InetAddress[] shard(final InetAddress base, final int count) {
+		final byte[] bytes = base.getAddress();
+		if (bytes.length != 4) {
+			throw new IllegalArgumentException("Event groups require an IPv4 address: " + base);
+		}
+		final int address = ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8)
+				| (bytes[3] & 0xFF);
+		final InetAddress[] shards = new InetAddress[count];
+		for (int i = 0; i < count; i++) {
+			final int next = address + i + 1;
+			try {
+				shards[i] = InetAddress.getByAddress(new byte[] { (byte) (next >>> 24), (byte) (next >>> 16),
+						(byte) (next >>> 8), (byte) next });
+			} catch (UnknownHostException e) {
+				throw new IllegalArgumentException(e);  //not thrown for an address of 4 bytes
+			}
+			if (!shards[i].isMulticastAddress()) {
+				throw new IllegalArgumentException(String.format("%d event groups after %s leave the multicast range",
+						count, base.getHostAddress()));
+			}
+		}
+		return shards;
+	}
+
+	/**
+	 * Gets the number of price change groups.
+	 *
+	 * @return the number of groups, 0 if price changes are sent to group 0
+	 */
+	int size() {
+		return addresses.size();
+	}
+
+	/**
+	 * Gets the address of a price change group.
+	 *
+	 * @param group
+	 *            the group, from 1 to {@link #size()}
+	 * @return the address
+	 */
+	InetAddress getAddress(final int group) {
+		return addresses.get(group - 1);
+	}
+
+	/**
+	 * Gets the group a stock's price changes are received from.
+	 *
+	 * @param ticker
+	 *            ticker symbol of the stock
+	 * @return the group; 0 if there are no price change groups, -1 if the stock was not traded
+	 *         when the layout was fetched
+	 */
+	int getGroup(final String ticker) {
+		if (addresses.isEmpty()) {
+			return 0;
+		}
+		final Integer group = groups.get(ticker);
+		return group == null ? -1 : group;
+	}
+
+} //END OF EventGroups CLASS
@@ -0,0 +1,238 @@
+package com.github.astefanich.exchange;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Multicasts the events of an {@link ExchangeNetworkAdapter}. Each event is encoded straight into
+ * one reused direct buffer and sent with a {@link DatagramChannel}, so publishing an event
+ * allocates nothing. Events are numbered and sent under one lock, so sequence numbers leave in
+ * order. Tickers and prices are ASCII, the subset of [ENCODING] they are written in.
+ *
+ * @author AndrewStefanich
+ * @see ExchangeNetworkAdapter
+ * @see ProtocolConstants
+ */
+final class EventPublisher implements Closeable {
+
+	/** longest suffix appended to an event for its sequence number; delimiter and a long */
+	private static final int SEQUENCE_LENGTH = 1 + String.valueOf(Long.MAX_VALUE).length();
+
+	/** longest event sent, sequence number included */
+	private static final int MAX_EVENT_LENGTH = (Integer) ProtocolConstants.MAX_EVENT_LENGTH.getValue();
+
+	/** the delimiter, as a byte */
+	private static final byte DELIMITER = (byte) ProtocolConstants.ELEMENT_DELIMITER.toString().charAt(0);
+
+	/** byte written for a character outside of ASCII */
+	private static final byte UNMAPPABLE = (byte) '?';
+
+	/** this class' logger */
+	private final Logger LOG = LoggerFactory.getLogger(getClass());
+
+	/** sends the datagrams */
+	private final DatagramChannel channel;
+
+	/** multicast group and port events are sent to */
+	private final InetSocketAddress group;
+
+	/** the event being encoded; guarded by this */
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_EVENT_LENGTH);
+
+	/** sequence number of the next event; guarded by this */
+	private long sequence;
+
+	/**
+	 * Constructs an EventPublisher.
+	 *
+	 * @param group
+	 *            multicast group and port events are sent to
+	 * @throws IOException
+	 *             if the channel cannot be opened
+	 */
+	EventPublisher(final InetSocketAddress group) throws IOException {
+		this.group = group;
+		this.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+	}
+
+	/**
+	 * Gets the longest run of records a [PRICE_CHANGES_EVENT] may carry, leaving room for the event
+	 * type and sequence number.
+	 *
+	 * @return the length, in bytes
+	 */
+	static int getMaxRecordsLength() {
+		return MAX_EVENT_LENGTH - ProtocolConstants.PRICE_CHANGES_EVENT.toString().length() - SEQUENCE_LENGTH;
+	}
+
+	/**
+	 * Publishes an event with no elements; [OPEN_EVENT], [CLOSED_EVENT] or [TICKERS_CHANGED_EVENT].
+	 *
+	 * @param event
+	 *            the event
+	 */
+	synchronized void publish(final ProtocolConstants event) {
+		putAscii(buffer, event.toString());
+		send(event);
+	}
+
+	/**
+	 * Publishes a [PRICE_CHANGE_EVENT].
+	 *
+	 * @param ticker
+	 *            ticker symbol of the stock
+	 * @param price
+	 *            the new price
+	 */
+	synchronized void publishPriceChange(final String ticker, final int price) {
+		try {
+			putAscii(buffer, ProtocolConstants.PRICE_CHANGE_EVENT.toString());
+			putRecord(buffer, ticker, price);
+		} catch (BufferOverflowException e) {
+			buffer.clear();
+			LOG.error(String.format("Price change of %s too long to publish", ticker));
+			return;
+		}
+		send(ProtocolConstants.PRICE_CHANGE_EVENT);
+	}
+
+	/**
+	 * Publishes a [PRICE_CHANGES_EVENT].
+	 *
+	 * @param records
+	 *            the encoded records, from its position to its limit; at most
+	 *            {@link #getMaxRecordsLength()} bytes
+	 */
+	synchronized void publishPriceChanges(final ByteBuffer records) {
+		putAscii(buffer, ProtocolConstants.PRICE_CHANGES_EVENT.toString());
+		buffer.put(records);
+		send(ProtocolConstants.PRICE_CHANGES_EVENT);
+	}
+
+	/**
+	 * Appends the next sequence number to the encoded event, and sends it.
+	 *
+	 * @param event
+	 *            type of the event, for logging
+	 */
+	private void send(final ProtocolConstants event) {
+		buffer.put(DELIMITER);
+		putAscii(buffer, sequence++);
+		buffer.flip();
+		try {
+			channel.send(buffer, group);
+		} catch (IOException e) {
+			LOG.error(String.format("Failed to issue event: %s", event), e);
+		} finally {
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Encodes a price change record; the delimiter, ticker, delimiter and price.
+	 *
+	 * @param buffer
+	 *            buffer written to
+	 * @param ticker
+	 *            ticker symbol of the stock
+	 * @param price
+	 *            the new price
+	 * @throws BufferOverflowException
+	 *             if the buffer has too little room
+	 */
+	static void putRecord(final ByteBuffer buffer, final String ticker, final int price) {
+		buffer.put(DELIMITER);
+		putAscii(buffer, ticker);
+		buffer.put(DELIMITER);
+		putAscii(buffer, price);
+	}
+
+	/**
+	 * Gets the length of an encoded price change record.
+	 *
+	 * @param ticker
+	 *            ticker symbol of the stock
+	 * @param price
+	 *            the new price
+	 * @return the length, in bytes
+	 */
+	static int recordLength(final String ticker, final int price) {
+		return 2 + ticker.length() + digits(price);
+	}
+
+	/**
+	 * Encodes characters as ASCII, one byte each.
+	 *
+	 * @param buffer
+	 *            buffer written to
+	 * @param chars
+	 *            the characters
+	 */
+	private static void putAscii(final ByteBuffer buffer, final CharSequence chars) {
+		for (int i = 0; i < chars.length(); i++) {
+			final char c = chars.charAt(i);
+			buffer.put(c < 0x80 ? (byte) c : UNMAPPABLE);
+		}
+	}
+
+	/**
+	 * Encodes a number in decimal ASCII digits, as {@link Long#toString(long)} would.
+	 *
+	 * @param buffer
+	 *            buffer written to
+	 * @param value
+	 *            the number
+	 */
+	private static void putAscii(final ByteBuffer buffer, final long value) {
+		final int length = digits(value);
+		if (buffer.remaining() < length) {
+			throw new BufferOverflowException();
+		}
+		final int start = buffer.position();
+		int index = start + length;
+		long remaining = value;
+		do {
+			buffer.put(--index, (byte) ('0' + Math.abs(remaining % 10)));
+			remaining /= 10;
+		} while (remaining != 0);
+		if (value < 0) {
+			buffer.put(start, (byte) '-');
+		}
+		buffer.position(start + length);
+	}
+
+	/**
+	 * Gets the number of characters of a number in decimal, sign included.
+	 *
+	 * @param value
+	 *            the number
+	 * @return the number of characters
+	 */
+	private static int digits(final long value) {
+		int length = value < 0 ? 2 : 1;
+		for (long remaining = value / 10; remaining != 0; remaining /= 10) {
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Closes the channel.
+	 *
+	 * @throws IOException
+	 *             if the channel cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+} //END OF EventPublisher CLASS
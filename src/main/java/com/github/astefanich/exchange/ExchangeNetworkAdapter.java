@@ -1,16 +1,23 @@
 package com.github.astefanich.exchange;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.net.DatagramPacket;
 import java.net.InetAddress;
-import java.net.MulticastSocket;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -21,9 +28,6 @@ import org.slf4j.LoggerFactory;
 import edu.uw.ext.framework.exchange.ExchangeAdapter;
 import edu.uw.ext.framework.exchange.ExchangeEvent;
 import edu.uw.ext.framework.exchange.StockExchange;
-import edu.uw.ext.framework.exchange.StockQuote;
-import edu.uw.ext.framework.order.MarketBuyOrder;
-import edu.uw.ext.framework.order.MarketSellOrder;
 
 /**
  * Provides a network adapter for a {@link StockExchange}, which functions as our server
@@ -36,7 +40,7 @@ import edu.uw.ext.framework.order.MarketSellOrder;
  */
 public final class ExchangeNetworkAdapter implements ExchangeAdapter {
 
-	/** buffer size for UDP packets/messages */
+	/** buffer size for binary command frames */
 	private static final int BUFFER_SIZE = 512;
 
 	/** time allotted for thread execution after thread pool shutdown (in seconds) */
@@ -51,22 +55,43 @@ public final class ExchangeNetworkAdapter implements ExchangeAdapter {
 	private final Logger LOG = LoggerFactory.getLogger(getClass());
 
 	/** thread pool for this server. Listens for connection requests and processes commands */
-	private ExecutorService threadPool = Executors.newCachedThreadPool();
+	private final ExecutorService threadPool;
 
 	/** port for serverSocket connections. TCP */
 	private final int commandsPort;
 
+	/** executes received commands against the exchange */
+	private final CommandProcessor commandProcessor;
+
+	/** executes received binary frames against the exchange */
+	private final BinaryCommandProcessor binaryCommandProcessor;
+
+	/** non-blocking command server, {@code null} if each connection has a blocking handler */
+	private final NioCommandServer nioCommandServer;
+
 	/** the real StockExchange for which this class is an adapter */
 	private StockExchange exchange;
 
-	/** port for multicast event */
-	private int eventsMulticastPort;
+	/** multicast group and port of event group 0 */
+	private final InetSocketAddress eventsGroup;
+
+	/**
+	 * multicasts the events of each event group, by group (see {@link EventGroups}); {@code null}
+	 * if the channel of group 0 could not be opened
+	 */
+	private volatile EventPublisher[] eventPublishers;
+
+	/** coalesces the price change events of each group, {@code null} if each is sent in a datagram of its own */
+	private volatile PriceEventBatcher[] priceEventBatchers;
+
+	/** window over which price changes are coalesced (in milliseconds), 0 if they are not */
+	private long eventBatchMillis;
 
-	/** group for multicast events */
-	private InetAddress eventsMulticastGroup;
+	/** ticker symbols of the stocks traded, as last announced to clients */
+	private volatile Set<String> listedTickers;
 
-	/** multicast socket for events */
-	private MulticastSocket eventsMulticastSocket;
+	/** admits the connections and commands of clients, as accepted from now on */
+	private volatile AdmissionController admissionController = new AdmissionController();
 
 	/**
 	 * Constructs an {@code ExchangeNetworkAdapater}. (Object creation should come from
@@ -88,19 +113,110 @@ public final class ExchangeNetworkAdapter implements ExchangeAdapter {
 	ExchangeNetworkAdapter(StockExchange exchange, String eventsMulticastIPAddress, int eventsMulticastPort,
 			int commandsPort)
 			throws SocketException, UnknownHostException {
+		this(exchange, eventsMulticastIPAddress, eventsMulticastPort, commandsPort, Executors.newCachedThreadPool());
+	}
+
+	/**
+	 * Constructs an {@code ExchangeNetworkAdapater} which runs its command listener and command
+	 * handlers on the given thread pool (e.g. one thread per task, or one virtual thread per task).
+	 * (Object creation should come from a factory).
+	 * 
+	 * @param exchange
+	 *            the {@code StockExchange} used to service network requests
+	 * @param multicastIP
+	 *            the IP address used to propogate price changes
+	 * @param multicastPort
+	 *            the IP port used to propogate price changes
+	 * @param commandPort
+	 *            the ports on which this instance will listen for commands
+	 * @param threadPool
+	 *            runs the command listener and one command handler per client connection
+	 * @throws SocketException
+	 *             if an error occurs on a socket operation
+	 * @throws UnknownHostException
+	 *             if unable to resolve multicast IP address
+	 */
+	ExchangeNetworkAdapter(StockExchange exchange, String eventsMulticastIPAddress, int eventsMulticastPort,
+			int commandsPort, ExecutorService threadPool)
+			throws SocketException, UnknownHostException {
+		this(exchange, eventsMulticastIPAddress, eventsMulticastPort, commandsPort, threadPool, null);
+	}
+
+	/**
+	 * Constructs an {@code ExchangeNetworkAdapater} which serves commands from all clients with a
+	 * non-blocking {@link NioCommandServer}, on a fixed number of I/O threads. (Object creation
+	 * should come from {@link ExchangeNetworkAdapterFactory}).
+	 * 
+	 * @param exchange
+	 *            the {@code StockExchange} used to service network requests
+	 * @param multicastIP
+	 *            the IP address used to propogate price changes
+	 * @param multicastPort
+	 *            the IP port used to propogate price changes
+	 * @param commandPort
+	 *            the ports on which this instance will listen for commands
+	 * @param ioThreads
+	 *            number of I/O threads serving the command connections
+	 * @throws SocketException
+	 *             if an error occurs on a socket operation
+	 * @throws UnknownHostException
+	 *             if unable to resolve multicast IP address
+	 * @throws IOException
+	 *             if unable to bind the command port
+	 */
+	ExchangeNetworkAdapter(StockExchange exchange, String eventsMulticastIPAddress, int eventsMulticastPort,
+			int commandsPort, int ioThreads)
+			throws SocketException, UnknownHostException, IOException {
+		this(exchange, eventsMulticastIPAddress, eventsMulticastPort, commandsPort,
+				Executors.newFixedThreadPool(ioThreads + 1), new NioCommandServer(commandsPort, ioThreads));
+	}
+
+	/**
+	 * Constructs an {@code ExchangeNetworkAdapater}, serving commands with the given non-blocking
+	 * server, or with a listener and one blocking handler per connection if there is none.
+	 * 
+	 * @param exchange
+	 *            the {@code StockExchange} used to service network requests
+	 * @param multicastIP
+	 *            the IP address used to propogate price changes
+	 * @param multicastPort
+	 *            the IP port used to propogate price changes
+	 * @param commandPort
+	 *            the ports on which this instance will listen for commands
+	 * @param threadPool
+	 *            runs the command server's threads
+	 * @param nioCommandServer
+	 *            the non-blocking command server, {@code null} for blocking handlers
+	 * @throws SocketException
+	 *             if an error occurs on a socket operation
+	 * @throws UnknownHostException
+	 *             if unable to resolve multicast IP address
+	 */
+	private ExchangeNetworkAdapter(StockExchange exchange, String eventsMulticastIPAddress, int eventsMulticastPort,
+			int commandsPort, ExecutorService threadPool, NioCommandServer nioCommandServer)
+			throws SocketException, UnknownHostException {
 
 		this.exchange = exchange;
+		this.threadPool = threadPool;
+		this.commandProcessor = new CommandProcessor(exchange);
+		this.binaryCommandProcessor = new BinaryCommandProcessor(exchange);
+		this.nioCommandServer = nioCommandServer;
+		this.listedTickers = new HashSet<String>(Arrays.asList(exchange.getTickers()));
 
 		//TCP
 		this.commandsPort = commandsPort;
-		threadPool.execute(new CommandListener());
+		if (nioCommandServer != null) {
+			nioCommandServer.setAdmissionController(admissionController);
+			nioCommandServer.start(threadPool, commandProcessor, binaryCommandProcessor);
+		} else {
+			threadPool.execute(new CommandListener());
+		}
 
 		//UDP
-		this.eventsMulticastPort = eventsMulticastPort;
-		this.eventsMulticastGroup = InetAddress.getByName(eventsMulticastIPAddress);
+		final InetAddress eventsMulticastGroup = InetAddress.getByName(eventsMulticastIPAddress);
+		this.eventsGroup = new InetSocketAddress(eventsMulticastGroup, eventsMulticastPort);
 		try {
-			this.eventsMulticastSocket = new MulticastSocket();
-			eventsMulticastSocket.joinGroup(eventsMulticastGroup);
+			this.eventPublishers = new EventPublisher[] { new EventPublisher(eventsGroup) };
 			this.exchange.addExchangeListener(this);
 			LOG.info(String.format("Server now accepting UDP messages. IP- %s, Port- %d",
 					eventsMulticastIPAddress, eventsMulticastPort));
@@ -131,6 +247,142 @@ public final class ExchangeNetworkAdapter implements ExchangeAdapter {
 		return shutdownTimer;
 	}
 
+	/**
+	 * Coalesces the price changes seen within a window into multi-record [PRICE_CHANGES_EVENT]s,
+	 * of at most [MAX_EVENT_LENGTH] bytes, instead of sending a datagram per change. Should be set
+	 * before the exchange opens.
+	 * 
+	 * @param windowMillis
+	 *            length of a batch's window (in milliseconds)
+	 */
+	synchronized void batchPriceEvents(final long windowMillis) {
+		eventBatchMillis = windowMillis;
+		final EventPublisher[] publishers = eventPublishers;
+		final PriceEventBatcher[] batchers = new PriceEventBatcher[publishers.length];
+		for (int i = 0; i < batchers.length; i++) {
+			batchers[i] = new PriceEventBatcher(publishers[i], windowMillis);
+		}
+		closeBatchers();
+		priceEventBatchers = batchers;
+	}
+
+	/**
+	 * Shards the price change events by ticker over further multicast groups, at the addresses
+	 * following the configured group, on the same port; the opened, closed and tickers changed
+	 * events stay on the configured group. The layout is advertised by [GET_EVENT_GROUPS_CMD], so
+	 * a client may join only the groups of the stocks it is interested in. Should be set before
+	 * the exchange opens.
+	 * 
+	 * @param count
+	 *            number of price change groups
+	 * @throws IllegalArgumentException
+	 *             if a group's address would leave the IPv4 multicast range
+	 */
+	synchronized void shardEventGroups(final int count) {
+		final EventPublisher[] current = eventPublishers;
+		if (current == null) {
+			return;  //events are not being multicast
+		}
+		final InetAddress[] addresses = EventGroups.shard(eventsGroup.getAddress(), count);
+		final EventPublisher[] publishers = new EventPublisher[count + 1];
+		publishers[0] = current[0];
+		try {
+			for (int i = 0; i < count; i++) {
+				publishers[i + 1] = new EventPublisher(new InetSocketAddress(addresses[i], eventsGroup.getPort()));
+			}
+		} catch (IOException e) {
+			LOG.error("Unable to open the event groups, price change events are not sharded", e);
+			closePublishers(publishers, 1);
+			return;
+		}
+		eventPublishers = publishers;
+		closePublishers(current, 1);
+		if (eventBatchMillis > 0) {
+			batchPriceEvents(eventBatchMillis);
+		}
+		commandProcessor.setEventGroups(addresses);
+		binaryCommandProcessor.setEventGroups(addresses);
+		LOG.info(String.format("Price change events sharded over %d groups after %s", count,
+				eventsGroup.getAddress().getHostAddress()));
+	}
+
+	/**
+	 * Limits the connections and commands this adapter admits; a connection or command over a
+	 * limit is refused at once with [BUSY], so an overloaded exchange sheds work instead of
+	 * taking on ever more threads. Applies to the connections accepted afterwards, so should be
+	 * set before clients connect. A limit of 0 is no limit.
+	 * 
+	 * @param maxConnections
+	 *            connections open at once
+	 * @param maxInFlight
+	 *            commands executing at once, across all connections
+	 * @param maxInFlightPerConnection
+	 *            commands a connection may have pipelined, received but not yet answered
+	 * @param queueTimeoutMillis
+	 *            longest a command may wait to start executing (in milliseconds), 0 to refuse a
+	 *            command finding no execution permit at once; not waited on by the non-blocking
+	 *            command server
+	 * @see AdmissionController
+	 */
+	void limitAdmission(final int maxConnections, final int maxInFlight, final int maxInFlightPerConnection,
+			final long queueTimeoutMillis) {
+		admissionController = new AdmissionController(maxConnections, maxInFlight, maxInFlightPerConnection,
+				queueTimeoutMillis);
+		if (nioCommandServer != null) {
+			nioCommandServer.setAdmissionController(admissionController);
+		}
+		LOG.info(String.format("Admitting at most %d connections, %d commands in flight, %d per connection, "
+				+ "queued for %d ms (0 for no limit)", maxConnections, maxInFlight, maxInFlightPerConnection,
+				queueTimeoutMillis));
+	}
+
+	/**
+	 * Gets the number of commands admitted since admission was last limited.
+	 * 
+	 * @return the count
+	 */
+	public long getAdmittedCommands() {
+		return admissionController.getAdmittedCommands();
+	}
+
+	/**
+	 * Gets the number of commands refused with [BUSY] since admission was last limited.
+	 * 
+	 * @return the count
+	 */
+	public long getRejectedCommands() {
+		return admissionController.getRejectedCommands();
+	}
+
+	/**
+	 * Gets the number of connections refused with [BUSY] since admission was last limited.
+	 * 
+	 * @return the count
+	 */
+	public long getRejectedConnections() {
+		return admissionController.getRejectedConnections();
+	}
+
+	/**
+	 * Gets the mean time the commands admitted since admission was last limited waited between
+	 * their receipt and the start of their execution.
+	 * 
+	 * @return the mean queue time (in nanoseconds)
+	 */
+	public long getMeanQueueNanos() {
+		return admissionController.getMeanQueueNanos();
+	}
+
+	/**
+	 * Gets the longest time a command admitted since admission was last limited waited between
+	 * its receipt and the start of its execution.
+	 * 
+	 * @return the longest queue time (in nanoseconds)
+	 */
+	public long getMaxQueueNanos() {
+		return admissionController.getMaxQueueNanos();
+	}
+
 	/**
 	 * The {@code StockExchange} has opened and prices are adjusting. Adds a
 	 * listener to receive price change events from the real
@@ -141,7 +393,8 @@ public final class ExchangeNetworkAdapter implements ExchangeAdapter {
 	 */
 	@Override
 	public void exchangeOpened(final ExchangeEvent event) {
-		issueEvent(ProtocolConstants.OPEN_EVENT.toString());
+		checkListing();
+		issueStateEvent(ProtocolConstants.OPEN_EVENT);
 
 	}
 
@@ -154,7 +407,7 @@ public final class ExchangeNetworkAdapter implements ExchangeAdapter {
 	 */
 	@Override
 	public void exchangeClosed(final ExchangeEvent event) {
-		issueEvent(ProtocolConstants.CLOSED_EVENT.toString());
+		issueStateEvent(ProtocolConstants.CLOSED_EVENT);
 
 	}
 
@@ -166,33 +419,79 @@ public final class ExchangeNetworkAdapter implements ExchangeAdapter {
 	 */
 	@Override
 	public void priceChanged(final ExchangeEvent event) {
-		final StringBuilder message = new StringBuilder();
-		message.append(ProtocolConstants.PRICE_CHANGE_EVENT);
-		message.append(ProtocolConstants.ELEMENT_DELIMITER);
-		message.append(event.getTicker());
-		message.append(ProtocolConstants.ELEMENT_DELIMITER);
-		message.append(event.getPrice());
-		issueEvent(message.toString());
+		if (!listedTickers.contains(event.getTicker())) {
+			checkListing();
+		}
+		final EventPublisher[] publishers = eventPublishers;
+		final int group = EventGroups.groupOf(event.getTicker(), publishers.length - 1);
+		final PriceEventBatcher[] batchers = priceEventBatchers;
+		if (batchers != null) {
+			batchers[group].priceChanged(event.getTicker(), event.getPrice());
+			return;
+		}
+		publishers[group].publishPriceChange(event.getTicker(), event.getPrice());
 
 	}
 
 	/**
-	 * Issues packets via UDP
+	 * Compares the stocks traded with those last announced, and multicasts a
+	 * [TICKERS_CHANGED_EVENT] if they differ, so clients caching the tickers fetch them again.
+	 */
+	private synchronized void checkListing() {
+		final Set<String> tickers = new HashSet<String>(Arrays.asList(exchange.getTickers()));
+		if (!tickers.equals(listedTickers)) {
+			listedTickers = tickers;
+			LOG.info(String.format("Stocks traded have changed: %s", tickers));
+			issueStateEvent(ProtocolConstants.TICKERS_CHANGED_EVENT);
+		}
+	}
+
+	/**
+	 * Issues an event other than a price change to group 0, after any batched price changes, so
+	 * events are sent in order.
 	 * 
-	 * @param message
-	 *            the event message to multicast/send
+	 * @param event
+	 *            the event to multicast/send
 	 */
-	private void issueEvent(final String message) {
-		final byte[] buffer = new byte[BUFFER_SIZE];
-		DatagramPacket packet = new DatagramPacket(buffer, buffer.length, eventsMulticastGroup, eventsMulticastPort);
-		final byte[] messageBytes = message.getBytes();
-		packet.setData(messageBytes);
-		packet.setLength(messageBytes.length);
-		try {
-			eventsMulticastSocket.send(packet);
-		} catch (IOException e) {
-			LOG.error(String.format("Failed to issue event: %s", message));
-			e.printStackTrace();
+	private void issueStateEvent(final ProtocolConstants event) {
+		final PriceEventBatcher[] batchers = priceEventBatchers;
+		if (batchers != null) {
+			for (PriceEventBatcher batcher : batchers) {
+				batcher.flush();
+			}
+		}
+		eventPublishers[0].publish(event);
+	}
+
+	/**
+	 * Closes the channels of event publishers, logging any failure.
+	 * 
+	 * @param publishers
+	 *            the publishers, by group; {@code null} elements are skipped
+	 * @param from
+	 *            the first group closed
+	 */
+	private void closePublishers(final EventPublisher[] publishers, final int from) {
+		for (int i = from; i < publishers.length; i++) {
+			if (publishers[i] != null) {
+				try {
+					publishers[i].close();
+				} catch (IOException e) {
+					LOG.warn(String.format("Failed to close the channel of event group %d", i), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Publishes the batched price changes, and stops the batchers.
+	 */
+	private void closeBatchers() {
+		final PriceEventBatcher[] batchers = priceEventBatchers;
+		if (batchers != null) {
+			for (PriceEventBatcher batcher : batchers) {
+				batcher.close();
+			}
 		}
 	}
 
@@ -203,19 +502,25 @@ public final class ExchangeNetworkAdapter implements ExchangeAdapter {
 	public void close() {
 		LOG.info("Server shutting down, no new requests!!");
 		try {
+			if (nioCommandServer != null) {
+				nioCommandServer.close();
+			}
 			threadPool.shutdown();
 			threadPool.awaitTermination(shutdownTimer, TimeUnit.SECONDS);
-			eventsMulticastSocket.leaveGroup(eventsMulticastGroup);
-			eventsMulticastSocket.close();
+			closeBatchers();
+			if (eventPublishers != null) {
+				closePublishers(eventPublishers, 0);
+			}
 			exchange.removeExchangeListener(this);
-		} catch (IOException | InterruptedException e) {
+		} catch (InterruptedException e) {
 			LOG.warn(String.format("Server shut down. Could not process pending request within %d seconds",
 					shutdownTimer));
 		}
 	}
 
 	/**
-	 * Accepts command requests and dispatches them to a {@code CommandHandler}.
+	 * Accepts command requests and dispatches them to a {@code CommandHandler}; a connection over
+	 * the limit is sent [BUSY] and closed, without taking a thread.
 	 * 
 	 * @author AndrewStefanich
 	 * @see CommandHandler
@@ -232,14 +537,37 @@ public final class ExchangeNetworkAdapter implements ExchangeAdapter {
 					LOG.info(String.format("Server running, awaiting TCP connection on port # %d...",
 							commandsPort));
 					Socket clientCommandsSocket = commandsServerSocket.accept();
+					final AdmissionController admission = admissionController;
+					if (!admission.admitConnection()) {
+						refuse(clientCommandsSocket);
+						continue;
+					}
 					LOG.info("Connection established, awaiting commands...");
-					threadPool.execute(new CommandHandler(clientCommandsSocket));
+					threadPool.execute(new CommandHandler(clientCommandsSocket, admission));
 				}
 			} catch (IOException e) {
 				LOG.warn(String.format("Server error on port # %d", commandsPort));
 				e.printStackTrace();
 			}
 		}
+
+		/**
+		 * Refuses a connection over the limit; sends it [BUSY], and closes it.
+		 * 
+		 * @param clientSocket
+		 *            the refused connection
+		 */
+		private void refuse(final Socket clientSocket) {
+			LOG.warn(String.format("Connection from %s refused, too many connections",
+					clientSocket.getRemoteSocketAddress()));
+			try (Socket socket = clientSocket) {
+				final OutputStream out = socket.getOutputStream();
+				out.write((ProtocolConstants.BUSY + "\n").getBytes(ProtocolConstants.ENCODING.toString()));
+				out.flush();
+			} catch (IOException e) {
+				//closing anyway
+			}
+		}
 	} //END OF CommandListener CLASS
 
 	/**
@@ -253,14 +581,20 @@ public final class ExchangeNetworkAdapter implements ExchangeAdapter {
 		/** socket which this CommandHandler processes commands on */
 		private final Socket clientCommandsSocket;
 
+		/** admitted the connection, and admits its commands */
+		private final AdmissionController admission;
+
 		/**
 		 * Constructs a new {@code CommandHandler}.
 		 * 
 		 * @param clientSocket
 		 *            the {@code Socket} (client) for which this handler processes commands
+		 * @param admission
+		 *            admitted the connection, released when it closes; admits its commands
 		 */
-		CommandHandler(final Socket clientSocket) {
+		CommandHandler(final Socket clientSocket, final AdmissionController admission) {
 			this.clientCommandsSocket = clientSocket;
+			this.admission = admission;
 		}
 
 		/**
@@ -272,104 +606,83 @@ public final class ExchangeNetworkAdapter implements ExchangeAdapter {
 			try (PrintWriter writer = new PrintWriter(clientCommandsSocket.getOutputStream(), true);
 					BufferedReader reader = new BufferedReader(
 							new InputStreamReader(clientCommandsSocket.getInputStream()))) {
-				//this thread is constantly running/reading from a stream, awaiting commands from client
-				while (!threadPool.isShutdown()) {
-					if ((receivedCmdString = reader.readLine()) != null) {
-						processCommand(receivedCmdString, writer);
+				//this thread is constantly running/reading from a stream, awaiting commands from client,
+				//until the client disconnects (a spinning handler would also pin a virtual thread's carrier)
+				while (!threadPool.isShutdown() && (receivedCmdString = reader.readLine()) != null) {
+					if (receivedCmdString.equals(ProtocolConstants.BINARY_PROTOCOL_CMD.toString())) {
+						writer.println(receivedCmdString);
+						processFrames();
+						break;
+					}
+					final String response;
+					if (admission.admitCommand(System.nanoTime())) {
+						try {
+							response = commandProcessor.process(receivedCmdString);
+						} finally {
+							admission.releaseCommand();
+						}
+					} else {
+						response = commandProcessor.busy(receivedCmdString);
+					}
+					if (response != null) {
+						writer.println(response);
 					}
 				}
 			} catch (IOException e) {
 				LOG.error("Could not process command: ", receivedCmdString);
 				e.printStackTrace();
+			} finally {
+				admission.releaseConnection();
 			}
 		}
 
 		/**
-		 * Processes a command writes the appropriate output back to the stream.
+		 * Processes binary frames until the client disconnects. The client sends none before the
+		 * switch is acknowledged, so the text reader has not buffered any. Frames are read into,
+		 * and responses written from, buffers reused for the life of the connection.
 		 * 
-		 * @param receivedCmdString
-		 *            the text line received from the client
-		 * @param writer
-		 *            writer to write server response to socket output stream
+		 * @throws IOException
+		 *             if a frame cannot be read or is malformed, or the response cannot be sent
 		 */
-		private void processCommand(final String receivedCmdString, final PrintWriter writer) {
-			final String[] tokens = receivedCmdString.split(ProtocolConstants.ELEMENT_DELIMITER.toString());
-			final ProtocolConstants commandArg = ProtocolConstants
-					.valueOf(tokens[(Integer) ProtocolConstants.CMD_ELEMENT.getValue()]);
-
-			COMMAND_SWITCH: switch (commandArg) {
-
-			//Request: [GET_STATE_CMD]
-			//Response: [OPEN_STATE]|[CLOSED_STATE]
-			case GET_STATE_CMD:
-				if (exchange.isOpen()) {
-					writer.println(ProtocolConstants.OPEN_STATE);
-				} else {
-					writer.println(ProtocolConstants.CLOSED_STATE);
+		private void processFrames() throws IOException {
+			final DataInputStream in = new DataInputStream(
+					new BufferedInputStream(clientCommandsSocket.getInputStream()));
+			final OutputStream out = clientCommandsSocket.getOutputStream();
+			ByteBuffer frame = ByteBuffer.allocate(BUFFER_SIZE);
+			ByteBuffer response = ByteBuffer.allocate(BUFFER_SIZE);
+			while (!threadPool.isShutdown()) {
+				final int length;
+				try {
+					length = in.readInt();
+				} catch (EOFException e) {
+					return;  //client disconnected
+				}
+				if (length < 1 || length > BinaryProtocol.MAX_FRAME_LENGTH - BinaryProtocol.LENGTH_BYTES) {
+					throw new IOException("Invalid frame length: " + length);
 				}
-				break COMMAND_SWITCH;
-
-			//Request: [GET_TICKERS_CMD]
-			//Response:symbol[ELEMENT_DELIMITER]symbol....
-			case GET_TICKERS_CMD:
-				String[] tickers = exchange.getTickers();
-				StringBuilder stringBuilder = new StringBuilder();
-				for (int i = 0; i < tickers.length; i++) {
-					stringBuilder.append(tickers[i]);
-					if (i < tickers.length - 1)  //don't append ":" to the last element
-						stringBuilder.append(ProtocolConstants.ELEMENT_DELIMITER.toString());
+				if (frame.capacity() < length) {
+					frame = ByteBuffer.allocate(length);
 				}
-				writer.println(stringBuilder.toString());
-				break COMMAND_SWITCH;
-
-			//Request: [GET_QUOTE_CMD][ELEMENT_DELIMITER]symbol
-			//Response: price
-			case GET_QUOTE_CMD:
-				String tickerSymbol = tokens[(Integer) ProtocolConstants.QUOTE_CMD_TICKER_ELEMENT.getValue()];
-				StockQuote quote = exchange.getQuote(tickerSymbol);
-				writer.println(quote.getPrice());
-				break COMMAND_SWITCH;
-
-			//Request: [EXECUTE_TRADE_CMD][ELEMENT_DELIMITER][BUY_ORDER]|[SELL_ORDER]
-			//[ELEMENT_DELIMITER]account_ID[ELEMENT_DELIMITER]symbol[ELEMENT_DELIMITER]shares
-			//Response:execution_price
-			case EXECUTE_TRADE_CMD:
-				if (!exchange.isOpen()) {
-					writer.println(0);  //0 if trade is not executed
-					break COMMAND_SWITCH;
-				} else {
-					String accountID = tokens[(Integer) ProtocolConstants.EXECUTE_TRADE_CMD_ACCOUNT_ELEMENT
-							.getValue()];
-					String symbol = tokens[(Integer) ProtocolConstants.EXECUTE_TRADE_CMD_TICKER_ELEMENT.getValue()];
-					int numShares = Integer.parseInt(
-							tokens[(Integer) ProtocolConstants.EXECUTE_TRADE_CMD_SHARES_ELEMENT.getValue()]);
-
-					ProtocolConstants orderType = ProtocolConstants
-							.valueOf(tokens[(Integer) ProtocolConstants.EXECUTE_TRADE_CMD_TYPE_ELEMENT.getValue()]);
-					switch (orderType) {
-
-					case BUY_ORDER:
-						int buyExecutionPrice = exchange.executeTrade(new MarketBuyOrder(accountID, numShares, symbol));
-						writer.println(buyExecutionPrice);
-						break COMMAND_SWITCH;
-
-					case SELL_ORDER:
-						int sellExecutionPrice = exchange
-								.executeTrade(new MarketSellOrder(accountID, numShares, symbol));
-						writer.println(sellExecutionPrice);
-						break COMMAND_SWITCH;
-
-					default:
-						LOG.warn(String.format("Server received %s from client. Unknown order type!",
-								ProtocolConstants.EXECUTE_TRADE_CMD));
-						break COMMAND_SWITCH;
+				in.readFully(frame.array(), 0, length);
+				frame.clear();
+				frame.limit(length);
+				response.clear();
+				try {
+					if (admission.admitCommand(System.nanoTime())) {
+						try {
+							response = binaryCommandProcessor.process(frame, response);
+						} finally {
+							admission.releaseCommand();
+						}
+					} else {
+						response = binaryCommandProcessor.busy(frame, response);
 					}
-				} //end of else (exchange.isOpened())
-
-			default:
-				LOG.warn(String.format("Server received unknown command from client: %s", receivedCmdString));
-			} //end of COMMANDTYPE switch statement
-		} //end of processCommands()
+				} catch (RuntimeException e) {
+					throw new IOException("Malformed frame", e);
+				}
+				out.write(response.array(), 0, response.position());
+			}
+		}
 
 	} //END OF CommandHandler CLASS
 } //END OF ExchangeNetworkAdapter CLASS
@@ -1,5 +1,6 @@
 package com.github.astefanich.exchange;
 
+import java.io.IOException;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 
@@ -25,6 +26,206 @@ public final class ExchangeNetworkAdapterFactory implements NetworkExchangeAdapt
 	/** this class' logger */
 	private static final Logger LOG = LoggerFactory.getLogger(ExchangeNetworkAdapterFactory.class);
 
+	/** number of non-blocking I/O threads serving commands, 0 for a blocking thread per connection */
+	private int ioThreads;
+
+	/** window over which price changes are coalesced into one datagram, 0 for a datagram each */
+	private long eventBatchMillis;
+
+	/** number of multicast groups price changes are sharded over, 0 to send them with the other events */
+	private int eventGroups;
+
+	/** connections open at once, 0 for no limit */
+	private int maxConnections;
+
+	/** commands executing at once across all connections, 0 for no limit */
+	private int maxInFlight;
+
+	/** commands a connection may have pipelined, 0 for no limit */
+	private int maxInFlightPerConnection;
+
+	/** longest a command may wait to start executing, 0 to refuse one finding no permit at once */
+	private long queueTimeoutMillis;
+
+	/**
+	 * Sets the number of I/O threads serving the command connections of subsequently created
+	 * adapters. With a positive number, all connections are multiplexed over that many threads by
+	 * a {@link NioCommandServer}; with 0, each connection has a thread of its own.
+	 * 
+	 * @param ioThreads
+	 *            the number of threads, 0 by default
+	 */
+	public void setIoThreads(final int ioThreads) {
+		if (ioThreads < 0) {
+			throw new IllegalArgumentException("ioThreads must not be negative: " + ioThreads);
+		}
+		this.ioThreads = ioThreads;
+	}
+
+	/**
+	 * Gets the number of I/O threads serving the command connections of new adapters.
+	 * 
+	 * @return the number of threads, 0 for a thread per connection
+	 */
+	public int getIoThreads() {
+		return ioThreads;
+	}
+
+	/**
+	 * Sets the window over which subsequently created adapters coalesce price changes into
+	 * multi-record datagrams. With a positive window, every change seen within it (up to a
+	 * datagram of [MAX_EVENT_LENGTH] bytes) is sent as one [PRICE_CHANGES_EVENT]; with 0, each
+	 * change is sent as a [PRICE_CHANGE_EVENT] of its own.
+	 * 
+	 * @param eventBatchMillis
+	 *            the window in milliseconds, 0 by default
+	 */
+	public void setEventBatchMillis(final long eventBatchMillis) {
+		if (eventBatchMillis < 0) {
+			throw new IllegalArgumentException("eventBatchMillis must not be negative: " + eventBatchMillis);
+		}
+		this.eventBatchMillis = eventBatchMillis;
+	}
+
+	/**
+	 * Gets the window over which new adapters coalesce price changes.
+	 * 
+	 * @return the window in milliseconds, 0 for a datagram per change
+	 */
+	public long getEventBatchMillis() {
+		return eventBatchMillis;
+	}
+
+	/**
+	 * Sets the number of multicast groups subsequently created adapters shard price changes over,
+	 * by ticker. The groups are at the addresses following the configured multicast address, on
+	 * the same port, which keeps the opened, closed and tickers changed events; so a proxy may
+	 * join only the groups of the stocks it is interested in. With 0, every event is sent to the
+	 * configured group.
+	 * 
+	 * @param eventGroups
+	 *            the number of groups, 0 by default
+	 * @see EventGroups
+	 */
+	public void setEventGroups(final int eventGroups) {
+		if (eventGroups < 0) {
+			throw new IllegalArgumentException("eventGroups must not be negative: " + eventGroups);
+		}
+		this.eventGroups = eventGroups;
+	}
+
+	/**
+	 * Gets the number of multicast groups new adapters shard price changes over.
+	 * 
+	 * @return the number of groups, 0 if price changes are sent with the other events
+	 */
+	public int getEventGroups() {
+		return eventGroups;
+	}
+
+	/**
+	 * Sets the number of connections subsequently created adapters keep open at once; a further
+	 * connection is sent [BUSY] and closed, without taking a thread. With 0, connections are not
+	 * limited.
+	 * 
+	 * @param maxConnections
+	 *            the number of connections, 0 by default
+	 * @see AdmissionController
+	 */
+	public void setMaxConnections(final int maxConnections) {
+		if (maxConnections < 0) {
+			throw new IllegalArgumentException("maxConnections must not be negative: " + maxConnections);
+		}
+		this.maxConnections = maxConnections;
+	}
+
+	/**
+	 * Gets the number of connections new adapters keep open at once.
+	 * 
+	 * @return the number of connections, 0 if not limited
+	 */
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * Sets the number of commands subsequently created adapters execute at once, across all
+	 * connections; a further command waits for one to finish for at most the queue timeout, then
+	 * is answered [BUSY] without being executed. With 0, commands in flight are not limited.
+	 * 
+	 * @param maxInFlight
+	 *            the number of commands, 0 by default
+	 * @see AdmissionController
+	 */
+	public void setMaxInFlight(final int maxInFlight) {
+		if (maxInFlight < 0) {
+			throw new IllegalArgumentException("maxInFlight must not be negative: " + maxInFlight);
+		}
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Gets the number of commands new adapters execute at once.
+	 * 
+	 * @return the number of commands, 0 if not limited
+	 */
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * Sets the number of commands a connection of subsequently created adapters may have
+	 * pipelined, received but not yet answered; a further command is answered [BUSY] without being
+	 * executed. Only limits the connections of a {@link NioCommandServer}: a blocking handler reads
+	 * a connection's next command once it has answered the last, leaving the rest to wait in the
+	 * socket. With 0, pipelined commands are not limited.
+	 * 
+	 * @param maxInFlightPerConnection
+	 *            the number of commands, 0 by default
+	 * @see AdmissionController
+	 */
+	public void setMaxInFlightPerConnection(final int maxInFlightPerConnection) {
+		if (maxInFlightPerConnection < 0) {
+			throw new IllegalArgumentException("maxInFlightPerConnection must not be negative: "
+					+ maxInFlightPerConnection);
+		}
+		this.maxInFlightPerConnection = maxInFlightPerConnection;
+	}
+
+	/**
+	 * Gets the number of commands a connection of new adapters may have pipelined.
+	 * 
+	 * @return the number of commands, 0 if not limited
+	 */
+	public int getMaxInFlightPerConnection() {
+		return maxInFlightPerConnection;
+	}
+
+	/**
+	 * Sets the longest a command of subsequently created adapters may wait, from its receipt, for
+	 * one of the [maxInFlight] commands executing to finish; a command still waiting is answered
+	 * [BUSY]. With 0, a command finding no room is answered [BUSY] at once, as it always is by
+	 * the non-blocking command server.
+	 * 
+	 * @param queueTimeoutMillis
+	 *            the timeout in milliseconds, 0 by default
+	 */
+	public void setQueueTimeoutMillis(final long queueTimeoutMillis) {
+		if (queueTimeoutMillis < 0) {
+			throw new IllegalArgumentException("queueTimeoutMillis must not be negative: " + queueTimeoutMillis);
+		}
+		this.queueTimeoutMillis = queueTimeoutMillis;
+	}
+
+	/**
+	 * Gets the longest a command of new adapters may wait to start executing.
+	 * 
+	 * @return the timeout in milliseconds, 0 if a command does not wait
+	 */
+	public long getQueueTimeoutMillis() {
+		return queueTimeoutMillis;
+	}
+
 	/**
 	 * Instantiates an {@code ExchangeNetworkAdapter}.
 	 * 
@@ -42,14 +243,43 @@ public final class ExchangeNetworkAdapterFactory implements NetworkExchangeAdapt
 	public ExchangeAdapter newAdapter(StockExchange exchange, String multicastIP, int multicastPort, int commandPort) {
 		ExchangeNetworkAdapter exchangeNetworkAdapter = null;
 		try {
-			exchangeNetworkAdapter = new ExchangeNetworkAdapter(exchange, multicastIP, multicastPort,
-					commandPort);
+			if (ioThreads > 0) {
+				exchangeNetworkAdapter = new ExchangeNetworkAdapter(exchange, multicastIP, multicastPort,
+						commandPort, ioThreads);
+			} else {
+				exchangeNetworkAdapter = new ExchangeNetworkAdapter(exchange, multicastIP, multicastPort,
+						commandPort);
+			}
+			configure(exchangeNetworkAdapter);
 		} catch (SocketException e) {
 			LOG.warn("Failed to create a new ExchangeNetworkAdapter. Error creating or accessing a Socket", e);
 		} catch (UnknownHostException e) {
 			LOG.warn("Failed to create a new ExchangeNetworkAdapter. IP host could not be determined", e);
+		} catch (IOException e) {
+			LOG.warn("Failed to create a new ExchangeNetworkAdapter. Command port could not be bound", e);
 		}
 		return exchangeNetworkAdapter;
 	}
 
+	/**
+	 * Applies the admission limits, event sharding and event batching set on this factory to a
+	 * new adapter. Also used by the factories of other adapter variants, which share these
+	 * settings.
+	 * 
+	 * @param exchangeNetworkAdapter
+	 *            the new adapter
+	 */
+	void configure(final ExchangeNetworkAdapter exchangeNetworkAdapter) {
+		if (maxConnections > 0 || maxInFlight > 0 || maxInFlightPerConnection > 0) {
+			exchangeNetworkAdapter.limitAdmission(maxConnections, maxInFlight, maxInFlightPerConnection,
+					queueTimeoutMillis);
+		}
+		if (eventGroups > 0) {
+			exchangeNetworkAdapter.shardEventGroups(eventGroups);
+		}
+		if (eventBatchMillis > 0) {
+			exchangeNetworkAdapter.batchPriceEvents(eventBatchMillis);
+		}
+	}
+
 }
@@ -1,6 +1,5 @@
 package com.github.astefanich.exchange;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
@@ -8,16 +7,31 @@ import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.MulticastSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,17 +49,26 @@ import edu.uw.ext.framework.order.Order;
  * - Encodes the method request as a {@link String} (based on {@link ProtocolConstants}) <br>
  * - Sends the command to the {@link ExchangeNetworkAdapter} <br>
  * - Decodes the received response <br>
- * - Returns the result
- * Object creation should come from {@link ExchangeNetworkProxyFactory}.
+ * - Returns the result <br>
+ * Commands from all threads are pipelined over one connection by a {@link CommandClient}, and
+ * quotes and trades may also be requested asynchronously. Optionally, quotes are served from a
+ * {@link QuoteCache} kept current by the multicast price change events, and the exchange's state
+ * and tickers from an {@link ExchangeStateCache} kept current by the other events. Listeners may
+ * each be given a {@link ListenerQueue}, delivering their events on a thread of their own. If
+ * requested, and the server agrees, commands are sent as compact {@link BinaryProtocol} frames
+ * instead of text. If the exchange shards its price changes over several {@link EventGroups},
+ * the proxy joins every group, or only those of the stocks {@link #subscribe(String...) subscribed}
+ * to. Object creation should come from {@link ExchangeNetworkProxyFactory}.
  * 
  * @author AndrewStefanich
  * @see StockExchange
+ * @see ExtendedStockExchange
  * @see StockQuote
  * @see ProtocolConstants
  * @see ExchangeNetworkAdapter
  * @see EventProcessor
  */
-public final class ExchangeNetworkProxy implements StockExchange {
+public final class ExchangeNetworkProxy implements ExtendedStockExchange {
 
 	static {
 		System.setProperty("java.net.preferIPv4Stack", "true"); //force IPv4 in place of IPv6
@@ -54,6 +77,18 @@ public final class ExchangeNetworkProxy implements StockExchange {
 	/** this class' logger */
 	private final Logger LOG = LoggerFactory.getLogger(getClass());
 
+	/** maximum number of orders sent in one [EXECUTE_TRADES_CMD], larger batches are split */
+	private static final int MAX_TRADES_PER_COMMAND = 128;
+
+	/** time a snapshot is awaited before another gap in the events requests a new one */
+	private static final long RECOVERY_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+	/** buffer size for UDP packets/messages, large enough for a batch of price changes */
+	private static final int BUFFER_SIZE = (Integer) ProtocolConstants.MAX_EVENT_LENGTH.getValue();
+
+	/** charset of account IDs in binary commands */
+	private static final Charset BINARY_CHARSET = Charset.forName(ProtocolConstants.ENCODING.toString());
+
 	/** dispatches server responses messages to be processed on a separate thread */
 	private ExecutorService threadPool = Executors.newCachedThreadPool();
 
@@ -66,8 +101,44 @@ public final class ExchangeNetworkProxy implements StockExchange {
 	/** TCP socket for commands communication */
 	private Socket commandsSocket;
 
-	/** list of registered event listeners */
-	private Set<ExchangeListener> exchangeListeners;
+	/** pipelines commands over the commands socket, {@code null} until connected */
+	private volatile CommandClient commandClient;
+
+	/** registered event listeners, each mapped to the listener events are fired to; itself, or its queue */
+	private final ConcurrentMap<ExchangeListener, ExchangeListener> exchangeListeners = new ConcurrentHashMap<ExchangeListener, ExchangeListener>();
+
+	/** capacity of each listener's event queue, 0 if events are fired on the receive thread */
+	private volatile int listenerQueueCapacity;
+
+	/** what a full listener queue does with an event */
+	private volatile OverflowPolicy listenerOverflowPolicy = OverflowPolicy.BLOCK;
+
+	/** true if commands are sent as binary frames */
+	private boolean binaryProtocol;
+
+	/** last known prices, {@code null} if every quote is fetched from the exchange */
+	private final QuoteCache quoteCache;
+
+	/** last known state and tickers, {@code null} if they are fetched from the exchange on each call */
+	private final ExchangeStateCache stateCache;
+
+	/** processes the multicast events */
+	private EventProcessor eventProcessor;
+
+	/** whether only the event groups of subscribed stocks are joined, rather than every group */
+	private final boolean selectiveSubscription;
+
+	/** layout of the exchange's event groups, {@code null} until fetched */
+	private volatile EventGroups eventGroups;
+
+	/** number of times the event group layout has been fetched; only the latest is joined */
+	private final AtomicLong eventGroupFetches = new AtomicLong();
+
+	/** whether each event group has been joined, by group; copied on write, under this */
+	private volatile boolean[] joinedGroups = { true };
+
+	/** ticker symbols of the stocks subscribed to; added to under this */
+	private final Set<String> subscribedTickers = ConcurrentHashMap.newKeySet();
 
 	/**
 	 * Constructs an {@code ExchangeNetworkProxy}. (Object creation should come from
@@ -84,13 +155,104 @@ public final class ExchangeNetworkProxy implements StockExchange {
 	 */
 	ExchangeNetworkProxy(final String eventsIPAddress, final int eventsPort, final String commandsIPAddress,
 			final int commandsPort) {
+		this(eventsIPAddress, eventsPort, commandsIPAddress, commandsPort, false);
+	}
+
+	/**
+	 * Constructs an {@code ExchangeNetworkProxy}, optionally negotiating the binary command
+	 * protocol. (Object creation should come from {@link ExchangeNetworkProxyFactory}).
+	 * 
+	 * @param eventIPAddress
+	 *            the multicast IP address to connect to
+	 * @param eventPort
+	 *            the multicast port to connect to
+	 * @param commandIPAddress
+	 *            the IP address the {@code StockExchange} accepts requests on
+	 * @param commandPort
+	 *            the IP address the {@code StockExchange} accepts requests on
+	 * @param binaryProtocol
+	 *            true to send commands as binary frames, if the exchange supports them
+	 */
+	ExchangeNetworkProxy(final String eventsIPAddress, final int eventsPort, final String commandsIPAddress,
+			final int commandsPort, final boolean binaryProtocol) {
+		this(eventsIPAddress, eventsPort, commandsIPAddress, commandsPort, binaryProtocol, 0, 0);
+	}
+
+	/**
+	 * Constructs an {@code ExchangeNetworkProxy}, optionally negotiating the binary command
+	 * protocol, and caching quotes, state and tickers. (Object creation should come from
+	 * {@link ExchangeNetworkProxyFactory}).
+	 * 
+	 * @param eventIPAddress
+	 *            the multicast IP address to connect to
+	 * @param eventPort
+	 *            the multicast port to connect to
+	 * @param commandIPAddress
+	 *            the IP address the {@code StockExchange} accepts requests on
+	 * @param commandPort
+	 *            the IP address the {@code StockExchange} accepts requests on
+	 * @param binaryProtocol
+	 *            true to send commands as binary frames, if the exchange supports them
+	 * @param quoteMaxAgeMillis
+	 *            longest time a cached price is served without being confirmed by an event or
+	 *            the exchange (in milliseconds), 0 to fetch every quote from the exchange
+	 * @param stateMaxAgeMillis
+	 *            longest time the cached state and tickers are served without being confirmed by
+	 *            an event or the exchange (in milliseconds), 0 to fetch them on each call
+	 */
+	ExchangeNetworkProxy(final String eventsIPAddress, final int eventsPort, final String commandsIPAddress,
+			final int commandsPort, final boolean binaryProtocol, final long quoteMaxAgeMillis,
+			final long stateMaxAgeMillis) {
+		this(eventsIPAddress, eventsPort, commandsIPAddress, commandsPort, binaryProtocol, quoteMaxAgeMillis,
+				stateMaxAgeMillis, false);
+	}
+
+	/**
+	 * Constructs an {@code ExchangeNetworkProxy}, optionally negotiating the binary command
+	 * protocol, caching quotes, state and tickers, and joining only the event groups of the stocks
+	 * subscribed to. (Object creation should come from {@link ExchangeNetworkProxyFactory}).
+	 * 
+	 * @param eventIPAddress
+	 *            the multicast IP address to connect to
+	 * @param eventPort
+	 *            the multicast port to connect to
+	 * @param commandIPAddress
+	 *            the IP address the {@code StockExchange} accepts requests on
+	 * @param commandPort
+	 *            the IP address the {@code StockExchange} accepts requests on
+	 * @param binaryProtocol
+	 *            true to send commands as binary frames, if the exchange supports them
+	 * @param quoteMaxAgeMillis
+	 *            longest time a cached price is served without being confirmed by an event or
+	 *            the exchange (in milliseconds), 0 to fetch every quote from the exchange
+	 * @param stateMaxAgeMillis
+	 *            longest time the cached state and tickers are served without being confirmed by
+	 *            an event or the exchange (in milliseconds), 0 to fetch them on each call
+	 * @param selectiveSubscription
+	 *            true to join only the event groups of the stocks subscribed to, false to join
+	 *            every group
+	 */
+	ExchangeNetworkProxy(final String eventsIPAddress, final int eventsPort, final String commandsIPAddress,
+			final int commandsPort, final boolean binaryProtocol, final long quoteMaxAgeMillis,
+			final long stateMaxAgeMillis, final boolean selectiveSubscription) {
+		this.selectiveSubscription = selectiveSubscription;
+		this.quoteCache = quoteMaxAgeMillis > 0 ? new QuoteCache(quoteMaxAgeMillis) : null;
+		this.stateCache = stateMaxAgeMillis > 0 ? new ExchangeStateCache(stateMaxAgeMillis) : null;
 		try {
-			exchangeListeners = new HashSet<ExchangeListener>();
 			eventsGroup = InetAddress.getByName(eventsIPAddress);
 			eventsMulticastSocket = new MulticastSocket(eventsPort);
 			eventsMulticastSocket.joinGroup(eventsGroup);
-			threadPool.execute(new EventProcessor());
+			eventProcessor = new EventProcessor();
+			threadPool.execute(eventProcessor);
 			commandsSocket = new Socket(commandsIPAddress, commandsPort);
+			if (binaryProtocol) {
+				this.binaryProtocol = negotiateBinaryProtocol();
+			}
+			commandClient = new CommandClient(commandsSocket, this.binaryProtocol, threadPool);
+			joinEventGroups();
+			if (quoteCache != null) {
+				loadQuotes();
+			}
 		} catch (UnknownHostException e) {
 			LOG.error(String.format("IP address for events: %s could not be resolved", eventsIPAddress));
 			e.printStackTrace();
@@ -100,50 +262,531 @@ public final class ExchangeNetworkProxy implements StockExchange {
 		}
 	}
 
+	/**
+	 * Switches the command connection to the binary protocol, provided every ticker traded can be
+	 * sent in it. Done before commands are pipelined, one command at a time.
+	 * 
+	 * @return true if the exchange acknowledged the switch
+	 * @throws IOException
+	 *             if the exchange cannot be reached
+	 */
+	private boolean negotiateBinaryProtocol() throws IOException {
+		//closing the writer or reader would close the socket. We want to leave it open for future commands
+		final PrintWriter writer = new PrintWriter(
+				new OutputStreamWriter(commandsSocket.getOutputStream(), BINARY_CHARSET), true);
+		final BufferedReader reader = new BufferedReader(
+				new InputStreamReader(commandsSocket.getInputStream(), BINARY_CHARSET));
+		writer.println(ProtocolConstants.GET_TICKERS_CMD);
+		final String tickers = reader.readLine();
+		if (ProtocolConstants.BUSY.toString().equals(tickers)) {
+			LOG.warn("Exchange busy, binary protocol not negotiated");
+			return false;
+		}
+		for (String ticker : tickers == null ? new String[0]
+				: tickers.split(ProtocolConstants.ELEMENT_DELIMITER.toString())) {
+			if (!BinaryProtocol.isEncodable(ticker)) {
+				LOG.info(String.format("Ticker %s cannot be sent in the binary protocol, using text", ticker));
+				return false;
+			}
+		}
+		//the exchange sends nothing after the acknowledgement unprompted, so the reader holds no frames
+		writer.println(ProtocolConstants.BINARY_PROTOCOL_CMD);
+		if (!ProtocolConstants.BINARY_PROTOCOL_CMD.toString().equals(reader.readLine())) {
+			LOG.info("Exchange does not support the binary protocol, using text");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Fetches the layout of the exchange's event groups, and joins the groups needed; every group,
+	 * or only those of the stocks subscribed to. Group 0 is joined when connecting. An exchange
+	 * which does not shard its events sends them all to group 0.
+	 */
+	private void joinEventGroups() {
+		final long fetch = eventGroupFetches.incrementAndGet();
+		final EventGroups groups = await(fetchEventGroups(), null, ProtocolConstants.GET_EVENT_GROUPS_CMD);
+		if (groups != null) {
+			joinEventGroups(fetch, groups);
+		}
+	}
+
+	/**
+	 * Fetches the layout of the exchange's event groups again without waiting for it, and joins
+	 * the groups needed once it arrives, on the thread pool. Called from the receive thread, which
+	 * must keep receiving meanwhile.
+	 */
+	private void rejoinEventGroups() {
+		final long fetch = eventGroupFetches.incrementAndGet();
+		fetchEventGroups().whenCompleteAsync((groups, e) -> {
+			if (e != null) {
+				LOG.error("Could not issue command: " + ProtocolConstants.GET_EVENT_GROUPS_CMD, e);
+			} else {
+				joinEventGroups(fetch, groups);
+			}
+		}, threadPool);
+	}
+
+	/**
+	 * Joins the event groups needed in a layout of the exchange's event groups; every group, or
+	 * only those of the stocks subscribed to.
+	 * 
+	 * @param fetch
+	 *            number of the fetch the layout came from, ignored if fetched again since
+	 * @param groups
+	 *            the layout
+	 */
+	private synchronized void joinEventGroups(final long fetch, final EventGroups groups) {
+		if (fetch != eventGroupFetches.get()) {
+			return;  //superseded by a newer layout
+		}
+		eventGroups = groups;
+		final boolean[] joined = Arrays.copyOf(joinedGroups, Math.max(joinedGroups.length, groups.size() + 1));
+		if (selectiveSubscription) {
+			for (String ticker : subscribedTickers) {
+				joinGroup(joined, groups.getGroup(ticker));
+			}
+		} else {
+			for (int group = 1; group <= groups.size(); group++) {
+				joinGroup(joined, group);
+			}
+		}
+		joinedGroups = joined;
+	}
+
+	/**
+	 * Joins an event group, unless it has been joined.
+	 * 
+	 * @param joined
+	 *            whether each group has been joined, by group; updated
+	 * @param group
+	 *            the group, ignored if not a price change group
+	 * @return true if the group was joined by this call
+	 */
+	private boolean joinGroup(final boolean[] joined, final int group) {
+		if (group < 1 || joined[group]) {
+			return false;
+		}
+		final InetAddress address = eventGroups.getAddress(group);
+		try {
+			eventsMulticastSocket.joinGroup(address);
+		} catch (IOException e) {
+			LOG.error(String.format("Unable to join event group %d at %s", group, address.getHostAddress()), e);
+			return false;
+		}
+		joined[group] = true;
+		return true;
+	}
+
+	/**
+	 * Gets the event group a stock's price changes are received from.
+	 * 
+	 * @param ticker
+	 *            ticker symbol of the stock
+	 * @return the group; 0 if the events are not sharded, -1 if the stock's group is not known
+	 */
+	private int groupOf(final String ticker) {
+		final EventGroups groups = eventGroups;
+		return groups == null ? 0 : groups.getGroup(ticker);
+	}
+
+	/**
+	 * Tests whether an event group is being received.
+	 * 
+	 * @param group
+	 *            the group, -1 if not known
+	 * @return true if the group has been joined, or is not known
+	 */
+	private boolean isReceived(final int group) {
+		final boolean[] joined = joinedGroups;
+		return group < 0 || group < joined.length && joined[group];
+	}
+
+	/**
+	 * Subscribes to the price changes of stocks. With selective subscription, joins the event
+	 * groups of the stocks, and fires the current price of each stock whose group was not already
+	 * joined, fetched in one [GET_QUOTES_CMD]; otherwise every group is joined already.
+	 * 
+	 * @param tickers
+	 *            the ticker symbols of the stocks
+	 */
+	@Override
+	public void subscribe(final String... tickers) {
+		if (!selectiveSubscription) {
+			return;
+		}
+		final List<String> caughtUp = new ArrayList<String>();
+		synchronized (this) {
+			final EventGroups groups = eventGroups;
+			final boolean[] joined = groups == null ? joinedGroups : Arrays.copyOf(joinedGroups, joinedGroups.length);
+			final List<Integer> newlyJoined = new ArrayList<Integer>();
+			for (String ticker : tickers) {
+				if (subscribedTickers.add(ticker) && groups != null) {
+					final int group = groups.getGroup(ticker);
+					if (joinGroup(joined, group)) {
+						newlyJoined.add(group);
+					}
+				}
+			}
+			if (newlyJoined.isEmpty()) {
+				return;
+			}
+			joinedGroups = joined;
+			for (String ticker : subscribedTickers) {
+				if (newlyJoined.contains(groups.getGroup(ticker))) {
+					caughtUp.add(ticker);
+				}
+			}
+		}
+		final long requestedNanos = System.nanoTime();
+		final Map<String, StockQuote> quotes = await(requestQuotes(caughtUp.toArray(new String[caughtUp.size()])),
+				null, ProtocolConstants.GET_QUOTES_CMD);
+		if (quotes != null) {
+			eventProcessor.catchUp(quotes, requestedNanos);
+		}
+	}
+
+	/**
+	 * Sends a command requesting the layout of the exchange's event groups.
+	 * 
+	 * @return completed with the layout
+	 */
+	private CompletableFuture<EventGroups> fetchEventGroups() {
+		final CompletableFuture<EventGroups> layout;
+		if (binaryProtocol) {
+			layout = commandClient.send(commandClient.newFrame(BinaryProtocol.OP_GET_EVENT_GROUPS, 0))
+					.thenApply((payload) -> {
+						final List<InetAddress> addresses = new ArrayList<InetAddress>();
+						final byte[] address = new byte[4];
+						for (int i = payload.getInt(); i > 0; i--) {
+							payload.get(address);
+							addresses.add(toAddress(address));
+						}
+						final int count = payload.getInt();
+						final Map<String, Integer> groups = new HashMap<String, Integer>(count * 2);
+						for (int i = 0; i < count; i++) {
+							groups.put(BinaryProtocol.unpackTicker(payload.getInt()), payload.getInt());
+						}
+						return new EventGroups(addresses, groups);
+					});
+		} else {
+			layout = commandClient.send(ProtocolConstants.GET_EVENT_GROUPS_CMD.toString()).thenApply((response) -> {
+				final String[] elements = response.split(ProtocolConstants.ELEMENT_DELIMITER.toString());
+				final int count = Integer.parseInt(elements[0]);
+				final List<InetAddress> addresses = new ArrayList<InetAddress>(count);
+				for (int i = 1; i <= count; i++) {
+					try {
+						addresses.add(InetAddress.getByName(elements[i]));
+					} catch (UnknownHostException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+				final Map<String, Integer> groups = new HashMap<String, Integer>(elements.length);
+				for (int i = count + 1; i + 1 < elements.length; i += 2) {
+					groups.put(elements[i], Integer.valueOf(elements[i + 1]));
+				}
+				return new EventGroups(addresses, groups);
+			});
+		}
+		return layout;
+	}
+
+	/**
+	 * Converts the 4 bytes of an IPv4 address.
+	 * 
+	 * @param address
+	 *            the bytes
+	 * @return the address
+	 */
+	private static InetAddress toAddress(final byte[] address) {
+		try {
+			return InetAddress.getByAddress(address);
+		} catch (UnknownHostException e) {
+			throw new UncheckedIOException(e);  //not thrown for an address of 4 bytes
+		}
+	}
+
+	/**
+	 * Fills the quote cache with the quotes of every stock, requested with one [GET_QUOTES_CMD]
+	 * and cached when it arrives. Price change events are already being received, so no change is
+	 * missed.
+	 */
+	private void loadQuotes() {
+		requestQuotes(new String[0]);
+	}
+
 	/**
 	 * Gets the current state of the {@code StockExchange}
 	 * 
 	 * @return true if the exchange is open, false if closed.
+	 * @throws CompletionException
+	 *             if the command fails
 	 */
 	@Override
 	public boolean isOpen() {
-		String serverResponse = issueCommand(ProtocolConstants.GET_STATE_CMD.toString());
-		if (serverResponse.equals(ProtocolConstants.OPEN_STATE.toString())) {
-			return true;
+		if (stateCache == null) {
+			return require(fetchOpen(), ProtocolConstants.GET_STATE_CMD);
+		}
+		final Boolean cached = stateCache.isOpen();
+		if (cached != null) {
+			return cached;
 		}
-		return false;
+		final long requestedNanos = System.nanoTime();
+		final Boolean open = require(fetchOpen(), ProtocolConstants.GET_STATE_CMD);
+		stateCache.updateOpen(open, requestedNanos);
+		return open;
+	}
+
+	/**
+	 * Sends a command requesting the state of the {@code StockExchange}.
+	 * 
+	 * @return completed with true if the exchange is open, false if closed
+	 */
+	private CompletableFuture<Boolean> fetchOpen() {
+		final CompletableFuture<Boolean> open;
+		if (binaryProtocol) {
+			open = commandClient.send(commandClient.newFrame(BinaryProtocol.OP_GET_STATE, 0))
+					.thenApply((payload) -> payload.get() != 0);
+		} else {
+			open = commandClient.send(ProtocolConstants.GET_STATE_CMD.toString())
+					.thenApply(ProtocolConstants.OPEN_STATE.toString()::equals);
+		}
+		return open;
 	}
 
 	/**
 	 * Gets the ticker symbols for all of the stocks that is traded on the exhchange.
 	 * 
 	 * @return the stock ticker symbols
+	 * @throws CompletionException
+	 *             if the command fails
 	 */
 	@Override
 	public String[] getTickers() {
-		String serverResponse = issueCommand(ProtocolConstants.GET_TICKERS_CMD.toString());
-		if (serverResponse == null) {
+		if (stateCache == null) {
+			return require(fetchTickers(), ProtocolConstants.GET_TICKERS_CMD);
+		}
+		final String[] cached = stateCache.getTickers();
+		if (cached != null) {
+			return cached.clone();
+		}
+		final long requestedNanos = System.nanoTime();
+		final String[] tickers = require(fetchTickers(), ProtocolConstants.GET_TICKERS_CMD);
+		stateCache.updateTickers(tickers.clone(), requestedNanos);
+		return tickers;
+	}
+
+	/**
+	 * Sends a command requesting the ticker symbols.
+	 * 
+	 * @return completed with the ticker symbols
+	 */
+	private CompletableFuture<String[]> fetchTickers() {
+		final CompletableFuture<String[]> tickers;
+		if (binaryProtocol) {
+			tickers = commandClient.send(commandClient.newFrame(BinaryProtocol.OP_GET_TICKERS, 0))
+					.thenApply((payload) -> {
+						final String[] symbols = new String[payload.getInt()];
+						for (int i = 0; i < symbols.length; i++) {
+							symbols[i] = BinaryProtocol.unpackTicker(payload.getInt());
+						}
+						return symbols;
+					});
 		} else {
+			tickers = commandClient.send(ProtocolConstants.GET_TICKERS_CMD.toString())
+					.thenApply((response) -> response.split(ProtocolConstants.ELEMENT_DELIMITER.toString()));
 		}
-		String[] tickers = serverResponse.split(ProtocolConstants.ELEMENT_DELIMITER.toString());
 		return tickers;
 	}
 
 	/**
-	 * Gets a {@code StockQuote}. Useful for getting stock's current price.
+	 * Gets a {@code StockQuote}. Useful for getting stock's current price. Served from the quote
+	 * cache, if enabled and the price is fresh.
 	 * 
 	 * @param ticker
 	 *            the ticker symbol for the given stock
-	 * @return the quote, {@code null} if the quote is unavailable
+	 * @return the quote, {@code null} if the stock is not traded
+	 * @throws CompletionException
+	 *             if the command fails
 	 */
 	@Override
 	public StockQuote getQuote(final String ticker) {
+		if (quoteCache != null) {
+			final StockQuote cached = quoteCache.get(ticker);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		return require(requestQuote(ticker), ProtocolConstants.GET_QUOTE_CMD);
+	}
+
+	/**
+	 * Requests a {@code StockQuote} without waiting for it; the request is pipelined with those of
+	 * other threads.
+	 * 
+	 * @param ticker
+	 *            the ticker symbol for the given stock
+	 * @return completed with the quote, or {@code null} if the stock is not traded; completed
+	 *         exceptionally if the request fails
+	 */
+	public CompletableFuture<StockQuote> getQuoteAsync(final String ticker) {
+		if (quoteCache != null) {
+			final StockQuote cached = quoteCache.get(ticker);
+			if (cached != null) {
+				return CompletableFuture.completedFuture(cached);
+			}
+		}
+		return requestQuote(ticker);
+	}
+
+	/**
+	 * Requests a {@code StockQuote} from the exchange, caching it if the quote cache is enabled.
+	 * 
+	 * @param ticker
+	 *            the ticker symbol for the given stock
+	 * @return completed with the quote, or {@code null} if the stock is not traded
+	 */
+	private CompletableFuture<StockQuote> requestQuote(final String ticker) {
+		final CompletableFuture<StockQuote> quote = fetchQuote(ticker);
+		if (quoteCache == null) {
+			return quote;
+		}
+		final long requestedNanos = System.nanoTime();
+		return quote.thenApply((fetched) -> {
+			if (fetched != null) {
+				quoteCache.update(fetched, requestedNanos);
+			}
+			return fetched;
+		});
+	}
+
+	/**
+	 * Sends a command requesting a {@code StockQuote}.
+	 * 
+	 * @param ticker
+	 *            the ticker symbol for the given stock
+	 * @return completed with the quote, or {@code null} if the stock is not traded
+	 */
+	private CompletableFuture<StockQuote> fetchQuote(final String ticker) {
+		if (binaryProtocol) {
+			if (!BinaryProtocol.isEncodable(ticker)) {
+				return CompletableFuture.completedFuture(null);  //not a ticker of this exchange
+			}
+			final ByteBuffer frame = commandClient.newFrame(BinaryProtocol.OP_GET_QUOTE, BinaryProtocol.TICKER_BYTES);
+			frame.putInt(BinaryProtocol.packTicker(ticker));
+			return commandClient.send(frame).thenApply((payload) -> {
+				final int price = payload.getInt();
+				return price == (Integer) ProtocolConstants.INVALID_STOCK.getValue() ? null
+						: new StockQuote(ticker, price);
+			});
+		}
 		StringBuilder stringBuilder = new StringBuilder();
 		stringBuilder.append(ProtocolConstants.GET_QUOTE_CMD);
 		stringBuilder.append(ProtocolConstants.ELEMENT_DELIMITER);
 		stringBuilder.append(ticker);
-		String serverQuotePriceResponse = issueCommand(stringBuilder.toString());
-		return new StockQuote(ticker, Integer.parseInt(serverQuotePriceResponse));
+		return commandClient.send(stringBuilder.toString())
+				.thenApply((response) -> new StockQuote(ticker, Integer.parseInt(response)));
+	}
+
+	/**
+	 * Gets the quotes of many stocks with one [GET_QUOTES_CMD], a single round trip however many
+	 * stocks are requested. Served from the quote cache, if enabled and every price requested is
+	 * fresh.
+	 * 
+	 * @param tickers
+	 *            the ticker symbols of the stocks, none for every stock traded
+	 * @return the quotes of the stocks traded among those requested, by ticker symbol
+	 * @throws CompletionException
+	 *             if the command fails
+	 */
+	@Override
+	public Map<String, StockQuote> getQuotes(final String... tickers) {
+		if (quoteCache != null && tickers.length > 0) {
+			final Map<String, StockQuote> cached = new LinkedHashMap<String, StockQuote>(tickers.length * 2);
+			for (String ticker : tickers) {
+				final StockQuote quote = quoteCache.get(ticker);
+				if (quote == null) {
+					break;
+				}
+				cached.put(ticker, quote);
+			}
+			if (cached.size() == tickers.length) {
+				return cached;
+			}
+		}
+		return require(requestQuotes(tickers), ProtocolConstants.GET_QUOTES_CMD);
+	}
+
+	/**
+	 * Requests the quotes of many stocks from the exchange, caching them if the quote cache is
+	 * enabled.
+	 * 
+	 * @param tickers
+	 *            the ticker symbols of the stocks, none for every stock traded
+	 * @return completed with the quotes of the stocks traded among those requested
+	 */
+	private CompletableFuture<Map<String, StockQuote>> requestQuotes(final String[] tickers) {
+		final CompletableFuture<Map<String, StockQuote>> quotes = fetchQuotes(tickers);
+		if (quoteCache == null) {
+			return quotes;
+		}
+		final long requestedNanos = System.nanoTime();
+		return quotes.thenApply((fetched) -> {
+			for (StockQuote quote : fetched.values()) {
+				quoteCache.update(quote, requestedNanos);
+			}
+			return fetched;
+		});
+	}
+
+	/**
+	 * Sends a command requesting the quotes of many stocks.
+	 * 
+	 * @param tickers
+	 *            the ticker symbols of the stocks, none for every stock traded
+	 * @return completed with the quotes of the stocks traded among those requested
+	 */
+	private CompletableFuture<Map<String, StockQuote>> fetchQuotes(final String[] tickers) {
+		if (binaryProtocol) {
+			final List<String> encodable = new ArrayList<String>(tickers.length);
+			for (String ticker : tickers) {
+				if (BinaryProtocol.isEncodable(ticker)) {
+					encodable.add(ticker);  //others are not tickers of this exchange
+				}
+			}
+			if (tickers.length > 0 && encodable.isEmpty()) {
+				return CompletableFuture.completedFuture(new LinkedHashMap<String, StockQuote>());
+			}
+			final ByteBuffer frame = commandClient.newFrame(BinaryProtocol.OP_GET_QUOTES,
+					4 + encodable.size() * BinaryProtocol.TICKER_BYTES);
+			frame.putInt(encodable.size());
+			for (String ticker : encodable) {
+				frame.putInt(BinaryProtocol.packTicker(ticker));
+			}
+			return commandClient.send(frame).thenApply((payload) -> {
+				final int count = payload.getInt();
+				final Map<String, StockQuote> quotes = new LinkedHashMap<String, StockQuote>(count * 2);
+				for (int i = 0; i < count; i++) {
+					final String ticker = BinaryProtocol.unpackTicker(payload.getInt());
+					quotes.put(ticker, new StockQuote(ticker, payload.getInt()));
+				}
+				return quotes;
+			});
+		}
+		StringBuilder stringBuilder = new StringBuilder();
+		stringBuilder.append(ProtocolConstants.GET_QUOTES_CMD);
+		for (String ticker : tickers) {
+			stringBuilder.append(ProtocolConstants.ELEMENT_DELIMITER);
+			stringBuilder.append(ticker);
+		}
+		return commandClient.send(stringBuilder.toString()).thenApply((response) -> {
+			final String[] elements = response.split(ProtocolConstants.ELEMENT_DELIMITER.toString());
+			final Map<String, StockQuote> quotes = new LinkedHashMap<String, StockQuote>(elements.length);
+			for (int i = 0; i + 1 < elements.length; i += 2) {
+				quotes.put(elements[i], new StockQuote(elements[i], Integer.parseInt(elements[i + 1])));
+			}
+			return quotes;
+		});
 	}
 
 	/**
@@ -152,13 +795,172 @@ public final class ExchangeNetworkProxy implements StockExchange {
 	 * @param order
 	 *            the {@code Order} to execute
 	 * @return the price the order was executed at
+	 * @throws CompletionException
+	 *             if the command fails, as whether the order was executed is unknown
 	 */
 	@Override
 	public int executeTrade(final Order order) {
-		String orderType = order.isBuyOrder() ? ProtocolConstants.BUY_ORDER.toString()
-				: ProtocolConstants.SELL_ORDER.toString();
+		return require(executeTradeAsync(order), ProtocolConstants.EXECUTE_TRADE_CMD);
+	}
+
+	/**
+	 * Sends a command to execute a trade without waiting for its execution; the command is
+	 * pipelined with those of other threads.
+	 * 
+	 * @param order
+	 *            the {@code Order} to execute
+	 * @return completed with the price the order was executed at, 0 if it was not executed;
+	 *         completed exceptionally if the command fails
+	 */
+	public CompletableFuture<Integer> executeTradeAsync(final Order order) {
+		if (binaryProtocol) {
+			if (!BinaryProtocol.isEncodable(order.getStockTicker())) {
+				LOG.warn(String.format("Order for unknown stock %s not executed", order.getStockTicker()));
+				return CompletableFuture.completedFuture(0);
+			}
+			final byte[] accountID = order.getAccountId().getBytes(BINARY_CHARSET);
+			final ByteBuffer frame = commandClient.newFrame(BinaryProtocol.OP_EXECUTE_TRADE,
+					BinaryProtocol.ORDER_BYTES + accountID.length);
+			BinaryProtocol.putOrder(frame, order, accountID);
+			return commandClient.send(frame).thenApply(ByteBuffer::getInt);
+		}
 		StringBuilder stringBuilder = new StringBuilder();
 		stringBuilder.append(ProtocolConstants.EXECUTE_TRADE_CMD);
+		appendOrder(stringBuilder, order);
+		return commandClient.send(stringBuilder.toString()).thenApply(Integer::valueOf);
+	}
+
+	/**
+	 * Creates commands to execute a batch of trades and sends them to the exchange, one command
+	 * per {@value #MAX_TRADES_PER_COMMAND} orders. The commands are pipelined, so the batch costs
+	 * a single round trip.
+	 * 
+	 * @param orders
+	 *            the orders to execute
+	 * @return the prices the orders were executed at, by position in the batch;
+	 *         {@link #TRADE_FAILED} for each order of a command which failed, as whether it was
+	 *         executed is unknown
+	 */
+	@Override
+	public int[] executeTrades(final List<? extends Order> orders) {
+		final List<CompletableFuture<int[]>> commands = new ArrayList<CompletableFuture<int[]>>();
+		for (int from = 0; from < orders.size(); from += MAX_TRADES_PER_COMMAND) {
+			final List<? extends Order> batch = orders.subList(from, Math.min(orders.size(),
+					from + MAX_TRADES_PER_COMMAND));
+			commands.add(binaryProtocol ? executeTradesBinary(batch) : executeTradesText(batch));
+		}
+		final int[] executionPrices = new int[orders.size()];
+		int from = 0;
+		for (CompletableFuture<int[]> command : commands) {
+			final int[] prices = await(command, null, ProtocolConstants.EXECUTE_TRADES_CMD);
+			final int count = Math.min(MAX_TRADES_PER_COMMAND, orders.size() - from);
+			if (prices != null) {
+				System.arraycopy(prices, 0, executionPrices, from, count);
+			} else {
+				Arrays.fill(executionPrices, from, from + count, TRADE_FAILED);
+			}
+			from += count;
+		}
+		return executionPrices;
+	}
+
+	/**
+	 * Sends a text command executing a batch of trades.
+	 * 
+	 * @param orders
+	 *            the orders to execute
+	 * @return completed with the prices the orders were executed at
+	 */
+	private CompletableFuture<int[]> executeTradesText(final List<? extends Order> orders) {
+		StringBuilder stringBuilder = new StringBuilder();
+		stringBuilder.append(ProtocolConstants.EXECUTE_TRADES_CMD);
+		stringBuilder.append(ProtocolConstants.ELEMENT_DELIMITER);
+		stringBuilder.append(orders.size());
+		for (Order order : orders) {
+			appendOrder(stringBuilder, order);
+		}
+		return commandClient.send(stringBuilder.toString()).thenApply((response) -> {
+			final String[] serverExecutionPriceResponses = response
+					.split(ProtocolConstants.ELEMENT_DELIMITER.toString());
+			final int[] prices = new int[orders.size()];
+			for (int i = 0; i < prices.length; i++) {
+				prices[i] = Integer.parseInt(serverExecutionPriceResponses[i]);
+			}
+			return prices;
+		});
+	}
+
+	/**
+	 * Sends a binary command executing a batch of trades. A batch with an order for a stock which
+	 * cannot be encoded is sent one order at a time instead, skipping those orders.
+	 * 
+	 * @param orders
+	 *            the orders to execute
+	 * @return completed with the prices the orders were executed at, 0 if not executed
+	 */
+	private CompletableFuture<int[]> executeTradesBinary(final List<? extends Order> orders) {
+		final byte[][] accountIDs = new byte[orders.size()][];
+		int payloadLength = 4;
+		for (int i = 0; i < accountIDs.length; i++) {
+			final Order order = orders.get(i);
+			if (!BinaryProtocol.isEncodable(order.getStockTicker())) {
+				return executeEach(orders);
+			}
+			accountIDs[i] = order.getAccountId().getBytes(BINARY_CHARSET);
+			payloadLength += BinaryProtocol.ORDER_BYTES + accountIDs[i].length;
+		}
+		final ByteBuffer frame = commandClient.newFrame(BinaryProtocol.OP_EXECUTE_TRADES, payloadLength);
+		frame.putInt(accountIDs.length);
+		for (int i = 0; i < accountIDs.length; i++) {
+			BinaryProtocol.putOrder(frame, orders.get(i), accountIDs[i]);
+		}
+		return commandClient.send(frame).thenApply((payload) -> {
+			final int[] prices = new int[payload.getInt()];
+			for (int i = 0; i < prices.length; i++) {
+				prices[i] = payload.getInt();
+			}
+			return prices;
+		});
+	}
+
+	/**
+	 * Sends one trade command per order, pipelined.
+	 * 
+	 * @param orders
+	 *            the orders to execute
+	 * @return completed with the prices the orders were executed at, once all are;
+	 *         {@link #TRADE_FAILED} for an order whose command failed
+	 */
+	private CompletableFuture<int[]> executeEach(final List<? extends Order> orders) {
+		final List<CompletableFuture<Integer>> trades = new ArrayList<CompletableFuture<Integer>>(orders.size());
+		for (Order order : orders) {
+			trades.add(executeTradeAsync(order).exceptionally((e) -> {
+				LOG.error("Could not issue command: " + ProtocolConstants.EXECUTE_TRADE_CMD, e);
+				return TRADE_FAILED;
+			}));
+		}
+		return CompletableFuture.allOf(trades.toArray(new CompletableFuture<?>[trades.size()]))
+				.thenApply((done) -> {
+					final int[] prices = new int[trades.size()];
+					for (int i = 0; i < prices.length; i++) {
+						prices[i] = trades.get(i).join();
+					}
+					return prices;
+				});
+	}
+
+	/**
+	 * Appends the elements of an order to a trade command; type, account, symbol and shares, each
+	 * preceded by the delimiter.
+	 * 
+	 * @param stringBuilder
+	 *            the command being built
+	 * @param order
+	 *            the order
+	 */
+	private static void appendOrder(final StringBuilder stringBuilder, final Order order) {
+		String orderType = order.isBuyOrder() ? ProtocolConstants.BUY_ORDER.toString()
+				: ProtocolConstants.SELL_ORDER.toString();
 		stringBuilder.append(ProtocolConstants.ELEMENT_DELIMITER);
 		stringBuilder.append(orderType);
 		stringBuilder.append(ProtocolConstants.ELEMENT_DELIMITER);
@@ -167,30 +969,81 @@ public final class ExchangeNetworkProxy implements StockExchange {
 		stringBuilder.append(order.getStockTicker());
 		stringBuilder.append(ProtocolConstants.ELEMENT_DELIMITER);
 		stringBuilder.append(order.getNumberOfShares());
-		String serverExecutionPriceResponse = issueCommand(stringBuilder.toString());
-		return Integer.parseInt(serverExecutionPriceResponse);
 	}
 
 	/**
-	 * Issues a command to a server via a socket and accepts a reply
+	 * Sends a command requesting the state of the exchange and the price of each stock, from
+	 * which missed events are recovered.
+	 * 
+	 * @return completed with the snapshot
+	 */
+	private CompletableFuture<ExchangeSnapshot> fetchSnapshot() {
+		final CompletableFuture<ExchangeSnapshot> snapshot;
+		if (binaryProtocol) {
+			snapshot = commandClient.send(commandClient.newFrame(BinaryProtocol.OP_SNAPSHOT, 0))
+					.thenApply((payload) -> {
+						final boolean open = payload.get() != 0;
+						final int count = payload.getInt();
+						final Map<String, Integer> prices = new LinkedHashMap<String, Integer>(count * 2);
+						for (int i = 0; i < count; i++) {
+							prices.put(BinaryProtocol.unpackTicker(payload.getInt()), payload.getInt());
+						}
+						return new ExchangeSnapshot(open, prices);
+					});
+		} else {
+			snapshot = commandClient.send(ProtocolConstants.SNAPSHOT_CMD.toString()).thenApply((response) -> {
+				final String[] elements = response.split(ProtocolConstants.ELEMENT_DELIMITER.toString());
+				final Map<String, Integer> prices = new LinkedHashMap<String, Integer>(elements.length);
+				for (int i = 1; i + 1 < elements.length; i += 2) {
+					prices.put(elements[i], Integer.valueOf(elements[i + 1]));
+				}
+				return new ExchangeSnapshot(ProtocolConstants.OPEN_STATE.toString().equals(elements[0]), prices);
+			});
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Waits for the response to a command whose failure must reach the caller.
 	 * 
-	 * @param clientRequest
-	 *            the command to send to the server
+	 * @param response
+	 *            the pending response
+	 * @param command
+	 *            the command, for logging
+	 * @return the response
+	 * @throws CompletionException
+	 *             if the command fails
+	 * @throws CancellationException
+	 *             if the command is cancelled, e.g. the connection is closed
 	 */
-	private String issueCommand(final String clientRequest) {
-		String serverResponse = null;
+	private <T> T require(final CompletableFuture<T> response, final ProtocolConstants command) {
 		try {
-			//closing the output stream will close the associated socket. We want to leave it open for future commands
-			PrintWriter writer = new PrintWriter(new OutputStreamWriter(commandsSocket.getOutputStream()), true);
-			BufferedReader reader = new BufferedReader(
-					new InputStreamReader(commandsSocket.getInputStream()));
-			writer.println(clientRequest);
-			serverResponse = reader.readLine();
-		} catch (IOException e) {
-			LOG.error("Could not issue command: " + clientRequest);
-			e.printStackTrace();
+			return response.join();
+		} catch (CompletionException | CancellationException e) {
+			LOG.error("Could not issue command: " + command, e.getCause());
+			throw e;
+		}
+	}
+
+	/**
+	 * Waits for the response to a command, for callers with a meaningful fallback (e.g. refreshing
+	 * a cache) should it fail.
+	 * 
+	 * @param response
+	 *            the pending response
+	 * @param failedValue
+	 *            value returned if the command fails
+	 * @param command
+	 *            the command, for logging
+	 * @return the response, or failedValue
+	 */
+	private <T> T await(final CompletableFuture<T> response, final T failedValue, final ProtocolConstants command) {
+		try {
+			return response.join();
+		} catch (CompletionException | CancellationException e) {
+			LOG.error("Could not issue command: " + command, e.getCause());
+			return failedValue;
 		}
-		return serverResponse;
 	}
 
 	/**
@@ -201,7 +1054,9 @@ public final class ExchangeNetworkProxy implements StockExchange {
 	 */
 	@Override
 	public void addExchangeListener(final ExchangeListener listener) {
-		exchangeListeners.add(listener);
+		final int capacity = listenerQueueCapacity;
+		exchangeListeners.computeIfAbsent(listener, (added) -> capacity > 0
+				? new ListenerQueue(added, capacity, listenerOverflowPolicy) : added);
 	}
 
 	/**
@@ -212,21 +1067,104 @@ public final class ExchangeNetworkProxy implements StockExchange {
 	 */
 	@Override
 	public void removeExchangeListener(final ExchangeListener listener) {
-		exchangeListeners.remove(listener);
+		final ExchangeListener removed = exchangeListeners.remove(listener);
+		if (removed instanceof ListenerQueue) {
+			((ListenerQueue) removed).close();
+		}
+	}
+
+	/**
+	 * Gives each listener added afterwards a bounded event queue and a delivery thread of its own,
+	 * so the receive thread only queues events, and a slow listener delays neither the others nor
+	 * the draining of the multicast socket.
+	 * 
+	 * @param capacity
+	 *            number of undelivered events held per listener before the policy applies, 0 to
+	 *            fire events on the receive thread
+	 * @param policy
+	 *            what a full queue does with an event
+	 */
+	void queueListeners(final int capacity, final OverflowPolicy policy) {
+		listenerOverflowPolicy = policy;
+		listenerQueueCapacity = capacity;
+	}
+
+	/**
+	 * Gets the number of events waiting to be delivered to a listener.
+	 * 
+	 * @param listener
+	 *            a registered listener
+	 * @return the queue depth, 0 if the listener has no queue
+	 */
+	public int getQueueDepth(final ExchangeListener listener) {
+		final ExchangeListener registered = exchangeListeners.get(listener);
+		return registered instanceof ListenerQueue ? ((ListenerQueue) registered).getDepth() : 0;
+	}
+
+	/**
+	 * Gets the number of events a listener's queue has discarded, or replaced by a later price
+	 * change, under its overflow policy.
+	 * 
+	 * @param listener
+	 *            a registered listener
+	 * @return the count, 0 if the listener has no queue
+	 */
+	public long getDroppedEvents(final ExchangeListener listener) {
+		final ExchangeListener registered = exchangeListeners.get(listener);
+		return registered instanceof ListenerQueue ? ((ListenerQueue) registered).getDroppedCount() : 0;
 	}
 
 	/**
 	 * Client-side class. Listens for events by joining the mulitcast group. Processes events
 	 * received from a {@link StockExchange}. Processing the events consists of propogating them to
-	 * registered listeners.
+	 * registered listeners. A gap in the events' sequence numbers means events were lost; the
+	 * state of the exchange is then fetched with [SNAPSHOT_CMD], and whatever differs from the
+	 * events received is fired to the listeners. Each event group is sequenced on its own; a
+	 * datagram is attributed to group 0 if a state event, otherwise to the group of its first
+	 * stock, and dropped if that group was not joined. Datagrams are decoded in place by an
+	 * {@link EventDecoder}, and the opened and closed events, which carry no data, are fired as one
+	 * shared instance each; a price change allocates only the event fired for it.
 	 * 
 	 * @author AndrewStefanich
 	 * @see ExchangeListener
 	 */
 	final class EventProcessor implements Runnable {
 
-		/** buffer size for UDP packets/messages */
-		private static final int BUFFER_SIZE = 512;
+		/** sequence number of the last event received from each event group, by group; -1 before the first */
+		private long[] lastSequences = { -1 };
+
+		/** whether the exchange is open, as last fired; {@code null} if not yet known */
+		private Boolean lastOpen;
+
+		/** price of each stock, as last fired; one-element arrays, updated in place */
+		private final Map<String, int[]> lastPrices = new HashMap<String, int[]>();
+
+		/** number of snapshots requested; a snapshot is applied only if none was requested after it */
+		private long recoveries;
+
+		/** whether a snapshot is awaited */
+		private boolean recovering;
+
+		/** {@link System#nanoTime()} at which the awaited snapshot was requested */
+		private long recoveryRequestedNanos;
+
+		/** whether events were missed again while a snapshot was awaited */
+		private boolean recoverAgain;
+
+		/** whether the state was fired since the awaited snapshot was requested */
+		private boolean stateChangedWhileRecovering;
+
+		/** ticker symbols of the prices fired since the awaited snapshot was requested */
+		private final Set<String> changedWhileRecovering = new HashSet<String>();
+
+		/** decodes the received datagrams */
+		private final EventDecoder decoder = new EventDecoder();
+
+		/** the event fired whenever the exchange opens */
+		private final ExchangeEvent openedEvent = ExchangeEvent.newOpenedEvent(this);
+
+		/** the event fired whenever the exchange closes */
+		private final ExchangeEvent closedEvent = ExchangeEvent.newClosedEvent(this);
 
 		/**
 		 * Continually receives and processes UDP transmissions.
@@ -247,53 +1185,275 @@ public final class ExchangeNetworkProxy implements StockExchange {
 		}
 
 		/**
-		 * Reads and processes events as byte arrays, and fires to registered listeners.
+		 * Decodes and processes an event in place, and fires it to registered listeners.
 		 * 
 		 * @param packet
 		 *            {@code DatagramPacket} to process
 		 */
-		private void processEventPacket(final DatagramPacket packet) {
-			final String packetString = new String(packet.getData(), 0, packet.getLength(),
-					Charset.forName(ProtocolConstants.ENCODING.toString()));
-			final String[] tokens = packetString.split(ProtocolConstants.ELEMENT_DELIMITER.toString());
-			final ProtocolConstants eventArg = ProtocolConstants
-					.valueOf(tokens[(Integer) ProtocolConstants.EVENT_ELEMENT.getValue()].toString());
-			ExchangeEvent event = null;
-
+		private synchronized void processEventPacket(final DatagramPacket packet) {
+			decoder.reset(packet.getData(), packet.getOffset(), packet.getLength());
+			decoder.nextElement();
+			final ProtocolConstants eventArg = decoder.eventType();
+			if (eventArg == null) {
+				LOG.warn(String.format("Event type not found: %s", decoder.element()));
+				return;
+			}
+			long sequence = -1;  //none if sent by an older exchange
+			int group = 0;
 			EVENTTYPE: switch (eventArg) {
 
 			case OPEN_EVENT:
-				event = ExchangeEvent.newOpenedEvent(this);
-				for (ExchangeListener listener : exchangeListeners) {
-					listener.exchangeOpened(event);
-				}
+				fireStateChanged(true, System.nanoTime());
+				sequence = nextSequence();
 				break EVENTTYPE;
 
 			case CLOSED_EVENT:
-				event = ExchangeEvent.newClosedEvent(this);
-				for (ExchangeListener listener : exchangeListeners) {
-					listener.exchangeClosed(event);
-				}
+				fireStateChanged(false, System.nanoTime());
+				sequence = nextSequence();
 				break EVENTTYPE;
 
 			case PRICE_CHANGE_EVENT:
-				final String ticker = tokens[(Integer) ProtocolConstants.PRICE_CHANGE_EVENT_TICKER_ELEMENT
-						.getValue()];
-				final int price = Integer
-						.parseInt(tokens[(Integer) ProtocolConstants.PRICE_CHANGE_EVENT_PRICE_ELEMENT.getValue()]);
-				event = ExchangeEvent.newPriceChangedEvent(this, ticker, price);
-				for (ExchangeListener listener : exchangeListeners) {
-					listener.priceChanged(event);
+				decoder.nextElement();
+				final String ticker = decoder.ticker();
+				group = groupOf(ticker);
+				if (!isReceived(group)) {
+					return;  //sent to a group not joined, received as it shares the port
+				}
+				decoder.nextElement();
+				firePriceChanged(ticker, (int) decoder.number(), System.nanoTime());
+				sequence = nextSequence();
+				break EVENTTYPE;
+
+			case PRICE_CHANGES_EVENT:
+				//ticker, price pairs, in the order the prices changed; a lone last element is the sequence number
+				while (decoder.nextElement()) {
+					if (!decoder.hasNext()) {
+						sequence = decoder.number();
+						break EVENTTYPE;
+					}
+					final String changed = decoder.ticker();
+					if (group == 0) {
+						group = groupOf(changed);
+						if (!isReceived(group)) {
+							return;  //sent to a group not joined, received as it shares the port
+						}
+					}
+					decoder.nextElement();
+					firePriceChanged(changed, (int) decoder.number(), System.nanoTime());
+				}
+				break EVENTTYPE;
+
+			case TICKERS_CHANGED_EVENT:
+				if (stateCache != null) {
+					stateCache.updateTickers(null, System.nanoTime()); //fetched again when next needed
+				}
+				if (commandClient != null) {
+					rejoinEventGroups();  //a new stock may be sharded to a group not joined
 				}
+				sequence = nextSequence();
 				break EVENTTYPE;
 
 			default:
-				LOG.warn(String.format("Event type not found: ", eventArg));
+				LOG.warn(String.format("Event type not found: %s", eventArg));
 				break EVENTTYPE;
 
 			} //end of EVENTTYPE switch/case
+			checkSequence(group, sequence);
 		} //end of processEventPacket()
 
+		/**
+		 * Decodes the sequence number following the elements of an event.
+		 * 
+		 * @return the sequence number, -1 if the event has none
+		 */
+		private long nextSequence() {
+			return decoder.nextElement() ? decoder.number() : -1;
+		}
+
+		/**
+		 * Checks an event's sequence number follows the last one received from its group, recovering
+		 * from a snapshot if not. A lower number than expected means the exchange restarted, which is
+		 * recovered from in the same way.
+		 * 
+		 * @param group
+		 *            event group the event was received from, -1 if not known
+		 * @param sequence
+		 *            sequence number of the event just processed, -1 if none
+		 */
+		private void checkSequence(final int group, final long sequence) {
+			if (sequence < 0 || group < 0) {
+				return;
+			}
+			if (group >= lastSequences.length) {
+				final int from = lastSequences.length;
+				lastSequences = Arrays.copyOf(lastSequences, group + 1);
+				Arrays.fill(lastSequences, from, lastSequences.length, -1);
+			}
+			final long expected = lastSequences[group] + 1;
+			final boolean first = lastSequences[group] < 0;
+			lastSequences[group] = sequence;
+			if (first || sequence == expected) {
+				return;
+			}
+			if (sequence > expected) {
+				LOG.warn(String.format("Missed %d events (%d to %d) of group %d, recovering from a snapshot",
+						sequence - expected, expected, sequence - 1, group));
+			} else {
+				LOG.warn(String.format("Event sequence of group %d restarted at %d, recovering from a snapshot", group,
+						sequence));
+			}
+			recover();
+		}
+
+		/**
+		 * Requests a snapshot of the exchange without waiting for it, so the receive thread keeps
+		 * firing the events received meanwhile. If a snapshot is already awaited, it is requested
+		 * again once applied, or at once if it has not arrived in time.
+		 */
+		private void recover() {
+			if (commandClient == null) {
+				return;  //still connecting, the caches are filled once connected
+			}
+			final long requestedNanos = System.nanoTime();
+			if (recovering) {
+				if (requestedNanos - recoveryRequestedNanos < RECOVERY_TIMEOUT_NANOS) {
+					recoverAgain = true;
+					return;
+				}
+				LOG.warn("Snapshot not received in time, requesting another");
+			}
+			final long recovery = ++recoveries;
+			recovering = true;
+			recoveryRequestedNanos = requestedNanos;
+			recoverAgain = false;
+			stateChangedWhileRecovering = false;
+			changedWhileRecovering.clear();
+			fetchSnapshot().whenCompleteAsync((snapshot, e) -> applySnapshot(recovery, snapshot, e, requestedNanos),
+					threadPool);
+		}
+
+		/**
+		 * Fires whatever in a snapshot differs from the events received. The state and prices fired
+		 * since the snapshot was requested are newer, and kept. Prices of stocks in groups not
+		 * joined are not fired.
+		 * 
+		 * @param recovery
+		 *            number of the snapshot, ignored if another was requested after it
+		 * @param snapshot
+		 *            the snapshot, {@code null} if the command failed
+		 * @param failure
+		 *            why the command failed, {@code null} if it did not
+		 * @param requestedNanos
+		 *            {@link System#nanoTime()} at which the snapshot was requested
+		 */
+		private synchronized void applySnapshot(final long recovery, final ExchangeSnapshot snapshot,
+				final Throwable failure, final long requestedNanos) {
+			if (recovery != recoveries) {
+				return;  //superseded
+			}
+			recovering = false;
+			if (failure != null) {
+				LOG.error("Could not issue command: " + ProtocolConstants.SNAPSHOT_CMD, failure);
+			} else {
+				if (stateCache != null) {
+					stateCache.updateTickers(null, requestedNanos);  //a listing may have changed too
+				}
+				if (!stateChangedWhileRecovering && (lastOpen == null || lastOpen != snapshot.isOpen())) {
+					if (lastOpen != null) {
+						fireStateChanged(snapshot.isOpen(), requestedNanos);
+					} else if (stateCache != null) {
+						stateCache.updateOpen(snapshot.isOpen(), requestedNanos);
+					}
+					lastOpen = snapshot.isOpen();
+				}
+				for (Map.Entry<String, Integer> price : snapshot.getPrices().entrySet()) {
+					if (changedWhileRecovering.contains(price.getKey()) || !isReceived(groupOf(price.getKey()))) {
+						continue;
+					}
+					final int[] lastPrice = lastPrices.get(price.getKey());
+					if (lastPrice == null || lastPrice[0] != price.getValue()) {
+						firePriceChanged(price.getKey(), price.getValue(), requestedNanos);
+					}
+				}
+			}
+			changedWhileRecovering.clear();
+			if (recoverAgain) {
+				recover();
+			}
+		}
+
+		/**
+		 * Fires the prices of newly subscribed stocks not yet fired, so listeners start from their
+		 * current price.
+		 * 
+		 * @param quotes
+		 *            the quotes of the stocks, by ticker symbol
+		 * @param requestedNanos
+		 *            {@link System#nanoTime()} at which the quotes were requested
+		 */
+		synchronized void catchUp(final Map<String, StockQuote> quotes, final long requestedNanos) {
+			for (StockQuote quote : quotes.values()) {
+				if (!lastPrices.containsKey(quote.getTicker())) {
+					firePriceChanged(quote.getTicker(), quote.getPrice(), requestedNanos);
+				}
+			}
+		}
+
+		/**
+		 * Records the exchange opening or closing in the state cache, and fires it to registered
+		 * listeners.
+		 * 
+		 * @param open
+		 *            true if the exchange opened, false if it closed
+		 * @param confirmedNanos
+		 *            {@link System#nanoTime()} at which the state was known to be current
+		 */
+		private void fireStateChanged(final boolean open, final long confirmedNanos) {
+			lastOpen = open;
+			stateChangedWhileRecovering |= recovering;
+			if (stateCache != null) {
+				stateCache.updateOpen(open, confirmedNanos);
+			}
+			if (open) {
+				for (ExchangeListener listener : exchangeListeners.values()) {
+					listener.exchangeOpened(openedEvent);
+				}
+			} else {
+				for (ExchangeListener listener : exchangeListeners.values()) {
+					listener.exchangeClosed(closedEvent);
+				}
+			}
+		}
+
+		/**
+		 * Records a price change in the quote cache, and fires it to registered listeners.
+		 * 
+		 * @param ticker
+		 *            ticker symbol of the stock
+		 * @param price
+		 *            the new price
+		 * @param confirmedNanos
+		 *            {@link System#nanoTime()} at which the price was known to be current
+		 */
+		private void firePriceChanged(final String ticker, final int price, final long confirmedNanos) {
+			if (recovering) {
+				changedWhileRecovering.add(ticker);
+			}
+			final int[] lastPrice = lastPrices.get(ticker);
+			if (lastPrice == null) {
+				lastPrices.put(ticker, new int[] { price });
+			} else {
+				lastPrice[0] = price;
+			}
+			if (quoteCache != null) {
+				quoteCache.update(new StockQuote(ticker, price), confirmedNanos);
+			}
+			final ExchangeEvent event = ExchangeEvent.newPriceChangedEvent(this, ticker, price);
+			for (ExchangeListener listener : exchangeListeners.values()) {
+				listener.priceChanged(event);
+			}
+		}
+
 	} //END OF EventProcessor CLASS
 
 } //END OF ExchangeNetworkProxy CLASS	
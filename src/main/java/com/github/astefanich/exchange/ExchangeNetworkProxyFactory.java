@@ -13,6 +13,165 @@ import edu.uw.ext.framework.exchange.StockExchange;
  */
 public final class ExchangeNetworkProxyFactory implements NetworkExchangeProxyFactory {
 
+	/** whether new proxies negotiate the binary command protocol */
+	private boolean binaryProtocol;
+
+	/** longest time new proxies serve a cached price without confirmation, 0 disables caching */
+	private long quoteMaxAgeMillis;
+
+	/** longest time new proxies serve the cached state and tickers unconfirmed, 0 disables caching */
+	private long stateMaxAgeMillis;
+
+	/** capacity of each listener's event queue in new proxies, 0 fires events on the receive thread */
+	private int listenerQueueCapacity;
+
+	/** what a full listener queue does with an event, in new proxies */
+	private OverflowPolicy listenerOverflowPolicy = OverflowPolicy.BLOCK;
+
+	/** whether new proxies join only the event groups of the stocks subscribed to */
+	private boolean selectiveSubscription;
+
+	/**
+	 * Sets whether subsequently created proxies send commands as compact {@link BinaryProtocol}
+	 * frames. A proxy falls back to text if the exchange does not acknowledge the switch.
+	 * 
+	 * @param binaryProtocol
+	 *            true for binary frames, false (the default) for text lines
+	 */
+	public void setBinaryProtocol(final boolean binaryProtocol) {
+		this.binaryProtocol = binaryProtocol;
+	}
+
+	/**
+	 * Gets whether new proxies negotiate the binary command protocol.
+	 * 
+	 * @return true for binary frames, false for text lines
+	 */
+	public boolean isBinaryProtocol() {
+		return binaryProtocol;
+	}
+
+	/**
+	 * Sets how long subsequently created proxies may serve a stock's last known price without it
+	 * being confirmed by a price change event or the exchange. With a positive bound, proxies load
+	 * every quote when connecting and keep them current from the multicast events, serving
+	 * {@code getQuote} from memory; with 0, every quote is a round trip to the exchange.
+	 * 
+	 * @param quoteMaxAgeMillis
+	 *            the bound in milliseconds, 0 (the default) to disable caching
+	 */
+	public void setQuoteMaxAgeMillis(final long quoteMaxAgeMillis) {
+		if (quoteMaxAgeMillis < 0) {
+			throw new IllegalArgumentException("quoteMaxAgeMillis must not be negative: " + quoteMaxAgeMillis);
+		}
+		this.quoteMaxAgeMillis = quoteMaxAgeMillis;
+	}
+
+	/**
+	 * Gets how long new proxies may serve a cached price without confirmation.
+	 * 
+	 * @return the bound in milliseconds, 0 if caching is disabled
+	 */
+	public long getQuoteMaxAgeMillis() {
+		return quoteMaxAgeMillis;
+	}
+
+	/**
+	 * Sets how long subsequently created proxies may serve the exchange's last known open/closed
+	 * state and ticker symbols without them being confirmed by an event or the exchange. With a
+	 * positive bound, {@code isOpen} and {@code getTickers} are served from memory, kept current
+	 * by the multicast open, closed and tickers changed events; with 0, each call is a round trip
+	 * to the exchange.
+	 * 
+	 * @param stateMaxAgeMillis
+	 *            the bound in milliseconds, 0 (the default) to disable caching
+	 */
+	public void setStateMaxAgeMillis(final long stateMaxAgeMillis) {
+		if (stateMaxAgeMillis < 0) {
+			throw new IllegalArgumentException("stateMaxAgeMillis must not be negative: " + stateMaxAgeMillis);
+		}
+		this.stateMaxAgeMillis = stateMaxAgeMillis;
+	}
+
+	/**
+	 * Gets how long new proxies may serve the cached state and tickers without confirmation.
+	 * 
+	 * @return the bound in milliseconds, 0 if caching is disabled
+	 */
+	public long getStateMaxAgeMillis() {
+		return stateMaxAgeMillis;
+	}
+
+	/**
+	 * Sets the capacity of the event queue each listener of subsequently created proxies is given.
+	 * With a positive capacity, each listener has its own queue and delivery thread, and the
+	 * multicast receive thread only queues events; with 0, listeners are called on the receive
+	 * thread, one after another.
+	 * 
+	 * @param listenerQueueCapacity
+	 *            undelivered events held per listener, 0 (the default) for no queues
+	 */
+	public void setListenerQueueCapacity(final int listenerQueueCapacity) {
+		if (listenerQueueCapacity < 0) {
+			throw new IllegalArgumentException("listenerQueueCapacity must not be negative: " + listenerQueueCapacity);
+		}
+		this.listenerQueueCapacity = listenerQueueCapacity;
+	}
+
+	/**
+	 * Gets the capacity of each listener's event queue in new proxies.
+	 * 
+	 * @return undelivered events held per listener, 0 if listeners have no queues
+	 */
+	public int getListenerQueueCapacity() {
+		return listenerQueueCapacity;
+	}
+
+	/**
+	 * Sets what a full listener queue of subsequently created proxies does with an event.
+	 * 
+	 * @param listenerOverflowPolicy
+	 *            the policy, {@link OverflowPolicy#BLOCK} by default
+	 */
+	public void setListenerOverflowPolicy(final OverflowPolicy listenerOverflowPolicy) {
+		if (listenerOverflowPolicy == null) {
+			throw new IllegalArgumentException("listenerOverflowPolicy must not be null");
+		}
+		this.listenerOverflowPolicy = listenerOverflowPolicy;
+	}
+
+	/**
+	 * Gets what a full listener queue of new proxies does with an event.
+	 * 
+	 * @return the policy
+	 */
+	public OverflowPolicy getListenerOverflowPolicy() {
+		return listenerOverflowPolicy;
+	}
+
+	/**
+	 * Sets whether subsequently created proxies join only the event groups of the stocks
+	 * {@link ExtendedStockExchange#subscribe(String...) subscribed} to, when the exchange shards
+	 * its price changes over several groups. Listeners then receive the price changes of those
+	 * groups' stocks only; otherwise every group is joined.
+	 * 
+	 * @param selectiveSubscription
+	 *            true to join the groups of subscribed stocks, false (the default) to join every
+	 *            group
+	 */
+	public void setSelectiveSubscription(final boolean selectiveSubscription) {
+		this.selectiveSubscription = selectiveSubscription;
+	}
+
+	/**
+	 * Gets whether new proxies join only the event groups of the stocks subscribed to.
+	 * 
+	 * @return true if only the groups of subscribed stocks are joined
+	 */
+	public boolean isSelectiveSubscription() {
+		return selectiveSubscription;
+	}
+
 	/**
 	 * Instantiates an {@code ExchangeNetworkProxy}.
 	 * 
@@ -28,7 +187,12 @@ public final class ExchangeNetworkProxyFactory implements NetworkExchangeProxyFa
 	 */
 	@Override
 	public StockExchange newProxy(String multicastIP, int multicastPort, String commandIP, int commandPort) {
-		return new ExchangeNetworkProxy(multicastIP, multicastPort, commandIP, commandPort);
+		final ExchangeNetworkProxy proxy = new ExchangeNetworkProxy(multicastIP, multicastPort, commandIP,
+				commandPort, binaryProtocol, quoteMaxAgeMillis, stateMaxAgeMillis, selectiveSubscription);
+		if (listenerQueueCapacity > 0) {
+			proxy.queueListeners(listenerQueueCapacity, listenerOverflowPolicy);
+		}
+		return proxy;
 	}
 
 }
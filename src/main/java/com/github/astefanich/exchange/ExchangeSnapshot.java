@@ -0,0 +1,52 @@
+package com.github.astefanich.exchange;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Immutable state of an exchange, as returned by [SNAPSHOT_CMD]; whether it is open, and the
+ * price of each stock traded.
+ *
+ * @author AndrewStefanich
+ * @see ExchangeNetworkProxy
+ */
+final class ExchangeSnapshot {
+
+	/** whether the exchange is open */
+	private final boolean open;
+
+	/** price of each stock, by ticker symbol */
+	private final Map<String, Integer> prices;
+
+	/**
+	 * Constructs an ExchangeSnapshot.
+	 *
+	 * @param open
+	 *            whether the exchange is open
+	 * @param prices
+	 *            price of each stock, by ticker symbol; not copied
+	 */
+	ExchangeSnapshot(final boolean open, final Map<String, Integer> prices) {
+		this.open = open;
+		this.prices = Collections.unmodifiableMap(prices);
+	}
+
+	/**
+	 * Gets whether the exchange is open.
+	 *
+	 * @return true if open
+	 */
+	boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Gets the price of each stock.
+	 *
+	 * @return unmodifiable map of prices, by ticker symbol, in the exchange's order
+	 */
+	Map<String, Integer> getPrices() {
+		return prices;
+	}
+
+} //END OF ExchangeSnapshot CLASS
@@ -0,0 +1,148 @@
+package com.github.astefanich.exchange;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Last known open/closed state and ticker symbols of an exchange, as seen by an
+ * {@link ExchangeNetworkProxy}; filled from the command connection and kept current by the
+ * [OPEN_EVENT], [CLOSED_EVENT] and [TICKERS_CHANGED_EVENT] multicasts. Each value is served only
+ * while it was confirmed within the staleness bound, and is only replaced by a value confirmed
+ * later, so a response to a request sent before an event cannot undo the event.
+ *
+ * @author AndrewStefanich
+ * @see ExchangeNetworkProxy
+ * @see QuoteCache
+ */
+final class ExchangeStateCache {
+
+	/** longest time a value is served without being confirmed (in nanoseconds) */
+	private final long maxAgeNanos;
+
+	/** whether the exchange is open */
+	private final AtomicReference<Entry<Boolean>> open = new AtomicReference<Entry<Boolean>>();
+
+	/** the ticker symbols, an entry with no value once they are known to have changed */
+	private final AtomicReference<Entry<String[]>> tickers = new AtomicReference<Entry<String[]>>();
+
+	/**
+	 * Constructs an ExchangeStateCache.
+	 *
+	 * @param maxAgeMillis
+	 *            longest time a value is served without being confirmed (in milliseconds)
+	 */
+	ExchangeStateCache(final long maxAgeMillis) {
+		this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+	}
+
+	/**
+	 * Gets whether the exchange is open, if known recently enough.
+	 *
+	 * @return the state, {@code null} if unknown or stale
+	 */
+	Boolean isOpen() {
+		return get(open);
+	}
+
+	/**
+	 * Records the state of the exchange.
+	 *
+	 * @param isOpen
+	 *            whether the exchange is open
+	 * @param confirmedNanos
+	 *            {@link System#nanoTime()} at which the state was known to be current; for a
+	 *            state fetched over the wire, when it was requested
+	 */
+	void updateOpen(final boolean isOpen, final long confirmedNanos) {
+		update(open, isOpen, confirmedNanos);
+	}
+
+	/**
+	 * Gets the ticker symbols, if known recently enough.
+	 *
+	 * @return the cached array, which must not be modified; {@code null} if unknown, stale or
+	 *         changed
+	 */
+	String[] getTickers() {
+		return get(tickers);
+	}
+
+	/**
+	 * Records the ticker symbols of the exchange.
+	 *
+	 * @param symbols
+	 *            the ticker symbols, not modified afterwards; {@code null} if they have changed
+	 * @param confirmedNanos
+	 *            {@link System#nanoTime()} at which the symbols were known to be current (or to
+	 *            have changed)
+	 */
+	void updateTickers(final String[] symbols, final long confirmedNanos) {
+		update(tickers, symbols, confirmedNanos);
+	}
+
+	/**
+	 * Gets a value, if confirmed within the staleness bound.
+	 *
+	 * @param reference
+	 *            holds the value's entry
+	 * @return the value, {@code null} if unknown or stale
+	 */
+	private <T> T get(final AtomicReference<Entry<T>> reference) {
+		final Entry<T> entry = reference.get();
+		if (entry == null || System.nanoTime() - entry.confirmedNanos > maxAgeNanos) {
+			return null;
+		}
+		return entry.value;
+	}
+
+	/**
+	 * Replaces a value, unless a value confirmed later is already recorded.
+	 *
+	 * @param reference
+	 *            holds the value's entry
+	 * @param value
+	 *            the new value
+	 * @param confirmedNanos
+	 *            when the new value was known to be current
+	 */
+	private static <T> void update(final AtomicReference<Entry<T>> reference, final T value,
+			final long confirmedNanos) {
+		final Entry<T> latest = new Entry<T>(value, confirmedNanos);
+		Entry<T> current;
+		do {
+			current = reference.get();
+			if (current != null && current.confirmedNanos - confirmedNanos > 0) {
+				return;
+			}
+		} while (!reference.compareAndSet(current, latest));
+	}
+
+	/**
+	 * A value, and when it was confirmed.
+	 *
+	 * @param <T>
+	 *            the type of value
+	 */
+	private static final class Entry<T> {
+
+		/** the value */
+		private final T value;
+
+		/** {@link System#nanoTime()} at which the value was known to be current */
+		private final long confirmedNanos;
+
+		/**
+		 * Constructs an Entry.
+		 *
+		 * @param value
+		 *            the value
+		 * @param confirmedNanos
+		 *            when the value was known to be current
+		 */
+		Entry(final T value, final long confirmedNanos) {
+			this.value = value;
+			this.confirmedNanos = confirmedNanos;
+		}
+	} //END OF Entry CLASS
+
+} //END OF ExchangeStateCache CLASS
@@ -0,0 +1,56 @@
+package com.github.astefanich.exchange;
+
+import java.util.List;
+import java.util.Map;
+
+import edu.uw.ext.framework.exchange.StockExchange;
+import edu.uw.ext.framework.exchange.StockQuote;
+import edu.uw.ext.framework.order.Order;
+
+/**
+ * A {@link StockExchange} which also supports operations on many orders or stocks at once. For a network
+ * accessible exchange, each such operation costs a single round trip.
+ *
+ * @author AndrewStefanich
+ * @see ExchangeNetworkProxy
+ */
+public interface ExtendedStockExchange extends StockExchange {
+
+	/**
+	 * Execution price reported by {@link #executeTrades(List)} for an order which failed, or whose
+	 * outcome is unknown because its command failed. Such an order must not be reflected in its
+	 * account.
+	 */
+	int TRADE_FAILED = -1;
+
+	/**
+	 * Executes a batch of trades, in order. A failure of one order does not prevent the others
+	 * from executing.
+	 *
+	 * @param orders
+	 *            the orders to execute
+	 * @return the prices the orders were executed at, by position in the batch; 0 for an order
+	 *         which was not executed (e.g. the exchange is closed), {@link #TRADE_FAILED} for one
+	 *         which failed
+	 */
+	int[] executeTrades(List<? extends Order> orders);
+
+	/**
+	 * Gets the quotes of many stocks at once.
+	 *
+	 * @param tickers
+	 *            the ticker symbols of the stocks, none for every stock traded
+	 * @return the quotes of the stocks traded among those requested, by ticker symbol
+	 */
+	Map<String, StockQuote> getQuotes(String... tickers);
+
+	/**
+	 * Declares interest in the price changes of stocks. An exchange which delivers only the price
+	 * changes of the stocks subscribed to starts delivering theirs, first firing the current price
+	 * of each stock it was not already delivering; others deliver every price change regardless.
+	 *
+	 * @param tickers
+	 *            the ticker symbols of the stocks
+	 */
+	void subscribe(String... tickers);
+}
@@ -0,0 +1,270 @@
+package com.github.astefanich.exchange;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.uw.ext.framework.exchange.ExchangeEvent;
+import edu.uw.ext.framework.exchange.ExchangeListener;
+
+/**
+ * Delivers the events an {@link ExchangeNetworkProxy} receives to one listener, on a thread of its
+ * own, through a bounded ring of events; so a slow listener neither delays the other listeners nor
+ * stops the multicast socket from being drained. Events are delivered in the order received,
+ * except as the {@link OverflowPolicy} allows once the ring is full.
+ *
+ * @author AndrewStefanich
+ * @see ExchangeNetworkProxy
+ * @see OverflowPolicy
+ */
+final class ListenerQueue implements ExchangeListener {
+
+	/** kind of an exchange opened event */
+	private static final byte OPENED = 0;
+
+	/** kind of an exchange closed event */
+	private static final byte CLOSED = 1;
+
+	/** kind of a price changed event */
+	private static final byte PRICE_CHANGED = 2;
+
+	/** this class' logger */
+	private static final Logger LOG = LoggerFactory.getLogger(ListenerQueue.class);
+
+	/** the listener events are delivered to */
+	private final ExchangeListener listener;
+
+	/** what to do with an event when the ring is full */
+	private final OverflowPolicy policy;
+
+	/** undelivered events, a ring starting at head; guarded by this */
+	private final ExchangeEvent[] events;
+
+	/** the kind of each undelivered event, by slot; guarded by this */
+	private final byte[] kinds;
+
+	/** slot of the oldest undelivered event; guarded by this */
+	private int head;
+
+	/** number of undelivered events; guarded by this */
+	private int count;
+
+	/**
+	 * slot of each stock's latest undelivered price change since the last opened or closed event,
+	 * with {@link OverflowPolicy#CONFLATE}; guarded by this
+	 */
+	private final Map<String, Integer> priceChangeSlots = new HashMap<String, Integer>();
+
+	/** number of events discarded or replaced; guarded by this */
+	private long droppedCount;
+
+	/** delivers the events */
+	private final Thread deliveryThread;
+
+	/** false once closed */
+	private volatile boolean running = true;
+
+	/**
+	 * Constructs a ListenerQueue, and starts its delivery thread.
+	 *
+	 * @param listener
+	 *            the listener events are delivered to
+	 * @param capacity
+	 *            number of undelivered events held before the overflow policy applies
+	 * @param policy
+	 *            what to do with an event when the ring is full
+	 */
+	ListenerQueue(final ExchangeListener listener, final int capacity, final OverflowPolicy policy) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		}
+		this.listener = listener;
+		this.policy = policy;
+		this.events = new ExchangeEvent[capacity];
+		this.kinds = new byte[capacity];
+		this.deliveryThread = new Thread(this::deliver, "exchange-listener-" + listener);
+		deliveryThread.setDaemon(true);
+		deliveryThread.start();
+	}
+
+	/**
+	 * Queues an exchange opened event.
+	 *
+	 * @param event
+	 *            the event
+	 */
+	@Override
+	public void exchangeOpened(final ExchangeEvent event) {
+		enqueue(OPENED, event);
+	}
+
+	/**
+	 * Queues an exchange closed event.
+	 *
+	 * @param event
+	 *            the event
+	 */
+	@Override
+	public void exchangeClosed(final ExchangeEvent event) {
+		enqueue(CLOSED, event);
+	}
+
+	/**
+	 * Queues a price changed event.
+	 *
+	 * @param event
+	 *            the event
+	 */
+	@Override
+	public void priceChanged(final ExchangeEvent event) {
+		enqueue(PRICE_CHANGED, event);
+	}
+
+	/**
+	 * Adds an event to the ring, applying the overflow policy if it is full.
+	 *
+	 * @param kind
+	 *            kind of the event
+	 * @param event
+	 *            the event
+	 */
+	private synchronized void enqueue(final byte kind, final ExchangeEvent event) {
+		final boolean conflated = kind == PRICE_CHANGED && policy == OverflowPolicy.CONFLATE;
+		if (conflated && count == events.length) {
+			final Integer slot = priceChangeSlots.get(event.getTicker());
+			if (slot != null) {
+				events[slot] = event;
+				droppedCount++;
+				return;
+			}
+		}
+		while (running && count == events.length) {
+			if (policy == OverflowPolicy.DROP_OLDEST && dropOldestPriceChange()) {
+				break;
+			}
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				droppedCount++;
+				LOG.warn(String.format("Interrupted while queueing an event for %s, event dropped", listener));
+				return;
+			}
+		}
+		if (!running) {
+			return;
+		}
+		final int slot = (head + count) % events.length;
+		events[slot] = event;
+		kinds[slot] = kind;
+		count++;
+		if (conflated) {
+			priceChangeSlots.put(event.getTicker(), slot);
+		} else if (kind != PRICE_CHANGED) {
+			priceChangeSlots.clear();  //later price changes are not moved ahead of this event
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Discards the oldest undelivered price change, moving the events before it up one slot.
+	 *
+	 * @return false if there is no price change to discard
+	 */
+	private boolean dropOldestPriceChange() {
+		for (int i = 0; i < count; i++) {
+			if (kinds[(head + i) % events.length] == PRICE_CHANGED) {
+				for (int j = i; j > 0; j--) {
+					final int to = (head + j) % events.length;
+					final int from = (head + j - 1) % events.length;
+					events[to] = events[from];
+					kinds[to] = kinds[from];
+				}
+				events[head] = null;
+				head = (head + 1) % events.length;
+				count--;
+				droppedCount++;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Delivery loop. Takes the oldest event and delivers it, until closed.
+	 */
+	private void deliver() {
+		while (running) {
+			final ExchangeEvent event;
+			final byte kind;
+			synchronized (this) {
+				while (running && count == 0) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (!running) {
+					return;
+				}
+				event = events[head];
+				kind = kinds[head];
+				events[head] = null;
+				if (kind == PRICE_CHANGED && policy == OverflowPolicy.CONFLATE) {
+					priceChangeSlots.remove(event.getTicker(), head);
+				}
+				head = (head + 1) % events.length;
+				count--;
+				notifyAll();
+			}
+			try {
+				switch (kind) {
+				case OPENED:
+					listener.exchangeOpened(event);
+					break;
+				case CLOSED:
+					listener.exchangeClosed(event);
+					break;
+				default:
+					listener.priceChanged(event);
+					break;
+				}
+			} catch (RuntimeException e) {
+				LOG.error(String.format("Listener %s failed to handle an event", listener), e);
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of events waiting to be delivered.
+	 *
+	 * @return the queue depth
+	 */
+	synchronized int getDepth() {
+		return count;
+	}
+
+	/**
+	 * Gets the number of events discarded, or replaced by a later price change, under the overflow
+	 * policy.
+	 *
+	 * @return the count
+	 */
+	synchronized long getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * Stops delivering events, discarding those undelivered. An event being delivered completes.
+	 */
+	void close() {
+		running = false;
+		synchronized (this) {
+			notifyAll();
+		}
+	}
+
+} //END OF ListenerQueue CLASS
@@ -0,0 +1,574 @@
+package com.github.astefanich.exchange;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking command server for an {@link ExchangeNetworkAdapter}. One acceptor thread accepts
+ * connections on a {@link ServerSocketChannel} and hands them, round-robin, to a small fixed set
+ * of I/O threads. Each I/O thread multiplexes its connections with its own {@link Selector},
+ * reading command lines into a per-connection buffer, executing complete commands through the
+ * {@link CommandProcessor}, and writing responses from a per-connection buffer. Idle connections
+ * cost a buffer and a selection key, not a thread. A connection switched to the
+ * {@link BinaryProtocol} has its frames executed in place in the read buffer by the
+ * {@link BinaryCommandProcessor}. Connections and commands are admitted by an
+ * {@link AdmissionController}; the commands a connection has pipelined are those completed by a
+ * read, all answered before its next read, so a command past the connection's limit is answered
+ * [BUSY] in turn. A command finding no execution permit is answered [BUSY] at once, whatever the
+ * queue timeout.
+ *
+ * @author AndrewStefanich
+ * @see ExchangeNetworkAdapter
+ */
+final class NioCommandServer {
+
+	/** this class' logger */
+	private static final Logger LOG = LoggerFactory.getLogger(NioCommandServer.class);
+
+	/** initial size of a connection's read and write buffers */
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+
+	/**
+	 * longest command line accepted, a connection sending a longer one is closed. Also the most
+	 * response bytes buffered for a client before reading its commands is suspended
+	 */
+	private static final int MAX_LINE_LENGTH = 1 << 20;
+
+	/** charset of commands and responses */
+	private static final Charset CHARSET = Charset.forName(ProtocolConstants.ENCODING.toString());
+
+	/** line terminator byte */
+	private static final byte NEW_LINE = '\n';
+
+	/** carriage return, stripped from the end of a line */
+	private static final byte CARRIAGE_RETURN = '\r';
+
+	/** port for command connections. TCP */
+	private final int commandsPort;
+
+	/** executes the received commands; set when started */
+	private CommandProcessor commandProcessor;
+
+	/** executes the received binary frames; set when started */
+	private BinaryCommandProcessor binaryCommandProcessor;
+
+	/** the listening channel */
+	private final ServerSocketChannel serverChannel;
+
+	/** selector of the acceptor */
+	private final Selector acceptSelector;
+
+	/** the I/O loops */
+	private final IoLoop[] ioLoops;
+
+	/** index of the I/O loop the next connection is assigned to; only used by the acceptor */
+	private int nextIoLoop;
+
+	/** admits the connections and commands of clients, as accepted from now on */
+	private volatile AdmissionController admissionController = new AdmissionController();
+
+	/** false once the server is closed */
+	private volatile boolean running = true;
+
+	/**
+	 * Constructs a NioCommandServer, binding its listening port.
+	 *
+	 * @param commandsPort
+	 *            the port on which to listen for commands
+	 * @param ioThreads
+	 *            number of I/O threads
+	 * @throws IOException
+	 *             if the port cannot be bound
+	 */
+	NioCommandServer(final int commandsPort, final int ioThreads) throws IOException {
+		this.commandsPort = commandsPort;
+		this.serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(commandsPort));
+		serverChannel.configureBlocking(false);
+		this.acceptSelector = Selector.open();
+		serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+		this.ioLoops = new IoLoop[ioThreads];
+		for (int i = 0; i < ioThreads; i++) {
+			ioLoops[i] = new IoLoop();
+		}
+	}
+
+	/**
+	 * Starts the acceptor and the I/O loops.
+	 *
+	 * @param threadPool
+	 *            runs the acceptor and the I/O loops, must provide one thread for each
+	 * @param commandProcessor
+	 *            executes the received commands
+	 * @param binaryCommandProcessor
+	 *            executes the received binary frames
+	 */
+	void start(final Executor threadPool, final CommandProcessor commandProcessor,
+			final BinaryCommandProcessor binaryCommandProcessor) {
+		this.commandProcessor = commandProcessor;
+		this.binaryCommandProcessor = binaryCommandProcessor;
+		threadPool.execute(this::accept);
+		for (IoLoop ioLoop : ioLoops) {
+			threadPool.execute(ioLoop);
+		}
+		LOG.info(String.format("Server running, awaiting TCP connections on port # %d with %d I/O threads",
+				commandsPort, ioLoops.length));
+	}
+
+	/**
+	 * Sets the admission controller of the connections accepted from now on.
+	 *
+	 * @param admissionController
+	 *            the admission controller
+	 */
+	void setAdmissionController(final AdmissionController admissionController) {
+		this.admissionController = admissionController;
+	}
+
+	/**
+	 * Stops accepting connections, and closes every connection.
+	 */
+	void close() {
+		running = false;
+		try {
+			acceptSelector.close();
+			serverChannel.close();
+		} catch (IOException e) {
+			LOG.warn(String.format("Error closing server on port # %d", commandsPort), e);
+		}
+		for (IoLoop ioLoop : ioLoops) {
+			ioLoop.selector.wakeup();
+		}
+	}
+
+	/**
+	 * Acceptor loop. Accepts connections and assigns them to the I/O loops; a connection over the
+	 * limit is sent [BUSY] and closed.
+	 */
+	private void accept() {
+		try {
+			while (running) {
+				acceptSelector.select();
+				acceptSelector.selectedKeys().clear();
+				SocketChannel channel;
+				while ((channel = serverChannel.accept()) != null) {
+					channel.configureBlocking(false);
+					final AdmissionController admission = admissionController;
+					if (!admission.admitConnection()) {
+						refuse(channel);
+						continue;
+					}
+					ioLoops[nextIoLoop].assign(new Connection(channel, admission));
+					nextIoLoop = (nextIoLoop + 1) % ioLoops.length;
+				}
+			}
+		} catch (ClosedSelectorException e) {
+			//closed by close()
+		} catch (IOException e) {
+			if (running) {
+				LOG.warn(String.format("Server error on port # %d", commandsPort), e);
+			}
+		}
+	}
+
+	/**
+	 * Refuses a connection over the limit; sends it [BUSY], if its send buffer takes it, and closes
+	 * it.
+	 *
+	 * @param channel
+	 *            the refused, non-blocking, channel
+	 */
+	private void refuse(final SocketChannel channel) {
+		try {
+			LOG.warn(String.format("Connection from %s refused, too many connections", channel.getRemoteAddress()));
+			channel.write(ByteBuffer.wrap((ProtocolConstants.BUSY + "\n").getBytes(CHARSET)));
+		} catch (IOException e) {
+			//closing anyway
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			//closing anyway
+		}
+	}
+
+	/**
+	 * An I/O thread's loop, serving the connections assigned to it.
+	 */
+	private final class IoLoop implements Runnable {
+
+		/** this loop's selector */
+		private final Selector selector;
+
+		/** connections accepted but not yet registered with the selector */
+		private final Queue<Connection> newConnections = new ConcurrentLinkedQueue<Connection>();
+
+		/**
+		 * Constructs an IoLoop.
+		 *
+		 * @throws IOException
+		 *             if the selector cannot be opened
+		 */
+		IoLoop() throws IOException {
+			this.selector = Selector.open();
+		}
+
+		/**
+		 * Assigns a connection to this loop. Called by the acceptor.
+		 *
+		 * @param connection
+		 *            the admitted connection, its channel non-blocking
+		 */
+		void assign(final Connection connection) {
+			newConnections.add(connection);
+			selector.wakeup();
+		}
+
+		/**
+		 * Serves this loop's connections until the server is closed.
+		 */
+		@Override
+		public void run() {
+			try {
+				while (running) {
+					selector.select();
+					registerNewChannels();
+					final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						final SelectionKey key = keys.next();
+						keys.remove();
+						final Connection connection = (Connection) key.attachment();
+						try {
+							if (key.isReadable()) {
+								connection.read();
+							}
+							if (key.isValid() && key.isWritable()) {
+								connection.flush();
+							}
+						} catch (IOException e) {
+							connection.close(); //client disconnected
+						}
+					}
+				}
+			} catch (IOException e) {
+				LOG.warn("I/O loop failed, closing its connections", e);
+			} finally {
+				closeAll();
+			}
+		}
+
+		/**
+		 * Registers the connections assigned since the last selection.
+		 *
+		 * @throws IOException
+		 *             if the selector fails
+		 */
+		private void registerNewChannels() throws IOException {
+			Connection connection;
+			while ((connection = newConnections.poll()) != null) {
+				connection.register(selector);
+			}
+		}
+
+		/**
+		 * Closes every connection of this loop, and its selector.
+		 */
+		private void closeAll() {
+			for (SelectionKey key : selector.keys()) {
+				((Connection) key.attachment()).close();
+			}
+			Connection connection;
+			while ((connection = newConnections.poll()) != null) {
+				connection.close();
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				LOG.warn("Error closing I/O loop selector", e);
+			}
+		}
+	} //END OF IoLoop CLASS
+
+	/**
+	 * A client connection, with its read and write buffers. Only used by its I/O loop's thread.
+	 */
+	private final class Connection {
+
+		/** the client channel */
+		private final SocketChannel channel;
+
+		/** admitted this connection, and admits its commands */
+		private final AdmissionController admission;
+
+		/** the channel's selection key; set when registered */
+		private SelectionKey key;
+
+		/** received bytes not yet processed; in write mode between reads */
+		private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+		/** responses not yet sent; in write mode between flushes */
+		private ByteBuffer writeBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+		/** true once the client has switched to the binary protocol */
+		private boolean binary;
+
+		/** {@link System#nanoTime()} of the last read, when the commands it completed were received */
+		private long receivedNanos;
+
+		/** number of commands completed by the last read processed so far */
+		private int pipelined;
+
+		/** true once closed, and the connection released */
+		private boolean closed;
+
+		/**
+		 * Constructs a Connection.
+		 *
+		 * @param channel
+		 *            the client channel
+		 * @param admission
+		 *            admitted the connection, released when it closes; admits its commands
+		 */
+		Connection(final SocketChannel channel, final AdmissionController admission) {
+			this.channel = channel;
+			this.admission = admission;
+		}
+
+		/**
+		 * Registers the connection with its I/O loop's selector, for reading.
+		 *
+		 * @param selector
+		 *            the selector
+		 * @throws IOException
+		 *             if the channel is closed
+		 */
+		void register(final Selector selector) throws IOException {
+			key = channel.register(selector, SelectionKey.OP_READ, this);
+		}
+
+		/**
+		 * Reads available bytes, and processes every complete command line, or frame.
+		 *
+		 * @throws IOException
+		 *             if the read fails, or the client has disconnected
+		 */
+		void read() throws IOException {
+			if (!readBuffer.hasRemaining()) {
+				if (readBuffer.capacity() >= MAX_LINE_LENGTH) {
+					LOG.warn(String.format("Command longer than %d bytes, closing connection", MAX_LINE_LENGTH));
+					throw new IOException("Command too long");
+				}
+				readBuffer = grow(readBuffer, readBuffer.capacity() * 2);
+			}
+			if (channel.read(readBuffer) < 0) {
+				throw new IOException("Client disconnected");
+			}
+			receivedNanos = System.nanoTime();
+			pipelined = 0;
+			readBuffer.flip();
+			if (!binary) {
+				processLines();
+			}
+			if (binary) {
+				processFrames();
+			}
+			readBuffer.compact();
+			flush();
+		}
+
+		/**
+		 * Processes the complete command lines in the read buffer, up to and including a
+		 * [BINARY_PROTOCOL_CMD], which is acknowledged and switches the connection to binary frames.
+		 */
+		private void processLines() {
+			int lineStart = readBuffer.position();
+			for (int i = lineStart; i < readBuffer.limit(); i++) {
+				if (readBuffer.get(i) == NEW_LINE) {
+					int lineEnd = i;
+					if (lineEnd > lineStart && readBuffer.get(lineEnd - 1) == CARRIAGE_RETURN) {
+						lineEnd--;
+					}
+					final String command = new String(readBuffer.array(), lineStart, lineEnd - lineStart, CHARSET);
+					lineStart = i + 1;
+					if (command.equals(ProtocolConstants.BINARY_PROTOCOL_CMD.toString())) {
+						respond(command);
+						binary = true;
+						break;
+					}
+					process(command);
+				}
+			}
+			readBuffer.position(lineStart);
+		}
+
+		/**
+		 * Processes the complete frames in the read buffer. Each frame is executed in place, with
+		 * the buffer limited to it, so no bytes are copied.
+		 *
+		 * @throws IOException
+		 *             if a frame is malformed
+		 */
+		private void processFrames() throws IOException {
+			while (readBuffer.remaining() >= BinaryProtocol.LENGTH_BYTES) {
+				final int start = readBuffer.position();
+				final int length = readBuffer.getInt(start);
+				if (length < 1 || length > BinaryProtocol.MAX_FRAME_LENGTH - BinaryProtocol.LENGTH_BYTES) {
+					LOG.warn(String.format("Invalid frame length %d, closing connection", length));
+					throw new IOException("Invalid frame length");
+				}
+				if (readBuffer.remaining() < BinaryProtocol.LENGTH_BYTES + length) {
+					return;  //incomplete
+				}
+				final int limit = readBuffer.limit();
+				final int end = start + BinaryProtocol.LENGTH_BYTES + length;
+				readBuffer.limit(end);
+				readBuffer.position(start + BinaryProtocol.LENGTH_BYTES);
+				try {
+					if (admit()) {
+						try {
+							writeBuffer = binaryCommandProcessor.process(readBuffer, writeBuffer);
+						} finally {
+							admission.releaseCommand();
+						}
+					} else {
+						writeBuffer = binaryCommandProcessor.busy(readBuffer, writeBuffer);
+					}
+				} catch (RuntimeException e) {
+					LOG.warn("Could not process binary command, closing connection", e);
+					throw new IOException("Malformed frame", e);
+				} finally {
+					readBuffer.limit(limit);
+					readBuffer.position(end);
+				}
+			}
+		}
+
+		/**
+		 * Executes a command, and buffers its response.
+		 *
+		 * @param command
+		 *            the command line, without its terminator
+		 */
+		private void process(final String command) {
+			if (!admit()) {
+				respond(commandProcessor.busy(command));
+				return;
+			}
+			String response;
+			try {
+				response = commandProcessor.process(command);
+			} catch (RuntimeException e) {
+				LOG.error(String.format("Could not process command: %s", command), e);
+				return;
+			} finally {
+				admission.releaseCommand();
+			}
+			if (response != null) {
+				respond(response);
+			}
+		}
+
+		/**
+		 * Admits the next command completed by the last read, if within the connection's limit of
+		 * pipelined commands and an execution permit is free; the I/O thread serves every other
+		 * connection of its loop, so never waits for one. An admitted command must be released
+		 * once executed.
+		 *
+		 * @return true if admitted, false if the command is to be answered [BUSY]
+		 */
+		private boolean admit() {
+			return admission.admitPipelined(pipelined++) && admission.tryAdmitCommand(receivedNanos);
+		}
+
+		/**
+		 * Buffers a response line.
+		 *
+		 * @param response
+		 *            the response, without its terminator
+		 */
+		private void respond(final String response) {
+			final byte[] bytes = response.getBytes(CHARSET);
+			if (writeBuffer.remaining() < bytes.length + 1) {
+				writeBuffer = grow(writeBuffer, Math.max(writeBuffer.capacity() * 2, writeBuffer.position()
+						+ bytes.length + 1));
+			}
+			writeBuffer.put(bytes);
+			writeBuffer.put(NEW_LINE);
+		}
+
+		/**
+		 * Writes as much of the buffered responses as the channel accepts, and selects for
+		 * writability only while some remain. Reading is suspended while a client has more than
+		 * {@value #MAX_LINE_LENGTH} bytes of responses unread.
+		 *
+		 * @throws IOException
+		 *             if the write fails
+		 */
+		void flush() throws IOException {
+			if (writeBuffer.position() > 0) {
+				writeBuffer.flip();
+				channel.write(writeBuffer);
+				writeBuffer.compact();
+			}
+			int interest = SelectionKey.OP_READ;
+			if (writeBuffer.position() > 0) {
+				//stop reading commands from a client which is not reading its responses
+				interest = writeBuffer.position() < MAX_LINE_LENGTH ? interest | SelectionKey.OP_WRITE
+						: SelectionKey.OP_WRITE;
+			}
+			if (key.interestOps() != interest) {
+				key.interestOps(interest);
+			}
+		}
+
+		/**
+		 * Closes the connection, releasing it.
+		 */
+		void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			admission.releaseConnection();
+			if (key != null) {
+				key.cancel();
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				//closing anyway
+			}
+		}
+
+		/**
+		 * Copies a buffer in write mode into a larger one.
+		 *
+		 * @param buffer
+		 *            the buffer
+		 * @param capacity
+		 *            the new capacity
+		 * @return the larger buffer, in write mode
+		 */
+		private ByteBuffer grow(final ByteBuffer buffer, final int capacity) {
+			final ByteBuffer grown = ByteBuffer.allocate(capacity);
+			buffer.flip();
+			grown.put(buffer);
+			return grown;
+		}
+	} //END OF Connection CLASS
+
+} //END OF NioCommandServer CLASS
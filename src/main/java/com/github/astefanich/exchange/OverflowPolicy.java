@@ -0,0 +1,30 @@
+package com.github.astefanich.exchange;
+
+/**
+ * What a proxy's per-listener event queue does with an event when the listener has fallen behind
+ * and the queue is full.
+ *
+ * @author AndrewStefanich
+ * @see ExchangeNetworkProxyFactory#setListenerOverflowPolicy(OverflowPolicy)
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * Waits for the listener to take an event. Nothing is dropped, but the multicast receive thread
+	 * stalls, so datagrams may be lost (and recovered from a snapshot) instead.
+	 */
+	BLOCK,
+
+	/**
+	 * Discards the oldest undelivered price change to make room; opened and closed events are never
+	 * discarded.
+	 */
+	DROP_OLDEST,
+
+	/**
+	 * Replaces the latest undelivered price change for the same stock, keeping its place in the
+	 * queue, so the listener skips to the latest price; waits as {@link #BLOCK} if there is none
+	 * queued after the last opened or closed event.
+	 */
+	CONFLATE
+}
@@ -0,0 +1,123 @@
+package com.github.astefanich.exchange;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces price changes into [PRICE_CHANGES_EVENT] datagrams for an
+ * {@link ExchangeNetworkAdapter}. The first change of a batch starts a window; every change seen
+ * until it ends is appended to the same event, which is published when the window ends, or
+ * earlier if another record would take it past the maximum datagram size. Changes are published in
+ * the order they were seen, so a receiver applying the records in order ends with the latest
+ * prices. Records are encoded into one reused buffer, so batching a change allocates nothing.
+ *
+ * @author AndrewStefanich
+ * @see ExchangeNetworkAdapter
+ */
+final class PriceEventBatcher {
+
+	/** publishes a completed event */
+	private final EventPublisher publisher;
+
+	/** length of a batch's window (in milliseconds) */
+	private final long windowMillis;
+
+	/** ends the windows */
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+		final Thread thread = new Thread(runnable, "price-event-batcher");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/** encoded records of the event being batched, empty if none; guarded by this */
+	private final ByteBuffer batch = ByteBuffer.allocate(EventPublisher.getMaxRecordsLength());
+
+	/** number of batches started, identifies the window a timer task ends; guarded by this */
+	private long batchNumber;
+
+	/**
+	 * Constructs a PriceEventBatcher.
+	 *
+	 * @param publisher
+	 *            publishes a completed event
+	 * @param windowMillis
+	 *            length of a batch's window (in milliseconds)
+	 */
+	PriceEventBatcher(final EventPublisher publisher, final long windowMillis) {
+		this.publisher = publisher;
+		this.windowMillis = windowMillis;
+	}
+
+	/**
+	 * Adds a price change to the current batch, starting one if there is none.
+	 *
+	 * @param ticker
+	 *            ticker symbol of the stock
+	 * @param price
+	 *            the new price
+	 */
+	synchronized void priceChanged(final String ticker, final int price) {
+		final int recordLength = EventPublisher.recordLength(ticker, price);
+		if (recordLength > batch.capacity()) {
+			publisher.publishPriceChange(ticker, price);  //logged as too long, in order
+			return;
+		}
+		if (recordLength > batch.remaining()) {
+			//publish the batch without this record, and start the next with it
+			flush();
+		}
+		final boolean first = batch.position() == 0;
+		EventPublisher.putRecord(batch, ticker, price);
+		if (first) {
+			startWindow();
+		}
+	}
+
+	/**
+	 * Schedules the end of the current batch's window. Once closed, publishes the batch at once.
+	 */
+	private void startWindow() {
+		final long number = ++batchNumber;
+		try {
+			timer.schedule(() -> endWindow(number), windowMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			flush();
+		}
+	}
+
+	/**
+	 * Publishes a batch when its window ends, unless it has been published already.
+	 *
+	 * @param number
+	 *            number of the batch whose window ended
+	 */
+	private synchronized void endWindow(final long number) {
+		if (number == batchNumber) {
+			flush();
+		}
+	}
+
+	/**
+	 * Publishes the current batch now, if there is one. Called before publishing any other event, so
+	 * events keep their order.
+	 */
+	synchronized void flush() {
+		if (batch.position() > 0) {
+			batch.flip();
+			publisher.publishPriceChanges(batch);
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Publishes the current batch, and stops the timer.
+	 */
+	void close() {
+		timer.shutdownNow();
+		flush();
+	}
+
+} //END OF PriceEventBatcher CLASS
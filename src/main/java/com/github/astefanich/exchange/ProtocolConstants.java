@@ -12,6 +12,16 @@ package com.github.astefanich.exchange;
  * Event: [CLOSED_EVENT] <br>
  * - <br>
  * Event: [PRICE_CHANGE_EVENT][ELEMENT_DELIMITER]<i>symbol</i>[ELEMENT_DELIMITER]<i>price</i> <br>
+ * - <br>
+ * Event: [PRICE_CHANGES_EVENT]([ELEMENT_DELIMITER]<i>symbol</i>[ELEMENT_DELIMITER]<i>price</i>)...
+ * (price changes in the order they occurred, at most [MAX_EVENT_LENGTH] bytes) <br>
+ * - <br>
+ * Event: [TICKERS_CHANGED_EVENT] (the stocks traded have changed, fetch them again) <br>
+ * <br>
+ * Every event ends with [ELEMENT_DELIMITER]<i>sequence_number</i>, one more than that of the
+ * previous event of its multicast group, so a receiver can detect lost events and recover with
+ * [SNAPSHOT_CMD]. An exchange may shard its price change events by ticker over further groups,
+ * laid out by [GET_EVENT_GROUPS_CMD]; see {@link EventGroups}. <br>
  * <br>
  * <br>
  * Commands conform to a request/response model where requests are sent from a broker and the result
@@ -27,14 +37,54 @@ package com.github.astefanich.exchange;
  * Request: [GET_QUOTE_CMD][ELEMENT_DELIMITER]<i>symbol</i> <br>
  * Response: <i>price</i> <br>
  * - <br>
+ * Request: [GET_QUOTES_CMD]([ELEMENT_DELIMITER]<i>symbol</i>)... (every stock if no symbol is given)
+ * <br>
+ * Response: <i>symbol</i>[ELEMENT_DELIMITER]<i>price</i>([ELEMENT_DELIMITER]<i>symbol</i>
+ * [ELEMENT_DELIMITER]<i>price</i>)... (stocks not traded are left out) <br>
+ * - <br>
  * Request: [EXECUTE_TRADE_CMD][ELEMENT_DELIMITER][BUY_ORDER]|[SELL_ORDER] <br>
  * [ELEMENT_DELIMITER]<i>account_ID</i>[ELEMENT_DELIMITER]<i>symbol</i>[ELEMENT_DELIMITER]<i>shares</i>
  * <br>
- * Response: <i>execution_price</i>
+ * Response: <i>execution_price</i> <br>
+ * - <br>
+ * Request: [EXECUTE_TRADES_CMD][ELEMENT_DELIMITER]<i>count</i> <br>
+ * ([ELEMENT_DELIMITER][BUY_ORDER]|[SELL_ORDER][ELEMENT_DELIMITER]<i>account_ID</i>
+ * [ELEMENT_DELIMITER]<i>symbol</i>[ELEMENT_DELIMITER]<i>shares</i>)... <br>
+ * Response: <i>execution_price</i>[ELEMENT_DELIMITER]<i>execution_price</i>... (0 for an order not
+ * executed, [TRADE_FAILED] for one which failed; a failed order does not fail the command) <br>
+ * - <br>
+ * Request: [SNAPSHOT_CMD] <br>
+ * Response: [OPEN_STATE]|[CLOSED_STATE]([ELEMENT_DELIMITER]<i>symbol</i>[ELEMENT_DELIMITER]<i>price</i>)...
+ * <br>
+ * - <br>
+ * Request: [GET_EVENT_GROUPS_CMD] <br>
+ * Response: <i>count</i>([ELEMENT_DELIMITER]<i>group_address</i>)...([ELEMENT_DELIMITER]<i>symbol</i>
+ * [ELEMENT_DELIMITER]<i>group</i>)... (the addresses of price change groups 1 to <i>count</i>, on
+ * the events port, then the group of each stock; <i>count</i> is 0 if price changes are not
+ * sharded) <br>
+ * - <br>
+ * Request: [CORRELATED_CMD][ELEMENT_DELIMITER]<i>correlation_ID</i>[ELEMENT_DELIMITER]<i>command</i>
+ * <br>
+ * Response: <i>correlation_ID</i>[ELEMENT_DELIMITER]<i>response</i>|[COMMAND_FAILED], allowing a
+ * client to pipeline commands <br>
+ * - <br>
+ * Request: [BINARY_PROTOCOL_CMD] <br>
+ * Response: [BINARY_PROTOCOL_CMD], after which the connection carries {@link BinaryProtocol} frames
+ * <br>
+ * <br>
+ * An overloaded exchange may answer any command with [BUSY] instead, without executing it
+ * (<i>correlation_ID</i>[ELEMENT_DELIMITER][BUSY] for a correlated one), and may refuse a new
+ * connection by sending [BUSY] and closing it; see {@link AdmissionController}.
  * 
  * @author AndrewStefanich
  */
 public enum ProtocolConstants {
+	/** [BINARY_PROTOCOL_CMD] */
+	BINARY_PROTOCOL_CMD("BINARY_PROTOCOL_CMD"),
+
+	/** [BUSY] the exchange is overloaded, and refused the command or connection; retry later */
+	BUSY("BUSY"),
+
 	/** [BUY_ORDER] */
 	BUY_ORDER("BUY_ORDER"),
 
@@ -47,6 +97,15 @@ public enum ProtocolConstants {
 	/** [0] (int) */
 	CMD_ELEMENT(0),
 
+	/** [COMMAND_FAILED] */
+	COMMAND_FAILED("COMMAND_FAILED"),
+
+	/** [CORRELATED_CMD] */
+	CORRELATED_CMD("CORRELATED_CMD"),
+
+	/** [1] (int) */
+	CORRELATED_CMD_ID_ELEMENT(1),
+
 	/** [:] */
 	ELEMENT_DELIMITER(":"),
 
@@ -68,12 +127,30 @@ public enum ProtocolConstants {
 	/** [1] (int) */
 	EXECUTE_TRADE_CMD_TYPE_ELEMENT(1),
 
+	/** [EXECUTE_TRADES_CMD] */
+	EXECUTE_TRADES_CMD("EXECUTE_TRADES_CMD"),
+
+	/** [1] (int) */
+	EXECUTE_TRADES_CMD_COUNT_ELEMENT(1),
+
+	/** [2] (int) index of the first order's type element */
+	EXECUTE_TRADES_CMD_FIRST_ORDER_ELEMENT(2),
+
+	/** [4] (int) number of elements per order; type, account, symbol, shares */
+	EXECUTE_TRADES_CMD_ORDER_ELEMENTS(4),
+
 	/** [0] (int) */
 	EVENT_ELEMENT(0),
 
+	/** [GET_EVENT_GROUPS_CMD] */
+	GET_EVENT_GROUPS_CMD("GET_EVENT_GROUPS_CMD"),
+
 	/** [GET_QUOTE_CMD] */
 	GET_QUOTE_CMD("GET_QUOTE_CMD"),
 
+	/** [GET_QUOTES_CMD] */
+	GET_QUOTES_CMD("GET_QUOTES_CMD"),
+
 	/** [GET_STATE_CMD] */
 	GET_STATE_CMD("GET_STATE_CMD"),
 
@@ -83,6 +160,9 @@ public enum ProtocolConstants {
 	/** [-1] (int) */
 	INVALID_STOCK(-1),
 
+	/** [1472] (int) bytes; the largest datagram not fragmented on an Ethernet MTU */
+	MAX_EVENT_LENGTH(1472),
+
 	/** [OPEN_EVENT] */
 	OPEN_EVENT("OPEN_EVENT"),
 
@@ -98,11 +178,26 @@ public enum ProtocolConstants {
 	/** [1] (int) */
 	PRICE_CHANGE_EVENT_TICKER_ELEMENT(1),
 
+	/** [PRICE_CHANGES_EVENT] */
+	PRICE_CHANGES_EVENT("PRICE_CHANGES_EVENT"),
+
 	/** [1] (int) */
 	QUOTE_CMD_TICKER_ELEMENT(1),
 
+	/** [1] (int) index of the first symbol of [GET_QUOTES_CMD] */
+	QUOTES_CMD_FIRST_TICKER_ELEMENT(1),
+
 	/** [SELL_ORDER] */
-	SELL_ORDER("SELL_ORDER");
+	SELL_ORDER("SELL_ORDER"),
+
+	/** [SNAPSHOT_CMD] */
+	SNAPSHOT_CMD("SNAPSHOT_CMD"),
+
+	/** [-1] (int) execution price of an order of [EXECUTE_TRADES_CMD] which failed */
+	TRADE_FAILED(ExtendedStockExchange.TRADE_FAILED),
+
+	/** [TICKERS_CHANGED_EVENT] */
+	TICKERS_CHANGED_EVENT("TICKERS_CHANGED_EVENT");
 
 	private Object value;
 
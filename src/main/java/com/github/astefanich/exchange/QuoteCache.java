@@ -0,0 +1,92 @@
+package com.github.astefanich.exchange;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import edu.uw.ext.framework.exchange.StockQuote;
+
+/**
+ * Last known price of each stock, as seen by an {@link ExchangeNetworkProxy}; filled from quotes
+ * fetched over the command connection and kept current by the multicast price change events. A
+ * price is served only while it was confirmed within the staleness bound, so a lost event can
+ * cause a stale quote for at most that long.
+ *
+ * @author AndrewStefanich
+ * @see ExchangeNetworkProxy
+ */
+final class QuoteCache {
+
+	/** longest time a price is served without being confirmed (in nanoseconds) */
+	private final long maxAgeNanos;
+
+	/** last known quote of each stock, by ticker */
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * Constructs a QuoteCache.
+	 *
+	 * @param maxAgeMillis
+	 *            longest time a price is served without being confirmed (in milliseconds)
+	 */
+	QuoteCache(final long maxAgeMillis) {
+		this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+	}
+
+	/**
+	 * Gets the last known quote of a stock, if it is fresh enough.
+	 *
+	 * @param ticker
+	 *            ticker symbol of the stock
+	 * @return the quote, {@code null} if unknown or stale
+	 */
+	StockQuote get(final String ticker) {
+		final Entry entry = entries.get(ticker);
+		if (entry == null || System.nanoTime() - entry.confirmedNanos > maxAgeNanos) {
+			return null;
+		}
+		return entry.quote;
+	}
+
+	/**
+	 * Records a stock's price, unless a price confirmed later is already recorded (a quote
+	 * requested before a price change event may be answered after it).
+	 *
+	 * @param quote
+	 *            the quote
+	 * @param confirmedNanos
+	 *            {@link System#nanoTime()} at which the price was known to be current; for a
+	 *            quote fetched over the wire, when it was requested
+	 */
+	void update(final StockQuote quote, final long confirmedNanos) {
+		final Entry entry = new Entry(quote, confirmedNanos);
+		entries.merge(quote.getTicker(), entry,
+				(current, latest) -> latest.confirmedNanos - current.confirmedNanos >= 0 ? latest : current);
+	}
+
+	/**
+	 * A quote, and when its price was confirmed.
+	 */
+	private static final class Entry {
+
+		/** the quote */
+		private final StockQuote quote;
+
+		/** {@link System#nanoTime()} at which the price was known to be current */
+		private final long confirmedNanos;
+
+		/**
+		 * Constructs an Entry.
+		 *
+		 * @param quote
+		 *            the quote
+		 * @param confirmedNanos
+		 *            when the price was known to be current
+		 */
+		Entry(final StockQuote quote, final long confirmedNanos) {
+			this.quote = quote;
+			this.confirmedNanos = confirmedNanos;
+		}
+	} //END OF Entry CLASS
+
+} //END OF QuoteCache CLASS
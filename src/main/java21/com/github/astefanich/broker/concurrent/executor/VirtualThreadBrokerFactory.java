@@ -0,0 +1,77 @@
+package com.github.astefanich.broker.concurrent.executor;
+
+import java.util.concurrent.Executors;
+
+import com.github.astefanich.broker.book.OrderBookType;
+
+import edu.uw.ext.framework.account.AccountManager;
+import edu.uw.ext.framework.broker.Broker;
+import edu.uw.ext.framework.broker.BrokerFactory;
+import edu.uw.ext.framework.exchange.StockExchange;
+
+/**
+ * {@link BrokerFactory} implementation that returns an {@link ExecutorBroker} whose order queues
+ * dispatch on virtual threads, one per task, rather than on a cached pool of platform threads.
+ * Requires a JDK with virtual threads (built with the {@code virtual-threads} profile).
+ * 
+ * @author AndrewStefanich
+ *
+ */
+public final class VirtualThreadBrokerFactory implements BrokerFactory {
+
+	/** storage to be used by the order managers' queues of new brokers */
+	private OrderBookType orderBookType = OrderBookType.TREE_SET;
+
+	/**
+	 * Sets the storage to be used by the order managers' queues of subsequently created brokers.
+	 * 
+	 * @param orderBookType
+	 *            the book type, {@link OrderBookType#TREE_SET} by default
+	 */
+	public void setOrderBookType(final OrderBookType orderBookType) {
+		this.orderBookType = orderBookType;
+	}
+
+	/**
+	 * Gets the storage to be used by the order managers' queues of new brokers.
+	 * 
+	 * @return the book type
+	 */
+	public OrderBookType getOrderBookType() {
+		return orderBookType;
+	}
+
+	/**
+	 * Rejects price conflation: the order managers' queues dispatch on virtual threads, so a conflated
+	 * extreme may be skipped before the queues drain. Accepts false, the only supported value.
+	 * 
+	 * @param conflatePrices
+	 *            must be false
+	 * @throws UnsupportedOperationException
+	 *             if conflatePrices is true
+	 * @see com.github.astefanich.broker.concurrent.ConcurrentBroker#setPriceConflation(boolean)
+	 */
+	public void setConflatePrices(final boolean conflatePrices) {
+		if (conflatePrices) {
+			throw new UnsupportedOperationException(
+					"ExecutorBroker dispatches stop orders asynchronously, prices cannot be conflated");
+		}
+	}
+
+	/**
+	 * Instantiates a new {@code ExecutorBroker} on virtual threads.
+	 * 
+	 * @param name
+	 *            the broker's name
+	 * @param accountManager
+	 *            the {@link AccountManager} to be used by the broker
+	 * @param exchange
+	 *            the exchange to be used by the broker
+	 * @return a new ExecutorBroker instance
+	 */
+	@Override
+	public Broker newBroker(String name, AccountManager accountManager, StockExchange exchange) {
+		return new ExecutorBroker(name, accountManager, exchange, orderBookType,
+				Executors.newVirtualThreadPerTaskExecutor());
+	}
+}
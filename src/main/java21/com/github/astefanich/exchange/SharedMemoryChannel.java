@@ -0,0 +1,193 @@
+package com.github.astefanich.exchange;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file mapped by a co-located exchange adapter and proxy, holding a pair of
+ * {@link SharedMemoryRing}s; the command ring, written by the proxy, then the reply ring, written by
+ * the adapter. Records are {@link BinaryProtocol} frames without their length field, which the
+ * ring's record length stands in for. The reply ring carries the responses to commands, and the
+ * exchange's events as frames of opcode {@link #OP_EVENT}: <br>
+ * <br>
+ * [OP_EVENT] <i>event</i> (byte, [EVENT_OPENED]|[EVENT_CLOSED]|[EVENT_PRICE_CHANGED])
+ * <i>sequence</i> (long) (<i>ticker</i> <i>price</i> (int), price changes only) <br>
+ * <br>
+ * The adapter creates the file, replacing any left over, and deletes it when closed; a proxy
+ * attaches to it, and holds a lock on it so no second proxy does.
+ *
+ * @author AndrewStefanich
+ * @see SharedMemoryExchangeAdapter
+ * @see SharedMemoryExchangeProxy
+ */
+final class SharedMemoryChannel implements Closeable {
+
+	/** opcode of an event frame, outside those of the commands */
+	static final byte OP_EVENT = 0x40;
+
+	/** the exchange opened */
+	static final byte EVENT_OPENED = 1;
+
+	/** the exchange closed */
+	static final byte EVENT_CLOSED = 2;
+
+	/** a stock's price changed */
+	static final byte EVENT_PRICE_CHANGED = 3;
+
+	/** bytes of the longest event frame */
+	static final int MAX_EVENT_BYTES = 1 + 1 + 8 + BinaryProtocol.TICKER_BYTES + 4;
+
+	/** the mapped file */
+	private final Path file;
+
+	/** channel of the mapped file */
+	private final FileChannel fileChannel;
+
+	/** lock of the attached proxy, {@code null} in the adapter */
+	private final FileLock lock;
+
+	/** commands, written by the proxy */
+	private final SharedMemoryRing commands;
+
+	/** responses and events, written by the adapter */
+	private final SharedMemoryRing replies;
+
+	/**
+	 * Constructs a SharedMemoryChannel, mapping the rings of an open file.
+	 *
+	 * @param file
+	 *            the file
+	 * @param fileChannel
+	 *            channel of the file, opened for reading and writing
+	 * @param lock
+	 *            lock of the attached proxy, {@code null} in the adapter
+	 * @param capacity
+	 *            bytes of the data of each ring
+	 * @throws IOException
+	 *             if the file cannot be mapped
+	 */
+	private SharedMemoryChannel(final Path file, final FileChannel fileChannel, final FileLock lock,
+			final int capacity) throws IOException {
+		this.file = file;
+		this.fileChannel = fileChannel;
+		this.lock = lock;
+		final int regionBytes = SharedMemoryRing.regionBytes(capacity);
+		final MappedByteBuffer mapped = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * regionBytes);
+		this.commands = new SharedMemoryRing(mapped.slice(0, regionBytes));
+		this.replies = new SharedMemoryRing(mapped.slice(regionBytes, regionBytes));
+	}
+
+	/**
+	 * Gets the file an adapter and its proxies share, named after the command port they would
+	 * otherwise connect on.
+	 *
+	 * @param directory
+	 *            directory of the file, a memory-backed file system such as {@code /dev/shm}
+	 * @param commandsPort
+	 *            the command port
+	 * @return the file
+	 */
+	static Path pathFor(final String directory, final int commandsPort) {
+		return Paths.get(directory, "exchange-" + commandsPort + ".shm");
+	}
+
+	/**
+	 * Creates the file of an adapter, replacing any left over; a proxy still attached to a file
+	 * replaced keeps its mapping of the old one.
+	 *
+	 * @param file
+	 *            the file
+	 * @param capacity
+	 *            bytes of the data of each ring, a power of 2 of at least
+	 *            {@value SharedMemoryRing#MIN_CAPACITY}
+	 * @return the channel
+	 * @throws IOException
+	 *             if the file cannot be created or mapped
+	 */
+	static SharedMemoryChannel create(final Path file, final int capacity) throws IOException {
+		Files.deleteIfExists(file);
+		final FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			return new SharedMemoryChannel(file, fileChannel, null, capacity);
+		} catch (IOException | RuntimeException e) {
+			fileChannel.close();
+			Files.deleteIfExists(file);
+			throw e;
+		}
+	}
+
+	/**
+	 * Attaches a proxy to the file of an adapter, discarding the replies left for an earlier proxy.
+	 *
+	 * @param file
+	 *            the file
+	 * @return the channel
+	 * @throws IOException
+	 *             if the file does not exist or cannot be mapped, or another proxy is attached
+	 */
+	static SharedMemoryChannel attach(final Path file) throws IOException {
+		final FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			final FileLock lock;
+			try {
+				lock = fileChannel.tryLock();
+			} catch (OverlappingFileLockException e) {
+				throw new IOException("A proxy is already attached to " + file, e);
+			}
+			if (lock == null) {
+				throw new IOException("A proxy is already attached to " + file);
+			}
+			final long regionBytes = fileChannel.size() / 2;
+			final SharedMemoryChannel channel = new SharedMemoryChannel(file, fileChannel, lock,
+					(int) (regionBytes - SharedMemoryRing.HEADER_BYTES));
+			channel.replies.skipAll();
+			return channel;
+		} catch (IOException | RuntimeException e) {
+			fileChannel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the ring of commands, written by the proxy.
+	 *
+	 * @return the ring
+	 */
+	SharedMemoryRing getCommands() {
+		return commands;
+	}
+
+	/**
+	 * Gets the ring of responses and events, written by the adapter.
+	 *
+	 * @return the ring
+	 */
+	SharedMemoryRing getReplies() {
+		return replies;
+	}
+
+	/**
+	 * Closes the file, releasing the proxy's lock; the adapter deletes it. The mapping lasts until
+	 * collected.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be closed or deleted
+	 */
+	@Override
+	public void close() throws IOException {
+		fileChannel.close();  //releases the lock
+		if (lock == null) {
+			Files.deleteIfExists(file);
+		}
+	}
+
+} //END OF SharedMemoryChannel CLASS
@@ -0,0 +1,219 @@
+package com.github.astefanich.exchange;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.uw.ext.framework.exchange.ExchangeAdapter;
+import edu.uw.ext.framework.exchange.ExchangeEvent;
+import edu.uw.ext.framework.exchange.StockExchange;
+
+/**
+ * Adapter for a {@link StockExchange} serving a {@link SharedMemoryExchangeProxy} on the same
+ * host, through the rings of a {@link SharedMemoryChannel} instead of TCP and multicast. A single
+ * thread polls the command ring, executes each command with a {@link BinaryCommandProcessor}, and
+ * appends its response to the reply ring; the exchange's events are appended to the reply ring as
+ * they occur. An event finding the reply ring full is dropped, as a datagram would be, and the proxy
+ * recovers from the gap in the sequence numbers. Tickers must be encodable in the binary protocol.
+ * (Object creation should come from {@link SharedMemoryExchangeAdapterFactory}).
+ *
+ * @author AndrewStefanich
+ * @see SharedMemoryExchangeAdapterFactory
+ * @see SharedMemoryExchangeProxy
+ */
+public final class SharedMemoryExchangeAdapter implements ExchangeAdapter {
+
+	/** initial buffer size for binary command frames */
+	private static final int BUFFER_SIZE = 512;
+
+	/** logger for this class */
+	private final Logger LOG = LoggerFactory.getLogger(getClass());
+
+	/** the real StockExchange for which this class is an adapter */
+	private final StockExchange exchange;
+
+	/** the rings shared with the proxy */
+	private final SharedMemoryChannel channel;
+
+	/** executes received frames against the exchange */
+	private final BinaryCommandProcessor binaryCommandProcessor;
+
+	/** runs the command loop */
+	private final ExecutorService threadPool = Executors.newSingleThreadExecutor();
+
+	/** the event being encoded; guarded by this */
+	private final ByteBuffer event = ByteBuffer.allocate(SharedMemoryChannel.MAX_EVENT_BYTES);
+
+	/** sequence number of the next event; guarded by this */
+	private long sequence;
+
+	/** number of events dropped on a full reply ring; guarded by this */
+	private long droppedEvents;
+
+	/** whether this adapter has been closed */
+	private volatile boolean closed;
+
+	/**
+	 * Constructs a {@code SharedMemoryExchangeAdapter}, creating its file and starting its command
+	 * loop. (Object creation should come from {@link SharedMemoryExchangeAdapterFactory}).
+	 *
+	 * @param exchange
+	 *            the {@code StockExchange} used to service requests
+	 * @param file
+	 *            the file shared with the proxy
+	 * @param capacity
+	 *            bytes of each ring, a power of 2
+	 * @throws IOException
+	 *             if the file cannot be created or mapped
+	 */
+	SharedMemoryExchangeAdapter(final StockExchange exchange, final Path file, final int capacity)
+			throws IOException {
+		this.exchange = exchange;
+		this.channel = SharedMemoryChannel.create(file, capacity);
+		this.binaryCommandProcessor = new BinaryCommandProcessor(exchange);
+		threadPool.execute(this::serveCommands);
+		exchange.addExchangeListener(this);
+		LOG.info(String.format("Server now accepting commands through shared memory: %s", file));
+	}
+
+	/**
+	 * Command loop. Executes each command polled from the command ring and appends its response to
+	 * the reply ring, waiting for room, until closed. A frame which cannot be processed is answered
+	 * with [OP_ERROR], so the proxy does not wait for it to time out.
+	 */
+	private void serveCommands() {
+		final SharedMemoryRing commands = channel.getCommands();
+		final SharedMemoryRing replies = channel.getReplies();
+		ByteBuffer frame = ByteBuffer.allocate(BUFFER_SIZE);
+		ByteBuffer response = ByteBuffer.allocate(BUFFER_SIZE);
+		int idleCount = 0;
+		while (!closed) {
+			final ByteBuffer received = commands.poll(frame);
+			if (received == null) {
+				SharedMemoryRing.idle(idleCount++);
+				continue;
+			}
+			idleCount = 0;
+			frame = received;
+			final int start = frame.position();
+			response.clear();
+			try {
+				response = binaryCommandProcessor.process(frame, response);
+			} catch (RuntimeException e) {
+				LOG.error("Could not process malformed frame", e);
+				frame.position(start);
+				response.clear();
+				response = binaryCommandProcessor.error(frame, response);  //the proxy is waiting on its correlation ID
+			}
+			response.flip();
+			response.position(BinaryProtocol.LENGTH_BYTES);  //the ring's record length stands in for it
+			for (int waited = 0; !replies.offer(response) && !closed; waited++) {
+				SharedMemoryRing.idle(waited);
+			}
+		}
+	}
+
+	/**
+	 * The {@code StockExchange} has opened. Appends the event to the reply ring.
+	 *
+	 * @param event
+	 *            the {@code ExchangeEvent}
+	 */
+	@Override
+	public void exchangeOpened(final ExchangeEvent event) {
+		publish(SharedMemoryChannel.EVENT_OPENED, null, 0);
+	}
+
+	/**
+	 * The {@code StockExchange} has closed. Appends the event to the reply ring.
+	 *
+	 * @param event
+	 *            the {@code ExchangeEvent}
+	 */
+	@Override
+	public void exchangeClosed(final ExchangeEvent event) {
+		publish(SharedMemoryChannel.EVENT_CLOSED, null, 0);
+	}
+
+	/**
+	 * A stock's price has changed. Appends the event to the reply ring.
+	 *
+	 * @param event
+	 *            the {@code ExchangeEvent}
+	 */
+	@Override
+	public void priceChanged(final ExchangeEvent event) {
+		if (!BinaryProtocol.isEncodable(event.getTicker())) {
+			LOG.warn(String.format("Price change of %s cannot be sent in the binary protocol", event.getTicker()));
+			return;
+		}
+		publish(SharedMemoryChannel.EVENT_PRICE_CHANGED, event.getTicker(), event.getPrice());
+	}
+
+	/**
+	 * Numbers an event and appends it to the reply ring, dropping it if the ring is full.
+	 *
+	 * @param type
+	 *            type of the event
+	 * @param ticker
+	 *            ticker symbol of the stock, {@code null} unless a price change
+	 * @param price
+	 *            the new price, unless a price change
+	 */
+	private synchronized void publish(final byte type, final String ticker, final int price) {
+		event.clear();
+		event.put(SharedMemoryChannel.OP_EVENT);
+		event.put(type);
+		event.putLong(sequence++);
+		if (ticker != null) {
+			event.putInt(BinaryProtocol.packTicker(ticker));
+			event.putInt(price);
+		}
+		event.flip();
+		if (!channel.getReplies().offer(event) && droppedEvents++ % 1000 == 0) {
+			LOG.warn(String.format("Reply ring full, %d events dropped", droppedEvents));
+		}
+	}
+
+	/**
+	 * Gets the number of events dropped because the reply ring was full, e.g. while no proxy was
+	 * attached.
+	 *
+	 * @return the count
+	 */
+	public synchronized long getDroppedEvents() {
+		return droppedEvents;
+	}
+
+	/**
+	 * Closes this adapter, stopping its command loop and deleting its file. The file is deleted
+	 * even if the calling thread is interrupted while waiting for the loop; its interrupt status is
+	 * restored.
+	 */
+	@Override
+	public void close() {
+		LOG.info("Server shutting down, no new requests!!");
+		closed = true;
+		exchange.removeExchangeListener(this);
+		threadPool.shutdown();
+		try {
+			threadPool.awaitTermination(ExchangeNetworkAdapter.getShutdownTimer(), TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			LOG.warn("Server shut down before the command loop stopped");
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				LOG.warn("Failed to close the shared memory file", e);
+			}
+		}
+	}
+
+} //END OF SharedMemoryExchangeAdapter CLASS
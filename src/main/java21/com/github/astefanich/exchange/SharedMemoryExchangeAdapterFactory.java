@@ -0,0 +1,109 @@
+package com.github.astefanich.exchange;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.uw.ext.framework.exchange.ExchangeAdapter;
+import edu.uw.ext.framework.exchange.NetworkExchangeAdapterFactory;
+import edu.uw.ext.framework.exchange.StockExchange;
+
+/**
+ * Implementation class of {@link NetworkExchangeAdapterFactory}; creates instances of
+ * {@link SharedMemoryExchangeAdapter}, serving a proxy on the same host through a memory-mapped
+ * file rather than the network. The file is named after the command port, in a memory-backed
+ * directory; the multicast address and port are not used. Pair with
+ * {@link SharedMemoryExchangeProxyFactory}. Requires a JDK with {@code VarHandle} views of byte
+ * buffers (built with the {@code virtual-threads} profile).
+ * 
+ * @author AndrewStefanich
+ * 
+ * @see NetworkExchangeAdapterFactory
+ * @see SharedMemoryExchangeAdapter
+ *
+ */
+public final class SharedMemoryExchangeAdapterFactory implements NetworkExchangeAdapterFactory {
+
+	/** this class' logger */
+	private static final Logger LOG = LoggerFactory.getLogger(SharedMemoryExchangeAdapterFactory.class);
+
+	/** directory of the files shared with proxies */
+	private String directory = "/dev/shm";
+
+	/** bytes of each ring of new adapters */
+	private int ringCapacity = 1 << 20;
+
+	/**
+	 * Sets the directory subsequently created adapters create their files in; a memory-backed
+	 * file system, which proxies must use too.
+	 * 
+	 * @param directory
+	 *            the directory, {@code /dev/shm} by default
+	 */
+	public void setDirectory(final String directory) {
+		if (directory == null) {
+			throw new IllegalArgumentException("directory must not be null");
+		}
+		this.directory = directory;
+	}
+
+	/**
+	 * Gets the directory new adapters create their files in.
+	 * 
+	 * @return the directory
+	 */
+	public String getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Sets the bytes of each ring of subsequently created adapters; the command ring, and the ring
+	 * of responses and events. Events finding the latter full are dropped.
+	 * 
+	 * @param ringCapacity
+	 *            the bytes, a power of 2 of at least 4096; 1 MiB by default
+	 */
+	public void setRingCapacity(final int ringCapacity) {
+		if (ringCapacity < SharedMemoryRing.MIN_CAPACITY || Integer.bitCount(ringCapacity) != 1) {
+			throw new IllegalArgumentException("ringCapacity must be a power of 2 of at least "
+					+ SharedMemoryRing.MIN_CAPACITY + ": " + ringCapacity);
+		}
+		this.ringCapacity = ringCapacity;
+	}
+
+	/**
+	 * Gets the bytes of each ring of new adapters.
+	 * 
+	 * @return the bytes
+	 */
+	public int getRingCapacity() {
+		return ringCapacity;
+	}
+
+	/**
+	 * Instantiates a {@code SharedMemoryExchangeAdapter}.
+	 * 
+	 * @param exchange
+	 *            the underlying 'real' {@link StockExchange}
+	 * @param multicastIP
+	 *            not used
+	 * @param multicastPort
+	 *            not used
+	 * @param commandPort
+	 *            the command port, which names the shared file
+	 * @return a new {@code SharedMemoryExchangeAdapter}, {@code null} if instantiation fails
+	 */
+	@Override
+	public ExchangeAdapter newAdapter(StockExchange exchange, String multicastIP, int multicastPort, int commandPort) {
+		SharedMemoryExchangeAdapter sharedMemoryExchangeAdapter = null;
+		try {
+			sharedMemoryExchangeAdapter = new SharedMemoryExchangeAdapter(exchange,
+					SharedMemoryChannel.pathFor(directory, commandPort), ringCapacity);
+		} catch (IOException e) {
+			LOG.warn("Failed to create a new SharedMemoryExchangeAdapter. Shared memory file could not be created", e);
+		}
+		return sharedMemoryExchangeAdapter;
+	}
+
+}
@@ -0,0 +1,615 @@
+package com.github.astefanich.exchange;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.uw.ext.framework.exchange.ExchangeEvent;
+import edu.uw.ext.framework.exchange.ExchangeListener;
+import edu.uw.ext.framework.exchange.StockExchange;
+import edu.uw.ext.framework.exchange.StockQuote;
+import edu.uw.ext.framework.order.Order;
+
+/**
+ * Client side proxy for a {@link StockExchange} served by a {@link SharedMemoryExchangeAdapter} on
+ * the same host; commands and events cross the rings of a {@link SharedMemoryChannel} instead of
+ * the loopback TCP and multicast stacks. Commands are {@link BinaryProtocol} frames, issued one at
+ * a time: the calling thread appends its frame to the command ring and spins for the response,
+ * which a reader thread takes off the reply ring and hands over; a round trip costs microseconds
+ * while both sides are busy. The reader passes events to a dispatcher thread, which fires them to
+ * the listeners, so a listener may issue commands; a gap in the events' sequence numbers is
+ * recovered from with [OP_SNAPSHOT], as the multicast proxy does. Every price change is delivered,
+ * so subscribing is not needed. (Object creation should come from
+ * {@link SharedMemoryExchangeProxyFactory}).
+ *
+ * @author AndrewStefanich
+ * @see SharedMemoryExchangeProxyFactory
+ * @see SharedMemoryExchangeAdapter
+ */
+public final class SharedMemoryExchangeProxy implements ExtendedStockExchange {
+
+	/** maximum number of orders sent in one [OP_EXECUTE_TRADES], larger batches are split */
+	private static final int MAX_TRADES_PER_COMMAND = 128;
+
+	/** initial buffer size for binary frames */
+	private static final int BUFFER_SIZE = 512;
+
+	/** longest wait for room in the command ring, or for a response (in nanoseconds) */
+	private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+	/** charset of account IDs */
+	private static final Charset BINARY_CHARSET = Charset.forName(ProtocolConstants.ENCODING.toString());
+
+	/** this class' logger */
+	private final Logger LOG = LoggerFactory.getLogger(getClass());
+
+	/** the rings shared with the adapter */
+	private final SharedMemoryChannel channel;
+
+	/** runs the reply reader */
+	private final ExecutorService threadPool = Executors.newSingleThreadExecutor();
+
+	/** fires events to the listeners, in order */
+	private final ExecutorService eventDispatcher = Executors.newSingleThreadExecutor();
+
+	/** the registered listeners */
+	private final CopyOnWriteArraySet<ExchangeListener> exchangeListeners = new CopyOnWriteArraySet<ExchangeListener>();
+
+	/** commands are issued one at a time, under this lock */
+	private final Object commandLock = new Object();
+
+	/** the command being encoded; guarded by commandLock */
+	private ByteBuffer command = ByteBuffer.allocate(BUFFER_SIZE);
+
+	/** correlation ID of the last command; guarded by commandLock */
+	private int correlationId;
+
+	/** response handed from the reader to the caller, {@code null} while there is none */
+	private final AtomicReference<ByteBuffer> reply = new AtomicReference<ByteBuffer>();
+
+	/** the thread waiting for a response, {@code null} if none */
+	private volatile Thread waiter;
+
+	/** whether this proxy has been closed */
+	private volatile boolean closed;
+
+	/** sequence number of the last event received, -1 before the first; dispatcher only */
+	private long lastSequence = -1;
+
+	/** whether the exchange is open, as last fired; {@code null} if not yet known; dispatcher only */
+	private Boolean lastOpen;
+
+	/** price of each stock, as last fired; dispatcher only */
+	private final Map<String, Integer> lastPrices = new HashMap<String, Integer>();
+
+	/**
+	 * Constructs a {@code SharedMemoryExchangeProxy}, attaching to the adapter's file and starting
+	 * the reply reader. (Object creation should come from {@link SharedMemoryExchangeProxyFactory}).
+	 *
+	 * @param file
+	 *            the file shared with the adapter
+	 * @throws IOException
+	 *             if the adapter's file does not exist or cannot be mapped, or another proxy is
+	 *             attached to it
+	 */
+	SharedMemoryExchangeProxy(final Path file) throws IOException {
+		this.channel = SharedMemoryChannel.attach(file);
+		threadPool.execute(this::readReplies);
+		LOG.info(String.format("Proxy attached to exchange through shared memory: %s", file));
+	}
+
+	/**
+	 * Reader loop. Hands each response polled from the reply ring to the waiting caller, and each
+	 * event to the dispatcher, until closed.
+	 */
+	private void readReplies() {
+		final SharedMemoryRing replies = channel.getReplies();
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		int idleCount = 0;
+		while (!closed) {
+			final ByteBuffer record = replies.poll(buffer);
+			if (record == null) {
+				SharedMemoryRing.idle(idleCount++);
+				continue;
+			}
+			idleCount = 0;
+			buffer = record;
+			if (record.get(0) == SharedMemoryChannel.OP_EVENT) {
+				dispatchEvent(record);
+			} else {
+				reply.set(ByteBuffer.allocate(record.remaining()).put(record).flip());
+				LockSupport.unpark(waiter);
+			}
+		}
+	}
+
+	/**
+	 * Decodes an event frame, and passes the event to the dispatcher.
+	 *
+	 * @param frame
+	 *            the frame, positioned at its opcode
+	 */
+	private void dispatchEvent(final ByteBuffer frame) {
+		frame.get();  //opcode
+		final byte type = frame.get();
+		final long sequence = frame.getLong();
+		final String ticker = type == SharedMemoryChannel.EVENT_PRICE_CHANGED
+				? BinaryProtocol.unpackTicker(frame.getInt()) : null;
+		final int price = ticker != null ? frame.getInt() : 0;
+		try {
+			eventDispatcher.execute(() -> processEvent(type, sequence, ticker, price));
+		} catch (RejectedExecutionException e) {
+			//closed meanwhile
+		}
+	}
+
+	/**
+	 * Fires an event to the listeners, then checks its sequence number follows the last one
+	 * received, recovering from a snapshot if not. Dispatcher only.
+	 *
+	 * @param type
+	 *            type of the event
+	 * @param sequence
+	 *            sequence number of the event
+	 * @param ticker
+	 *            ticker symbol of the stock, {@code null} unless a price change
+	 * @param price
+	 *            the new price, unless a price change
+	 */
+	private void processEvent(final byte type, final long sequence, final String ticker, final int price) {
+		switch (type) {
+		case SharedMemoryChannel.EVENT_OPENED:
+			fireStateChanged(true);
+			break;
+		case SharedMemoryChannel.EVENT_CLOSED:
+			fireStateChanged(false);
+			break;
+		case SharedMemoryChannel.EVENT_PRICE_CHANGED:
+			firePriceChanged(ticker, price);
+			break;
+		default:
+			LOG.warn(String.format("Event type not found: %d", type));
+			break;
+		}
+		final long expected = lastSequence + 1;
+		final boolean first = lastSequence < 0;
+		lastSequence = sequence;
+		if (first || sequence == expected) {
+			return;
+		}
+		LOG.warn(String.format("Missed %d events (%d to %d), recovering from a snapshot", sequence - expected,
+				expected, sequence - 1));
+		final ExchangeSnapshot snapshot = fetchSnapshot();
+		if (snapshot == null) {
+			return;
+		}
+		if (lastOpen == null || lastOpen != snapshot.isOpen()) {
+			fireStateChanged(snapshot.isOpen());
+		}
+		for (Map.Entry<String, Integer> snapshotPrice : snapshot.getPrices().entrySet()) {
+			if (!snapshotPrice.getValue().equals(lastPrices.get(snapshotPrice.getKey()))) {
+				firePriceChanged(snapshotPrice.getKey(), snapshotPrice.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Fires the exchange opening or closing to the listeners. Dispatcher only.
+	 *
+	 * @param open
+	 *            true if the exchange opened, false if it closed
+	 */
+	private void fireStateChanged(final boolean open) {
+		lastOpen = open;
+		final ExchangeEvent event = open ? ExchangeEvent.newOpenedEvent(this) : ExchangeEvent.newClosedEvent(this);
+		for (ExchangeListener listener : exchangeListeners) {
+			if (open) {
+				listener.exchangeOpened(event);
+			} else {
+				listener.exchangeClosed(event);
+			}
+		}
+	}
+
+	/**
+	 * Fires a price change to the listeners. Dispatcher only.
+	 *
+	 * @param ticker
+	 *            ticker symbol of the stock
+	 * @param price
+	 *            the new price
+	 */
+	private void firePriceChanged(final String ticker, final int price) {
+		lastPrices.put(ticker, price);
+		final ExchangeEvent event = ExchangeEvent.newPriceChangedEvent(this, ticker, price);
+		for (ExchangeListener listener : exchangeListeners) {
+			listener.priceChanged(event);
+		}
+	}
+
+	/**
+	 * Issues a command and decodes its response, waiting for the response. For callers with a
+	 * meaningful fallback should the command fail.
+	 *
+	 * @param opcode
+	 *            opcode of the command
+	 * @param payloadLength
+	 *            bytes of the payload
+	 * @param payload
+	 *            puts the payload into the frame
+	 * @param decoder
+	 *            decodes the response payload
+	 * @param failedValue
+	 *            value returned if the command fails
+	 * @return the decoded response, or failedValue
+	 */
+	private <T> T execute(final byte opcode, final int payloadLength, final Consumer<ByteBuffer> payload,
+			final Function<ByteBuffer, T> decoder, final T failedValue) {
+		try {
+			return issue(opcode, payloadLength, payload, decoder);
+		} catch (IOException e) {
+			LOG.error(String.format("Could not issue command: %d", opcode), e);
+			return failedValue;
+		}
+	}
+
+	/**
+	 * Issues a command whose failure must reach the caller, and decodes its response, waiting for
+	 * the response.
+	 *
+	 * @param opcode
+	 *            opcode of the command
+	 * @param payloadLength
+	 *            bytes of the payload
+	 * @param payload
+	 *            puts the payload into the frame
+	 * @param decoder
+	 *            decodes the response payload
+	 * @return the decoded response
+	 * @throws UncheckedIOException
+	 *             if the command fails
+	 */
+	private <T> T execute(final byte opcode, final int payloadLength, final Consumer<ByteBuffer> payload,
+			final Function<ByteBuffer, T> decoder) {
+		try {
+			return issue(opcode, payloadLength, payload, decoder);
+		} catch (IOException e) {
+			LOG.error(String.format("Could not issue command: %d", opcode), e);
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Issues a command and decodes its response, waiting for the response.
+	 *
+	 * @param opcode
+	 *            opcode of the command
+	 * @param payloadLength
+	 *            bytes of the payload
+	 * @param payload
+	 *            puts the payload into the frame
+	 * @param decoder
+	 *            decodes the response payload
+	 * @return the decoded response
+	 * @throws IOException
+	 *             if the command is rejected, or the exchange does not respond in time
+	 */
+	private <T> T issue(final byte opcode, final int payloadLength, final Consumer<ByteBuffer> payload,
+			final Function<ByteBuffer, T> decoder) throws IOException {
+		synchronized (commandLock) {
+			command.clear();
+			command = BinaryProtocol.ensureRemaining(command, 1 + 4 + payloadLength);
+			command.put((byte) (opcode | BinaryProtocol.CORRELATED));
+			command.putInt(++correlationId);
+			payload.accept(command);
+			command.flip();
+			return decoder.apply(send(command));
+		}
+	}
+
+	/**
+	 * Appends a command to the command ring, and waits for its response; spinning at first, then
+	 * parking until the reader hands it over. Responses to commands which timed out are discarded.
+	 *
+	 * @param frame
+	 *            the command frame, without its length field; consumed
+	 * @return the response payload, following its opcode and correlation ID
+	 * @throws IOException
+	 *             if the command is rejected, or the exchange does not respond in time
+	 */
+	private ByteBuffer send(final ByteBuffer frame) throws IOException {
+		final long deadline = System.nanoTime() + TIMEOUT_NANOS;
+		for (int waited = 0; !channel.getCommands().offer(frame); waited++) {
+			if (closed || System.nanoTime() - deadline > 0) {
+				throw new IOException("Exchange is not taking commands");
+			}
+			SharedMemoryRing.idle(waited);
+		}
+		waiter = Thread.currentThread();
+		try {
+			for (int waited = 0;; waited++) {
+				final ByteBuffer response = reply.getAndSet(null);
+				if (response != null) {
+					final byte opcode = response.get();
+					if (response.getInt() != correlationId) {
+						continue;  //response to a command which timed out
+					}
+					if ((opcode & ~BinaryProtocol.CORRELATED) == BinaryProtocol.OP_ERROR) {
+						throw new IOException("Exchange rejected command");
+					}
+					return response;
+				}
+				final long remaining = deadline - System.nanoTime();
+				if (closed || remaining <= 0) {
+					throw new IOException("No response from exchange");
+				}
+				if (waited < SharedMemoryRing.SPINS) {
+					Thread.onSpinWait();
+				} else {
+					LockSupport.parkNanos(this, remaining);
+				}
+			}
+		} finally {
+			waiter = null;
+		}
+	}
+
+	/**
+	 * Gets the state of the exchange.
+	 *
+	 * @return true if open, false if closed
+	 * @throws UncheckedIOException
+	 *             if the command fails
+	 */
+	@Override
+	public boolean isOpen() {
+		return execute(BinaryProtocol.OP_GET_STATE, 0, (frame) -> {
+		}, (payload) -> payload.get() == 1);
+	}
+
+	/**
+	 * Gets the ticker symbols of the stocks traded.
+	 *
+	 * @return the ticker symbols
+	 * @throws UncheckedIOException
+	 *             if the command fails
+	 */
+	@Override
+	public String[] getTickers() {
+		return execute(BinaryProtocol.OP_GET_TICKERS, 0, (frame) -> {
+		}, (payload) -> {
+			final String[] tickers = new String[payload.getInt()];
+			for (int i = 0; i < tickers.length; i++) {
+				tickers[i] = BinaryProtocol.unpackTicker(payload.getInt());
+			}
+			return tickers;
+		});
+	}
+
+	/**
+	 * Gets a stock's current price.
+	 *
+	 * @param ticker
+	 *            ticker symbol of the stock
+	 * @return the quote, {@code null} if the stock is not traded
+	 * @throws UncheckedIOException
+	 *             if the command fails
+	 */
+	@Override
+	public StockQuote getQuote(final String ticker) {
+		if (!BinaryProtocol.isEncodable(ticker)) {
+			return null;  //not a ticker of this exchange
+		}
+		return execute(BinaryProtocol.OP_GET_QUOTE, BinaryProtocol.TICKER_BYTES,
+				(frame) -> frame.putInt(BinaryProtocol.packTicker(ticker)), (payload) -> {
+					final int price = payload.getInt();
+					return price == (Integer) ProtocolConstants.INVALID_STOCK.getValue() ? null
+							: new StockQuote(ticker, price);
+				});
+	}
+
+	/**
+	 * Gets the current prices of several stocks in one command.
+	 *
+	 * @param tickers
+	 *            ticker symbols of the stocks, none for every stock traded
+	 * @return the quotes of the stocks traded, by ticker symbol
+	 * @throws UncheckedIOException
+	 *             if the command fails
+	 */
+	@Override
+	public Map<String, StockQuote> getQuotes(final String... tickers) {
+		final List<String> encodable = new ArrayList<String>(tickers.length);
+		for (String ticker : tickers) {
+			if (BinaryProtocol.isEncodable(ticker)) {
+				encodable.add(ticker);
+			}
+		}
+		if (tickers.length > 0 && encodable.isEmpty()) {
+			return new HashMap<String, StockQuote>();
+		}
+		return execute(BinaryProtocol.OP_GET_QUOTES, 4 + encodable.size() * BinaryProtocol.TICKER_BYTES,
+				(frame) -> {
+					frame.putInt(encodable.size());
+					for (String ticker : encodable) {
+						frame.putInt(BinaryProtocol.packTicker(ticker));
+					}
+				}, (payload) -> {
+					final int count = payload.getInt();
+					final Map<String, StockQuote> quotes = new HashMap<String, StockQuote>(count * 2);
+					for (int i = 0; i < count; i++) {
+						final String ticker = BinaryProtocol.unpackTicker(payload.getInt());
+						quotes.put(ticker, new StockQuote(ticker, payload.getInt()));
+					}
+					return quotes;
+				});
+	}
+
+	/**
+	 * Fetches the state of the exchange and the price of each stock traded.
+	 *
+	 * @return the snapshot, {@code null} if the command fails
+	 */
+	private ExchangeSnapshot fetchSnapshot() {
+		return execute(BinaryProtocol.OP_SNAPSHOT, 0, (frame) -> {
+		}, (payload) -> {
+			final boolean open = payload.get() == 1;
+			final int count = payload.getInt();
+			final Map<String, Integer> prices = new HashMap<String, Integer>(count * 2);
+			for (int i = 0; i < count; i++) {
+				prices.put(BinaryProtocol.unpackTicker(payload.getInt()), payload.getInt());
+			}
+			return new ExchangeSnapshot(open, prices);
+		}, null);
+	}
+
+	/**
+	 * Executes a trade.
+	 *
+	 * @param order
+	 *            the order to execute
+	 * @return the price the order was executed at, 0 if it was not executed
+	 * @throws UncheckedIOException
+	 *             if the command fails, as whether the order was executed is unknown
+	 */
+	@Override
+	public int executeTrade(final Order order) {
+		if (!BinaryProtocol.isEncodable(order.getStockTicker())) {
+			LOG.warn(String.format("Order for unknown stock %s not executed", order.getStockTicker()));
+			return 0;
+		}
+		final byte[] accountID = order.getAccountId().getBytes(BINARY_CHARSET);
+		return execute(BinaryProtocol.OP_EXECUTE_TRADE, BinaryProtocol.ORDER_BYTES + accountID.length,
+				(frame) -> BinaryProtocol.putOrder(frame, order, accountID), ByteBuffer::getInt);
+	}
+
+	/**
+	 * Executes a batch of trades, one command per {@value #MAX_TRADES_PER_COMMAND} orders. A
+	 * batch with an order for a stock which cannot be encoded is executed one order at a time.
+	 *
+	 * @param orders
+	 *            the orders to execute
+	 * @return the prices the orders were executed at, by position in the batch; 0 if not executed,
+	 *         {@link #TRADE_FAILED} for each order of a command which failed
+	 */
+	@Override
+	public int[] executeTrades(final List<? extends Order> orders) {
+		final int[] executionPrices = new int[orders.size()];
+		for (int from = 0; from < orders.size(); from += MAX_TRADES_PER_COMMAND) {
+			final List<? extends Order> batch = orders.subList(from, Math.min(orders.size(),
+					from + MAX_TRADES_PER_COMMAND));
+			final int[] prices = executeBatch(batch);
+			if (prices.length == batch.size()) {
+				System.arraycopy(prices, 0, executionPrices, from, prices.length);
+			} else {
+				Arrays.fill(executionPrices, from, from + batch.size(), TRADE_FAILED);
+			}
+		}
+		return executionPrices;
+	}
+
+	/**
+	 * Executes a batch of at most {@value #MAX_TRADES_PER_COMMAND} trades.
+	 *
+	 * @param orders
+	 *            the orders to execute
+	 * @return the prices the orders were executed at, empty if the command fails
+	 */
+	private int[] executeBatch(final List<? extends Order> orders) {
+		final byte[][] accountIDs = new byte[orders.size()][];
+		int payloadLength = 4;
+		for (int i = 0; i < accountIDs.length; i++) {
+			final Order order = orders.get(i);
+			if (!BinaryProtocol.isEncodable(order.getStockTicker())) {
+				final int[] prices = new int[orders.size()];
+				for (int j = 0; j < prices.length; j++) {
+					prices[j] = executeTrade(orders.get(j));
+				}
+				return prices;
+			}
+			accountIDs[i] = order.getAccountId().getBytes(BINARY_CHARSET);
+			payloadLength += BinaryProtocol.ORDER_BYTES + accountIDs[i].length;
+		}
+		return execute(BinaryProtocol.OP_EXECUTE_TRADES, payloadLength, (frame) -> {
+			frame.putInt(accountIDs.length);
+			for (int i = 0; i < accountIDs.length; i++) {
+				BinaryProtocol.putOrder(frame, orders.get(i), accountIDs[i]);
+			}
+		}, (payload) -> {
+			final int[] prices = new int[payload.getInt()];
+			for (int i = 0; i < prices.length; i++) {
+				prices[i] = payload.getInt();
+			}
+			return prices;
+		}, new int[0]);
+	}
+
+	/**
+	 * Does nothing; every price change is delivered through shared memory.
+	 *
+	 * @param tickers
+	 *            the ticker symbols of the stocks
+	 */
+	@Override
+	public void subscribe(final String... tickers) {
+	}
+
+	/**
+	 * Adds a market listener.
+	 *
+	 * @param listener
+	 *            the listener to add
+	 */
+	@Override
+	public void addExchangeListener(final ExchangeListener listener) {
+		exchangeListeners.add(listener);
+	}
+
+	/**
+	 * Removes a market listener.
+	 *
+	 * @param listener
+	 *            the listener to remove
+	 */
+	@Override
+	public void removeExchangeListener(final ExchangeListener listener) {
+		exchangeListeners.remove(listener);
+	}
+
+	/**
+	 * Detaches this proxy from the adapter, stopping its reader and dispatcher.
+	 */
+	public void close() {
+		closed = true;
+		threadPool.shutdown();
+		eventDispatcher.shutdown();
+		try {
+			threadPool.awaitTermination(ExchangeNetworkAdapter.getShutdownTimer(), TimeUnit.SECONDS);
+			channel.close();
+		} catch (InterruptedException e) {
+			LOG.warn("Proxy closed before its reader stopped");
+		} catch (IOException e) {
+			LOG.warn("Failed to close the shared memory file", e);
+		}
+	}
+
+} //END OF SharedMemoryExchangeProxy CLASS
@@ -0,0 +1,78 @@
+package com.github.astefanich.exchange;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.uw.ext.framework.exchange.NetworkExchangeProxyFactory;
+import edu.uw.ext.framework.exchange.StockExchange;
+
+/**
+ * Factory implementation for creating instances of {@link SharedMemoryExchangeProxy}, attached to
+ * the file of a {@link SharedMemoryExchangeAdapter} on the same host; named after the command port,
+ * in the directory the adapter factory was given. The addresses and the multicast port are not
+ * used. Requires a JDK with {@code VarHandle} views of byte buffers (built with the
+ * {@code virtual-threads} profile).
+ * 
+ * @author AndrewStefanich
+ *
+ * @see SharedMemoryExchangeProxy
+ * @see SharedMemoryExchangeAdapterFactory
+ */
+public final class SharedMemoryExchangeProxyFactory implements NetworkExchangeProxyFactory {
+
+	/** this class' logger */
+	private static final Logger LOG = LoggerFactory.getLogger(SharedMemoryExchangeProxyFactory.class);
+
+	/** directory of the files shared with adapters */
+	private String directory = "/dev/shm";
+
+	/**
+	 * Sets the directory of the adapters' files subsequently created proxies attach to.
+	 * 
+	 * @param directory
+	 *            the directory, {@code /dev/shm} by default
+	 */
+	public void setDirectory(final String directory) {
+		if (directory == null) {
+			throw new IllegalArgumentException("directory must not be null");
+		}
+		this.directory = directory;
+	}
+
+	/**
+	 * Gets the directory of the adapters' files new proxies attach to.
+	 * 
+	 * @return the directory
+	 */
+	public String getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Instantiates a {@code SharedMemoryExchangeProxy}.
+	 * 
+	 * @param multicastIP
+	 *            not used
+	 * @param multicastPort
+	 *            not used
+	 * @param commandIP
+	 *            not used, the exchange is on this host
+	 * @param commandPort
+	 *            the command port, which names the shared file
+	 * @return a newly instantiated {@code SharedMemoryExchangeProxy}, {@code null} if the adapter's
+	 *         file cannot be attached to
+	 */
+	@Override
+	public StockExchange newProxy(String multicastIP, int multicastPort, String commandIP, int commandPort) {
+		SharedMemoryExchangeProxy proxy = null;
+		try {
+			proxy = new SharedMemoryExchangeProxy(SharedMemoryChannel.pathFor(directory, commandPort));
+		} catch (IOException e) {
+			LOG.warn("Failed to create a new SharedMemoryExchangeProxy. Shared memory file could not be attached to", e);
+		}
+		return proxy;
+	}
+
+}
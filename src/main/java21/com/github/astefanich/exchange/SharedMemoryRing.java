@@ -0,0 +1,232 @@
+package com.github.astefanich.exchange;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-producer/single-consumer ring of variable-length records, in a region of a file mapped by
+ * two processes. The region starts with the producer's position and the consumer's position, each
+ * on a cache line of its own, followed by the data; positions count the bytes written and read
+ * since the ring was created, and never wrap. A record is its length (int) followed by its bytes,
+ * padded to 4 bytes, and may wrap around the end of the data. <br>
+ * <br>
+ * The producer copies a record in, then publishes its position with a release store; the consumer
+ * reads that position with an acquire load, copies the record out, then publishes its own position
+ * the same way, so the producer never overwrites a record being read. Each side caches the other's
+ * position, and only reloads it when the ring looks full or empty. Producing threads of one process
+ * are serialized by a lock on the ring; only one thread may consume.
+ *
+ * @author AndrewStefanich
+ * @see SharedMemoryChannel
+ */
+final class SharedMemoryRing {
+
+	/** bytes of the positions preceding the data */
+	static final int HEADER_BYTES = 128;
+
+	/** smallest capacity of the data */
+	static final int MIN_CAPACITY = 4096;
+
+	/** offset of the producer's position */
+	private static final int TAIL_OFFSET = 0;
+
+	/** offset of the consumer's position, a cache line after the producer's */
+	private static final int HEAD_OFFSET = 64;
+
+	/** bytes of a record's length */
+	private static final int LENGTH_BYTES = 4;
+
+	/**
+	 * idle calls spent spinning before yielding; none on a single CPU, where spinning only delays
+	 * the other side
+	 */
+	static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 10_000 : 0;
+
+	/** idle calls spent yielding before parking */
+	private static final int YIELDS = 100;
+
+	/** time parked by each idle call after spinning and yielding (in nanoseconds) */
+	private static final long PARK_NANOS = 50_000;
+
+	/** ordered access to the positions; the mapped buffer is aligned, so the positions are too */
+	private static final VarHandle POSITION = MethodHandles.byteBufferViewVarHandle(long[].class,
+			ByteOrder.nativeOrder());
+
+	/** the positions */
+	private final ByteBuffer header;
+
+	/** the records */
+	private final ByteBuffer data;
+
+	/** bytes of the data, a power of 2 */
+	private final int capacity;
+
+	/** the producer's position; guarded by this */
+	private long tail;
+
+	/** the consumer's position, as last loaded by the producer; guarded by this */
+	private long cachedHead;
+
+	/** the consumer's position; consumer only */
+	private long head;
+
+	/** the producer's position, as last loaded by the consumer; consumer only */
+	private long cachedTail;
+
+	/**
+	 * Constructs a SharedMemoryRing over a region, resuming from the positions stored in it; 0 in
+	 * a region just created.
+	 *
+	 * @param region
+	 *            the region, {@link #HEADER_BYTES} followed by the data; its capacity a power of 2
+	 *            of at least {@value #MIN_CAPACITY}
+	 */
+	SharedMemoryRing(final ByteBuffer region) {
+		this.header = region.slice(0, HEADER_BYTES);
+		this.data = region.slice(HEADER_BYTES, region.capacity() - HEADER_BYTES);
+		this.capacity = data.capacity();
+		if (capacity < MIN_CAPACITY || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Ring capacity must be a power of 2 of at least " + MIN_CAPACITY
+					+ ": " + capacity);
+		}
+		this.tail = (long) POSITION.getAcquire(header, TAIL_OFFSET);
+		this.cachedHead = (long) POSITION.getAcquire(header, HEAD_OFFSET);
+		this.head = cachedHead;
+		this.cachedTail = tail;
+	}
+
+	/**
+	 * Gets the bytes of a region holding a ring.
+	 *
+	 * @param capacity
+	 *            bytes of the ring's data
+	 * @return the bytes of the region
+	 */
+	static int regionBytes(final int capacity) {
+		return HEADER_BYTES + capacity;
+	}
+
+	/**
+	 * Gets the longest record the ring accepts.
+	 *
+	 * @return the length, in bytes
+	 */
+	int getMaxRecordLength() {
+		return capacity / 2 - LENGTH_BYTES;
+	}
+
+	/**
+	 * Appends a record, unless the ring has no room for it.
+	 *
+	 * @param record
+	 *            the record, from its position to its limit; consumed if appended
+	 * @return true if appended, false if the ring is full
+	 * @throws IllegalArgumentException
+	 *             if the record is longer than {@link #getMaxRecordLength()}
+	 */
+	synchronized boolean offer(final ByteBuffer record) {
+		final int length = record.remaining();
+		if (length > getMaxRecordLength()) {
+			throw new IllegalArgumentException(String.format("Record of %d bytes exceeds the ring's %d", length,
+					getMaxRecordLength()));
+		}
+		final int size = align(LENGTH_BYTES + length);
+		if (tail + size - cachedHead > capacity) {
+			cachedHead = (long) POSITION.getAcquire(header, HEAD_OFFSET);
+			if (tail + size - cachedHead > capacity) {
+				return false;
+			}
+		}
+		data.putInt(index(tail), length);
+		final int start = index(tail + LENGTH_BYTES);
+		final int first = Math.min(length, capacity - start);
+		data.put(start, record, record.position(), first);
+		data.put(0, record, record.position() + first, length - first);
+		record.position(record.limit());
+		tail += size;
+		POSITION.setRelease(header, TAIL_OFFSET, tail);
+		return true;
+	}
+
+	/**
+	 * Removes the next record. Consumer only.
+	 *
+	 * @param buffer
+	 *            buffer the record is copied into, if large enough
+	 * @return the record, in {@code buffer} or a larger buffer, positioned at 0 and limited to its
+	 *         length; {@code null} if the ring is empty
+	 */
+	ByteBuffer poll(final ByteBuffer buffer) {
+		if (head == cachedTail) {
+			cachedTail = (long) POSITION.getAcquire(header, TAIL_OFFSET);
+			if (head == cachedTail) {
+				return null;
+			}
+		}
+		final int length = data.getInt(index(head));
+		final ByteBuffer record = buffer.capacity() >= length ? buffer : ByteBuffer.allocate(length);
+		final int start = index(head + LENGTH_BYTES);
+		final int first = Math.min(length, capacity - start);
+		record.clear();
+		record.put(0, data, start, first);
+		record.put(first, data, 0, length - first);
+		record.limit(length);
+		head += align(LENGTH_BYTES + length);
+		POSITION.setRelease(header, HEAD_OFFSET, head);
+		return record;
+	}
+
+	/**
+	 * Discards every record appended so far, e.g. those left for a consumer which is gone.
+	 * Consumer only.
+	 */
+	void skipAll() {
+		cachedTail = (long) POSITION.getAcquire(header, TAIL_OFFSET);
+		head = cachedTail;
+		POSITION.setRelease(header, HEAD_OFFSET, head);
+	}
+
+	/**
+	 * Waits a little while a ring stays full or empty; spinning at first, so a record arriving
+	 * soon is seen within microseconds, then yielding, then parking, so an idle ring costs little
+	 * CPU.
+	 *
+	 * @param idleCount
+	 *            number of consecutive calls without progress before this one
+	 */
+	static void idle(final int idleCount) {
+		if (idleCount < SPINS) {
+			Thread.onSpinWait();
+		} else if (idleCount < SPINS + YIELDS) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+	}
+
+	/**
+	 * Gets the index in the data of a position.
+	 *
+	 * @param position
+	 *            the position
+	 * @return the index
+	 */
+	private int index(final long position) {
+		return (int) position & (capacity - 1);
+	}
+
+	/**
+	 * Rounds a length up to a multiple of 4, so a record's length never wraps.
+	 *
+	 * @param length
+	 *            the length
+	 * @return the aligned length
+	 */
+	private static int align(final int length) {
+		return (length + 3) & ~3;
+	}
+
+} //END OF SharedMemoryRing CLASS
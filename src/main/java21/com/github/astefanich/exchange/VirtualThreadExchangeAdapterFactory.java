@@ -0,0 +1,173 @@
+package com.github.astefanich.exchange;
+
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.uw.ext.framework.exchange.ExchangeAdapter;
+import edu.uw.ext.framework.exchange.NetworkExchangeAdapterFactory;
+import edu.uw.ext.framework.exchange.StockExchange;
+
+/**
+ * Implementation class of {@link NetworkExchangeAdapterFactory}; creates instances of
+ * {@link ExchangeNetworkAdapter} whose command listener runs each client's
+ * {@code CommandHandler} on its own virtual thread. Requires a JDK with virtual threads (built
+ * with the {@code virtual-threads} profile).
+ * <br>
+ * Admission limits, event sharding and event batching are set as on
+ * {@link ExchangeNetworkAdapterFactory}. The number of I/O threads is not: connections are served
+ * by blocking handlers on virtual threads, not multiplexed by a {@link NioCommandServer}, so
+ * [maxInFlightPerConnection] has no effect, and a command finding no execution permit waits for
+ * one up to the queue timeout.
+ * 
+ * @author AndrewStefanich
+ * 
+ * @see NetworkExchangeAdapterFactory
+ * @see ExchangeNetworkAdapter
+ * @see ExchangeNetworkAdapterFactory
+ *
+ */
+public final class VirtualThreadExchangeAdapterFactory implements NetworkExchangeAdapterFactory {
+
+	/** this class' logger */
+	private static final Logger LOG = LoggerFactory.getLogger(VirtualThreadExchangeAdapterFactory.class);
+
+	/** holds the settings shared with the platform thread adapters, and applies them */
+	private final ExchangeNetworkAdapterFactory settings = new ExchangeNetworkAdapterFactory();
+
+	/**
+	 * Sets the window over which subsequently created adapters coalesce price changes into
+	 * multi-record datagrams.
+	 * 
+	 * @param eventBatchMillis
+	 *            the window in milliseconds, 0 (a datagram per change) by default
+	 * @see ExchangeNetworkAdapterFactory#setEventBatchMillis(long)
+	 */
+	public void setEventBatchMillis(final long eventBatchMillis) {
+		settings.setEventBatchMillis(eventBatchMillis);
+	}
+
+	/**
+	 * Gets the window over which new adapters coalesce price changes.
+	 * 
+	 * @return the window in milliseconds, 0 for a datagram per change
+	 */
+	public long getEventBatchMillis() {
+		return settings.getEventBatchMillis();
+	}
+
+	/**
+	 * Sets the number of multicast groups subsequently created adapters shard price changes over,
+	 * by ticker.
+	 * 
+	 * @param eventGroups
+	 *            the number of groups, 0 (not sharded) by default
+	 * @see ExchangeNetworkAdapterFactory#setEventGroups(int)
+	 */
+	public void setEventGroups(final int eventGroups) {
+		settings.setEventGroups(eventGroups);
+	}
+
+	/**
+	 * Gets the number of multicast groups new adapters shard price changes over.
+	 * 
+	 * @return the number of groups, 0 if price changes are sent with the other events
+	 */
+	public int getEventGroups() {
+		return settings.getEventGroups();
+	}
+
+	/**
+	 * Sets the number of connections subsequently created adapters keep open at once.
+	 * 
+	 * @param maxConnections
+	 *            the number of connections, 0 (no limit) by default
+	 * @see ExchangeNetworkAdapterFactory#setMaxConnections(int)
+	 */
+	public void setMaxConnections(final int maxConnections) {
+		settings.setMaxConnections(maxConnections);
+	}
+
+	/**
+	 * Gets the number of connections new adapters keep open at once.
+	 * 
+	 * @return the number of connections, 0 if not limited
+	 */
+	public int getMaxConnections() {
+		return settings.getMaxConnections();
+	}
+
+	/**
+	 * Sets the number of commands subsequently created adapters execute at once, across all
+	 * connections.
+	 * 
+	 * @param maxInFlight
+	 *            the number of commands, 0 (no limit) by default
+	 * @see ExchangeNetworkAdapterFactory#setMaxInFlight(int)
+	 */
+	public void setMaxInFlight(final int maxInFlight) {
+		settings.setMaxInFlight(maxInFlight);
+	}
+
+	/**
+	 * Gets the number of commands new adapters execute at once.
+	 * 
+	 * @return the number of commands, 0 if not limited
+	 */
+	public int getMaxInFlight() {
+		return settings.getMaxInFlight();
+	}
+
+	/**
+	 * Sets the longest a command of subsequently created adapters may wait, from its receipt, for
+	 * one of the [maxInFlight] commands executing to finish.
+	 * 
+	 * @param queueTimeoutMillis
+	 *            the timeout in milliseconds, 0 (answered [BUSY] at once) by default
+	 * @see ExchangeNetworkAdapterFactory#setQueueTimeoutMillis(long)
+	 */
+	public void setQueueTimeoutMillis(final long queueTimeoutMillis) {
+		settings.setQueueTimeoutMillis(queueTimeoutMillis);
+	}
+
+	/**
+	 * Gets the longest a command of new adapters may wait to start executing.
+	 * 
+	 * @return the timeout in milliseconds, 0 if a command does not wait
+	 */
+	public long getQueueTimeoutMillis() {
+		return settings.getQueueTimeoutMillis();
+	}
+
+	/**
+	 * Instantiates an {@code ExchangeNetworkAdapter} on virtual threads.
+	 * 
+	 * @param exchange
+	 *            the underlying 'real' {@link StockExchange}
+	 * @param multicastIP
+	 *            the multicast IP address used to distribute events
+	 * @param multicastPort
+	 *            the port used to distribute events
+	 * @param commandPort
+	 *            the listening port to be used to accept command requests
+	 * @return a new {@code ExchangeNetworkAdapter}, {@code null} if instantiation fails
+	 */
+	@Override
+	public ExchangeAdapter newAdapter(StockExchange exchange, String multicastIP, int multicastPort, int commandPort) {
+		ExchangeNetworkAdapter exchangeNetworkAdapter = null;
+		try {
+			exchangeNetworkAdapter = new ExchangeNetworkAdapter(exchange, multicastIP, multicastPort,
+					commandPort, Executors.newVirtualThreadPerTaskExecutor());
+			settings.configure(exchangeNetworkAdapter);
+		} catch (SocketException e) {
+			LOG.warn("Failed to create a new ExchangeNetworkAdapter. Error creating or accessing a Socket", e);
+		} catch (UnknownHostException e) {
+			LOG.warn("Failed to create a new ExchangeNetworkAdapter. IP host could not be determined", e);
+		}
+		return exchangeNetworkAdapter;
+	}
+
+}
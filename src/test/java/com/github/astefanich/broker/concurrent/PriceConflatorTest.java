@@ -0,0 +1,154 @@
+package com.github.astefanich.broker.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.astefanich.broker.book.OrderBookType;
+import com.github.astefanich.broker.concurrent.actor.ActorOrderManager;
+
+import edu.uw.ext.framework.order.StopBuyOrder;
+import edu.uw.ext.framework.order.StopSellOrder;
+
+/**
+ * Tests that a {@link PriceConflator} does not miss a stop order triggered by a price which is
+ * conflated away. The first adjustment is held until the price has moved past the stop and back,
+ * so both moves fall within one conflation window.
+ *
+ * @author AndrewStefanich
+ */
+public class PriceConflatorTest {
+
+	/** ticker symbol of the stock */
+	private static final String TICKER = "BA";
+
+	/** price of the stock when the order manager is created */
+	private static final int INITIAL_PRICE = 100;
+
+	/** how long to wait for a dispatch, in seconds */
+	private static final long TIMEOUT_SECONDS = 5;
+
+	/** order manager under test, dispatching on the adjusting thread */
+	private ActorOrderManager orderManager;
+
+	/** conflates the price changes into orderManager */
+	private PriceConflator conflator;
+
+	/** signalled once the first adjustment starts */
+	private CountDownLatch adjusting;
+
+	/** releases the first adjustment */
+	private CountDownLatch release;
+
+	/** the stop orders dispatched */
+	private List<Object> dispatched;
+
+	/** signalled once a stop order is dispatched */
+	private CountDownLatch dispatchedLatch;
+
+	/**
+	 * Creates the order manager and the conflator, holding the conflator's first adjustment.
+	 */
+	@Before
+	public void setUp() {
+		orderManager = new ActorOrderManager(TICKER, INITIAL_PRICE, Runnable::run, OrderBookType.TREE_SET);
+		dispatched = new CopyOnWriteArrayList<Object>();
+		dispatchedLatch = new CountDownLatch(1);
+		orderManager.setBuyOrderProcessor((order) -> {
+			dispatched.add(order);
+			dispatchedLatch.countDown();
+		});
+		orderManager.setSellOrderProcessor((order) -> {
+			dispatched.add(order);
+			dispatchedLatch.countDown();
+		});
+		adjusting = new CountDownLatch(1);
+		release = new CountDownLatch(1);
+		final AtomicBoolean first = new AtomicBoolean(true);
+		conflator = new PriceConflator("test", (ticker, price) -> {
+			if (first.getAndSet(false)) {
+				adjusting.countDown();
+				try {
+					release.await();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			orderManager.adjustPrice(price);
+		});
+	}
+
+	/**
+	 * Stops the conflator.
+	 */
+	@After
+	public void tearDown() {
+		conflator.close();
+	}
+
+	/**
+	 * Moves the price above a stop buy order and back within one conflation window.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the dispatch
+	 */
+	@Test
+	public void testStopBuyTriggeredByConflatedHigh() throws InterruptedException {
+		final StopBuyOrder order = new StopBuyOrder("acct", 10, TICKER, 110);
+		orderManager.queueOrder(order);
+
+		holdFirstAdjustment(101);
+		conflator.priceChanged(TICKER, 115);
+		conflator.priceChanged(TICKER, INITIAL_PRICE);
+		release.countDown();
+
+		assertTrue("stop buy order not dispatched", dispatchedLatch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		assertEquals(order, dispatched.get(0));
+		assertEquals(1, conflator.getConflatedCount());
+	}
+
+	/**
+	 * Moves the price below a stop sell order and back within one conflation window.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the dispatch
+	 */
+	@Test
+	public void testStopSellTriggeredByConflatedLow() throws InterruptedException {
+		final StopSellOrder order = new StopSellOrder("acct", 10, TICKER, 90);
+		orderManager.queueOrder(order);
+
+		holdFirstAdjustment(99);
+		conflator.priceChanged(TICKER, 85);
+		conflator.priceChanged(TICKER, INITIAL_PRICE);
+		release.countDown();
+
+		assertTrue("stop sell order not dispatched", dispatchedLatch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		assertEquals(order, dispatched.get(0));
+		assertEquals(1, conflator.getConflatedCount());
+	}
+
+	/**
+	 * Sends a price which triggers nothing, and waits until the dispatcher is holding it, so the
+	 * following changes are conflated into the stock's next slot.
+	 *
+	 * @param price
+	 *            the price
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	private void holdFirstAdjustment(final int price) throws InterruptedException {
+		conflator.priceChanged(TICKER, price);
+		assertTrue("first adjustment not started", adjusting.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		assertTrue(dispatched.isEmpty());
+	}
+}
@@ -0,0 +1,170 @@
+package com.github.astefanich.exchange;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+
+/**
+ * Measures the allocation and time per event of decoding event datagrams with an
+ * {@link EventDecoder}, next to the {@code String.split} decoding it replaced. Decodes a mix of
+ * [PRICE_CHANGE_EVENT], [PRICE_CHANGES_EVENT] and [OPEN_EVENT] datagrams over a set of tickers,
+ * counting the bytes allocated by the decoding thread; fails if decoding allocates once every
+ * ticker has been interned.
+ * <br>
+ * Run with: <br>
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.github.astefanich.exchange.EventDecoderBenchmark -Dexec.args="1000000"}
+ *
+ * @author AndrewStefanich
+ */
+public final class EventDecoderBenchmark {
+
+	/** tickers the events are for */
+	private static final String[] TICKERS = { "BA", "F", "GE", "IBM", "MSFT", "ORCL", "T", "XOM" };
+
+	/** charset of the events */
+	private static final Charset CHARSET = Charset.forName(ProtocolConstants.ENCODING.toString());
+
+	/** delimiter of the elements */
+	private static final String DELIMITER = ProtocolConstants.ELEMENT_DELIMITER.toString();
+
+	/**
+	 * Not instantiable.
+	 */
+	private EventDecoderBenchmark() {
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            optional: number of datagrams decoded per measurement
+	 */
+	public static void main(final String[] args) {
+		final int datagrams = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		final byte[][] events = events();
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		final long thread = Thread.currentThread().getId();
+		final EventDecoder decoder = new EventDecoder();
+
+		long sink = 0;
+		for (int round = 0; round < 5; round++) {  //warm up, and intern every ticker
+			sink += decodeInPlace(decoder, events, datagrams);
+			sink += decodeSplit(events, datagrams);
+		}
+
+		final long overhead = threads.getThreadAllocatedBytes(thread);
+		final long calibrated = threads.getThreadAllocatedBytes(thread) - overhead;
+		long start = System.nanoTime();
+		long before = threads.getThreadAllocatedBytes(thread);
+		final long inPlaceRecords = decodeInPlace(decoder, events, datagrams);
+		final long inPlaceBytes = threads.getThreadAllocatedBytes(thread) - before - calibrated;
+		final long inPlaceNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		before = threads.getThreadAllocatedBytes(thread);
+		final long splitRecords = decodeSplit(events, datagrams);
+		final long splitBytes = threads.getThreadAllocatedBytes(thread) - before - calibrated;
+		final long splitNanos = System.nanoTime() - start;
+
+		System.out.printf("%d datagrams, %d records (checksum %d)%n", datagrams, inPlaceRecords, sink);
+		System.out.printf("in place: %,d bytes allocated, %.2f bytes/datagram, %.1f ns/datagram%n", inPlaceBytes,
+				(double) inPlaceBytes / datagrams, (double) inPlaceNanos / datagrams);
+		System.out.printf("split:    %,d bytes allocated, %.2f bytes/datagram, %.1f ns/datagram%n", splitBytes,
+				(double) splitBytes / datagrams, (double) splitNanos / datagrams);
+		if (inPlaceRecords != splitRecords) {
+			throw new IllegalStateException("Decoders disagree");
+		}
+		if (inPlaceBytes > 0) {
+			throw new IllegalStateException(String.format("Decoding allocated %d bytes", inPlaceBytes));
+		}
+	}
+
+	/**
+	 * Builds the datagrams decoded, as the adapter sends them.
+	 *
+	 * @return the datagrams
+	 */
+	private static byte[][] events() {
+		final byte[][] events = new byte[TICKERS.length + 2][];
+		int sequence = 0;
+		for (int i = 0; i < TICKERS.length; i++) {
+			events[i] = (ProtocolConstants.PRICE_CHANGE_EVENT + DELIMITER + TICKERS[i] + DELIMITER + (1000 + i * 37)
+					+ DELIMITER + sequence++).getBytes(CHARSET);
+		}
+		final StringBuilder batch = new StringBuilder();
+		batch.append(ProtocolConstants.PRICE_CHANGES_EVENT);
+		for (int i = 0; i < TICKERS.length; i++) {
+			batch.append(DELIMITER).append(TICKERS[i]).append(DELIMITER).append(2000 + i);
+		}
+		events[TICKERS.length] = batch.append(DELIMITER).append(sequence++).toString().getBytes(CHARSET);
+		events[TICKERS.length + 1] = (ProtocolConstants.OPEN_EVENT + DELIMITER + sequence++).getBytes(CHARSET);
+		return events;
+	}
+
+	/**
+	 * Decodes datagrams in place, as the proxy does.
+	 *
+	 * @param decoder
+	 *            the decoder
+	 * @param events
+	 *            the datagrams, decoded in turn
+	 * @param datagrams
+	 *            number of datagrams decoded
+	 * @return number of price records decoded
+	 */
+	private static long decodeInPlace(final EventDecoder decoder, final byte[][] events, final int datagrams) {
+		long records = 0;
+		for (int i = 0; i < datagrams; i++) {
+			final byte[] event = events[i % events.length];
+			decoder.reset(event, 0, event.length);
+			decoder.nextElement();
+			switch (decoder.eventType()) {
+			case PRICE_CHANGE_EVENT:
+			case PRICE_CHANGES_EVENT:
+				while (decoder.nextElement() && decoder.hasNext()) {
+					records += decoder.ticker().length() > 0 ? 1 : 0;
+					decoder.nextElement();
+					records += decoder.number() < 0 ? 1 : 0;
+				}
+				break;
+			default:
+				decoder.nextElement();
+				records += decoder.number() < 0 ? 1 : 0;
+				break;
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Decodes datagrams with {@code String.split}, as the proxy did.
+	 *
+	 * @param events
+	 *            the datagrams, decoded in turn
+	 * @param datagrams
+	 *            number of datagrams decoded
+	 * @return number of price records decoded
+	 */
+	private static long decodeSplit(final byte[][] events, final int datagrams) {
+		long records = 0;
+		for (int i = 0; i < datagrams; i++) {
+			final byte[] event = events[i % events.length];
+			final String[] tokens = new String(event, 0, event.length, CHARSET).split(DELIMITER);
+			switch (ProtocolConstants.valueOf(tokens[0])) {
+			case PRICE_CHANGE_EVENT:
+			case PRICE_CHANGES_EVENT:
+				for (int j = 1; j + 2 < tokens.length; j += 2) {  //the last token is the sequence number
+					records += tokens[j].length() > 0 ? 1 : 0;
+					records += Integer.parseInt(tokens[j + 1]) < 0 ? 1 : 0;
+				}
+				break;
+			default:
+				records += Long.parseLong(tokens[tokens.length - 1]) < 0 ? 1 : 0;
+				break;
+			}
+		}
+		return records;
+	}
+
+} //END OF EventDecoderBenchmark CLASS
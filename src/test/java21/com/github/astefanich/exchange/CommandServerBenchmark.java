@@ -0,0 +1,251 @@
+package com.github.astefanich.exchange;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.uw.ext.framework.exchange.ExchangeListener;
+import edu.uw.ext.framework.exchange.StockExchange;
+import edu.uw.ext.framework.exchange.StockQuote;
+import edu.uw.ext.framework.order.Order;
+
+/**
+ * Side-by-side benchmark of the {@link ExchangeNetworkAdapter} command server on a cached pool of
+ * platform threads, and on virtual threads. Connects the given number of concurrent clients (10,000
+ * by default), each of which then issues a number of quote commands, and reports throughput and
+ * the peak number of platform threads in the JVM.
+ * <br>
+ * Only the command server is compared. The brokers' order dispatch
+ * ({@code VirtualThreadBrokerFactory} against {@code ExecutorBrokerFactory}) is not benchmarked here:
+ * it needs an account manager and its persistent accounts, and its thread count is bounded by the
+ * stocks traded rather than by the clients connected.
+ * <br>
+ * Run with the {@code virtual-threads} profile, and with the open file limit raised above twice the
+ * client count (e.g. {@code ulimit -n 65536}): <br>
+ * {@code mvn -P virtual-threads test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.github.astefanich.exchange.CommandServerBenchmark -Dexec.args="10000 20"}
+ *
+ * @author AndrewStefanich
+ */
+public final class CommandServerBenchmark {
+
+	/** multicast group the adapters publish (unused) events to */
+	private static final String EVENTS_GROUP = "230.0.0.1";
+
+	/** multicast port the adapters publish (unused) events to */
+	private static final int EVENTS_PORT = 5555;
+
+	/** first command port used */
+	private static final int COMMANDS_PORT = 9401;
+
+	/** the command sent by the clients */
+	private static final String QUOTE_CMD = ProtocolConstants.GET_QUOTE_CMD + ":" + FixedPriceExchange.TICKER;
+
+	/** time allowed for the adapter to accept a connection and reply to its first command */
+	private static final int HANDSHAKE_TIMEOUT_MS = 2_000;
+
+	/** delay between connection attempts */
+	private static final int CONNECT_RETRY_MS = 20;
+
+	/** connection attempts per client, whatever made them fail, before it is counted as failed */
+	private static final int MAX_CONNECT_ATTEMPTS = 50;
+
+	/**
+	 * Not instantiable.
+	 */
+	private CommandServerBenchmark() {
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            optional: number of clients, number of commands per client
+	 * @throws Exception
+	 *             if the benchmark fails
+	 */
+	public static void main(final String[] args) throws Exception {
+		final int clients = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+		final int commandsPerClient = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		ExchangeNetworkAdapter.setShutdownTimer(1);
+
+		System.out.printf("%d concurrent clients, %d quote commands each%n", clients, commandsPerClient);
+		run("cached thread pool", Executors.newCachedThreadPool(), COMMANDS_PORT, clients, commandsPerClient);
+		run("virtual threads", Executors.newVirtualThreadPerTaskExecutor(), COMMANDS_PORT + 1, clients,
+				commandsPerClient);
+	}
+
+	/**
+	 * Runs one adapter configuration.
+	 *
+	 * @param name
+	 *            name of the configuration
+	 * @param serverThreads
+	 *            the adapter's thread pool
+	 * @param port
+	 *            the command port
+	 * @param clients
+	 *            number of concurrent clients
+	 * @param commandsPerClient
+	 *            number of commands per client
+	 * @throws Exception
+	 *             if the run fails
+	 */
+	private static void run(final String name, final ExecutorService serverThreads, final int port,
+			final int clients, final int commandsPerClient) throws Exception {
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		final ExchangeNetworkAdapter adapter = new ExchangeNetworkAdapter(new FixedPriceExchange(), EVENTS_GROUP,
+				EVENTS_PORT, port, serverThreads);
+		Thread.sleep(500); //let the listener bind
+		threads.resetPeakThreadCount();
+
+		final CountDownLatch connected = new CountDownLatch(clients);
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicLong failures = new AtomicLong();
+		final List<Future<?>> results = new ArrayList<>(clients);
+		final List<Socket> sockets = new ArrayList<>(clients);
+		long elapsedNanos;
+		try (ExecutorService clientThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < clients; i++) {
+				results.add(clientThreads.submit(() -> {
+					final Socket socket;
+					try {
+						socket = connect(port);
+					} catch (final IOException e) {
+						failures.incrementAndGet();
+						return null;
+					} finally {
+						connected.countDown();
+					}
+					synchronized (sockets) {
+						sockets.add(socket);
+					}
+					final PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+					final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+					start.await();
+					for (int c = 0; c < commandsPerClient; c++) {
+						writer.println(QUOTE_CMD);
+						if (reader.readLine() == null) {
+							failures.incrementAndGet();
+							return null;
+						}
+					}
+					return null;
+				}));
+			}
+			connected.await();
+			final long begin = System.nanoTime();
+			start.countDown();
+			for (Future<?> result : results) {
+				result.get();
+			}
+			elapsedNanos = System.nanoTime() - begin;
+		}
+		final int peakPlatformThreads = threads.getPeakThreadCount();
+		for (Socket socket : sockets) {
+			socket.close();
+		}
+		adapter.close();
+
+		final long commands = (long) clients * commandsPerClient;
+		System.out.printf("%-20s %8.0f commands/s  %6d ms  peak platform threads: %5d  failed clients: %d%n", name,
+				commands / (elapsedNanos / 1e9), elapsedNanos / 1_000_000, peakPlatformThreads, failures.get());
+	}
+
+	/**
+	 * Connects to the adapter, and waits for the reply to a first command, so the connection is
+	 * known to have been accepted. Retries while the adapter's accept backlog is overflowing, as
+	 * the kernel may then report a connection that the adapter never sees, or while the adapter
+	 * closes the connection or refuses it with [BUSY]; at most {@value #MAX_CONNECT_ATTEMPTS}
+	 * times in all.
+	 *
+	 * @param port
+	 *            the command port
+	 * @return the connected socket
+	 * @throws IOException
+	 *             if the connection cannot be established
+	 */
+	private static Socket connect(final int port) throws IOException {
+		for (int attempt = 1;; attempt++) {
+			Socket socket = null;
+			IOException failure;
+			try {
+				socket = new Socket("localhost", port);
+				socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+				final PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+				final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+				writer.println(QUOTE_CMD);
+				final String reply = reader.readLine();
+				if (reply != null && !ProtocolConstants.BUSY.toString().equals(reply)) {
+					socket.setSoTimeout(0);
+					return socket;
+				}
+				failure = new IOException(reply == null ? "Connection closed by the adapter" : "Adapter is busy");
+			} catch (final ConnectException | SocketTimeoutException e) {
+				failure = e;
+			}
+			if (socket != null) {
+				socket.close();
+			}
+			if (attempt == MAX_CONNECT_ATTEMPTS) {
+				throw failure;
+			}
+			try {
+				Thread.sleep(CONNECT_RETRY_MS);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw failure;
+			}
+		}
+	}
+
+	/**
+	 * Minimal exchange serving a single ticker at a fixed price.
+	 */
+	private static final class FixedPriceExchange implements StockExchange {
+
+		/** the only listed ticker */
+		static final String TICKER = "BA";
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public String[] getTickers() {
+			return new String[] { TICKER };
+		}
+
+		@Override
+		public StockQuote getQuote(final String ticker) {
+			return new StockQuote(ticker, 10_000);
+		}
+
+		@Override
+		public int executeTrade(final Order order) {
+			return 10_000;
+		}
+
+		@Override
+		public void addExchangeListener(final ExchangeListener listener) {
+		}
+
+		@Override
+		public void removeExchangeListener(final ExchangeListener listener) {
+		}
+	}
+}